@@ -48,6 +48,7 @@ import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -68,12 +69,14 @@ import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.util.AbstractChecker;
+import org.apache.nutch.util.HyperLogLog;
 import org.apache.nutch.util.JexlUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.SegmentReaderUtil;
 import org.apache.nutch.util.StringUtil;
 import org.apache.nutch.util.TimingUtil;
+import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -506,6 +509,101 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
     }
   }
 
+  public static class CrawlDbStatsSketchMapper
+      extends Mapper<Text, CrawlDatum, Text, CrawlDbStatsSketch> {
+    private boolean sort = false;
+    private double compression;
+    private int hllPrecision;
+    private int maxBuffered;
+    // total and per-status sketches, emitted once in cleanup
+    private Map<String, CrawlDbStatsSketch> sketches = new HashMap<>();
+    // per-host sketches, emitted when too many of them are buffered
+    private Map<String, CrawlDbStatsSketch> hostSketches = new HashMap<>();
+
+    @Override
+    public void setup(
+        Mapper<Text, CrawlDatum, Text, CrawlDbStatsSketch>.Context context) {
+      Configuration conf = context.getConfiguration();
+      sort = conf.getBoolean("db.reader.stats.sort", false);
+      compression = conf.getDouble("db.reader.stats.sketch.compression",
+          CrawlDbStatsSketch.DEFAULT_COMPRESSION);
+      hllPrecision = conf.getInt("db.reader.stats.sketch.hll.precision",
+          HyperLogLog.DEFAULT_PRECISION);
+      maxBuffered = conf.getInt("db.reader.stats.sketch.max.buffered", 1000);
+    }
+
+    @Override
+    public void map(Text key, CrawlDatum value, Context context)
+        throws IOException, InterruptedException {
+      String host = null;
+      String domain = null;
+      try {
+        URL u = new URL(key.toString());
+        host = u.getHost();
+        domain = URLUtil.getDomainName(u);
+      } catch (MalformedURLException e) {
+        LOG.error("Failed to get host from URL {}: {}", key.toString(),
+            e.getMessage());
+      }
+      // sketches are aggregated in memory, only per-host sketches may grow in
+      // number and are emitted when too many of them are buffered
+      getSketch("T", hllPrecision).add(value, host, domain);
+      getSketch("status " + value.getStatus(), hllPrecision).add(value, host,
+          domain);
+      if (sort && host != null) {
+        String hostKey = "host " + host;
+        CrawlDbStatsSketch sketch = hostSketches.get(hostKey);
+        if (sketch == null) {
+          // per-host statistics are counts only
+          sketch = CrawlDbStatsSketch.countsOnly();
+          hostSketches.put(hostKey, sketch);
+        }
+        sketch.add(value, null, null);
+        if (hostSketches.size() > maxBuffered) {
+          flush(hostSketches, context);
+        }
+      }
+    }
+
+    private CrawlDbStatsSketch getSketch(String key, int precision) {
+      CrawlDbStatsSketch sketch = sketches.get(key);
+      if (sketch == null) {
+        sketch = new CrawlDbStatsSketch(compression, precision);
+        sketches.put(key, sketch);
+      }
+      return sketch;
+    }
+
+    private void flush(Map<String, CrawlDbStatsSketch> buffered,
+        Context context) throws IOException, InterruptedException {
+      for (Map.Entry<String, CrawlDbStatsSketch> e : buffered.entrySet()) {
+        context.write(new Text(e.getKey()), e.getValue());
+      }
+      buffered.clear();
+    }
+
+    @Override
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      flush(sketches, context);
+      flush(hostSketches, context);
+    }
+  }
+
+  public static class CrawlDbStatsSketchReducer
+      extends Reducer<Text, CrawlDbStatsSketch, Text, CrawlDbStatsSketch> {
+
+    @Override
+    public void reduce(Text key, Iterable<CrawlDbStatsSketch> values,
+        Context context) throws IOException, InterruptedException {
+      CrawlDbStatsSketch merged = new CrawlDbStatsSketch();
+      for (CrawlDbStatsSketch value : values) {
+        merged.merge(value);
+      }
+      context.write(key, merged);
+    }
+  }
+
   public static class CrawlDbTopNMapper
       extends Mapper<Text, CrawlDatum, FloatWritable, Text> {
     private static final FloatWritable fw = new FloatWritable();
@@ -697,9 +795,7 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
     return stats;
   }
 
-  public void processStatJob(String crawlDb, Configuration config, boolean sort)
-      throws IOException, InterruptedException, ClassNotFoundException {
-
+  private static double[] getQuantiles(Configuration config) {
     double quantiles[] = { .01, .05, .1, .2, .25, .3, .4, .5, .6, .7, .75, .8,
         .9, .95, .99 };
     if (config.get("db.stats.score.quantiles") != null) {
@@ -727,6 +823,13 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
         Arrays.sort(quantiles);
       }
     }
+    return quantiles;
+  }
+
+  public void processStatJob(String crawlDb, Configuration config, boolean sort)
+      throws IOException, InterruptedException, ClassNotFoundException {
+
+    double quantiles[] = getQuantiles(config);
 
     LOG.info("CrawlDb statistics start: {}", crawlDb);
     TreeMap<String, Writable> stats = processStatJobHelper(crawlDb, config,
@@ -799,6 +902,151 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
     LOG.info("CrawlDb statistics: done");
   }
 
+  /**
+   * Run the CrawlDb statistics job and write mergeable statistics sketches
+   * ({@link CrawlDbStatsSketch}) into a SequenceFile in the output directory:
+   * one sketch for the entire CrawlDb (key <code>T</code>), one per status
+   * (key <code>status &lt;code&gt;</code>) and, if sort is true, one per host
+   * (key <code>host &lt;hostname&gt;</code>). The statistics are kept on disk
+   * and can be printed again by
+   * {@link #processSketchStats(String, Configuration)}.
+   */
+  public void processSketchStatJob(String crawlDb, String output,
+      Configuration config, boolean sort)
+      throws IOException, InterruptedException, ClassNotFoundException {
+    LOG.info("CrawlDb statistics start: {}", crawlDb);
+    Path outFolder = new Path(output);
+
+    Job job = Job.getInstance(config, "Nutch CrawlDbReader: " + crawlDb);
+    config = job.getConfiguration();
+    config.setBoolean("db.reader.stats.sort", sort);
+
+    FileInputFormat.addInputPath(job, new Path(crawlDb, CrawlDb.CURRENT_NAME));
+    job.setInputFormatClass(SequenceFileInputFormat.class);
+
+    job.setJarByClass(CrawlDbReader.class);
+    job.setMapperClass(CrawlDbStatsSketchMapper.class);
+    job.setCombinerClass(CrawlDbStatsSketchReducer.class);
+    job.setReducerClass(CrawlDbStatsSketchReducer.class);
+
+    FileOutputFormat.setOutputPath(job, outFolder);
+    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+    SequenceFileOutputFormat.setOutputCompressionType(job,
+        CompressionType.BLOCK);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(CrawlDbStatsSketch.class);
+
+    // https://issues.apache.org/jira/browse/NUTCH-1029
+    config.setBoolean("mapreduce.fileoutputcommitter.marksuccessfuljobs",
+        false);
+    try {
+      boolean success = job.waitForCompletion(true);
+      if (!success) {
+        String message = NutchJob.getJobFailureLogMessage("CrawlDbReader", job);
+        LOG.error(message);
+        throw new RuntimeException(message);
+      }
+    } catch (IOException | InterruptedException | ClassNotFoundException e) {
+      LOG.error(StringUtils.stringifyException(e));
+      throw e;
+    }
+
+    processSketchStats(output, config);
+  }
+
+  /**
+   * Print statistics sketches written by
+   * {@link #processSketchStatJob(String, String, Configuration, boolean)}. The
+   * output partitions are streamed, only the overall and per-status sketches
+   * are merged in memory, per-host statistics are printed as they are read.
+   */
+  public void processSketchStats(String statsDir, Configuration config)
+      throws IOException {
+    double quantiles[] = getQuantiles(config);
+    SequenceFile.Reader[] readers = SegmentReaderUtil
+        .getReaders(new Path(statsDir), config);
+
+    Text key = new Text();
+    CrawlDbStatsSketch value = new CrawlDbStatsSketch();
+    TreeMap<String, CrawlDbStatsSketch> stats = new TreeMap<>();
+    LOG.info("Statistics for CrawlDb: {}", statsDir);
+    for (SequenceFile.Reader reader : readers) {
+      try {
+        while (reader.next(key, value)) {
+          String k = key.toString();
+          if (k.startsWith("host ")) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Byte, Long> e : value.getStatusCounts().entrySet()) {
+              sb.append(' ').append(CrawlDatum.getStatusName(e.getKey()))
+                  .append('=').append(e.getValue());
+            }
+            LOG.info("   {} :\t{}\t{}", k.substring(5), value.getCount(),
+                sb.toString().trim());
+            continue;
+          }
+          CrawlDbStatsSketch sketch = stats.get(k);
+          if (sketch == null) {
+            sketch = new CrawlDbStatsSketch();
+            stats.put(k, sketch);
+          }
+          sketch.merge(value);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    CrawlDbStatsSketch total = stats.remove("T");
+    if (total == null) {
+      total = new CrawlDbStatsSketch();
+    }
+    LOG.info("TOTAL urls:\t" + total.getCount());
+    logSketch(total, quantiles);
+    for (Map.Entry<Integer, Long> e : total.getRetryCounts().entrySet()) {
+      LOG.info("retry {}:\t{}", e.getKey(), e.getValue());
+    }
+    for (Map.Entry<String, CrawlDbStatsSketch> entry : stats.entrySet()) {
+      int code = Integer.parseInt(entry.getKey().split(" ")[1]);
+      CrawlDbStatsSketch sketch = entry.getValue();
+      LOG.info("status {} ({}):\t{}", code,
+          CrawlDatum.getStatusName((byte) code), sketch.getCount());
+      logSketch(sketch, quantiles);
+    }
+    LOG.info("CrawlDb statistics: done");
+  }
+
+  private static void logSketch(CrawlDbStatsSketch sketch,
+      double[] quantiles) {
+    if (sketch.getCount() == 0) {
+      return;
+    }
+    LOG.info("   distinct hosts (estimated):\t{}", sketch.getDistinctHosts());
+    LOG.info("   distinct domains (estimated):\t{}",
+        sketch.getDistinctDomains());
+    LOG.info("   min score:\t{}", sketch.getScoreMin());
+    LOG.info("   max score:\t{}", sketch.getScoreMax());
+    LOG.info("   avg score:\t{}", sketch.getScoreAvg());
+    if (sketch.getScoreNaN() > 0) {
+      LOG.info("   score == NaN:\t{}", sketch.getScoreNaN());
+    }
+    for (double q : quantiles) {
+      LOG.info("   score quantile {}:\t{}", q, sketch.getScoreQuantile(q));
+    }
+    LOG.info("   earliest fetch time:\t{}", new Date(sketch.getFetchTimeMin()));
+    LOG.info("   latest fetch time:\t{}", new Date(sketch.getFetchTimeMax()));
+    LOG.info("   avg of fetch times:\t{}", new Date(sketch.getFetchTimeAvg()));
+    LOG.info("   shortest fetch interval:\t{}",
+        TimingUtil.secondsToDaysHMS(sketch.getFetchIntervalMin()));
+    LOG.info("   longest fetch interval:\t{}",
+        TimingUtil.secondsToDaysHMS(sketch.getFetchIntervalMax()));
+    LOG.info("   avg fetch interval:\t{}",
+        TimingUtil.secondsToDaysHMS(sketch.getFetchIntervalAvg()));
+    for (double q : quantiles) {
+      LOG.info("   fetch interval quantile {}:\t{}", q, TimingUtil
+          .secondsToDaysHMS(Math.round(sketch.getFetchIntervalQuantile(q))));
+    }
+  }
+
   public CrawlDatum get(String crawlDb, String url, Configuration config)
       throws IOException {
     Text key = new Text(url);
@@ -1037,12 +1285,18 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
 
     if (args.length < 2) {
       System.err.println(
-          "Usage: CrawlDbReader <crawldb> (-stats | -dump <out_dir> | -topN <nnnn> <out_dir> [<min>] | -url <url> | -listen <port>)");
+          "Usage: CrawlDbReader <crawldb> (-stats | -readStats <stats_dir> | -dump <out_dir> | -topN <nnnn> <out_dir> [<min>] | -url <url> | -listen <port>)");
       System.err
           .println("\t<crawldb>\tdirectory name where crawldb is located");
       System.err
           .println("\t-stats [-sort] \tprint overall statistics to System.out");
       System.err.println("\t\t[-sort]\tlist status sorted by host");
+      System.err.println(
+          "\t\t[-sketch <stats_dir>]\tkeep mergeable statistics sketches (incl. quantiles");
+      System.err.println(
+          "\t\t\tand distinct hosts/domains) in <stats_dir>");
+      System.err.println(
+          "\t-readStats <stats_dir>\tprint statistics sketches kept in <stats_dir>");
       System.err.println(
           "\t-dump <out_dir> [-format normal|csv|crawldb|json]\tdump the whole db to a text file in <out_dir>");
       System.err.println("\t\t[-format csv]\tdump in Csv format");
@@ -1080,11 +1334,26 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
     for (int i = 1; i < args.length; i++) {
       if (args[i].equals("-stats")) {
         boolean toSort = false;
-        if (i < args.length - 1 && "-sort".equals(args[i + 1])) {
-          toSort = true;
-          i++;
+        String sketchDir = null;
+        while (i < args.length - 1) {
+          if ("-sort".equals(args[i + 1])) {
+            toSort = true;
+            i++;
+          } else if ("-sketch".equals(args[i + 1]) && i < args.length - 2) {
+            sketchDir = args[i + 2];
+            i += 2;
+          } else {
+            break;
+          }
         }
-        dbr.processStatJob(crawlDb, config, toSort);
+        if (sketchDir != null) {
+          dbr.processSketchStatJob(crawlDb, sketchDir, config, toSort);
+        } else {
+          dbr.processStatJob(crawlDb, config, toSort);
+        }
+      } else if (args[i].equals("-readStats")) {
+        param = args[++i];
+        dbr.processSketchStats(param, config);
       } else if (args[i].equals("-dump")) {
         param = args[++i];
         String format = "normal";
@@ -1270,24 +1539,35 @@ public class CrawlDbReader extends AbstractChecker implements Closeable {
     if (type.equalsIgnoreCase("url")) {
       String url = args.get("url");
       CrawlDatum res = get(crawlDb, url, conf);
-      results.put("status", res.getStatus());
-      results.put("fetchTime", new Date(res.getFetchTime()));
-      results.put("modifiedTime", new Date(res.getModifiedTime()));
-      results.put("retriesSinceFetch", res.getRetriesSinceFetch());
-      results.put("retryInterval", res.getFetchInterval());
-      results.put("score", res.getScore());
-      results.put("signature", StringUtil.toHexString(res.getSignature()));
-      Map<String, String> metadata = new HashMap<>();
-      if (res.getMetaData() != null) {
-        for (Entry<Writable, Writable> e : res.getMetaData().entrySet()) {
-          metadata.put(String.valueOf(e.getKey()),
-              String.valueOf(e.getValue()));
-        }
-      }
-      results.put("metadata", metadata);
+      return datumToMap(res);
+    }
+    return results;
+  }
 
-      return results;
+  /**
+   * Convert a CrawlDatum into a map as returned by the REST service.
+   *
+   * @param res
+   *          the CrawlDatum
+   * @return map of CrawlDatum fields
+   */
+  public static Map<String, Object> datumToMap(CrawlDatum res) {
+    Map<String, Object> results = new HashMap<>();
+    results.put("status", res.getStatus());
+    results.put("fetchTime", new Date(res.getFetchTime()));
+    results.put("modifiedTime", new Date(res.getModifiedTime()));
+    results.put("retriesSinceFetch", res.getRetriesSinceFetch());
+    results.put("retryInterval", res.getFetchInterval());
+    results.put("score", res.getScore());
+    results.put("signature", StringUtil.toHexString(res.getSignature()));
+    Map<String, String> metadata = new HashMap<>();
+    if (res.getMetaData() != null) {
+      for (Entry<Writable, Writable> e : res.getMetaData().entrySet()) {
+        metadata.put(String.valueOf(e.getKey()),
+            String.valueOf(e.getValue()));
+      }
     }
+    results.put("metadata", metadata);
     return results;
   }
 }
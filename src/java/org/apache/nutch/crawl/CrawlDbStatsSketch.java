@@ -0,0 +1,449 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.nutch.util.HyperLogLog;
+
+import com.tdunning.math.stats.MergingDigest;
+
+/**
+ * Mergeable summary of a set of CrawlDb records, written by the CrawlDb
+ * statistics job (<code>readdb -stats -sketch</code>) for the entire CrawlDb,
+ * per status and (optionally) per host. Besides counts, sums and min/max values
+ * a sketch holds t-digests to estimate quantiles of score and fetch interval
+ * and (optionally) HyperLogLog estimators for the number of distinct hosts and
+ * domains. All parts can be merged, so sketches are combined map-side and
+ * partial results never need to be held in memory at once.
+ * <p>
+ * Per-host sketches are "counts-only" ({@link #countsOnly()}): they hold only
+ * the total and per-status counts, which keeps memory and shuffle volume small
+ * if there are many hosts.
+ * </p>
+ */
+public class CrawlDbStatsSketch implements Writable {
+
+  public static final double DEFAULT_COMPRESSION = 100.0;
+
+  /* only count and status counts are kept */
+  private boolean countsOnly = false;
+
+  private long count;
+  private TreeMap<Byte, Long> statusCounts = new TreeMap<>();
+  private TreeMap<Integer, Long> retryCounts = new TreeMap<>();
+
+  private long scoreNaN;
+  private float scoreMin = Float.MAX_VALUE;
+  private float scoreMax = -Float.MAX_VALUE;
+  private double scoreSum;
+
+  /** fetch time in minutes, to prevent from overflows when summing up */
+  private long fetchTimeMin = Long.MAX_VALUE;
+  private long fetchTimeMax = Long.MIN_VALUE;
+  private long fetchTimeSum;
+
+  /** fetch interval in seconds */
+  private long fetchIntervalMin = Long.MAX_VALUE;
+  private long fetchIntervalMax = Long.MIN_VALUE;
+  private long fetchIntervalSum;
+
+  private double compression = DEFAULT_COMPRESSION;
+  private MergingDigest scoreDigest;
+  private MergingDigest fetchIntervalDigest;
+
+  private HyperLogLog hosts;
+  private HyperLogLog domains;
+
+  public CrawlDbStatsSketch() {
+  }
+
+  /**
+   * @param compression
+   *          compression of the t-digests
+   * @param hllPrecision
+   *          precision of the HyperLogLog estimators for hosts and domains, or
+   *          0 to not count distinct hosts and domains
+   */
+  public CrawlDbStatsSketch(double compression, int hllPrecision) {
+    this.compression = compression;
+    if (hllPrecision > 0) {
+      hosts = new HyperLogLog(hllPrecision);
+      domains = new HyperLogLog(hllPrecision);
+    }
+  }
+
+  /**
+   * @return a sketch holding only the total and per-status counts
+   */
+  public static CrawlDbStatsSketch countsOnly() {
+    CrawlDbStatsSketch sketch = new CrawlDbStatsSketch();
+    sketch.countsOnly = true;
+    return sketch;
+  }
+
+  /** @return true if the sketch holds only the total and per-status counts */
+  public boolean isCountsOnly() {
+    return countsOnly;
+  }
+
+  /**
+   * Add a CrawlDb record to the sketch.
+   *
+   * @param datum
+   *          the CrawlDatum
+   * @param host
+   *          host name of the URL, ignored if null
+   * @param domain
+   *          domain name of the URL, ignored if null
+   */
+  public void add(CrawlDatum datum, String host, String domain) {
+    count++;
+    statusCounts.merge(datum.getStatus(), 1L, Long::sum);
+    if (countsOnly) {
+      return;
+    }
+    retryCounts.merge((int) datum.getRetriesSinceFetch(), 1L, Long::sum);
+
+    float score = datum.getScore();
+    if (Float.isNaN(score)) {
+      scoreNaN++;
+    } else {
+      scoreMin = Math.min(scoreMin, score);
+      scoreMax = Math.max(scoreMax, score);
+      scoreSum += score;
+      getScoreDigest().add(score);
+    }
+
+    long fetchTime = datum.getFetchTime() / (1000 * 60);
+    fetchTimeMin = Math.min(fetchTimeMin, fetchTime);
+    fetchTimeMax = Math.max(fetchTimeMax, fetchTime);
+    fetchTimeSum += fetchTime;
+
+    long fetchInterval = datum.getFetchInterval();
+    fetchIntervalMin = Math.min(fetchIntervalMin, fetchInterval);
+    fetchIntervalMax = Math.max(fetchIntervalMax, fetchInterval);
+    fetchIntervalSum += fetchInterval;
+    getFetchIntervalDigest().add(fetchInterval);
+
+    if (hosts != null && host != null) {
+      hosts.add(host);
+    }
+    if (domains != null && domain != null) {
+      domains.add(domain);
+    }
+  }
+
+  /**
+   * Merge another sketch into this one. If one of the sketches is counts-only,
+   * the merged sketch is counts-only as well.
+   *
+   * @param other
+   *          sketch to merge
+   */
+  public void merge(CrawlDbStatsSketch other) {
+    if (count == 0) {
+      countsOnly = other.countsOnly;
+    } else if (other.countsOnly && !countsOnly) {
+      countsOnly = true;
+      clearSummaries();
+    }
+    if (scoreDigest == null && fetchIntervalDigest == null) {
+      compression = other.compression;
+    }
+    count += other.count;
+    for (Map.Entry<Byte, Long> e : other.statusCounts.entrySet()) {
+      statusCounts.merge(e.getKey(), e.getValue(), Long::sum);
+    }
+    if (countsOnly) {
+      return;
+    }
+    for (Map.Entry<Integer, Long> e : other.retryCounts.entrySet()) {
+      retryCounts.merge(e.getKey(), e.getValue(), Long::sum);
+    }
+    scoreNaN += other.scoreNaN;
+    scoreMin = Math.min(scoreMin, other.scoreMin);
+    scoreMax = Math.max(scoreMax, other.scoreMax);
+    scoreSum += other.scoreSum;
+    fetchTimeMin = Math.min(fetchTimeMin, other.fetchTimeMin);
+    fetchTimeMax = Math.max(fetchTimeMax, other.fetchTimeMax);
+    fetchTimeSum += other.fetchTimeSum;
+    fetchIntervalMin = Math.min(fetchIntervalMin, other.fetchIntervalMin);
+    fetchIntervalMax = Math.max(fetchIntervalMax, other.fetchIntervalMax);
+    fetchIntervalSum += other.fetchIntervalSum;
+    if (other.scoreDigest != null) {
+      getScoreDigest().add(other.scoreDigest);
+    }
+    if (other.fetchIntervalDigest != null) {
+      getFetchIntervalDigest().add(other.fetchIntervalDigest);
+    }
+    hosts = merge(hosts, other.hosts);
+    domains = merge(domains, other.domains);
+  }
+
+  /* reset all fields except the counts */
+  private void clearSummaries() {
+    retryCounts.clear();
+    scoreNaN = 0;
+    scoreMin = Float.MAX_VALUE;
+    scoreMax = -Float.MAX_VALUE;
+    scoreSum = 0;
+    fetchTimeMin = Long.MAX_VALUE;
+    fetchTimeMax = Long.MIN_VALUE;
+    fetchTimeSum = 0;
+    fetchIntervalMin = Long.MAX_VALUE;
+    fetchIntervalMax = Long.MIN_VALUE;
+    fetchIntervalSum = 0;
+    scoreDigest = null;
+    fetchIntervalDigest = null;
+    hosts = null;
+    domains = null;
+  }
+
+  private static HyperLogLog merge(HyperLogLog hll, HyperLogLog other) {
+    if (other == null) {
+      return hll;
+    }
+    if (hll == null) {
+      hll = new HyperLogLog(other.getPrecision());
+    }
+    hll.merge(other);
+    return hll;
+  }
+
+  private MergingDigest getScoreDigest() {
+    if (scoreDigest == null) {
+      scoreDigest = new MergingDigest(compression);
+    }
+    return scoreDigest;
+  }
+
+  private MergingDigest getFetchIntervalDigest() {
+    if (fetchIntervalDigest == null) {
+      fetchIntervalDigest = new MergingDigest(compression);
+    }
+    return fetchIntervalDigest;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /** @return number of records per CrawlDatum status */
+  public Map<Byte, Long> getStatusCounts() {
+    return statusCounts;
+  }
+
+  /** @return number of records per retry count */
+  public Map<Integer, Long> getRetryCounts() {
+    return retryCounts;
+  }
+
+  public long getScoreNaN() {
+    return scoreNaN;
+  }
+
+  public float getScoreMin() {
+    return scoreMin;
+  }
+
+  public float getScoreMax() {
+    return scoreMax;
+  }
+
+  /** @return average score of all records with a score other than NaN */
+  public double getScoreAvg() {
+    long n = count - scoreNaN;
+    return n == 0 ? Double.NaN : scoreSum / n;
+  }
+
+  /**
+   * @param q
+   *          quantile in range [0,1]
+   * @return estimated score quantile, NaN if the sketch holds no scores
+   */
+  public double getScoreQuantile(double q) {
+    if (scoreDigest == null) {
+      return Double.NaN;
+    }
+    return scoreDigest.quantile(q);
+  }
+
+  /** @return earliest fetch time in milliseconds */
+  public long getFetchTimeMin() {
+    return fetchTimeMin * 1000 * 60;
+  }
+
+  /** @return latest fetch time in milliseconds */
+  public long getFetchTimeMax() {
+    return fetchTimeMax * 1000 * 60;
+  }
+
+  /** @return average of fetch times in milliseconds */
+  public long getFetchTimeAvg() {
+    return count == 0 ? 0 : (fetchTimeSum / count) * 1000 * 60;
+  }
+
+  /** @return shortest fetch interval in seconds */
+  public long getFetchIntervalMin() {
+    return fetchIntervalMin;
+  }
+
+  /** @return longest fetch interval in seconds */
+  public long getFetchIntervalMax() {
+    return fetchIntervalMax;
+  }
+
+  /** @return average fetch interval in seconds */
+  public long getFetchIntervalAvg() {
+    return count == 0 ? 0 : fetchIntervalSum / count;
+  }
+
+  /**
+   * @param q
+   *          quantile in range [0,1]
+   * @return estimated fetch interval quantile (in seconds), NaN if the sketch
+   *         is empty
+   */
+  public double getFetchIntervalQuantile(double q) {
+    if (fetchIntervalDigest == null) {
+      return Double.NaN;
+    }
+    return fetchIntervalDigest.quantile(q);
+  }
+
+  /** @return estimated number of distinct hosts or -1 if not counted */
+  public long getDistinctHosts() {
+    return hosts == null ? -1 : hosts.cardinality();
+  }
+
+  /** @return estimated number of distinct domains or -1 if not counted */
+  public long getDistinctDomains() {
+    return domains == null ? -1 : domains.cardinality();
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeBoolean(countsOnly);
+    WritableUtils.writeVLong(out, count);
+    WritableUtils.writeVInt(out, statusCounts.size());
+    for (Map.Entry<Byte, Long> e : statusCounts.entrySet()) {
+      out.writeByte(e.getKey());
+      WritableUtils.writeVLong(out, e.getValue());
+    }
+    if (countsOnly) {
+      return;
+    }
+    WritableUtils.writeVInt(out, retryCounts.size());
+    for (Map.Entry<Integer, Long> e : retryCounts.entrySet()) {
+      WritableUtils.writeVInt(out, e.getKey());
+      WritableUtils.writeVLong(out, e.getValue());
+    }
+    WritableUtils.writeVLong(out, scoreNaN);
+    out.writeFloat(scoreMin);
+    out.writeFloat(scoreMax);
+    out.writeDouble(scoreSum);
+    WritableUtils.writeVLong(out, fetchTimeMin);
+    WritableUtils.writeVLong(out, fetchTimeMax);
+    WritableUtils.writeVLong(out, fetchTimeSum);
+    WritableUtils.writeVLong(out, fetchIntervalMin);
+    WritableUtils.writeVLong(out, fetchIntervalMax);
+    WritableUtils.writeVLong(out, fetchIntervalSum);
+    out.writeDouble(compression);
+    writeDigest(out, scoreDigest);
+    writeDigest(out, fetchIntervalDigest);
+    out.writeBoolean(hosts != null);
+    if (hosts != null) {
+      hosts.write(out);
+      domains.write(out);
+    }
+  }
+
+  private static void writeDigest(DataOutput out, MergingDigest digest)
+      throws IOException {
+    if (digest == null) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(digest.smallByteSize());
+    digest.asSmallBytes(buf);
+    WritableUtils.writeVInt(out, buf.position());
+    out.write(buf.array(), 0, buf.position());
+  }
+
+  private static MergingDigest readDigest(DataInput in) throws IOException {
+    int length = WritableUtils.readVInt(in);
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return MergingDigest.fromBytes(ByteBuffer.wrap(bytes));
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    countsOnly = in.readBoolean();
+    count = WritableUtils.readVLong(in);
+    statusCounts.clear();
+    int n = WritableUtils.readVInt(in);
+    for (int i = 0; i < n; i++) {
+      statusCounts.put(in.readByte(), WritableUtils.readVLong(in));
+    }
+    if (countsOnly) {
+      clearSummaries();
+      return;
+    }
+    retryCounts.clear();
+    n = WritableUtils.readVInt(in);
+    for (int i = 0; i < n; i++) {
+      retryCounts.put(WritableUtils.readVInt(in), WritableUtils.readVLong(in));
+    }
+    scoreNaN = WritableUtils.readVLong(in);
+    scoreMin = in.readFloat();
+    scoreMax = in.readFloat();
+    scoreSum = in.readDouble();
+    fetchTimeMin = WritableUtils.readVLong(in);
+    fetchTimeMax = WritableUtils.readVLong(in);
+    fetchTimeSum = WritableUtils.readVLong(in);
+    fetchIntervalMin = WritableUtils.readVLong(in);
+    fetchIntervalMax = WritableUtils.readVLong(in);
+    fetchIntervalSum = WritableUtils.readVLong(in);
+    compression = in.readDouble();
+    scoreDigest = readDigest(in);
+    fetchIntervalDigest = readDigest(in);
+    if (in.readBoolean()) {
+      if (hosts == null) {
+        hosts = new HyperLogLog();
+        domains = new HyperLogLog();
+      }
+      hosts.readFields(in);
+      domains.readFields(in);
+    } else {
+      hosts = null;
+      domains = null;
+    }
+  }
+
+}
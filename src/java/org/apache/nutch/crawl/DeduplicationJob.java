@@ -272,10 +272,25 @@ public class DeduplicationJob extends NutchTool implements Tool {
     }
   }
 
+  /**
+   * Set the mapper and reducer (and the map output classes) of the job which
+   * groups CrawlDb entries and marks duplicates.
+   * 
+   * @param job
+   *          the deduplication job
+   */
+  protected void configureDeduplication(Job job) {
+    job.setMapOutputKeyClass(BytesWritable.class);
+    job.setMapOutputValueClass(CrawlDatum.class);
+
+    job.setMapperClass(DBFilter.class);
+    job.setReducerClass(DedupReducer.class);
+  }
+
   @Override
   public int run(String[] args) throws IOException {
     if (args.length < 1) {
-      System.err.println("Usage: DeduplicationJob <crawldb> [-group <none|host|domain>] [-compareOrder <score>,<fetchTime>,<httpsOverHttp>,<urlLength>]");
+      System.err.println("Usage: " + getClass().getSimpleName() + " <crawldb> [-group <none|host|domain>] [-compareOrder <score>,<fetchTime>,<httpsOverHttp>,<urlLength>]");
       return 1;
     }
 
@@ -317,14 +332,10 @@ public class DeduplicationJob extends NutchTool implements Tool {
     FileOutputFormat.setOutputPath(job, tempDir);
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
 
-    job.setMapOutputKeyClass(BytesWritable.class);
-    job.setMapOutputValueClass(CrawlDatum.class);
-
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(CrawlDatum.class);
 
-    job.setMapperClass(DBFilter.class);
-    job.setReducerClass(DedupReducer.class);
+    configureDeduplication(job);
 
     FileSystem fs = tempDir.getFileSystem(getConf());
     try {
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * <p>
+ * Deduplicator which marks near-duplicates based on the SimHash signatures
+ * calculated by {@link SimHashSignature} (set <code>db.signature.class</code>
+ * to <code>org.apache.nutch.crawl.SimHashSignature</code>). Two documents are
+ * near-duplicates if their signatures differ in at most
+ * <code>dedup.simhash.max.distance</code> bits.
+ * </p>
+ * <p>
+ * To avoid comparing all pairs of documents, the 64-bit signatures are split
+ * into <code>max.distance + 1</code> bands (locality-sensitive hashing). By
+ * the pigeonhole principle two signatures within the maximum distance share
+ * at least one band, so every document is emitted once per band and only the
+ * documents in the same bucket (same band value, optionally same host or
+ * domain) are compared. Within a bucket the same order as in
+ * {@link DeduplicationJob} decides which document is kept (see
+ * {@link DedupReducer#getDuplicate(CrawlDatum, CrawlDatum)}), all others are
+ * marked as duplicate.
+ * </p>
+ * <p>
+ * Buckets with more than <code>dedup.lsh.max.bucket.size</code> documents are
+ * truncated to bound the cost of the pairwise comparisons.
+ * </p>
+ */
+public class NearDuplicateDeduplicationJob extends DeduplicationJob {
+
+  protected final static String MAX_DISTANCE = "dedup.simhash.max.distance";
+  protected final static String MAX_BUCKET_SIZE = "dedup.lsh.max.bucket.size";
+
+  protected final static String COUNTER_GROUP = "DeduplicationJobStatus";
+
+  public static class LSHBandMapper
+      extends Mapper<Text, CrawlDatum, BytesWritable, CrawlDatum> {
+
+    private String groupMode;
+    private int bands;
+
+    @Override
+    public void setup(
+        Mapper<Text, CrawlDatum, BytesWritable, CrawlDatum>.Context context) {
+      Configuration conf = context.getConfiguration();
+      groupMode = conf.get(DEDUPLICATION_GROUP_MODE, "none");
+      bands = Math.min(64, Math.max(1, conf.getInt(MAX_DISTANCE, 3) + 1));
+    }
+
+    @Override
+    public void map(Text key, CrawlDatum value, Context context)
+        throws IOException, InterruptedException {
+      if (value.getStatus() != CrawlDatum.STATUS_DB_FETCHED
+          && value.getStatus() != CrawlDatum.STATUS_DB_NOTMODIFIED) {
+        return;
+      }
+      byte[] signature = value.getSignature();
+      if (signature == null
+          || signature.length != SimHashSignature.SIGNATURE_LENGTH) {
+        context.getCounter(COUNTER_GROUP, "Documents without SimHash signature")
+            .increment(1);
+        return;
+      }
+      long simHash = SimHashSignature.toLong(signature);
+      String url = key.toString();
+      String groupName;
+      switch (groupMode) {
+      case "host":
+        groupName = URLUtil.getHost(url);
+        break;
+      case "domain":
+        try {
+          groupName = URLUtil.getDomainName(url);
+        } catch (MalformedURLException e) {
+          groupName = null;
+        }
+        if (groupName == null) {
+          // no domain name, e.g. IP address: group by host
+          groupName = URLUtil.getHost(url);
+        }
+        break;
+      default:
+        groupName = "";
+      }
+      if (groupName == null) {
+        // not a valid URL
+        context.getCounter(COUNTER_GROUP, "Documents without host or domain")
+            .increment(1);
+        return;
+      }
+      byte[] group = groupName.getBytes(StandardCharsets.UTF_8);
+      // add the URL as a temporary MD
+      value.getMetaData().put(urlKey, key);
+      for (int b = 0; b < bands; b++) {
+        int start = (b * 64) / bands;
+        int end = ((b + 1) * 64) / bands;
+        long band = (simHash >>> start);
+        if (end - start < 64) {
+          band &= (1L << (end - start)) - 1;
+        }
+        // bucket key: band index, band value, group (host or domain)
+        byte[] bucket = new byte[9 + group.length];
+        bucket[0] = (byte) b;
+        System.arraycopy(SimHashSignature.toBytes(band), 0, bucket, 1, 8);
+        System.arraycopy(group, 0, bucket, 9, group.length);
+        context.write(new BytesWritable(bucket), value);
+      }
+    }
+  }
+
+  /**
+   * Verifies the Hamming distance between the documents of one bucket. A
+   * document may be marked as duplicate in more than one bucket, the
+   * duplicates are merged when the CrawlDb is updated.
+   */
+  public static class NearDuplicateReducer extends DedupReducer<BytesWritable> {
+
+    private int maxDistance;
+    private int maxBucketSize;
+
+    @Override
+    public void setup(
+        Reducer<BytesWritable, CrawlDatum, Text, CrawlDatum>.Context context) {
+      super.setup(context);
+      Configuration conf = context.getConfiguration();
+      maxDistance = conf.getInt(MAX_DISTANCE, 3);
+      maxBucketSize = conf.getInt(MAX_BUCKET_SIZE, 1000);
+    }
+
+    @Override
+    public void reduce(BytesWritable key, Iterable<CrawlDatum> values,
+        Context context) throws IOException, InterruptedException {
+      // documents of the bucket not (yet) marked as duplicate
+      List<CrawlDatum> kept = new ArrayList<>();
+      List<Long> keptSignatures = new ArrayList<>();
+      int size = 0;
+      for (CrawlDatum value : values) {
+        if (++size > maxBucketSize) {
+          context.getCounter(COUNTER_GROUP, "Buckets truncated").increment(1);
+          break;
+        }
+        CrawlDatum newDoc = new CrawlDatum();
+        newDoc.set(value);
+        long simHash = SimHashSignature.toLong(newDoc.getSignature());
+        boolean isDuplicate = false;
+        for (int i = 0; i < kept.size(); i++) {
+          if (SimHashSignature.hammingDistance(simHash,
+              keptSignatures.get(i)) > maxDistance) {
+            continue;
+          }
+          CrawlDatum existingDoc = kept.get(i);
+          CrawlDatum duplicate = getDuplicate(existingDoc, newDoc);
+          if (duplicate == newDoc) {
+            writeOutAsDuplicate(newDoc, context);
+            isDuplicate = true;
+            break;
+          } else if (duplicate == existingDoc) {
+            writeOutAsDuplicate(existingDoc, context);
+            kept.remove(i);
+            keptSignatures.remove(i);
+            i--;
+          }
+        }
+        if (!isDuplicate) {
+          kept.add(newDoc);
+          keptSignatures.add(simHash);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void configureDeduplication(Job job) {
+    job.setMapOutputKeyClass(BytesWritable.class);
+    job.setMapOutputValueClass(CrawlDatum.class);
+
+    job.setMapperClass(LSHBandMapper.class);
+    job.setReducerClass(NearDuplicateReducer.class);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int result = ToolRunner.run(NutchConfiguration.create(),
+        new NearDuplicateDeduplicationJob(), args);
+    System.exit(result);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.protocol.Content;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * A page signature for near-duplicate detection: a 64-bit SimHash (Charikar
+ * 2002) of the plain text of a page. Pages with similar text get signatures
+ * which differ only in a few bits, the number of differing bits (Hamming
+ * distance) is used by {@link NearDuplicateDeduplicationJob} to detect
+ * near-duplicates.
+ * </p>
+ * <p>
+ * The text is split into tokens the same way as done by
+ * {@link TextProfileSignature}: all characters except letters and digits are
+ * removed, characters are lower-cased and tokens equal or shorter than
+ * <code>db.signature.simhash.min_token_len</code> are discarded. If
+ * <code>db.signature.simhash.skip_digits</code> is true, tokens consisting
+ * only of digits (counters, dates, etc.) are discarded as well. Every token
+ * is hashed to 64 bits and weighted by its frequency.
+ * </p>
+ * <p>
+ * The signature is stored as 8 bytes (big endian). If a page has no text, the
+ * first 8 bytes of the MD5 hash of the content are used.
+ * </p>
+ */
+public class SimHashSignature extends Signature {
+
+  /** Length of SimHash signatures in bytes */
+  public static final int SIGNATURE_LENGTH = 8;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private int minTokenLength = 2;
+  private boolean skipDigits = true;
+
+  @Override
+  public void setConf(Configuration conf) {
+    super.setConf(conf);
+    minTokenLength = conf.getInt("db.signature.simhash.min_token_len", 2);
+    skipDigits = conf.getBoolean("db.signature.simhash.skip_digits", true);
+  }
+
+  @Override
+  public byte[] calculate(Content content, Parse parse) {
+    String text = null;
+    if (parse != null)
+      text = parse.getText();
+    Map<String, Integer> tokens = new HashMap<>();
+    if (text != null) {
+      tokenize(text, tokens);
+    }
+    if (tokens.isEmpty()) {
+      byte[] data = content.getContent();
+      if (data == null) {
+        data = content.getUrl().getBytes(StandardCharsets.UTF_8);
+      }
+      return toBytes(toLong(MD5Hash.digest(data).getDigest()));
+    }
+    return toBytes(simHash(tokens));
+  }
+
+  private void tokenize(String text, Map<String, Integer> tokens) {
+    StringBuilder curToken = new StringBuilder();
+    boolean digitsOnly = true;
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        curToken.append(Character.toLowerCase(c));
+        digitsOnly &= Character.isDigit(c);
+      } else if (curToken.length() > 0) {
+        if (curToken.length() > minTokenLength
+            && !(skipDigits && digitsOnly)) {
+          tokens.merge(curToken.toString(), 1, Integer::sum);
+        }
+        curToken.setLength(0);
+        digitsOnly = true;
+      }
+    }
+  }
+
+  /**
+   * Calculate the SimHash of weighted features.
+   *
+   * @param features
+   *          map of features and their weights
+   * @return 64-bit SimHash
+   */
+  public static long simHash(Map<String, Integer> features) {
+    long[] weights = new long[64];
+    for (Map.Entry<String, Integer> e : features.entrySet()) {
+      long hash = HASH.hashString(e.getKey(), StandardCharsets.UTF_8)
+          .asLong();
+      int weight = e.getValue();
+      for (int bit = 0; bit < 64; bit++) {
+        if (((hash >>> bit) & 1L) == 1L) {
+          weights[bit] += weight;
+        } else {
+          weights[bit] -= weight;
+        }
+      }
+    }
+    long simHash = 0L;
+    for (int bit = 0; bit < 64; bit++) {
+      if (weights[bit] > 0) {
+        simHash |= (1L << bit);
+      }
+    }
+    return simHash;
+  }
+
+  /**
+   * @return number of bits which differ in the two signatures
+   */
+  public static int hammingDistance(long sig1, long sig2) {
+    return Long.bitCount(sig1 ^ sig2);
+  }
+
+  /**
+   * @param signature
+   *          signature bytes (at least 8, big endian)
+   * @return the first 8 bytes of the signature as long
+   */
+  public static long toLong(byte[] signature) {
+    long value = 0L;
+    for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+      value = (value << 8) | (signature[i] & 0xff);
+    }
+    return value;
+  }
+
+  /**
+   * @param value
+   *          SimHash value
+   * @return the value as 8 bytes (big endian)
+   */
+  public static byte[] toBytes(long value) {
+    byte[] bytes = new byte[SIGNATURE_LENGTH];
+    for (int i = SIGNATURE_LENGTH - 1; i >= 0; i--) {
+      bytes[i] = (byte) value;
+      value >>>= 8;
+    }
+    return bytes;
+  }
+}
@@ -20,7 +20,10 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -83,14 +86,35 @@ public class TextProfileSignature extends Signature {
         "db.signature.text_profile.sec_sort_lex", true);
   }
 
+  /**
+   * Per-thread state to calculate the profile and its hash, reused for all
+   * pages processed by the thread
+   */
+  private static final ThreadLocal<TokenProfile> PROFILE = ThreadLocal
+      .withInitial(TokenProfile::new);
+
   @Override
   public byte[] calculate(Content content, Parse parse) {
-    HashMap<String, Token> tokens = new HashMap<>();
     String text = null;
     if (parse != null)
       text = parse.getText();
     if (text == null || text.length() == 0)
       return fallback.calculate(content, parse);
+    if (!secondaryLexicographicSorting) {
+      // tokens of equal frequency are kept in hash map order
+      return calculateByStrings(text);
+    }
+    return PROFILE.get().calculate(text, MIN_TOKEN_LEN, QUANT_RATE);
+  }
+
+  /**
+   * Calculate the signature using a map of String tokens and building the
+   * profile as String. Used if tokens of equal frequency are not sorted
+   * lexicographically, otherwise equivalent to
+   * {@link TokenProfile#calculate(String, int, float)}.
+   */
+  byte[] calculateByStrings(String text) {
+    HashMap<String, Token> tokens = new HashMap<>();
     StringBuffer curToken = new StringBuffer();
     int maxFreq = 0;
     for (int i = 0; i < text.length(); i++) {
@@ -160,6 +184,274 @@ public class TextProfileSignature extends Signature {
     return MD5Hash.digest(newText.toString()).getDigest();
   }
 
+  /**
+   * Calculates the profile without creating objects per token: token
+   * characters are kept in a single char buffer, tokens are counted in an
+   * open-addressing hash table of token indexes and the profile lines are
+   * passed incrementally to the MD5 digest.
+   */
+  private static class TokenProfile {
+
+    private final MessageDigest md5;
+
+    /** characters of all distinct tokens */
+    private char[] chars = new char[4096];
+    private int charsLength;
+
+    /** start, length and count of distinct tokens */
+    private int[] tokenStart = new int[1024];
+    private int[] tokenLength = new int[1024];
+    private int[] tokenCount = new int[1024];
+    private int numTokens;
+
+    /** hash table of token index + 1, 0 marks an empty slot */
+    private int[] table = new int[2048];
+
+    /** tokens of the profile */
+    private int[] profile = new int[1024];
+
+    /** buffer of bytes passed to the digest */
+    private final byte[] buf = new byte[1024];
+    private int bufLength;
+
+    private TokenProfile() {
+      try {
+        md5 = MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private byte[] calculate(String text, int minTokenLen, float quantRate) {
+      reset();
+      int maxFreq = 0;
+      int curLength = 0;
+      int textLength = text.length();
+      for (int i = 0; i <= textLength; i++) {
+        char c = i < textLength ? text.charAt(i) : ' ';
+        if (Character.isLetterOrDigit(c)) {
+          if (charsLength + curLength == chars.length) {
+            chars = Arrays.copyOf(chars, 2 * chars.length);
+          }
+          chars[charsLength + curLength++] = Character.toLowerCase(c);
+        } else if (curLength > 0) {
+          if (curLength > minTokenLen) {
+            // may grow the token arrays
+            int t = addToken(curLength);
+            int cnt = ++tokenCount[t];
+            if (cnt > maxFreq)
+              maxFreq = cnt;
+          }
+          curLength = 0;
+        }
+      }
+      // calculate the QUANT value
+      int quant = Math.round(maxFreq * quantRate);
+      if (quant < 2) {
+        if (maxFreq > 1)
+          quant = 2;
+        else
+          quant = 1;
+      }
+      if (profile.length < numTokens) {
+        profile = new int[tokenStart.length];
+      }
+      int profileLength = 0;
+      for (int t = 0; t < numTokens; t++) {
+        // round down to the nearest QUANT
+        int cnt = (tokenCount[t] / quant) * quant;
+        // discard the frequencies below the QUANT
+        if (cnt < quant) {
+          continue;
+        }
+        tokenCount[t] = cnt;
+        profile[profileLength++] = t;
+      }
+      sort(0, profileLength - 1);
+      md5.reset();
+      for (int p = 0; p < profileLength; p++) {
+        int t = profile[p];
+        if (p > 0) {
+          put('\n');
+        }
+        for (int i = tokenStart[t], end = i + tokenLength[t]; i < end; i++) {
+          put(chars[i]);
+        }
+        put(' ');
+        putInt(tokenCount[t]);
+      }
+      md5.update(buf, 0, bufLength);
+      return md5.digest();
+    }
+
+    private void reset() {
+      if (numTokens > 0) {
+        if (table.length > (1 << 16) && 8 * numTokens < table.length) {
+          // do not clear a large table (sized for a large page) repeatedly
+          table = new int[2048];
+        } else {
+          Arrays.fill(table, 0);
+        }
+        Arrays.fill(tokenCount, 0, numTokens, 0);
+      }
+      numTokens = 0;
+      charsLength = 0;
+      bufLength = 0;
+    }
+
+    /**
+     * Look up the token at the end of the char buffer, add it if not found.
+     *
+     * @return index of the token
+     */
+    private int addToken(int length) {
+      int hash = 0;
+      for (int i = charsLength, end = charsLength + length; i < end; i++) {
+        hash = 31 * hash + chars[i];
+      }
+      hash ^= (hash >>> 16);
+      int mask = table.length - 1;
+      int slot = hash & mask;
+      while (table[slot] != 0) {
+        int t = table[slot] - 1;
+        if (tokenLength[t] == length && Arrays.equals(chars, tokenStart[t],
+            tokenStart[t] + length, chars, charsLength, charsLength + length)) {
+          return t;
+        }
+        slot = (slot + 1) & mask;
+      }
+      int t = numTokens++;
+      if (t == tokenStart.length) {
+        tokenStart = Arrays.copyOf(tokenStart, 2 * t);
+        tokenLength = Arrays.copyOf(tokenLength, 2 * t);
+        tokenCount = Arrays.copyOf(tokenCount, 2 * t);
+      }
+      tokenStart[t] = charsLength;
+      tokenLength[t] = length;
+      charsLength += length;
+      table[slot] = t + 1;
+      if (2 * numTokens > table.length) {
+        rehash();
+      }
+      return t;
+    }
+
+    private void rehash() {
+      table = new int[2 * table.length];
+      int mask = table.length - 1;
+      for (int t = 0; t < numTokens; t++) {
+        int hash = 0;
+        for (int i = tokenStart[t], end = i + tokenLength[t]; i < end; i++) {
+          hash = 31 * hash + chars[i];
+        }
+        hash ^= (hash >>> 16);
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        table[slot] = t + 1;
+      }
+    }
+
+    /**
+     * Order of tokens: decreasing frequency, then lexicographic (same as
+     * {@link String#compareTo(String)})
+     */
+    private int compare(int t1, int t2) {
+      int diffCnt = tokenCount[t2] - tokenCount[t1];
+      if (diffCnt != 0) {
+        return diffCnt;
+      }
+      int len1 = tokenLength[t1];
+      int len2 = tokenLength[t2];
+      int start1 = tokenStart[t1];
+      int start2 = tokenStart[t2];
+      for (int i = 0, n = Math.min(len1, len2); i < n; i++) {
+        char c1 = chars[start1 + i];
+        char c2 = chars[start2 + i];
+        if (c1 != c2) {
+          return c1 - c2;
+        }
+      }
+      return len1 - len2;
+    }
+
+    /** Quicksort of the profile tokens, tokens are distinct */
+    private void sort(int lo, int hi) {
+      while (lo < hi) {
+        if (hi - lo < 16) {
+          for (int i = lo + 1; i <= hi; i++) {
+            int t = profile[i];
+            int j = i - 1;
+            while (j >= lo && compare(profile[j], t) > 0) {
+              profile[j + 1] = profile[j];
+              j--;
+            }
+            profile[j + 1] = t;
+          }
+          return;
+        }
+        int pivot = profile[(lo + hi) >>> 1];
+        int i = lo;
+        int j = hi;
+        while (i <= j) {
+          while (compare(profile[i], pivot) < 0)
+            i++;
+          while (compare(profile[j], pivot) > 0)
+            j--;
+          if (i <= j) {
+            int tmp = profile[i];
+            profile[i++] = profile[j];
+            profile[j--] = tmp;
+          }
+        }
+        // recurse into the smaller part
+        if (j - lo < hi - i) {
+          sort(lo, j);
+          lo = i;
+        } else {
+          sort(i, hi);
+          hi = j;
+        }
+      }
+    }
+
+    /** Add a char, encoded as done by {@link org.apache.hadoop.io.UTF8} */
+    private void put(char c) {
+      if (bufLength > buf.length - 3) {
+        md5.update(buf, 0, bufLength);
+        bufLength = 0;
+      }
+      if (c <= 0x7F) {
+        buf[bufLength++] = (byte) c;
+      } else if (c <= 0x07FF) {
+        buf[bufLength++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+        buf[bufLength++] = (byte) (0x80 | (c & 0x3F));
+      } else {
+        buf[bufLength++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+        buf[bufLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[bufLength++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    /** Add the decimal representation of a positive int */
+    private void putInt(int value) {
+      int digits = 1;
+      for (int v = value; v >= 10; v /= 10) {
+        digits++;
+      }
+      if (bufLength > buf.length - digits) {
+        md5.update(buf, 0, bufLength);
+        bufLength = 0;
+      }
+      for (int i = bufLength + digits - 1; i >= bufLength; i--) {
+        buf[i] = (byte) ('0' + (value % 10));
+        value /= 10;
+      }
+      bufLength += digits;
+    }
+  }
+
   private static class Token {
     public int cnt;
     public String val;
@@ -24,6 +24,7 @@ import java.util.Locale;
 
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.DNSCache;
 import org.apache.nutch.util.URLUtil;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
@@ -86,6 +87,23 @@ public class FetchItem {
    */
   public static FetchItem create(Text url, CrawlDatum datum,
       String queueMode, int outlinkDepth) {
+    return create(url, datum, queueMode, outlinkDepth, null);
+  }
+
+  /**
+   * Create an item. Queue id will be created based on <code>queueMode</code>
+   * argument, either as a protocol + hostname pair, protocol + IP address
+   * pair or protocol+domain pair. Configurable outlink depth.
+   * @param url URL of fetch item
+   * @param datum webpage information associated with the URL
+   * @param queueMode either byHost, byDomain or byIP
+   * @param outlinkDepth the desired depth of outlink for this given FetchItem
+   * @param dnsCache DNS cache used to resolve the host name in byIP mode, if
+   * null the host name is resolved by the JVM
+   * @return a {@link FetchItem}
+   */
+  public static FetchItem create(Text url, CrawlDatum datum,
+      String queueMode, int outlinkDepth, DNSCache dnsCache) {
     URL u = null;
     try {
       u = new URL(url.toString());
@@ -93,10 +111,33 @@ public class FetchItem {
       LOG.warn("Cannot parse url: " + url, e);
       return null;
     }
+    String key = getQueueID(u, queueMode, dnsCache);
+    if (key == null) {
+      return null;
+    }
+    return new FetchItem(url, u, datum, key, outlinkDepth);
+  }
+
+  /**
+   * Get the id of the fetch queue a URL is assigned to, depending on the
+   * <code>queueMode</code> either the host name, the IP address or the domain
+   * name.
+   * 
+   * @param u URL
+   * @param queueMode either byHost, byDomain or byIP
+   * @param dnsCache DNS cache used to resolve the host name in byIP mode, if
+   * null the host name is resolved by the JVM
+   * @return the queue id, null if the host name cannot be resolved in byIP
+   * mode
+   */
+  public static String getQueueID(URL u, String queueMode,
+      DNSCache dnsCache) {
     String key;
     if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
       try {
-        final InetAddress addr = InetAddress.getByName(u.getHost());
+        final InetAddress addr = (dnsCache != null
+            ? dnsCache.resolve(u.getHost())
+            : InetAddress.getByName(u.getHost()));
         key = addr.getHostAddress();
       } catch (final UnknownHostException e) {
         // unable to resolve it, so don't fall back to host name
@@ -106,18 +147,18 @@ public class FetchItem {
     } else if (FetchItemQueues.QUEUE_MODE_DOMAIN.equalsIgnoreCase(queueMode)) {
       key = URLUtil.getDomainName(u).toLowerCase(Locale.ROOT);
       if (key == null) {
-        LOG.warn("Unknown domain for url: " + url
+        LOG.warn("Unknown domain for url: " + u
             + ", using URL string as key");
         key = u.toExternalForm();
       }
     } else {
       key = u.getHost().toLowerCase(Locale.ROOT);
       if (key == null) {
-        LOG.warn("Unknown host for url: " + url + ", using URL string as key");
+        LOG.warn("Unknown host for url: " + u + ", using URL string as key");
         key = u.toExternalForm();
       }
     }
-    return new FetchItem(url, u, datum, key, outlinkDepth);
+    return key;
   }
 
   public CrawlDatum getDatum() {
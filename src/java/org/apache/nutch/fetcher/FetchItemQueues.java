@@ -17,8 +17,10 @@
 package org.apache.nutch.fetcher;
 
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,6 +30,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,6 +71,9 @@ public class FetchItemQueues {
   public static final String QUEUE_MODE_IP = "byIP";
 
   String queueMode;
+  DNSCache dnsCache;
+  /* to notify protocol implementations about removed queues */
+  private ProtocolFactory protocolFactory;
 
   enum QueuingStatus {
     SUCCESSFULLY_QUEUED,
@@ -80,6 +88,9 @@ public class FetchItemQueues {
     queueMode = conf.get("fetcher.queue.mode", QUEUE_MODE_HOST);
     queueMode = checkQueueMode(queueMode);
     LOG.info("Using queue mode : " + queueMode);
+    if (queueMode.equals(QUEUE_MODE_IP)) {
+      dnsCache = DNSCache.get(conf);
+    }
 
     this.crawlDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
     this.minCrawlDelay = (long) (conf.getFloat("fetcher.server.min.delay",
@@ -133,8 +144,25 @@ public class FetchItemQueues {
     return queuesMaxExceptions.size();
   }
 
+  /**
+   * Create a fetch item in the queue mode of this fetcher. In byIP mode, the
+   * host name is resolved using the shared {@link DNSCache}.
+   *
+   * @param url
+   *          URL of fetch item
+   * @param datum
+   *          webpage information associated with the URL
+   * @param outlinkDepth
+   *          the desired depth of outlink for this given FetchItem
+   * @return a {@link FetchItem} or null if the item could not be created
+   */
+  public FetchItem createFetchItem(Text url, CrawlDatum datum,
+      int outlinkDepth) {
+    return FetchItem.create(url, datum, queueMode, outlinkDepth, dnsCache);
+  }
+
   public QueuingStatus addFetchItem(Text url, CrawlDatum datum) {
-    FetchItem it = FetchItem.create(url, datum, queueMode);
+    FetchItem it = createFetchItem(url, datum, 0);
     if (it != null) {
       return addFetchItem(it);
     }
@@ -175,7 +203,18 @@ public class FetchItemQueues {
     return fiq;
   }
 
-  public synchronized FetchItem getFetchItem() {
+  public FetchItem getFetchItem() {
+    List<String> removedQueues = new ArrayList<>();
+    FetchItem fit = getFetchItem(removedQueues);
+    if (!removedQueues.isEmpty()) {
+      // outside of the lock held by all fetcher threads, the protocols may
+      // close connections of removed queues
+      queuesRemoved(removedQueues);
+    }
+    return fit;
+  }
+
+  private synchronized FetchItem getFetchItem(List<String> removedQueues) {
 
     Iterator<Map.Entry<String, FetchItemQueue>> it = lastIterator;
     if (it == null || !it.hasNext()) {
@@ -186,13 +225,16 @@ public class FetchItemQueues {
         || exceptionsPerQueueDelay > 0);
 
     while (it.hasNext()) {
-      FetchItemQueue fiq = it.next().getValue();
+      Map.Entry<String, FetchItemQueue> entry = it.next();
+      String id = entry.getKey();
+      FetchItemQueue fiq = entry.getValue();
 
       // reap empty queues which do not hold state required to ensure politeness
       if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
         if (!feederAlive) {
           // no more fetch items added: queue can be safely removed
           it.remove();
+          removedQueues.add(id);
           continue;
         }
 
@@ -211,12 +253,14 @@ public class FetchItemQueues {
              * backoff
              */
             it.remove();
+            removedQueues.add(id);
           }
           continue;
         }
 
         // queue is empty and does not hold state required to ensure politeness
         it.remove();
+        removedQueues.add(id);
         continue;
       }
 
@@ -232,6 +276,25 @@ public class FetchItemQueues {
     return null;
   }
 
+  /**
+   * Notify the protocol implementations that queues have been removed, see
+   * {@link Protocol#queueRemoved(String)}.
+   */
+  private void queuesRemoved(List<String> ids) {
+    ProtocolFactory factory;
+    synchronized (this) {
+      if (protocolFactory == null) {
+        protocolFactory = new ProtocolFactory(conf);
+      }
+      factory = protocolFactory;
+    }
+    for (Protocol protocol : factory.getProtocolInstances()) {
+      for (String id : ids) {
+        protocol.queueRemoved(id);
+      }
+    }
+  }
+
   /**
    * @return true if the fetcher timelimit is defined and has been exceeded
    *         ({@code fetcher.timelimit.mins} minutes after fetching started)
@@ -47,7 +47,11 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.net.DNSCache;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.util.MimeTypeDetectionCache;
 import org.apache.nutch.util.MimeUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.NutchJob;
@@ -153,6 +157,11 @@ public class Fetcher extends NutchTool implements Tool {
     private AtomicInteger errors = new AtomicInteger(0); // total pages errored
     private boolean storingContent;
     private boolean parsing;
+    /*
+     * values of the JVM-wide cache and protocol counters at task start, only
+     * the increase during this task is reported
+     */
+    private Map<String, Map<String, Long>> sharedCountersAtStart;
 
     private AtomicInteger getActiveThreads() {
       return activeThreads;
@@ -190,6 +199,44 @@ public class Fetcher extends NutchTool implements Tool {
       segmentName = conf.get(Nutch.SEGMENT_NAME_KEY);
       storingContent = isStoringContent(conf);
       parsing = isParsing(conf);
+      sharedCountersAtStart = getSharedCounters(conf);
+    }
+
+    /**
+     * Get the counters of caches and protocol instances which are shared by
+     * all tasks running in the same JVM.
+     * 
+     * @param conf
+     *          the configuration
+     * @return map counter group &rarr; counter name &rarr; value
+     */
+    private static Map<String, Map<String, Long>> getSharedCounters(
+        Configuration conf) {
+      Map<String, Map<String, Long>> counters = new HashMap<>();
+      MimeTypeDetectionCache mimeTypeCache = MimeTypeDetectionCache.get(conf);
+      if (mimeTypeCache != null) {
+        addCounters(counters, MimeTypeDetectionCache.COUNTER_GROUP,
+            mimeTypeCache.getCounters());
+      }
+      if (FetchItemQueues.QUEUE_MODE_IP
+          .equals(conf.get("fetcher.queue.mode"))) {
+        addCounters(counters, DNSCache.COUNTER_GROUP,
+            DNSCache.get(conf).getCounters());
+      }
+      for (Protocol protocol : new ProtocolFactory(conf)
+          .getProtocolInstances()) {
+        addCounters(counters, Protocol.COUNTER_GROUP, protocol.getCounters());
+      }
+      return counters;
+    }
+
+    private static void addCounters(Map<String, Map<String, Long>> counters,
+        String group, Map<String, Long> values) {
+      Map<String, Long> groupCounters = counters.computeIfAbsent(group,
+          g -> new HashMap<>());
+      for (Map.Entry<String, Long> counter : values.entrySet()) {
+        groupCounters.merge(counter.getKey(), counter.getValue(), Long::sum);
+      }
     }	  
 
     @Override
@@ -464,6 +511,17 @@ public class Fetcher extends NutchTool implements Tool {
         } while (activeThreads.get() > 0);
         LOG.info("-activeThreads={}", activeThreads);
       } finally {
+        for (Map.Entry<String, Map<String, Long>> group : getSharedCounters(
+            innerContext.getConfiguration()).entrySet()) {
+          Map<String, Long> atStart = sharedCountersAtStart
+              .getOrDefault(group.getKey(), new HashMap<>());
+          for (Map.Entry<String, Long> counter : group.getValue()
+              .entrySet()) {
+            innerContext.getCounter(group.getKey(), counter.getKey())
+                .increment(counter.getValue()
+                    - atStart.getOrDefault(counter.getKey(), 0L));
+          }
+        }
         cleanup(innerContext);
       }
     }
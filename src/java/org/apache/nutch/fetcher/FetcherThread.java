@@ -633,7 +633,7 @@ public class FetcherThread extends Thread {
       return null;
     }
     CrawlDatum newDatum = createRedirDatum(redirUrl, fit, CrawlDatum.STATUS_DB_UNFETCHED);
-    fit = FetchItem.create(redirUrl, newDatum, queueMode);
+    fit = fetchQueues.createFetchItem(redirUrl, newDatum, 0);
     if (fit != null) {
       FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
       fiq.addInProgressFetchItem(fit);
@@ -815,7 +815,7 @@ public class FetcherThread extends Thread {
           // Only process depth N outlinks
           if (maxOutlinkDepth > 0 && outlinkDepth < maxOutlinkDepth
               && !fetchQueues.timelimitExceeded()) {
-            FetchItem ft = FetchItem.create(url, null, queueMode);
+            FetchItem ft = fetchQueues.createFetchItem(url, null, 0);
             FetchItemQueue queue = fetchQueues.getFetchItemQueue(ft.queueID);
             queue.alreadyFetched.add(url.toString().hashCode());
 
@@ -848,9 +848,9 @@ public class FetcherThread extends Thread {
               queue.alreadyFetched.add(urlHashCode);
               
               // Create new FetchItem with depth incremented
-              FetchItem fit = FetchItem.create(new Text(followUrl),
+              FetchItem fit = fetchQueues.createFetchItem(new Text(followUrl),
                   new CrawlDatum(CrawlDatum.STATUS_LINKED, interval),
-                  queueMode, outlinkDepth + 1);
+                  outlinkDepth + 1);
               
               context.getCounter("FetcherOutlinks", "outlinks_following").increment(1);    
               
@@ -17,18 +17,19 @@
 package org.apache.nutch.hostdb;
 
 import java.lang.invoke.MethodHandles;
-import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer.Context;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.nutch.net.DNSCache;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Simple runnable that performs DNS lookup for a single host.
+ * Simple runnable that performs DNS lookup for a single host using the shared
+ * {@link DNSCache}.
  */
 public class ResolverThread implements Runnable {
 
@@ -40,6 +41,7 @@ public class ResolverThread implements Runnable {
   protected Text hostText = new Text();
   protected Context context;
   protected int purgeFailedHostsThreshold;
+  protected DNSCache dnsCache;
 
   /**
    * Overloaded constructor.
@@ -58,6 +60,7 @@ public class ResolverThread implements Runnable {
     this.datum = datum;
     this.context = context;
     this.purgeFailedHostsThreshold = purgeFailedHostsThreshold;
+    this.dnsCache = DNSCache.get(context.getConfiguration());
   }
 
   /**
@@ -68,8 +71,7 @@ public class ResolverThread implements Runnable {
     // Resolve the host and act appropriatly
     try {
       // Throws an exception if host is not found
-      @SuppressWarnings("unused")
-      InetAddress inetAddr = InetAddress.getByName(host);
+      dnsCache.resolve(host);
 
       if (datum.isEmpty()) {
         context.getCounter("UpdateHostDb", "new_known_host").increment(1);
@@ -36,6 +36,7 @@ import org.apache.hadoop.util.StringUtils;
 
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.crawl.NutchWritable;
+import org.apache.nutch.net.DNSCache;
 
 import com.tdunning.math.stats.TDigest;
 
@@ -70,6 +71,9 @@ public class UpdateHostDbReducer
   
   protected BlockingQueue<Runnable> queue = new SynchronousQueue<>();
   protected ThreadPoolExecutor executor = null;
+  // DNS cache counters at task start, the cache is shared by all tasks of
+  // the JVM and only the increase during this task is reported
+  protected Map<String, Long> dnsCountersAtStart = null;
 
   /**
     * Configures the thread pool and prestarts all resolver threads.
@@ -79,6 +83,9 @@ public class UpdateHostDbReducer
     Configuration conf = context.getConfiguration();
     purgeFailedHostsThreshold = conf.getInt(UpdateHostDb.HOSTDB_PURGE_FAILED_HOSTS_THRESHOLD, -1);
     numResolverThreads = conf.getInt(UpdateHostDb.HOSTDB_NUM_RESOLVER_THREADS, 10);
+    // lookups are done by the shared DNS cache, do not limit the number of
+    // concurrent lookups below the number of resolver threads
+    dnsCountersAtStart = DNSCache.get(conf, numResolverThreads).getCounters();
     recheckInterval = conf.getInt(UpdateHostDb.HOSTDB_RECHECK_INTERVAL, 86400) * 1000;
     checkFailed = conf.getBoolean(UpdateHostDb.HOSTDB_CHECK_FAILED, false);
     checkNew = conf.getBoolean(UpdateHostDb.HOSTDB_CHECK_NEW, false);
@@ -481,5 +488,12 @@ public class UpdateHostDbReducer
         LOG.warn(StringUtils.stringifyException(e));
       }
     }
+
+    for (Map.Entry<String, Long> counter : DNSCache
+        .get(context.getConfiguration()).getCounters().entrySet()) {
+      context.getCounter(DNSCache.COUNTER_GROUP, counter.getKey())
+          .increment(counter.getValue()
+              - dnsCountersAtStart.getOrDefault(counter.getKey(), 0L));
+    }
   }
 }
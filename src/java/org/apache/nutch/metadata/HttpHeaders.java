@@ -46,12 +46,18 @@ public interface HttpHeaders {
 
   public static final Text WRITABLE_CONTENT_TYPE = new Text(CONTENT_TYPE);
 
+  public static final String ETAG = "ETag";
+
+  public static final Text WRITABLE_ETAG = new Text(ETAG);
+
   public static final String LAST_MODIFIED = "Last-Modified";
 
   public static final String LOCATION = "Location";
 
   public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
 
+  public static final String IF_NONE_MATCH = "If-None-Match";
+
   public static final String USER_AGENT = "User-Agent";
 
 }
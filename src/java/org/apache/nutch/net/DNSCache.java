@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Asynchronous DNS resolution service with a bounded cache, shared between
+ * all users of the same (or a copied) Nutch configuration, e.g., the HostDb
+ * resolver threads or the fetcher in <code>fetcher.queue.mode=byIP</code>.
+ * <ul>
+ * <li>Successful lookups are cached for <code>dns.cache.ttl.positive</code>
+ * seconds, failed lookups for <code>dns.cache.ttl.negative</code> seconds.
+ * The cache holds at most <code>dns.cache.size</code> host names.</li>
+ * <li>Lookups run on a thread pool shared by all caches, sized by the
+ * largest <code>dns.resolver.threads</code> of all configurations. Idle
+ * threads terminate after one minute. Concurrent lookups of the same host are
+ * coalesced into a single request.</li>
+ * <li>The number of lookups, cache hits, failures and the accumulated latency
+ * are counted, see {@link #getCounters()}.</li>
+ * </ul>
+ * Host names are resolved by the JVM resolver, unless a different
+ * {@link Resolver} is configured in <code>dns.resolver.class</code>.
+ */
+public class DNSCache {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String DNS_CACHE_TTL_POSITIVE = "dns.cache.ttl.positive";
+  public static final String DNS_CACHE_TTL_NEGATIVE = "dns.cache.ttl.negative";
+  public static final String DNS_CACHE_SIZE = "dns.cache.size";
+  public static final String DNS_RESOLVER_THREADS = "dns.resolver.threads";
+  public static final String DNS_RESOLVER_CLASS = "dns.resolver.class";
+
+  /** Counter group used to report the cache statistics */
+  public static final String COUNTER_GROUP = "DNSCache";
+
+  /** Resolves host names, implementations must be thread-safe */
+  public interface Resolver {
+    InetAddress resolve(String host) throws UnknownHostException;
+  }
+
+  /** Resolver using {@link InetAddress#getByName(String)} */
+  public static class JvmResolver implements Resolver {
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      return InetAddress.getByName(host);
+    }
+  }
+
+  /* Cached lookup result, address is null for failed lookups */
+  private static class Entry {
+    private final InetAddress address;
+    private final long expires;
+
+    private Entry(InetAddress address, long expires) {
+      this.address = address;
+      this.expires = expires;
+    }
+  }
+
+  private static final WeakHashMap<String, DNSCache> CACHES = new WeakHashMap<>();
+
+  /* max. number of caches held for configurations without UUID */
+  private static final int MAX_NON_NUTCH_CACHES = 16;
+
+  /*
+   * caches of configurations without UUID, the key is not referenced by the
+   * configuration, so the caches are held strongly, least recently used ones
+   * are dropped
+   */
+  private static final Map<String, DNSCache> NON_NUTCH_CACHES = new LinkedHashMap<String, DNSCache>(
+      16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, DNSCache> eldest) {
+      return size() > MAX_NON_NUTCH_CACHES;
+    }
+  };
+
+  private static final ThreadPoolExecutor EXECUTOR;
+  static {
+    AtomicInteger threadNum = new AtomicInteger();
+    EXECUTOR = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+          Thread t = new Thread(r, "DNSCache-" + threadNum.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  private final Resolver resolver;
+  private final long positiveTtl;
+  private final long negativeTtl;
+  private final Cache<String, Entry> cache;
+  private final Map<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong negativeCacheHits = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong latencyMs = new AtomicLong();
+
+  /**
+   * Get the DNS cache shared by all users of the configuration. The resolver
+   * is instantiated from <code>dns.resolver.class</code>.
+   *
+   * @param conf
+   *          Nutch configuration
+   * @return the shared DNS cache
+   */
+  public static DNSCache get(Configuration conf) {
+    // plugins get a copy of the job configuration, so the cache is looked up
+    // by the configuration's UUID, same as the PluginRepository
+    String uuid = NutchConfiguration.getUUID(conf);
+    Map<String, DNSCache> caches = CACHES;
+    if (uuid == null) {
+      uuid = "nonNutchConf@" + conf.hashCode(); // fallback
+      caches = NON_NUTCH_CACHES;
+    }
+    synchronized (CACHES) {
+      DNSCache cache = caches.get(uuid);
+      if (cache == null) {
+        Class<? extends Resolver> resolverClass = conf.getClass(
+            DNS_RESOLVER_CLASS, JvmResolver.class, Resolver.class);
+        cache = new DNSCache(conf,
+            ReflectionUtils.newInstance(resolverClass, conf));
+        caches.put(uuid, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Get the DNS cache shared by all users of the configuration and make sure
+   * that lookups run on at least the given number of threads.
+   *
+   * @param conf
+   *          Nutch configuration
+   * @param minThreads
+   *          min. number of resolver threads
+   * @return the shared DNS cache
+   */
+  public static DNSCache get(Configuration conf, int minThreads) {
+    ensureThreads(minThreads);
+    return get(conf);
+  }
+
+  private static void ensureThreads(int threads) {
+    synchronized (EXECUTOR) {
+      if (threads > EXECUTOR.getMaximumPoolSize()) {
+        EXECUTOR.setMaximumPoolSize(threads);
+        EXECUTOR.setCorePoolSize(threads);
+      }
+    }
+  }
+
+  /**
+   * @param conf
+   *          Nutch configuration
+   * @param resolver
+   *          resolver used to look up host names
+   */
+  public DNSCache(Configuration conf, Resolver resolver) {
+    this.resolver = resolver;
+    positiveTtl = TimeUnit.SECONDS
+        .toMillis(conf.getLong(DNS_CACHE_TTL_POSITIVE, 300));
+    negativeTtl = TimeUnit.SECONDS
+        .toMillis(conf.getLong(DNS_CACHE_TTL_NEGATIVE, 60));
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(conf.getLong(DNS_CACHE_SIZE, 100000))
+        .expireAfterWrite(Math.max(positiveTtl, negativeTtl),
+            TimeUnit.MILLISECONDS)
+        .build();
+    ensureThreads(conf.getInt(DNS_RESOLVER_THREADS, 10));
+  }
+
+  /**
+   * Resolve a host name asynchronously.
+   *
+   * @param host
+   *          host name
+   * @return future holding the address of the host or failing with an
+   *         {@link UnknownHostException}
+   */
+  public CompletableFuture<InetAddress> resolveAsync(String host) {
+    String key = host.toLowerCase(Locale.ROOT);
+    lookups.incrementAndGet();
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null && entry.expires > System.currentTimeMillis()) {
+      if (entry.address != null) {
+        cacheHits.incrementAndGet();
+      } else {
+        negativeCacheHits.incrementAndGet();
+      }
+      return CompletableFuture.completedFuture(entry)
+          .thenApply(e -> toAddress(host, e));
+    }
+    CompletableFuture<Entry> future = new CompletableFuture<>();
+    CompletableFuture<Entry> running = inFlight.putIfAbsent(key, future);
+    if (running != null) {
+      coalesced.incrementAndGet();
+      future = running;
+    } else {
+      CompletableFuture<Entry> request = future;
+      EXECUTOR.execute(() -> {
+        Entry result = null;
+        try {
+          result = lookup(key);
+        } finally {
+          // the result is cached before the request is removed
+          inFlight.remove(key, request);
+          if (result != null) {
+            request.complete(result);
+          } else {
+            request.completeExceptionally(new UnknownHostException(host));
+          }
+        }
+      });
+    }
+    return future.thenApply(e -> toAddress(host, e));
+  }
+
+  /**
+   * Resolve a host name, waiting for the result.
+   *
+   * @param host
+   *          host name
+   * @return address of the host
+   * @throws UnknownHostException
+   *           if the host name cannot be resolved
+   */
+  public InetAddress resolve(String host) throws UnknownHostException {
+    try {
+      return resolveAsync(host).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnknownHostException) {
+        throw (UnknownHostException) e.getCause();
+      }
+      throw new UnknownHostException(host + ": " + e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnknownHostException(host + ": interrupted");
+    }
+  }
+
+  private Entry lookup(String host) {
+    requests.incrementAndGet();
+    long start = System.nanoTime();
+    InetAddress address = null;
+    try {
+      address = resolver.resolve(host);
+    } catch (UnknownHostException e) {
+      LOG.debug("Unable to resolve {}: {}", host, e.getMessage());
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to resolve {}: {}", host, e.toString());
+    }
+    long now = System.currentTimeMillis();
+    latencyMs.addAndGet(
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    Entry entry;
+    if (address != null) {
+      entry = new Entry(address, now + positiveTtl);
+    } else {
+      failures.incrementAndGet();
+      entry = new Entry(null, now + negativeTtl);
+    }
+    cache.put(host, entry);
+    return entry;
+  }
+
+  private static InetAddress toAddress(String host, Entry entry) {
+    if (entry.address == null) {
+      // wrapped into a CompletionException by the future
+      throw new CompletionException(
+          new UnknownHostException(host));
+    }
+    return entry.address;
+  }
+
+  /**
+   * Get the cache statistics, to be reported as counters in group
+   * {@link #COUNTER_GROUP}:
+   * <dl>
+   * <dt>lookups</dt>
+   * <dd>host names looked up</dd>
+   * <dt>cacheHits</dt>
+   * <dd>lookups answered by a cached address</dd>
+   * <dt>negativeCacheHits</dt>
+   * <dd>lookups answered by a cached failure</dd>
+   * <dt>coalesced</dt>
+   * <dd>lookups which joined a request already in flight</dd>
+   * <dt>requests</dt>
+   * <dd>requests sent to the resolver</dd>
+   * <dt>failures</dt>
+   * <dd>failed requests</dd>
+   * <dt>latencyMs</dt>
+   * <dd>accumulated latency of all requests in milliseconds</dd>
+   * </dl>
+   *
+   * @return map of counter names and values
+   */
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new TreeMap<>();
+    counters.put("lookups", lookups.get());
+    counters.put("cacheHits", cacheHits.get());
+    counters.put("negativeCacheHits", negativeCacheHits.get());
+    counters.put("coalesced", coalesced.get());
+    counters.put("requests", requests.get());
+    counters.put("failures", failures.get());
+    counters.put("latencyMs", latencyMs.get());
+    return counters;
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Immutable, precompiled index of host and domain names with an optional
+ * binary payload (e.g. serialized rules) per name, used by URL filters with
+ * large host/domain rule lists. The index is built once, see
+ * {@link Writer} and {@link #main(String[])}, and is memory-mapped by every
+ * task using it: opening the index does not require to parse or copy the
+ * rules into the heap, and the index pages are shared via the OS page cache
+ * by all tasks running on the same machine. Within a JVM an index file is
+ * mapped only once and shared by all filter instances, see
+ * {@link #open(Configuration, String)}.
+ * </p>
+ *
+ * <p>
+ * Names are stored UTF-8 encoded in an open-addressing hash table. Names can
+ * be looked up by a range of a byte array, so that all suffixes of a host
+ * name (<code>www.example.com</code>, <code>example.com</code>,
+ * <code>com</code>) are looked up with a single encoded copy of the host name,
+ * i.e. one hash table probe per host name label.
+ * </p>
+ *
+ * <p>
+ * File format (big-endian): magic, version, number of names, table size, the
+ * hash table (per slot the name's hash in the upper and the entry offset in
+ * the lower 32 bits, 0 for an empty slot), followed by the entries (name
+ * length, name, payload length, payload). The index file size is limited to
+ * 2 GB.
+ * </p>
+ */
+public class HostRuleIndex {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final int MAGIC = 0x4e485249; // NHRI
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+
+  /** Returned by {@link #find(byte[], int, int)} if a name is not found */
+  public static final int NOT_FOUND = -1;
+
+  /* opened indexes shared by all filters in this JVM */
+  private static final Map<String, HostRuleIndex> INDEXES = new HashMap<>();
+
+  private final ByteBuffer buffer;
+  private final int size;
+  private final int mask;
+
+  /**
+   * Create an index from a buffer holding an index as written by
+   * {@link Writer}.
+   *
+   * @param buffer
+   *          buffer containing the index, only absolute reads are used, so
+   *          that the index can be shared between threads
+   * @throws IOException
+   *           if the buffer does not contain a valid index
+   */
+  public HostRuleIndex(ByteBuffer buffer) throws IOException {
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a host rule index");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException(
+          "Unsupported host rule index version " + buffer.getInt(4));
+    }
+    this.buffer = buffer;
+    size = buffer.getInt(8);
+    int tableSize = buffer.getInt(12);
+    if (Integer.bitCount(tableSize) != 1
+        || HEADER_SIZE + 8L * tableSize > buffer.limit()) {
+      throw new IOException("Corrupt host rule index");
+    }
+    mask = tableSize - 1;
+  }
+
+  /**
+   * Memory-map an index file.
+   *
+   * @param file
+   *          the index file
+   * @return the index
+   * @throws IOException
+   *           if the file cannot be read or is not a valid index
+   */
+  public static HostRuleIndex map(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Host rule index " + file + " exceeds 2 GB");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size());
+      return new HostRuleIndex(buffer);
+    }
+  }
+
+  /**
+   * Open an index shared by all users in this JVM. The index file is looked
+   * up
+   * <ol>
+   * <li>in the local file system,</li>
+   * <li>by a Hadoop file system if the name includes a scheme (for example,
+   * <code>hdfs://</code>),</li>
+   * <li>on the class path.</li>
+   * </ol>
+   * Indexes which are not contained in a local file (e.g. if packed into the
+   * job file) are copied into a local temporary file first.
+   *
+   * @param conf
+   *          a populated {@link Configuration}
+   * @param name
+   *          name or path of the index file
+   * @return the index
+   * @throws IOException
+   *           if the index cannot be found, read or is invalid
+   */
+  public static HostRuleIndex open(Configuration conf, String name)
+      throws IOException {
+    synchronized (INDEXES) {
+      File file = new File(name);
+      String key = file.isFile()
+          ? file.getCanonicalPath() + "@" + file.lastModified() + ":"
+              + file.length()
+          : name;
+      HostRuleIndex index = INDEXES.get(key);
+      if (index == null) {
+        index = map(file.isFile() ? file : localFile(conf, name));
+        LOG.info("Opened host rule index {} with {} names", name,
+            index.size());
+        INDEXES.put(key, index);
+      }
+      return index;
+    }
+  }
+
+  /* get a local copy of an index which is not a local file */
+  private static File localFile(Configuration conf, String name)
+      throws IOException {
+    Path path = new Path(name);
+    InputStream is;
+    if (path.toUri().getScheme() != null) {
+      FileSystem fs = path.getFileSystem(conf);
+      is = fs.open(path);
+    } else {
+      URL url = conf.getResource(name);
+      if (url == null) {
+        throw new IOException("Host rule index " + name + " not found");
+      }
+      if ("file".equals(url.getProtocol())) {
+        try {
+          return new File(url.toURI());
+        } catch (URISyntaxException e) {
+          throw new IOException(e);
+        }
+      }
+      is = url.openStream();
+    }
+    File tmp = File.createTempFile("host-rule-index", ".idx");
+    tmp.deleteOnExit();
+    try (InputStream in = is) {
+      Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    return tmp;
+  }
+
+  /**
+   * @return number of names in the index
+   */
+  public int size() {
+    return size;
+  }
+
+  /* FNV-1a, the same hash is used by the Writer */
+  private static int hash(byte[] key, int offset, int length) {
+    int h = 0x811c9dc5;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      h ^= key[i] & 0xff;
+      h *= 0x01000193;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Look up a name given as a range of a byte array.
+   *
+   * @param key
+   *          UTF-8 encoded name
+   * @param offset
+   *          start of the name in <code>key</code>
+   * @param length
+   *          length of the name in bytes
+   * @return handle to get the payload of the name, see
+   *         {@link #getPayload(int)}, or {@link #NOT_FOUND}
+   */
+  public int find(byte[] key, int offset, int length) {
+    int h = hash(key, offset, length);
+    int i = h & mask;
+    long slot;
+    while ((slot = buffer.getLong(HEADER_SIZE + 8 * i)) != 0) {
+      if ((int) (slot >>> 32) == h) {
+        int entry = (int) slot;
+        if (buffer.getInt(entry) == length && equals(entry + 4, key, offset,
+            length)) {
+          return entry + 4 + length;
+        }
+      }
+      i = (i + 1) & mask;
+    }
+    return NOT_FOUND;
+  }
+
+  private boolean equals(int position, byte[] key, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(position + i) != key[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Look up a name.
+   *
+   * @param name
+   *          the name
+   * @return handle to get the payload of the name, see
+   *         {@link #getPayload(int)}, or {@link #NOT_FOUND}
+   */
+  public int find(String name) {
+    byte[] key = name.getBytes(StandardCharsets.UTF_8);
+    return find(key, 0, key.length);
+  }
+
+  /**
+   * @param name
+   *          the name
+   * @return true if the index contains the name
+   */
+  public boolean contains(String name) {
+    return find(name) != NOT_FOUND;
+  }
+
+  /**
+   * Get the payload of a name.
+   *
+   * @param handle
+   *          handle of the name returned by {@link #find(byte[], int, int)}
+   * @return the payload
+   */
+  public byte[] getPayload(int handle) {
+    byte[] payload = new byte[buffer.getInt(handle)];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = buffer.get(handle + 4 + i);
+    }
+    return payload;
+  }
+
+  /**
+   * Collects names and their payloads and writes them as index.
+   */
+  public static class Writer {
+
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+    /**
+     * Add a name to the index, the payload of a name added before is
+     * replaced.
+     *
+     * @param name
+     *          the name
+     * @param payload
+     *          the payload, may be empty
+     */
+    public void put(String name, byte[] payload) {
+      entries.put(name, payload);
+    }
+
+    /**
+     * @return number of names added
+     */
+    public int size() {
+      return entries.size();
+    }
+
+    /**
+     * Write the index.
+     *
+     * @param out
+     *          stream to write the index to, not closed
+     * @throws IOException
+     *           if the index cannot be written or exceeds 2 GB
+     */
+    public void write(OutputStream out) throws IOException {
+      int tableSize = Integer.highestOneBit(Math.max(2, entries.size() * 2) - 1)
+          << 1;
+      int tableMask = tableSize - 1;
+      long[] table = new long[tableSize];
+      long position = HEADER_SIZE + 8L * tableSize;
+      for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+        byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+        int h = hash(key, 0, key.length);
+        int i = h & tableMask;
+        while (table[i] != 0) {
+          i = (i + 1) & tableMask;
+        }
+        table[i] = ((long) h << 32) | position;
+        position += 8L + key.length + e.getValue().length;
+        if (position > Integer.MAX_VALUE) {
+          throw new IOException("Host rule index exceeds 2 GB");
+        }
+      }
+      DataOutputStream dos = new DataOutputStream(
+          new BufferedOutputStream(out, 1 << 16));
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeInt(entries.size());
+      dos.writeInt(tableSize);
+      for (long slot : table) {
+        dos.writeLong(slot);
+      }
+      for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+        byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(key.length);
+        dos.write(key);
+        dos.writeInt(e.getValue().length);
+        dos.write(e.getValue());
+      }
+      dos.flush();
+    }
+
+    /**
+     * Write the index into a file.
+     *
+     * @param file
+     *          the index file
+     * @throws IOException
+     *           if the index cannot be written
+     */
+    public void write(File file) throws IOException {
+      try (OutputStream out = new FileOutputStream(file)) {
+        write(out);
+      }
+    }
+  }
+
+  /**
+   * Compile a list of host and domain names, one name per line, as used by
+   * the plugins urlfilter-domain and urlfilter-domaindenylist into an index.
+   * Blank lines and lines starting with <code>#</code> are skipped, names are
+   * lower-cased.
+   *
+   * @param args
+   *          the input list and the output index file
+   * @throws IOException
+   *           if the list cannot be read or the index cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: HostRuleIndex <name_list> <index_file>");
+      System.exit(-1);
+    }
+    Writer writer = new Writer();
+    byte[] empty = new byte[0];
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (StringUtils.isNotBlank(line) && !line.startsWith("#")) {
+          writer.put(StringUtils.lowerCase(line.trim()), empty);
+        }
+      }
+    }
+    writer.write(new File(args[1]));
+    LOG.info("Wrote host rule index {} with {} names", args[1], writer.size());
+  }
+}
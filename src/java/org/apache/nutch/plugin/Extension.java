@@ -17,7 +17,9 @@
 package org.apache.nutch.plugin;
 
 import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configurable;
@@ -77,6 +79,16 @@ public class Extension {
     return fAttributes.get(pKey);
   }
 
+  /**
+   * Returns all attributes of this extension, used to serialize the extension
+   * into a {@link PluginManifestIndex}.
+   * 
+   * @return an unmodifiable view of the attribute map
+   */
+  Map<String, String> getAttributes() {
+    return Collections.unmodifiableMap(fAttributes);
+  }
+
   /**
    * Returns the full class name of the extension point implementation
    * 
@@ -26,6 +26,9 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The <code>PluginClassLoader</code> is a child-first classloader that only
@@ -35,13 +38,36 @@ import java.util.List;
  * <code>PluginClassLoader</code>. Exported libraries are available for
  * <code>PluginClassLoader</code> of plugins that depends on these plugins.
  * 
+ * <p>The classloader is parallel capable: classes are loaded under a lock per
+ * class name and not under the lock of the classloader instance, so that
+ * multiple fetcher or parser threads do not serialize when classes of the
+ * same plugin are loaded the first time. Because the libraries of a plugin do
+ * not change at runtime, names of classes not found in the plugin libraries
+ * and resource lookups are cached.</p>
  */
 public class PluginClassLoader extends URLClassLoader {
 
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
+
   private URL[] urls;
   private ClassLoader parent;
   private ClassLoader system = getSystemClassLoader();
 
+  /** Names of classes not contained in the plugin's own libraries */
+  private final Set<String> notFoundLocally = ConcurrentHashMap.newKeySet();
+
+  /** Names of classes not found by any classloader */
+  private final Set<String> notFound = ConcurrentHashMap.newKeySet();
+
+  /** Resources found by {@link #getResource(String)} */
+  private final Map<String, URL> resources = new ConcurrentHashMap<>();
+
+  /** Names of resources not found by {@link #getResource(String)} */
+  private final Set<String> resourcesNotFound = ConcurrentHashMap
+      .newKeySet();
+
   /**
    * Overloaded constructor
    * 
@@ -59,36 +85,57 @@ public class PluginClassLoader extends URLClassLoader {
   }
 
   @Override
-  protected synchronized Class<?> loadClass(String name, boolean resolve)
+  protected Class<?> loadClass(String name, boolean resolve)
       throws ClassNotFoundException {
 
-    // First, check if the class has already been loaded
-    Class<?> c = findLoadedClass(name);
+    if (notFound.contains(name)) {
+      throw new ClassNotFoundException(name);
+    }
+
+    synchronized (getClassLoadingLock(name)) {
+      // First, check if the class has already been loaded
+      Class<?> c = findLoadedClass(name);
 
-    if (c == null) {
-      try {
-        // checking local
-        c = findClass(name);
-      } catch (ClassNotFoundException | SecurityException e) {
-        c = loadClassFromParent(name, resolve);
+      if (c == null) {
+        if (!notFoundLocally.contains(name)) {
+          try {
+            // checking local
+            c = findClass(name);
+          } catch (ClassNotFoundException | SecurityException e) {
+            notFoundLocally.add(name);
+          }
+        }
+        if (c == null) {
+          try {
+            c = loadClassFromParent(name, resolve);
+          } catch (ClassNotFoundException e) {
+            notFound.add(name);
+            throw e;
+          }
+        }
       }
-    }
 
-    if (resolve) {
-      resolveClass(c);
-    }
+      if (resolve) {
+        resolveClass(c);
+      }
 
-    return c;
+      return c;
+    }
   }
 
   private Class<?> loadClassFromParent(String name, boolean resolve)
       throws ClassNotFoundException {
     // checking parent
-    // This call to loadClass may eventually call findClass
-    // again, in case the parent doesn't find anything.
+    // The class is known not to be in the local libraries, so the parent is
+    // asked directly instead of calling super.loadClass which would call
+    // findClass again in case the parent doesn't find anything.
     Class<?> c;
     try {
-      c = super.loadClass(name, resolve);
+      if (parent != null) {
+        c = parent.loadClass(name);
+      } else {
+        c = super.loadClass(name, resolve);
+      }
     } catch (ClassNotFoundException e) {
       c = loadClassFromSystem(name);
     } catch (SecurityException e) {
@@ -109,6 +156,21 @@ public class PluginClassLoader extends URLClassLoader {
 
   @Override
   public URL getResource(String name) {
+    URL url = resources.get(name);
+    if (url != null || resourcesNotFound.contains(name)) {
+      return url;
+    }
+
+    url = lookupResource(name);
+    if (url == null) {
+      resourcesNotFound.add(name);
+    } else {
+      resources.put(name, url);
+    }
+    return url;
+  }
+
+  private URL lookupResource(String name) {
     URL url = findResource(name);
     if (url == null)
       url = super.getResource(name);
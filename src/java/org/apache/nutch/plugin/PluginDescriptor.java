@@ -51,7 +51,7 @@ public class PluginDescriptor {
   private ArrayList<URL> fExportedLibs = new ArrayList<>();
   private ArrayList<URL> fNotExportedLibs = new ArrayList<>();
   private ArrayList<Extension> fExtensions = new ArrayList<>();
-  private PluginClassLoader fClassLoader;
+  private volatile PluginClassLoader fClassLoader;
   private static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
   private Configuration fConf;
@@ -235,6 +235,16 @@ public class PluginDescriptor {
     fExportedLibs.add(url);
   }
 
+  /**
+   * Adds a exported library by its absolute URL, used when restoring the
+   * descriptor from a {@link PluginManifestIndex}.
+   * 
+   * @param pLibUrl URL of the exported library
+   */
+  void addExportedLib(URL pLibUrl) {
+    fExportedLibs.add(pLibUrl);
+  }
+
   /**
    * Returns the directory path of the plugin.
    * 
@@ -273,6 +283,16 @@ public class PluginDescriptor {
     fNotExportedLibs.add(url);
   }
 
+  /**
+   * Adds a non-exported library by its absolute URL, used when restoring the
+   * descriptor from a {@link PluginManifestIndex}.
+   * 
+   * @param pLibUrl URL of the non-exported library
+   */
+  void addNotExportedLib(URL pLibUrl) {
+    fNotExportedLibs.add(pLibUrl);
+  }
+
   /**
    * Returns a array of libraries as URLs that are not exported by the plugin.
    * 
@@ -290,6 +310,13 @@ public class PluginDescriptor {
    * @return PluginClassLoader the classloader for the plugin
    */
   public PluginClassLoader getClassLoader() {
+    if (fClassLoader != null)
+      return fClassLoader;
+    return createClassLoader();
+  }
+
+  private synchronized PluginClassLoader createClassLoader() {
+    // another thread may have created the classloader meanwhile
     if (fClassLoader != null)
       return fClassLoader;
     ArrayList<URL> arrayList = new ArrayList<>();
@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A serialized index of the plugin manifests found in one plugin folder.
+ * Reading the index avoids to parse every <code>plugin.xml</code> when a
+ * {@link PluginRepository} is built, which is done by every task JVM and by
+ * every checker tool.</p>
+ *
+ * <p>Entries are keyed by the name of the plugin directory and validated by
+ * size and checksum of the manifest file, only entries of modified or added
+ * plugins are parsed again. Plugin and library paths are stored relative to
+ * the plugin directory. Modification times and absolute paths are not used,
+ * so that an index survives when the plugin folder is copied or unpacked
+ * from the job file. The index is stored in the file named by the property
+ * <code>plugin.manifest.index.file</code> inside each plugin folder, it can
+ * be precomputed by running this class, e.g. before the job file is packed.
+ * </p>
+ */
+public class PluginManifestIndex {
+
+  protected static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Name of the index file placed in every plugin folder */
+  public static final String INDEX_FILE = "plugin.manifest.index.file";
+
+  /** Property set in the configuration of every MapReduce task */
+  private static final String TASK_ATTEMPT_ID = "mapreduce.task.attempt.id";
+
+  private static final int VERSION = 2;
+
+  private static class Entry {
+    private long manifestSize;
+    private long manifestChecksum;
+    private PluginDescriptor descriptor;
+  }
+
+  private Map<String, Entry> entries = new HashMap<>();
+
+  /**
+   * Get the descriptor of the plugin in the given directory if it is in the
+   * index and the manifest is unchanged since.
+   *
+   * @param pluginDir
+   *          plugin directory
+   * @return the indexed descriptor or null if not indexed or outdated
+   */
+  public PluginDescriptor get(File pluginDir) {
+    Entry entry = entries.get(pluginDir.getName());
+    if (entry == null) {
+      return null;
+    }
+    File manifest = getManifest(pluginDir);
+    if (entry.manifestSize != manifest.length()) {
+      return null;
+    }
+    try {
+      if (entry.manifestChecksum != checksum(manifest)) {
+        return null;
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    return entry.descriptor;
+  }
+
+  /**
+   * Add the descriptor of the plugin in the given directory.
+   *
+   * @param pluginDir
+   *          plugin directory
+   * @param descriptor
+   *          the descriptor parsed from the plugin's manifest
+   * @throws IOException
+   *           if the manifest cannot be read
+   */
+  public void put(File pluginDir, PluginDescriptor descriptor)
+      throws IOException {
+    File manifest = getManifest(pluginDir);
+    Entry entry = new Entry();
+    entry.manifestSize = manifest.length();
+    entry.manifestChecksum = checksum(manifest);
+    entry.descriptor = descriptor;
+    entries.put(pluginDir.getName(), entry);
+  }
+
+  /**
+   * @return number of indexed plugins
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  private static File getManifest(File pluginDir) {
+    return new File(pluginDir, "plugin.xml");
+  }
+
+  private static long checksum(File manifest) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(Files.readAllBytes(manifest.toPath()));
+    return crc.getValue();
+  }
+
+  /**
+   * Get the index file of a plugin folder.
+   *
+   * @param conf
+   *          a populated {@link Configuration}
+   * @param pluginFolder
+   *          the plugin folder
+   * @return the index file or null if the manifest index is disabled
+   */
+  public static File getIndexFile(Configuration conf, File pluginFolder) {
+    String name = conf.getTrimmed(INDEX_FILE, "");
+    if (name.isEmpty()) {
+      return null;
+    }
+    return new File(pluginFolder, name);
+  }
+
+  /**
+   * Whether an updated index may be written into a plugin folder: the folder
+   * must be writable and not be unpacked from the job file into the working
+   * directory of a MapReduce task. The index should be precomputed before the
+   * job file is packed, tasks only read it.
+   *
+   * @param conf
+   *          a populated {@link Configuration}
+   * @param pluginFolder
+   *          the plugin folder
+   * @return true if the index may be written
+   */
+  public static boolean isWritable(Configuration conf, File pluginFolder) {
+    return conf.get(TASK_ATTEMPT_ID) == null && pluginFolder.canWrite();
+  }
+
+  /**
+   * Read a manifest index. The descriptors are restored with the passed
+   * configuration and plugin repository as if they were parsed from the
+   * manifest files.
+   *
+   * @param indexFile
+   *          the index file
+   * @param conf
+   *          a populated {@link Configuration}
+   * @param pluginRepository
+   *          the repository the restored extensions are attached to
+   * @return the index, empty if the index file does not exist or cannot be
+   *         read
+   */
+  public static PluginManifestIndex read(File indexFile, Configuration conf,
+      PluginRepository pluginRepository) {
+    PluginManifestIndex index = new PluginManifestIndex();
+    if (!indexFile.isFile()) {
+      return index;
+    }
+    File pluginFolder = indexFile.getAbsoluteFile().getParentFile();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(indexFile)))) {
+      int version = in.readInt();
+      if (version != VERSION) {
+        LOG.info("Plugins: ignoring manifest index {} of version {}",
+            indexFile, version);
+        return index;
+      }
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        String dir = WritableUtils.readString(in);
+        Entry entry = new Entry();
+        entry.manifestSize = in.readLong();
+        entry.manifestChecksum = in.readLong();
+        entry.descriptor = readDescriptor(in, new File(pluginFolder, dir),
+            conf, pluginRepository);
+        index.entries.put(dir, entry);
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("Plugins: failed to read manifest index {}: {}", indexFile,
+          e.toString());
+      return new PluginManifestIndex();
+    }
+    return index;
+  }
+
+  /**
+   * Write the manifest index. The index is written to a temporary file first
+   * and then moved in place, so that concurrently starting JVMs never read a
+   * partially written index.
+   *
+   * @param indexFile
+   *          the index file
+   * @throws IOException
+   *           if the index cannot be written
+   */
+  public void write(File indexFile) throws IOException {
+    File tmpFile = File.createTempFile(indexFile.getName(), ".tmp",
+        indexFile.getAbsoluteFile().getParentFile());
+    try {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+          WritableUtils.writeString(out, e.getKey());
+          out.writeLong(e.getValue().manifestSize);
+          out.writeLong(e.getValue().manifestChecksum);
+          writeDescriptor(out, e.getValue().descriptor);
+        }
+      }
+      Files.move(tmpFile.toPath(), indexFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  private static void writeDescriptor(DataOutputStream out,
+      PluginDescriptor descriptor) throws IOException {
+    WritableUtils.writeString(out, descriptor.getPluginId());
+    WritableUtils.writeString(out, descriptor.getVersion());
+    WritableUtils.writeString(out, descriptor.getName());
+    WritableUtils.writeString(out, descriptor.getProviderName());
+    WritableUtils.writeString(out, descriptor.getPluginClass());
+
+    ExtensionPoint[] points = descriptor.getExtenstionPoints();
+    WritableUtils.writeVInt(out, points.length);
+    for (ExtensionPoint point : points) {
+      WritableUtils.writeString(out, point.getId());
+      WritableUtils.writeString(out, point.getName());
+      WritableUtils.writeString(out, point.getSchema());
+    }
+
+    Extension[] extensions = descriptor.getExtensions();
+    WritableUtils.writeVInt(out, extensions.length);
+    for (Extension extension : extensions) {
+      WritableUtils.writeString(out, extension.getTargetPoint());
+      WritableUtils.writeString(out, extension.getId());
+      WritableUtils.writeString(out, extension.getClazz());
+      Map<String, String> attributes = extension.getAttributes();
+      WritableUtils.writeVInt(out, attributes.size());
+      for (Map.Entry<String, String> attr : attributes.entrySet()) {
+        WritableUtils.writeString(out, attr.getKey());
+        WritableUtils.writeString(out, attr.getValue());
+      }
+    }
+
+    URI pluginUri = new File(descriptor.getPluginPath()).toURI();
+    writeLibs(out, pluginUri, descriptor.getExportedLibUrls());
+    writeLibs(out, pluginUri, descriptor.getNotExportedLibUrls());
+    WritableUtils.writeStringArray(out, descriptor.getDependencies());
+  }
+
+  private static PluginDescriptor readDescriptor(DataInputStream in,
+      File pluginDir, Configuration conf, PluginRepository pluginRepository)
+      throws IOException {
+    String id = WritableUtils.readString(in);
+    String version = WritableUtils.readString(in);
+    String name = WritableUtils.readString(in);
+    String providerName = WritableUtils.readString(in);
+    String pluginClass = WritableUtils.readString(in);
+    // same path as passed by PluginManifestParser when parsing the manifest
+    String path = pluginDir.getAbsolutePath();
+    PluginDescriptor descriptor = new PluginDescriptor(id, version, name,
+        providerName, pluginClass, path, conf);
+
+    int numPoints = WritableUtils.readVInt(in);
+    for (int i = 0; i < numPoints; i++) {
+      descriptor.addExtensionPoint(new ExtensionPoint(
+          WritableUtils.readString(in), WritableUtils.readString(in),
+          WritableUtils.readString(in)));
+    }
+
+    int numExtensions = WritableUtils.readVInt(in);
+    for (int i = 0; i < numExtensions; i++) {
+      String pointId = WritableUtils.readString(in);
+      String extensionId = WritableUtils.readString(in);
+      String extensionClass = WritableUtils.readString(in);
+      Extension extension = new Extension(descriptor, pointId, extensionId,
+          extensionClass, conf, pluginRepository);
+      int numAttributes = WritableUtils.readVInt(in);
+      for (int j = 0; j < numAttributes; j++) {
+        extension.addAttribute(WritableUtils.readString(in),
+            WritableUtils.readString(in));
+      }
+      descriptor.addExtension(extension);
+    }
+
+    int numLibs = WritableUtils.readVInt(in);
+    for (int i = 0; i < numLibs; i++) {
+      if (in.readBoolean()) {
+        descriptor.addExportedLibRelative(WritableUtils.readString(in));
+      } else {
+        descriptor.addExportedLib(new URL(WritableUtils.readString(in)));
+      }
+    }
+    numLibs = WritableUtils.readVInt(in);
+    for (int i = 0; i < numLibs; i++) {
+      if (in.readBoolean()) {
+        descriptor.addNotExportedLibRelative(WritableUtils.readString(in));
+      } else {
+        descriptor.addNotExportedLib(new URL(WritableUtils.readString(in)));
+      }
+    }
+    for (String dependency : WritableUtils.readStringArray(in)) {
+      descriptor.addDependency(dependency);
+    }
+    return descriptor;
+  }
+
+  /*
+   * Write library URLs, relative to the plugin directory if the library is
+   * inside the plugin directory, absolute otherwise.
+   */
+  private static void writeLibs(DataOutputStream out, URI pluginUri,
+      URL[] urls) throws IOException {
+    WritableUtils.writeVInt(out, urls.length);
+    for (URL url : urls) {
+      URI relative;
+      try {
+        relative = pluginUri.relativize(url.toURI());
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      }
+      if (relative.isAbsolute()) {
+        out.writeBoolean(false);
+        WritableUtils.writeString(out, url.toString());
+      } else {
+        out.writeBoolean(true);
+        WritableUtils.writeString(out, relative.getPath());
+      }
+    }
+  }
+
+  /**
+   * Precompute the manifest indexes of all plugin folders defined by
+   * <code>plugin.folders</code>.
+   *
+   * @param args
+   *          optional name of the index file, overrides the property
+   *          <code>plugin.manifest.index.file</code>
+   */
+  public static void main(String[] args) {
+    Configuration conf = NutchConfiguration.create();
+    if (args.length > 0) {
+      conf.set(INDEX_FILE, args[0]);
+    } else if (conf.getTrimmed(INDEX_FILE, "").isEmpty()) {
+      System.err.println("Usage: PluginManifestIndex [<index_file_name>]");
+      System.err.println(
+          "  (or set the property " + INDEX_FILE + " in nutch-site.xml)");
+      return;
+    }
+    PluginManifestParser parser = new PluginManifestParser(conf, null);
+    Map<String, PluginDescriptor> plugins = parser
+        .parsePluginFolder(conf.getStrings("plugin.folders"));
+    System.out.println("Indexed manifests of " + plugins.size() + " plugins");
+  }
+}
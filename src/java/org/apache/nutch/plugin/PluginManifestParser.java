@@ -18,6 +18,7 @@ package org.apache.nutch.plugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.invoke.MethodHandles;
 import java.net.MalformedURLException;
@@ -59,6 +60,8 @@ public class PluginManifestParser {
 
   private PluginRepository pluginRepository;
 
+  private DocumentBuilderFactory documentBuilderFactory;
+
   public PluginManifestParser(Configuration conf, PluginRepository pluginRepository) {
     this.conf = conf;
     this.pluginRepository = pluginRepository;
@@ -84,19 +87,47 @@ public class PluginManifestParser {
         continue;
       }
       LOG.info("Plugins: looking in: {}", directory.getAbsolutePath());
+      File indexFile = PluginManifestIndex.getIndexFile(conf, directory);
+      PluginManifestIndex cachedIndex = null;
+      if (indexFile != null) {
+        cachedIndex = PluginManifestIndex.read(indexFile, conf,
+            pluginRepository);
+      }
+      PluginManifestIndex index = new PluginManifestIndex();
+      int parsed = 0;
       for (File oneSubFolder : directory.listFiles()) {
         if (oneSubFolder.isDirectory()) {
           String manifestPath = oneSubFolder.getAbsolutePath() + File.separator
                   + "plugin.xml";
           try {
-            LOG.debug("Parsing: {}", manifestPath);
-            PluginDescriptor p = parseManifestFile(manifestPath);
+            PluginDescriptor p = null;
+            if (cachedIndex != null) {
+              p = cachedIndex.get(oneSubFolder);
+            }
+            if (p == null) {
+              LOG.debug("Parsing: {}", manifestPath);
+              p = parseManifestFile(manifestPath);
+              parsed++;
+            }
+            index.put(oneSubFolder, p);
             map.put(p.getPluginId(), p);
           } catch (Exception e) {
             LOG.warn("Error while loading plugin {}: {}", manifestPath, e.toString());
           }
         }
       }
+      if (cachedIndex != null
+          && (parsed > 0 || index.size() != cachedIndex.size())
+          && PluginManifestIndex.isWritable(conf, directory)) {
+        LOG.info("Plugins: updating manifest index {} ({} manifests parsed)",
+            indexFile, parsed);
+        try {
+          index.write(indexFile);
+        } catch (IOException e) {
+          LOG.warn("Plugins: failed to write manifest index {}: {}",
+              indexFile, e.toString());
+        }
+      }
     }
     return map;
   }
@@ -161,9 +192,13 @@ public class PluginManifestParser {
    */
   private Document parseXML(URL url)
           throws SAXException, IOException, ParserConfigurationException {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    return builder.parse(url.openStream());
+    if (documentBuilderFactory == null) {
+      documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    }
+    DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
+    try (InputStream in = url.openStream()) {
+      return builder.parse(in);
+    }
   }
 
   /**
@@ -29,6 +29,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.conf.Configuration;
@@ -62,9 +63,9 @@ public class PluginRepository implements URLStreamHandlerFactory {
 
   private HashMap<String, ExtensionPoint> fExtensionPoints;
 
-  private HashMap<String, Plugin> fActivatedPlugins;
+  private Map<String, Plugin> fActivatedPlugins;
 
-  private static final Map<String, Map<PluginClassLoader, Class<?>>> CLASS_CACHE = new HashMap<>();
+  private static final Map<String, Map<PluginClassLoader, Class<?>>> CLASS_CACHE = new ConcurrentHashMap<>();
 
   private Configuration conf;
 
@@ -75,7 +76,7 @@ public class PluginRepository implements URLStreamHandlerFactory {
    * @throws RuntimeException if a fatal runtime error is encountered 
    */
   public PluginRepository(Configuration conf) throws RuntimeException {
-    this.fActivatedPlugins = new HashMap<>();
+    this.fActivatedPlugins = new ConcurrentHashMap<>();
     this.fExtensionPoints = new HashMap<>();
     this.conf = new Configuration(conf);
     this.auto = conf.getBoolean("plugin.auto-activation", true);
@@ -282,14 +283,18 @@ public class PluginRepository implements URLStreamHandlerFactory {
    */
   public Plugin getPluginInstance(PluginDescriptor pDescriptor)
           throws PluginRuntimeException {
-    if (this.fActivatedPlugins.containsKey(pDescriptor.getPluginId()))
-      return this.fActivatedPlugins.get(pDescriptor.getPluginId());
+    Plugin activated = this.fActivatedPlugins.get(pDescriptor.getPluginId());
+    if (activated != null)
+      return activated;
     try {
       // Must synchronize here to make sure creation and initialization
       // of a plugin instance are done by one and only one thread.
       // The same is in Extension.getExtensionInstance().
       // Suggested by Stefan Groschupf <sg@media-style.com>
       synchronized (pDescriptor) {
+        activated = this.fActivatedPlugins.get(pDescriptor.getPluginId());
+        if (activated != null)
+          return activated;
         Class<?> pluginClass = getCachedClass(pDescriptor,
                 pDescriptor.getPluginClass());
         Constructor<?> constructor = pluginClass.getConstructor(
@@ -339,14 +344,12 @@ public class PluginRepository implements URLStreamHandlerFactory {
 
   public Class<?> getCachedClass(PluginDescriptor pDescriptor, String className)
           throws ClassNotFoundException {
-    Map<PluginClassLoader, Class<?>> descMap = CLASS_CACHE.get(className);
-    if (descMap == null) {
-      descMap = new HashMap<>();
-      CLASS_CACHE.put(className, descMap);
-    }
+    Map<PluginClassLoader, Class<?>> descMap = CLASS_CACHE
+        .computeIfAbsent(className, k -> new ConcurrentHashMap<>());
     PluginClassLoader loader = pDescriptor.getClassLoader();
     Class<?> clazz = descMap.get(loader);
     if (clazz == null) {
+      // load outside of the map, the classloader is parallel capable
       clazz = loader.loadClass(className);
       descMap.put(loader, clazz);
     }
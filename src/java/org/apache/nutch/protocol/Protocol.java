@@ -16,7 +16,9 @@
  */
 package org.apache.nutch.protocol;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.io.Text;
@@ -31,6 +33,9 @@ public interface Protocol extends Pluggable, Configurable {
   /** The name of the extension point. */
   public final static String X_POINT_ID = Protocol.class.getName();
 
+  /** Group of the job counters reported by {@link #getCounters()} */
+  public final static String COUNTER_GROUP = "Protocol";
+
   /**
    * Get the {@link ProtocolOutput} for a given url and crawldatum
    * @param url canonical url
@@ -57,4 +62,30 @@ public interface Protocol extends Pluggable, Configurable {
   BaseRobotRules getRobotRules(Text url, CrawlDatum datum,
       List<Content> robotsTxtContent);
 
+  /**
+   * Get counters collected by the protocol implementation, e.g. about the
+   * reuse of connections. The fetcher reports the counters as job counters
+   * of the group {@link #COUNTER_GROUP} when done.
+   *
+   * @return map of counter names and values, empty if the implementation
+   *         does not collect counters
+   */
+  default Map<String, Long> getCounters() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Notifies the protocol implementation that the fetcher has removed an
+   * empty fetch queue, i.e. there are no more URLs of the queue's host, domain
+   * or IP address (depending on <code>fetcher.queue.mode</code>) to be
+   * fetched for now. Implementations holding resources per queue, e.g. pooled
+   * connections, may release them.
+   *
+   * @param queueId
+   *          id of the removed queue, see
+   *          {@link org.apache.nutch.fetcher.FetchItem#getQueueID(java.net.URL, String, org.apache.nutch.net.DNSCache)}
+   */
+  default void queueRemoved(String queueId) {
+  }
+
 }
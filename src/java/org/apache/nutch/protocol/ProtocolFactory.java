@@ -21,7 +21,9 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.nutch.plugin.Extension;
@@ -192,6 +194,25 @@ public class ProtocolFactory {
     return protocol;
   }
 
+  /**
+   * Get the protocol instances created so far for the configuration.
+   *
+   * @return list of protocol instances
+   */
+  public List<Protocol> getProtocolInstances() {
+    List<Protocol> protocols = new ArrayList<>();
+    ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (objectCache) {
+      for (Extension extension : extensionPoint.getExtensions()) {
+        Object protocol = objectCache.getObject(extension.getId());
+        if (protocol instanceof Protocol && !protocols.contains(protocol)) {
+          protocols.add((Protocol) protocol);
+        }
+      }
+    }
+    return protocols;
+  }
+
   private Extension getExtensionById(String id) {
     Extension[] extensions = this.extensionPoint.getExtensions();
     for (int i = 0; i < extensions.length; i++) {
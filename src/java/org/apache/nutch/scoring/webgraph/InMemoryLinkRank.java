@@ -0,0 +1,461 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.util.FSUtils;
+import org.apache.nutch.util.URLUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * Link analysis for web graphs which fit into the memory of a single machine.
+ * Calculates the same scores as the MapReduce jobs of {@link LinkRank} but
+ * runs all iterations in memory:
+ * </p>
+ * <ul>
+ * <li>URLs of the NodeDb are mapped to int ids (index in a sorted array),</li>
+ * <li>the OutlinkDb is read twice to build the inlinks of every node as
+ * compressed sparse rows (offsets and source node ids),</li>
+ * <li>inlinks ignored because of <code>link.ignore.limit.page</code> or
+ * <code>link.ignore.limit.domain</code> are removed once before the first
+ * iteration,</li>
+ * <li>every iteration is run multi-threaded in a {@link ForkJoinPool}, the
+ * number of threads is configured by
+ * <code>link.analyze.inmemory.threads</code> (default: number of
+ * processors),</li>
+ * <li>iterations stop early if the sum of the absolute score changes of all
+ * nodes falls below <code>link.analyze.convergence.threshold</code>.</li>
+ * </ul>
+ * <p>
+ * The final scores are written into a new NodeDb with the same parts as the
+ * current one, which then replaces the NodeDb of the WebGraph, same as done
+ * by {@link LinkRank}. The in-memory mode is used if
+ * {@link LinkRank} is called with the option <code>-inmemory</code>.
+ * </p>
+ * <p>
+ * Memory requirements: about 4 bytes per link and 40 bytes plus the URL
+ * string per node.
+ * </p>
+ */
+public class InMemoryLinkRank extends Configured {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  /** Function applied on a range of node ids */
+  private interface RangeFunction {
+    /** @return partial result summed over all ranges */
+    double apply(int from, int to);
+  }
+
+  /** Consumer of links given by source and target node id */
+  private interface LinkConsumer {
+    void accept(int from, int to);
+  }
+
+  /** Splits a range of node ids until it is small enough */
+  private static class RangeTask extends RecursiveTask<Double> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RangeFunction function;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    private RangeTask(RangeFunction function, int from, int to, int grain) {
+      this.function = function;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected Double compute() {
+      if ((to - from) <= grain) {
+        return function.apply(from, to);
+      }
+      int mid = (from + to) >>> 1;
+      RangeTask left = new RangeTask(function, from, mid, grain);
+      left.fork();
+      double right = new RangeTask(function, mid, to, grain).compute();
+      return left.join() + right;
+    }
+  }
+
+  /** sorted URLs, the index is the node id */
+  private String[] urls;
+  /** number of outlinks per node, as stored in the NodeDb */
+  private int[] numOutlinks;
+  /** offsets of the inlinks of every node in {@link #inlinks} */
+  private int[] inlinkOffsets;
+  /** source node ids of the inlinks */
+  private int[] inlinks;
+  private float[] scores;
+
+  private ForkJoinPool pool;
+  private int grain;
+
+  public InMemoryLinkRank() {
+    super();
+  }
+
+  public InMemoryLinkRank(Configuration conf) {
+    super(conf);
+  }
+
+  private double parallel(RangeFunction function) {
+    return pool.invoke(new RangeTask(function, 0, urls.length, grain));
+  }
+
+  private int getId(String url) {
+    int id = Arrays.binarySearch(urls, url);
+    return id < 0 ? -1 : id;
+  }
+
+  /** List the parts (MapFile directories or files) of a MapFile output */
+  private static List<Path> getParts(FileSystem fs, Path dir)
+      throws IOException {
+    List<Path> parts = new ArrayList<>();
+    FileStatus[] stats = fs.listStatus(dir,
+        p -> !p.getName().startsWith("_") && !p.getName().startsWith("."));
+    Arrays.sort(stats);
+    for (FileStatus stat : stats) {
+      parts.add(stat.getPath());
+    }
+    return parts;
+  }
+
+  private SequenceFile.Reader openPart(FileSystem fs, Path part)
+      throws IOException {
+    if (fs.getFileStatus(part).isDirectory()) {
+      part = new Path(part, MapFile.DATA_FILE_NAME);
+    }
+    return new SequenceFile.Reader(getConf(), SequenceFile.Reader.file(part));
+  }
+
+  /** Load URLs and number of outlinks from the NodeDb */
+  private void loadNodes(FileSystem fs, Path nodeDb) throws IOException {
+    List<String> nodeUrls = new ArrayList<>();
+    Text key = new Text();
+    Node node = new Node();
+    for (Path part : getParts(fs, nodeDb)) {
+      try (SequenceFile.Reader reader = openPart(fs, part)) {
+        while (reader.next(key, node)) {
+          nodeUrls.add(key.toString());
+        }
+      }
+    }
+    urls = nodeUrls.toArray(new String[nodeUrls.size()]);
+    nodeUrls = null;
+    Arrays.sort(urls);
+    numOutlinks = new int[urls.length];
+    for (Path part : getParts(fs, nodeDb)) {
+      try (SequenceFile.Reader reader = openPart(fs, part)) {
+        while (reader.next(key, node)) {
+          numOutlinks[getId(key.toString())] = node.getNumOutlinks();
+        }
+      }
+    }
+  }
+
+  /**
+   * Read all links of the OutlinkDb and call the consumer with source and
+   * target node id. Links from or to URLs not in the NodeDb are skipped.
+   */
+  private long readLinks(FileSystem fs, Path outlinkDb,
+      LinkConsumer consumer) throws IOException {
+    long skipped = 0;
+    Text key = new Text();
+    LinkDatum datum = new LinkDatum();
+    for (Path part : getParts(fs, outlinkDb)) {
+      try (SequenceFile.Reader reader = openPart(fs, part)) {
+        String lastFrom = null;
+        int from = -1;
+        while (reader.next(key, datum)) {
+          String fromUrl = key.toString();
+          // outlinks are grouped by source URL
+          if (!fromUrl.equals(lastFrom)) {
+            from = getId(fromUrl);
+            lastFrom = fromUrl;
+          }
+          int to = getId(datum.getUrl());
+          if (from < 0 || to < 0 || numOutlinks[from] <= 0) {
+            skipped++;
+            continue;
+          }
+          consumer.accept(from, to);
+        }
+      }
+    }
+    return skipped;
+  }
+
+  /** Build the inlinks of every node as compressed sparse rows */
+  private void loadLinks(FileSystem fs, Path outlinkDb) throws IOException {
+    int numNodes = urls.length;
+    int[] counts = new int[numNodes + 1];
+    long skipped = readLinks(fs, outlinkDb, (from, to) -> counts[to]++);
+    inlinkOffsets = new int[numNodes + 1];
+    long total = 0;
+    for (int i = 0; i < numNodes; i++) {
+      inlinkOffsets[i] = (int) total;
+      total += counts[i];
+      if (total > Integer.MAX_VALUE - 8) {
+        throw new IOException("Too many links for in-memory LinkRank: "
+            + total);
+      }
+    }
+    inlinkOffsets[numNodes] = (int) total;
+    inlinks = new int[(int) total];
+    // reuse counts as write positions
+    System.arraycopy(inlinkOffsets, 0, counts, 0, numNodes + 1);
+    readLinks(fs, outlinkDb, (from, to) -> inlinks[counts[to]++] = from);
+    LOG.info("InMemoryLinkRank: loaded {} links, skipped {} links from or to"
+        + " URLs not in the NodeDb", total, skipped);
+  }
+
+  private static long hash(String s) {
+    return s == null ? 0L
+        : HASH.hashString(s, StandardCharsets.UTF_8).asLong();
+  }
+
+  /**
+   * Remove inlinks which are ignored by the analysis because another inlink
+   * from the same page or domain has been counted before.
+   */
+  private void limitInlinks(boolean limitPages, boolean limitDomains) {
+    if (!limitPages && !limitDomains) {
+      return;
+    }
+    int numNodes = urls.length;
+    long[] pageHashes = new long[numNodes];
+    long[] domainHashes = new long[numNodes];
+    parallel((from, to) -> {
+      for (int i = from; i < to; i++) {
+        pageHashes[i] = hash(URLUtil.getPage(urls[i]));
+        try {
+          domainHashes[i] = hash(URLUtil.getDomainName(urls[i]));
+        } catch (MalformedURLException e) {
+          // not expected in the WebGraph, treated the same as a null page
+          domainHashes[i] = hash(null);
+        }
+      }
+      return 0.0;
+    });
+    int[] kept = new int[numNodes];
+    double ignored = parallel((from, to) -> {
+      Set<Long> pages = new HashSet<>();
+      Set<Long> domains = new HashSet<>();
+      long removed = 0;
+      for (int i = from; i < to; i++) {
+        pages.clear();
+        domains.clear();
+        int start = inlinkOffsets[i];
+        int k = start;
+        for (int j = start; j < inlinkOffsets[i + 1]; j++) {
+          int source = inlinks[j];
+          long page = pageHashes[source];
+          long domain = domainHashes[source];
+          if ((limitPages && pages.contains(page))
+              || (limitDomains && domains.contains(domain))) {
+            removed++;
+            continue;
+          }
+          pages.add(page);
+          domains.add(domain);
+          inlinks[k++] = source;
+        }
+        kept[i] = k - start;
+      }
+      return removed;
+    });
+    // compact the rows
+    int pos = 0;
+    for (int i = 0; i < numNodes; i++) {
+      int start = inlinkOffsets[i];
+      System.arraycopy(inlinks, start, inlinks, pos, kept[i]);
+      inlinkOffsets[i] = pos;
+      pos += kept[i];
+    }
+    inlinkOffsets[numNodes] = pos;
+    LOG.info("InMemoryLinkRank: ignored {} links from duplicate pages or"
+        + " domains", (long) ignored);
+  }
+
+  /**
+   * Run the link analysis iterations.
+   *
+   * @return number of iterations run
+   */
+  private int iterate(int numIterations, float initialScore,
+      float dampingFactor, float rankOne, double threshold) {
+    int numNodes = urls.length;
+    scores = new float[numNodes];
+    Arrays.fill(scores, initialScore);
+    float[] outlinkScores = new float[numNodes];
+    float[] next = new float[numNodes];
+    for (int it = 0; it < numIterations; it++) {
+      float[] current = scores;
+      parallel((from, to) -> {
+        for (int i = from; i < to; i++) {
+          outlinkScores[i] = numOutlinks[i] > 0 ? current[i] / numOutlinks[i]
+              : 0.0f;
+        }
+        return 0.0;
+      });
+      float[] updated = next;
+      double change = parallel((from, to) -> {
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+          // a page with zero inlinks has a score of rankOne
+          float totalInlinkScore = rankOne;
+          for (int j = inlinkOffsets[i]; j < inlinkOffsets[i + 1]; j++) {
+            totalInlinkScore += outlinkScores[inlinks[j]];
+          }
+          updated[i] = (1 - dampingFactor) + (dampingFactor * totalInlinkScore);
+          sum += Math.abs(updated[i] - current[i]);
+        }
+        return sum;
+      });
+      next = current;
+      scores = updated;
+      LOG.info("InMemoryLinkRank: finished iteration {} of {}, score change: {}",
+          (it + 1), numIterations, change);
+      if (change < threshold) {
+        LOG.info("InMemoryLinkRank: converged after {} iterations", (it + 1));
+        return it + 1;
+      }
+    }
+    return numIterations;
+  }
+
+  /** Write the NodeDb with updated scores, keeping the parts of the input */
+  private void writeNodes(FileSystem fs, Path nodeDb, Path output)
+      throws IOException {
+    Text key = new Text();
+    Node node = new Node();
+    for (Path part : getParts(fs, nodeDb)) {
+      try (SequenceFile.Reader reader = openPart(fs, part);
+          MapFile.Writer writer = new MapFile.Writer(getConf(),
+              new Path(output, part.getName()),
+              MapFile.Writer.keyClass(Text.class),
+              SequenceFile.Writer.valueClass(Node.class))) {
+        while (reader.next(key, node)) {
+          node.setInlinkScore(scores[getId(key.toString())]);
+          writer.append(key, node);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs the link analysis in memory and replaces the NodeDb in the WebGraph
+   * with the results.
+   *
+   * @param webGraphDb
+   *          The WebGraph to run link analysis on.
+   * @throws IOException
+   *           If an error occurs while reading or writing the WebGraph.
+   */
+  public void analyze(Path webGraphDb) throws IOException {
+    StopWatch stopWatch = new StopWatch();
+    stopWatch.start();
+    LOG.info("InMemoryLinkRank Analysis: starting");
+
+    Configuration conf = getConf();
+    FileSystem fs = webGraphDb.getFileSystem(conf);
+    Path wgOutlinkDb = new Path(webGraphDb, WebGraph.OUTLINK_DIR);
+    Path wgNodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
+
+    int threads = conf.getInt("link.analyze.inmemory.threads", 0);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    pool = new ForkJoinPool(threads);
+    try {
+      loadNodes(fs, wgNodeDb);
+      int numNodes = urls.length;
+      if (numNodes == 0) {
+        throw new IOException("No links to process, is the webgraph empty?");
+      }
+      grain = Math.max(1024, numNodes / (threads * 8));
+      loadLinks(fs, wgOutlinkDb);
+      limitInlinks(conf.getBoolean("link.ignore.limit.page", true),
+          conf.getBoolean("link.ignore.limit.domain", true));
+
+      float rankOneScore = (1f / (float) numNodes);
+      LOG.info("Analysis: Number of nodes: {}", numNodes);
+      LOG.info("Analysis: Rank One: {}", rankOneScore);
+      iterate(conf.getInt("link.analyze.num.iterations", 10),
+          conf.getFloat("link.analyze.initial.score", 1.0f),
+          conf.getFloat("link.analyze.damping.factor", 0.85f), rankOneScore,
+          conf.getDouble("link.analyze.convergence.threshold", 0.0));
+      inlinks = null;
+      inlinkOffsets = null;
+
+      // write the scores into a temporary NodeDb and install it
+      Path tempNodeDb = new Path(webGraphDb,
+          WebGraph.NODE_DIR + "-" + Integer.toString(
+              new Random().nextInt(Integer.MAX_VALUE)));
+      writeNodes(fs, wgNodeDb, tempNodeDb);
+      LOG.info("Analysis: Installing web graph nodes");
+      FSUtils.replace(fs, wgNodeDb, tempNodeDb, true);
+    } finally {
+      pool.shutdown();
+      urls = null;
+      numOutlinks = null;
+      inlinks = null;
+      inlinkOffsets = null;
+      scores = null;
+    }
+
+    stopWatch.stop();
+    LOG.info("InMemoryLinkRank Analysis: finished, elapsed: {} ms",
+        stopWatch.getTime(TimeUnit.MILLISECONDS));
+  }
+
+}
@@ -40,7 +40,6 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.MapFile;
-import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
@@ -215,19 +214,20 @@ public class LinkDumper extends Configured implements Tool {
   public static class Inverter {
 
     /**
-     * Wraps all values in ObjectWritables.
+     * Wraps all values in WebGraphWritables.
      */
     public static class InvertMapper extends 
-        Mapper<Text, Writable, Text, ObjectWritable> {
+        Mapper<Text, Writable, Text, WebGraphWritable> {
+
+      private WebGraphWritable writable = new WebGraphWritable();
 
       @Override
       public void map(Text key, Writable value,
           Context context)
           throws IOException, InterruptedException {
 
-        ObjectWritable objWrite = new ObjectWritable();
-        objWrite.set(value);
-        context.write(key, objWrite);
+        writable.set(value);
+        context.write(key, writable);
       }
     }
 
@@ -236,17 +236,17 @@ public class LinkDumper extends Configured implements Tool {
      * outlink.
      */
     public static class InvertReducer extends
-        Reducer<Text, ObjectWritable, Text, LinkNode> {
+        Reducer<Text, WebGraphWritable, Text, LinkNode> {
 
       private Configuration conf;
 
       @Override
-      public void setup(Reducer<Text, ObjectWritable, Text, LinkNode>.Context context) {
+      public void setup(Reducer<Text, WebGraphWritable, Text, LinkNode>.Context context) {
         conf = context.getConfiguration();
       }
 
       @Override
-      public void reduce(Text key, Iterable<ObjectWritable> values,
+      public void reduce(Text key, Iterable<WebGraphWritable> values,
           Context context)
           throws IOException, InterruptedException {
 
@@ -255,7 +255,7 @@ public class LinkDumper extends Configured implements Tool {
         Node node = null;
         
         // loop through all values aggregating outlinks, saving node
-        for (ObjectWritable write : values) {
+        for (WebGraphWritable write : values) {
           Object obj = write.get();
           if (obj instanceof Node) {
             node = (Node) obj;
@@ -349,7 +349,7 @@ public class LinkDumper extends Configured implements Tool {
     inverter.setMapperClass(Inverter.InvertMapper.class);
     inverter.setReducerClass(Inverter.InvertReducer.class);
     inverter.setMapOutputKeyClass(Text.class);
-    inverter.setMapOutputValueClass(ObjectWritable.class);
+    inverter.setMapOutputValueClass(WebGraphWritable.class);
     inverter.setOutputKeyClass(Text.class);
     inverter.setOutputValueClass(LinkNode.class);
     FileOutputFormat.setOutputPath(inverter, tempInverted);
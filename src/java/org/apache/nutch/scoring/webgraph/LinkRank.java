@@ -17,6 +17,8 @@
 package org.apache.nutch.scoring.webgraph;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -44,8 +46,9 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
@@ -53,6 +56,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -73,6 +77,9 @@ public class LinkRank extends Configured implements Tool {
   private static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
   private static final String NUM_NODES = "_num_nodes_";
+  private static final String COUNTER_GROUP = "LinkRank";
+  private static final String SCORE_CHANGE_COUNTER = "score_change_l1_micros";
+  private static final double SCORE_CHANGE_SCALE = 1000000.0;
 
   /**
    * Runs the counter job. The counter job determines the number of links in the
@@ -254,7 +261,7 @@ public class LinkRank extends Configured implements Tool {
     inverter.setMapperClass(Inverter.InvertMapper.class);
     inverter.setReducerClass(Inverter.InvertReducer.class);
     inverter.setMapOutputKeyClass(Text.class);
-    inverter.setMapOutputValueClass(ObjectWritable.class);
+    inverter.setMapOutputValueClass(WebGraphWritable.class);
     inverter.setOutputKeyClass(Text.class);
     inverter.setOutputValueClass(LinkDatum.class);
     inverter.setOutputFormatClass(SequenceFileOutputFormat.class);
@@ -312,7 +319,7 @@ public class LinkRank extends Configured implements Tool {
     FileOutputFormat.setOutputPath(analyzer, output);
     conf.set("link.analyze.rank.one", String.valueOf(rankOne));
     analyzer.setMapOutputKeyClass(Text.class);
-    analyzer.setMapOutputValueClass(ObjectWritable.class);
+    analyzer.setMapOutputValueClass(WebGraphWritable.class);
     analyzer.setInputFormatClass(SequenceFileInputFormat.class);
     analyzer.setJarByClass(Analyzer.class);
     analyzer.setMapperClass(Analyzer.AnalyzerMapper.class);
@@ -413,13 +420,15 @@ public class LinkRank extends Configured implements Tool {
   private static class Inverter {
 
     /**
-     * Convert values to ObjectWritable
+     * Convert values to WebGraphWritable
      */
     public static class InvertMapper extends 
-        Mapper<Text, Writable, Text, ObjectWritable> {
+        Mapper<Text, Writable, Text, WebGraphWritable> {
+
+      private WebGraphWritable writable = new WebGraphWritable();
 
       @Override
-      public void setup(Mapper<Text, Writable, Text, ObjectWritable>.Context context) {
+      public void setup(Mapper<Text, Writable, Text, WebGraphWritable>.Context context) {
       }
 
       @Override
@@ -427,9 +436,8 @@ public class LinkRank extends Configured implements Tool {
           Context context)
           throws IOException, InterruptedException {
 
-        ObjectWritable objWrite = new ObjectWritable();
-        objWrite.set(value);
-        context.write(key, objWrite);
+        writable.set(value);
+        context.write(key, writable);
       }
     }
 
@@ -438,17 +446,17 @@ public class LinkRank extends Configured implements Tool {
      * the NodeDb of the WebGraph.
      */
     public static class InvertReducer extends
-        Reducer<Text, ObjectWritable, Text, LinkDatum> {
+        Reducer<Text, WebGraphWritable, Text, LinkDatum> {
 
       private Configuration conf;      
 
       @Override
-      public void setup(Reducer<Text, ObjectWritable, Text, LinkDatum>.Context context) {
+      public void setup(Reducer<Text, WebGraphWritable, Text, LinkDatum>.Context context) {
         conf = context.getConfiguration();
       }
 
       @Override
-      public void reduce(Text key, Iterable<ObjectWritable> values,
+      public void reduce(Text key, Iterable<WebGraphWritable> values,
           Context context)
           throws IOException, InterruptedException {
 
@@ -457,7 +465,7 @@ public class LinkRank extends Configured implements Tool {
         Node node = null;
 
         // aggregate outlinks, assign other values
-        for (ObjectWritable write : values) {
+        for (WebGraphWritable write : values) {
           Object obj = write.get();
           if (obj instanceof Node) {
             node = (Node) obj;
@@ -499,30 +507,21 @@ public class LinkRank extends Configured implements Tool {
   private static class Analyzer {
 
     /**
-     * Convert values to ObjectWritable
+     * Convert values to WebGraphWritable
      */
     public static class AnalyzerMapper extends 
-        Mapper<Text, Writable, Text, ObjectWritable> {
+        Mapper<Text, Writable, Text, WebGraphWritable> {
 
-      private Configuration conf;
-
-      /**
-       * Configures the job mapper, sets the damping factor, rank one score, and other
-       * needed values for analysis.
-       */
-      @Override
-      public void setup(Mapper<Text, Writable, Text, ObjectWritable>.Context context) {
-        conf = context.getConfiguration();
-      }
+      private WebGraphWritable writable = new WebGraphWritable();
 
       @Override
       public void map(Text key, Writable value,
           Context context)
           throws IOException, InterruptedException {
 
-        ObjectWritable objWrite = new ObjectWritable();
-        objWrite.set(WritableUtils.clone(value, conf));
-        context.write(key, objWrite);
+        // the value is serialized when written, no need to clone it
+        writable.set(value);
+        context.write(key, writable);
       }
     }
 
@@ -531,7 +530,7 @@ public class LinkRank extends Configured implements Tool {
      * stored in a temporary NodeDb which replaces the NodeDb of the WebGraph.
      */
     public static class AnalyzerReducer extends
-        Reducer<Text, ObjectWritable, Text, Node> {
+        Reducer<Text, WebGraphWritable, Text, Node> {
 
       private Configuration conf;
       private float dampingFactor = 0.85f;
@@ -546,7 +545,7 @@ public class LinkRank extends Configured implements Tool {
        */
       @Override
       public void setup(
-          Reducer<Text, ObjectWritable, Text, Node>.Context context) {
+          Reducer<Text, WebGraphWritable, Text, Node>.Context context) {
         conf = context.getConfiguration();
         dampingFactor = conf.getFloat("link.analyze.damping.factor", 0.85f);
         rankOne = conf.getFloat("link.analyze.rank.one", 0.0f);
@@ -556,7 +555,7 @@ public class LinkRank extends Configured implements Tool {
       }
 
       @Override
-      public void reduce(Text key, Iterable<ObjectWritable> values,
+      public void reduce(Text key, Iterable<WebGraphWritable> values,
           Context context)
           throws IOException, InterruptedException {
 
@@ -569,7 +568,7 @@ public class LinkRank extends Configured implements Tool {
         int numInlinks = 0;
         float totalInlinkScore = rankOne;
 
-        for (ObjectWritable next : values) {
+        for (WebGraphWritable next : values) {
 
           Object value = next.get();
           if (value instanceof Node) {
@@ -615,6 +614,355 @@ public class LinkRank extends Configured implements Tool {
     }
   }
 
+  /**
+   * State of a node in the incremental link analysis: the node, the links
+   * counted for the analysis (after applying <code>link.ignore.limit.page</code>
+   * and <code>link.ignore.limit.domain</code>), the sum of the outlink scores
+   * received from the inlinks and the score already propagated to the
+   * outlinks.
+   */
+  public static class NodeState implements Writable {
+
+    private Node node = new Node();
+    private double inlinkScoreSum = 0.0;
+    private float propagatedScore = 0.0f;
+    private List<String> outlinks = new ArrayList<>();
+
+    public Node getNode() {
+      return node;
+    }
+
+    /**
+     * @return score of the node not yet propagated to the outlinks
+     */
+    public float getPendingScore() {
+      return node.getInlinkScore() - propagatedScore;
+    }
+
+    public List<String> getOutlinks() {
+      return outlinks;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      node.readFields(in);
+      inlinkScoreSum = in.readDouble();
+      propagatedScore = in.readFloat();
+      outlinks.clear();
+      int numOutlinks = WritableUtils.readVInt(in);
+      for (int i = 0; i < numOutlinks; i++) {
+        outlinks.add(Text.readString(in));
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      node.write(out);
+      out.writeDouble(inlinkScoreSum);
+      out.writeFloat(propagatedScore);
+      WritableUtils.writeVInt(out, outlinks.size());
+      for (String outlink : outlinks) {
+        Text.writeString(out, outlink);
+      }
+    }
+  }
+
+  /**
+   * Determines the links counted by the analysis. Same as done in
+   * {@link Analyzer.AnalyzerReducer} only a single inlink per page and domain
+   * is counted, but the decision is taken only once and not in every
+   * iteration.
+   */
+  private static class CountedLinks {
+
+    /**
+     * Inverts outlinks, the target URL is the key.
+     */
+    public static class InvertMapper extends
+        Mapper<Text, LinkDatum, Text, Text> {
+
+      @Override
+      public void map(Text key, LinkDatum value, Context context)
+          throws IOException, InterruptedException {
+        context.write(new Text(value.getUrl()), key);
+      }
+    }
+
+    /**
+     * Removes duplicate inlinks from the same page or domain and outputs the
+     * remaining links with the source URL as key.
+     */
+    public static class LimitReducer extends Reducer<Text, Text, Text, Text> {
+
+      private boolean limitPages = true;
+      private boolean limitDomains = true;
+
+      @Override
+      public void setup(Reducer<Text, Text, Text, Text>.Context context) {
+        Configuration conf = context.getConfiguration();
+        limitPages = conf.getBoolean("link.ignore.limit.page", true);
+        limitDomains = conf.getBoolean("link.ignore.limit.domain", true);
+      }
+
+      @Override
+      public void reduce(Text key, Iterable<Text> values, Context context)
+          throws IOException, InterruptedException {
+        Set<String> domains = new HashSet<>();
+        Set<String> pages = new HashSet<>();
+        for (Text value : values) {
+          String inlinkUrl = value.toString();
+          String inLinkDomain = URLUtil.getDomainName(inlinkUrl);
+          String inLinkPage = URLUtil.getPage(inlinkUrl);
+          if ((limitPages && pages.contains(inLinkPage))
+              || (limitDomains && domains.contains(inLinkDomain))) {
+            continue;
+          }
+          domains.add(inLinkDomain);
+          pages.add(inLinkPage);
+          context.write(new Text(inlinkUrl), key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Joins the nodes of the NodeDb with the counted outlinks to create the
+   * initial state of the incremental link analysis.
+   */
+  private static class StateInitializer {
+
+    /**
+     * Convert values to WebGraphWritable
+     */
+    public static class StateMapper extends
+        Mapper<Text, Writable, Text, WebGraphWritable> {
+
+      private WebGraphWritable writable = new WebGraphWritable();
+
+      @Override
+      public void map(Text key, Writable value, Context context)
+          throws IOException, InterruptedException {
+        writable.set(value);
+        context.write(key, writable);
+      }
+    }
+
+    /**
+     * Outputs the initial state of a node, the initial score is not yet
+     * propagated to the outlinks.
+     */
+    public static class StateReducer extends
+        Reducer<Text, WebGraphWritable, Text, NodeState> {
+
+      private Configuration conf;
+      private float initialScore = 1.0f;
+
+      @Override
+      public void setup(
+          Reducer<Text, WebGraphWritable, Text, NodeState>.Context context) {
+        conf = context.getConfiguration();
+        initialScore = conf.getFloat("link.analyze.initial.score", 1.0f);
+      }
+
+      @Override
+      public void reduce(Text key, Iterable<WebGraphWritable> values,
+          Context context) throws IOException, InterruptedException {
+        NodeState state = new NodeState();
+        boolean hasNode = false;
+        for (WebGraphWritable write : values) {
+          Object obj = write.get();
+          if (obj instanceof Node) {
+            state.node = WritableUtils.clone((Node) obj, conf);
+            hasNode = true;
+          } else if (obj instanceof Text) {
+            state.outlinks.add(obj.toString());
+          }
+        }
+        if (!hasNode) {
+          return;
+        }
+        state.node.setInlinkScore(initialScore);
+        context.write(key, state);
+      }
+    }
+  }
+
+  /**
+   * Runs a single iteration of the incremental link analysis: every node
+   * propagates the change of its score since the last propagation to the
+   * counted outlinks if the change is larger than
+   * <code>link.analyze.delta.epsilon</code>. Only these score changes are
+   * shuffled, the reducer merges them with the sorted state of the
+   * partition which is read directly from the previous state. The job must
+   * run with the same number of reduce tasks as there are parts in the
+   * previous state.
+   */
+  private static class DeltaAnalyzer {
+
+    /**
+     * Emits the pending score changes to the outlinks.
+     */
+    public static class DeltaMapper extends
+        Mapper<Text, NodeState, Text, FloatWritable> {
+
+      private float epsilon = 0.0f;
+
+      @Override
+      public void setup(
+          Mapper<Text, NodeState, Text, FloatWritable>.Context context) {
+        epsilon = context.getConfiguration()
+            .getFloat("link.analyze.delta.epsilon", 0.0001f);
+      }
+
+      @Override
+      public void map(Text key, NodeState state, Context context)
+          throws IOException, InterruptedException {
+        int numOutlinks = state.node.getNumOutlinks();
+        float pending = state.getPendingScore();
+        if (numOutlinks <= 0 || state.outlinks.isEmpty()
+            || Math.abs(pending) <= epsilon) {
+          return;
+        }
+        FloatWritable outlinkScore = new FloatWritable(pending / numOutlinks);
+        Text toUrl = new Text();
+        for (String outlink : state.outlinks) {
+          toUrl.set(outlink);
+          context.write(toUrl, outlinkScore);
+        }
+        context.getCounter(COUNTER_GROUP, "nodes_propagated").increment(1);
+        context.getCounter(COUNTER_GROUP, "links_propagated")
+            .increment(state.outlinks.size());
+      }
+    }
+
+    /**
+     * Sums the score changes per URL.
+     */
+    public static class DeltaCombiner extends
+        Reducer<Text, FloatWritable, Text, FloatWritable> {
+
+      @Override
+      public void reduce(Text key, Iterable<FloatWritable> values,
+          Context context) throws IOException, InterruptedException {
+        float sum = 0.0f;
+        for (FloatWritable value : values) {
+          sum += value.get();
+        }
+        context.write(key, new FloatWritable(sum));
+      }
+    }
+
+    /**
+     * Applies the score changes to the state of the partition and calculates
+     * the new scores.
+     */
+    public static class DeltaReducer extends
+        Reducer<Text, FloatWritable, Text, NodeState> {
+
+      private float epsilon = 0.0f;
+      private float dampingFactor = 0.85f;
+      private float rankOne = 0.0f;
+
+      private SequenceFile.Reader stateReader;
+      private Text stateKey = new Text();
+      private NodeState state = new NodeState();
+      private boolean hasState;
+
+      private double scoreChange = 0.0;
+      private long nodesChanged = 0;
+
+      @Override
+      public void setup(
+          Reducer<Text, FloatWritable, Text, NodeState>.Context context)
+          throws IOException {
+        Configuration conf = context.getConfiguration();
+        epsilon = conf.getFloat("link.analyze.delta.epsilon", 0.0001f);
+        dampingFactor = conf.getFloat("link.analyze.damping.factor", 0.85f);
+        rankOne = conf.getFloat("link.analyze.rank.one", 0.0f);
+        int partition = context.getTaskAttemptID().getTaskID().getId();
+        Path statePart = new Path(conf.get("link.analyze.state.db"),
+            String.format("part-r-%05d", partition));
+        stateReader = new SequenceFile.Reader(conf,
+            SequenceFile.Reader.file(statePart));
+        hasState = stateReader.next(stateKey, state);
+      }
+
+      private void update(float delta, Context context)
+          throws IOException, InterruptedException {
+        float oldScore = state.node.getInlinkScore();
+        // same condition as in the mapper: the pending score was propagated
+        if (state.node.getNumOutlinks() > 0 && !state.outlinks.isEmpty()
+            && Math.abs(state.getPendingScore()) > epsilon) {
+          state.propagatedScore = oldScore;
+        }
+        state.inlinkScoreSum += delta;
+        // calculate linkRank score formula
+        float linkRankScore = (1 - dampingFactor)
+            + (dampingFactor * (rankOne + (float) state.inlinkScoreSum));
+        state.node.setInlinkScore(linkRankScore);
+        if (linkRankScore != oldScore) {
+          nodesChanged++;
+          scoreChange += Math.abs(linkRankScore - oldScore);
+        }
+        context.write(stateKey, state);
+        hasState = stateReader.next(stateKey, state);
+      }
+
+      /**
+       * Update all nodes without score changes up to the given key
+       *
+       * @return true if the state of the node with the given key is read
+       */
+      private boolean advance(Text key, Context context)
+          throws IOException, InterruptedException {
+        while (hasState && (key == null || stateKey.compareTo(key) < 0)) {
+          update(0.0f, context);
+        }
+        return hasState && key != null && stateKey.equals(key);
+      }
+
+      @Override
+      public void reduce(Text key, Iterable<FloatWritable> values,
+          Context context) throws IOException, InterruptedException {
+        float sum = 0.0f;
+        for (FloatWritable value : values) {
+          sum += value.get();
+        }
+        if (advance(key, context)) {
+          update(sum, context);
+        } else {
+          context.getCounter(COUNTER_GROUP, "links_to_unknown_nodes")
+              .increment(1);
+        }
+      }
+
+      @Override
+      public void cleanup(
+          Reducer<Text, FloatWritable, Text, NodeState>.Context context)
+          throws IOException, InterruptedException {
+        advance(null, context);
+        stateReader.close();
+        context.getCounter(COUNTER_GROUP, "nodes_changed")
+            .increment(nodesChanged);
+        context.getCounter(COUNTER_GROUP, SCORE_CHANGE_COUNTER)
+            .increment(Math.round(scoreChange * SCORE_CHANGE_SCALE));
+      }
+    }
+  }
+
+  /**
+   * Converts the final state of the incremental link analysis into nodes.
+   */
+  private static class StateToNodeMapper extends
+      Mapper<Text, NodeState, Text, Node> {
+
+    @Override
+    public void map(Text key, NodeState state, Context context)
+        throws IOException, InterruptedException {
+      context.write(key, state.node);
+    }
+  }
+
   /**
    * Default constructor.
    */
@@ -648,6 +996,11 @@ public class LinkRank extends Configured implements Tool {
   public void analyze(Path webGraphDb) throws IOException, 
       ClassNotFoundException, InterruptedException {
 
+    if (getConf().getBoolean("link.analyze.incremental", false)) {
+      analyzeIncremental(webGraphDb);
+      return;
+    }
+
     StopWatch stopWatch = new StopWatch();
     stopWatch.start();
     LOG.info("LinkRank Analysis: starting");
@@ -716,6 +1069,183 @@ public class LinkRank extends Configured implements Tool {
         TimeUnit.MILLISECONDS));
   }
 
+  private void runJob(Job job, String name) throws IOException,
+      InterruptedException, ClassNotFoundException {
+    job.getConfiguration().setBoolean(
+        "mapreduce.fileoutputcommitter.marksuccessfuljobs", false);
+    LOG.info("Starting {} job", name);
+    try {
+      boolean success = job.waitForCompletion(true);
+      if (!success) {
+        String message = NutchJob.getJobFailureLogMessage(name, job);
+        LOG.error(message);
+        throw new RuntimeException(message);
+      }
+    } catch (IOException | InterruptedException | ClassNotFoundException e) {
+      LOG.error("{} job failed:", name, e);
+      throw e;
+    }
+    LOG.info("Finished {} job", name);
+  }
+
+  /**
+   * Runs the link analysis incrementally. Instead of inverting all links in
+   * every iteration, every node only propagates the change of its score
+   * since the last propagation if the change is larger than
+   * <code>link.analyze.delta.epsilon</code>. The analysis stops after
+   * <code>link.analyze.num.iterations</code> or earlier if the sum of the
+   * absolute score changes (L1 norm) of an iteration is lower than
+   * <code>link.analyze.convergence.threshold</code> or no score has changed.
+   * If the epsilon is 0.0, the scores are the same as calculated by
+   * {@link #analyze(Path)} with the same number of iterations.
+   * 
+   * The score changes of every iteration are reported in the job counters
+   * (group <code>LinkRank</code>).
+   * 
+   * @param webGraphDb
+   *          The WebGraph to run link analysis on.
+   * 
+   * @throws IOException
+   *           If a fatal I/O runtime error occurs during link analysis.
+   * @throws InterruptedException if the Job is interrupted during execution
+   * @throws ClassNotFoundException if classes required to run 
+   * the Job cannot be located
+   */
+  public void analyzeIncremental(Path webGraphDb) throws IOException,
+      ClassNotFoundException, InterruptedException {
+
+    StopWatch stopWatch = new StopWatch();
+    stopWatch.start();
+    LOG.info("LinkRank Analysis (incremental): starting");
+
+    Path linkRank = new Path(webGraphDb, "linkrank");
+    Configuration conf = getConf();
+    FileSystem fs = linkRank.getFileSystem(conf);
+    if (!fs.exists(linkRank)) {
+      fs.mkdirs(linkRank);
+    }
+
+    Path wgOutlinkDb = new Path(webGraphDb, WebGraph.OUTLINK_DIR);
+    Path wgNodeDb = new Path(webGraphDb, WebGraph.NODE_DIR);
+
+    int numLinks = runCounter(fs, webGraphDb);
+    float rankOneScore = (1f / (float) numLinks);
+    LOG.info("Analysis: Number of links: {}", numLinks);
+    LOG.info("Analysis: Rank One: {}", rankOneScore);
+
+    // determine the links counted by the analysis
+    Path countedLinks = new Path(linkRank, "counted");
+    Job counted = Job.getInstance(conf,
+        "Nutch LinkRank: counted links " + wgOutlinkDb);
+    FileInputFormat.addInputPath(counted, wgOutlinkDb);
+    FileOutputFormat.setOutputPath(counted, countedLinks);
+    counted.setInputFormatClass(SequenceFileInputFormat.class);
+    counted.setJarByClass(CountedLinks.class);
+    counted.setMapperClass(CountedLinks.InvertMapper.class);
+    counted.setReducerClass(CountedLinks.LimitReducer.class);
+    counted.setMapOutputKeyClass(Text.class);
+    counted.setMapOutputValueClass(Text.class);
+    counted.setOutputKeyClass(Text.class);
+    counted.setOutputValueClass(Text.class);
+    counted.setOutputFormatClass(SequenceFileOutputFormat.class);
+    runJob(counted, "Counted links");
+
+    // join nodes and counted links into the initial state
+    Path state = new Path(linkRank, "state-0");
+    Job initializer = Job.getInstance(conf,
+        "Nutch LinkRank: state initializer " + wgNodeDb);
+    FileInputFormat.addInputPath(initializer, wgNodeDb);
+    FileInputFormat.addInputPath(initializer, countedLinks);
+    FileOutputFormat.setOutputPath(initializer, state);
+    initializer.setInputFormatClass(SequenceFileInputFormat.class);
+    initializer.setJarByClass(StateInitializer.class);
+    initializer.setMapperClass(StateInitializer.StateMapper.class);
+    initializer.setReducerClass(StateInitializer.StateReducer.class);
+    initializer.setMapOutputKeyClass(Text.class);
+    initializer.setMapOutputValueClass(WebGraphWritable.class);
+    initializer.setOutputKeyClass(Text.class);
+    initializer.setOutputValueClass(NodeState.class);
+    initializer.setOutputFormatClass(SequenceFileOutputFormat.class);
+    runJob(initializer, "State initializer");
+    fs.delete(countedLinks, true);
+
+    int numIterations = conf.getInt("link.analyze.num.iterations", 10);
+    double threshold = conf.getDouble("link.analyze.convergence.threshold",
+        0.0);
+    for (int i = 0; i < numIterations; i++) {
+      LOG.info("Analysis: Starting iteration {} of {}", (i + 1),
+          numIterations);
+      Path nextState = new Path(linkRank, "state-" + (i + 1));
+      int numParts = fs.listStatus(state, p -> !p.getName().startsWith("_")
+          && !p.getName().startsWith(".")).length;
+      Job analyzer = Job.getInstance(conf, "Nutch LinkRank: incremental"
+          + " analysis iteration " + (i + 1) + " of " + numIterations);
+      Configuration analyzerConf = analyzer.getConfiguration();
+      analyzerConf.set("link.analyze.iteration", String.valueOf(i + 1));
+      analyzerConf.set("link.analyze.rank.one", String.valueOf(rankOneScore));
+      analyzerConf.set("link.analyze.state.db", state.toString());
+      FileInputFormat.addInputPath(analyzer, state);
+      FileOutputFormat.setOutputPath(analyzer, nextState);
+      analyzer.setInputFormatClass(SequenceFileInputFormat.class);
+      analyzer.setJarByClass(DeltaAnalyzer.class);
+      analyzer.setMapperClass(DeltaAnalyzer.DeltaMapper.class);
+      analyzer.setCombinerClass(DeltaAnalyzer.DeltaCombiner.class);
+      analyzer.setReducerClass(DeltaAnalyzer.DeltaReducer.class);
+      // the reducers read the state of their partition
+      analyzer.setNumReduceTasks(numParts);
+      analyzer.setMapOutputKeyClass(Text.class);
+      analyzer.setMapOutputValueClass(FloatWritable.class);
+      analyzer.setOutputKeyClass(Text.class);
+      analyzer.setOutputValueClass(NodeState.class);
+      analyzer.setOutputFormatClass(SequenceFileOutputFormat.class);
+      runJob(analyzer, "Incremental analysis");
+
+      Counters counters = analyzer.getCounters();
+      long nodesPropagated = counters
+          .findCounter(COUNTER_GROUP, "nodes_propagated").getValue();
+      long linksPropagated = counters
+          .findCounter(COUNTER_GROUP, "links_propagated").getValue();
+      long nodesChanged = counters
+          .findCounter(COUNTER_GROUP, "nodes_changed").getValue();
+      double scoreChange = counters
+          .findCounter(COUNTER_GROUP, SCORE_CHANGE_COUNTER).getValue()
+          / SCORE_CHANGE_SCALE;
+      LOG.info("Analysis: finished iteration {} of {}: nodes propagated: {},"
+          + " links propagated: {}, nodes changed: {}, score change: {}",
+          (i + 1), numIterations, nodesPropagated, linksPropagated,
+          nodesChanged, scoreChange);
+
+      fs.delete(state, true);
+      state = nextState;
+      if (nodesChanged == 0 || scoreChange < threshold) {
+        LOG.info("Analysis: converged after {} iterations", (i + 1));
+        break;
+      }
+    }
+
+    // write the final scores into a NodeDb
+    Path nodeDb = new Path(linkRank, WebGraph.NODE_DIR);
+    Job finalizer = Job.getInstance(conf, "Nutch LinkRank: nodes " + state);
+    FileInputFormat.addInputPath(finalizer, state);
+    FileOutputFormat.setOutputPath(finalizer, nodeDb);
+    finalizer.setInputFormatClass(SequenceFileInputFormat.class);
+    finalizer.setJarByClass(StateToNodeMapper.class);
+    finalizer.setMapperClass(StateToNodeMapper.class);
+    finalizer.setMapOutputKeyClass(Text.class);
+    finalizer.setMapOutputValueClass(Node.class);
+    finalizer.setOutputKeyClass(Text.class);
+    finalizer.setOutputValueClass(Node.class);
+    finalizer.setOutputFormatClass(MapFileOutputFormat.class);
+    runJob(finalizer, "Node output");
+
+    LOG.info("Analysis: Installing web graph nodes");
+    FSUtils.replace(fs, wgNodeDb, nodeDb, true);
+    fs.delete(linkRank, true);
+    stopWatch.stop();
+    LOG.info("LinkRank Analysis (incremental): finished, elapsed: {} ms",
+        stopWatch.getTime(TimeUnit.MILLISECONDS));
+  }
+
   public static void main(String[] args) throws Exception {
     int res = ToolRunner.run(NutchConfiguration.create(), new LinkRank(), args);
     System.exit(res);
@@ -739,6 +1269,18 @@ public class LinkRank extends Configured implements Tool {
     Option webgraphOpts = OptionBuilder.create("webgraphdb");
     options.addOption(webgraphOpts);
 
+    OptionBuilder.withArgName("inmemory");
+    OptionBuilder
+        .withDescription("run the link analysis in memory on a single machine");
+    Option inMemoryOpts = OptionBuilder.create("inmemory");
+    options.addOption(inMemoryOpts);
+
+    OptionBuilder.withArgName("incremental");
+    OptionBuilder.withDescription(
+        "propagate only score changes, see link.analyze.delta.epsilon");
+    Option incrementalOpts = OptionBuilder.create("incremental");
+    options.addOption(incrementalOpts);
+
     CommandLineParser parser = new GnuParser();
     try {
 
@@ -751,7 +1293,14 @@ public class LinkRank extends Configured implements Tool {
 
       String webGraphDb = line.getOptionValue("webgraphdb");
 
-      analyze(new Path(webGraphDb));
+      if (line.hasOption("incremental")) {
+        getConf().setBoolean("link.analyze.incremental", true);
+      }
+      if (line.hasOption("inmemory")) {
+        new InMemoryLinkRank(getConf()).analyze(new Path(webGraphDb));
+      } else {
+        analyze(new Path(webGraphDb));
+      }
       return 0;
     } catch (Exception e) {
       LOG.error("LinkAnalysis: " + StringUtils.stringifyException(e));
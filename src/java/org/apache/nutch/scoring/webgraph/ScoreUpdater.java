@@ -35,7 +35,6 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.ObjectWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
@@ -64,19 +63,20 @@ public class ScoreUpdater extends Configured implements Tool{
       .getLogger(MethodHandles.lookup().lookupClass());
 
   /**
-   * Changes input into ObjectWritables.
+   * Changes input into WebGraphWritables.
    */
   public static class ScoreUpdaterMapper extends
-      Mapper<Text, Writable, Text, ObjectWritable> {
+      Mapper<Text, Writable, Text, WebGraphWritable> {
+
+    private WebGraphWritable writable = new WebGraphWritable();
 
     @Override
     public void map(Text key, Writable value,
         Context context)
         throws IOException, InterruptedException {
 
-      ObjectWritable objWrite = new ObjectWritable();
-      objWrite.set(value);
-      context.write(key, objWrite);
+      writable.set(value);
+      context.write(key, writable);
     }
   }
 
@@ -85,17 +85,17 @@ public class ScoreUpdater extends Configured implements Tool{
    * with a cleared score.
    */
   public static class ScoreUpdaterReducer extends 
-      Reducer<Text, ObjectWritable, Text, CrawlDatum> {
+      Reducer<Text, WebGraphWritable, Text, CrawlDatum> {
     private float clearScore = 0.0f;
 
     @Override
-    public void setup(Reducer<Text, ObjectWritable, Text, CrawlDatum>.Context context) {
+    public void setup(Reducer<Text, WebGraphWritable, Text, CrawlDatum>.Context context) {
       Configuration conf = context.getConfiguration();
       clearScore = conf.getFloat("link.score.updater.clear.score", 0.0f);
     }
 
     @Override
-    public void reduce(Text key, Iterable<ObjectWritable> values,
+    public void reduce(Text key, Iterable<WebGraphWritable> values,
         Context context)
         throws IOException, InterruptedException {
 
@@ -105,7 +105,7 @@ public class ScoreUpdater extends Configured implements Tool{
 
       // set the node and the crawl datum, should be one of each unless no node
       // for url in the crawldb
-      for (ObjectWritable next : values) {
+      for (WebGraphWritable next : values) {
         Object value = next.get();
         if (value instanceof Node) {
           node = (Node) value;
@@ -179,7 +179,7 @@ public class ScoreUpdater extends Configured implements Tool{
     updater.setMapperClass(ScoreUpdater.ScoreUpdaterMapper.class);
     updater.setReducerClass(ScoreUpdater.ScoreUpdaterReducer.class);
     updater.setMapOutputKeyClass(Text.class);
-    updater.setMapOutputValueClass(ObjectWritable.class);
+    updater.setMapOutputValueClass(WebGraphWritable.class);
     updater.setOutputKeyClass(Text.class);
     updater.setOutputValueClass(CrawlDatum.class);
     updater.setOutputFormatClass(MapFileOutputFormat.class);
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.crawl.CrawlDatum;
+
+/**
+ * Union of the values joined in the shuffle of the WebGraph jobs. In
+ * difference to {@link org.apache.hadoop.io.ObjectWritable} the type is
+ * written as a single byte and not as class name.
+ */
+@SuppressWarnings("unchecked")
+public class WebGraphWritable extends GenericWritable {
+
+  private static Class<? extends Writable>[] CLASSES = null;
+
+  static {
+    CLASSES = (Class<? extends Writable>[]) new Class<?>[] {
+        Node.class,
+        LinkDatum.class,
+        CrawlDatum.class,
+        Text.class };
+  }
+
+  public WebGraphWritable() {
+  }
+
+  public WebGraphWritable(Writable instance) {
+    set(instance);
+  }
+
+  @Override
+  protected Class<? extends Writable>[] getTypes() {
+    return CLASSES;
+  }
+
+}
@@ -19,18 +19,25 @@ package org.apache.nutch.segment;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.TreeMap;
+import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
@@ -40,10 +47,12 @@ import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.SequenceFile.Metadata;
 import org.apache.hadoop.io.compress.DefaultCodec;
 import org.apache.hadoop.util.Progressable;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -207,148 +216,172 @@ public class SegmentMerger extends Configured implements Tool{
 
   public static class SegmentOutputFormat extends
   FileOutputFormat<Text, MetaWrapper> {
-    private static final String DEFAULT_SLICE = "default";
 
     @Override
     public RecordWriter<Text, MetaWrapper> getRecordWriter(TaskAttemptContext context)
             throws IOException {
-      Configuration conf = context.getConfiguration();
       String name = getUniqueFile(context, "part", "");
-      Path dir = FileOutputFormat.getOutputPath(context);
-      FileSystem fs = dir.getFileSystem(context.getConfiguration());
-
-      return new RecordWriter<Text, MetaWrapper>() {
-        MapFile.Writer cOut = null;
-        MapFile.Writer fOut = null;
-        MapFile.Writer pdOut = null;
-        MapFile.Writer ptOut = null;
-        SequenceFile.Writer gOut = null;
-        SequenceFile.Writer pOut = null;
-        HashMap<String, Closeable> sliceWriters = new HashMap<>();
-        String segmentName = conf.get("segment.merger.segmentName");
+      return new SegmentRecordWriter(context, name);
+    }
+  }
 
-        @Override
-        public void write(Text key, MetaWrapper wrapper) throws IOException {
-          // unwrap
-          SegmentPart sp = SegmentPart.parse(wrapper.getMeta(SEGMENT_PART_KEY));
-          Writable o = wrapper.get();
-          String slice = wrapper.getMeta(SEGMENT_SLICE_KEY);
-          if (o instanceof CrawlDatum) {
-            if (sp.partName.equals(CrawlDatum.GENERATE_DIR_NAME)) {
-              gOut = ensureSequenceFile(slice, CrawlDatum.GENERATE_DIR_NAME);
-              gOut.append(key, o);
-            } else if (sp.partName.equals(CrawlDatum.FETCH_DIR_NAME)) {
-              fOut = ensureMapFile(slice, CrawlDatum.FETCH_DIR_NAME,
-                      CrawlDatum.class);
-              fOut.append(key, o);
-            } else if (sp.partName.equals(CrawlDatum.PARSE_DIR_NAME)) {
-              pOut = ensureSequenceFile(slice, CrawlDatum.PARSE_DIR_NAME);
-              pOut.append(key, o);
-            } else {
-              throw new IOException("Cannot determine segment part: "
-                      + sp.partName);
-            }
-          } else if (o instanceof Content) {
-            cOut = ensureMapFile(slice, Content.DIR_NAME, Content.class);
-            cOut.append(key, o);
-          } else if (o instanceof ParseData) {
-            // update the segment name inside contentMeta - required by Indexer
-            if (slice == null) {
-              ((ParseData) o).getContentMeta().set(Nutch.SEGMENT_NAME_KEY,
-                      segmentName);
-            } else {
-              ((ParseData) o).getContentMeta().set(Nutch.SEGMENT_NAME_KEY,
-                      segmentName + "-" + slice);
-            }
-            pdOut = ensureMapFile(slice, ParseData.DIR_NAME, ParseData.class);
-            pdOut.append(key, o);
-          } else if (o instanceof ParseText) {
-            ptOut = ensureMapFile(slice, ParseText.DIR_NAME, ParseText.class);
-            ptOut.append(key, o);
-          }
-        }
+  /**
+   * Writes the merged values into the parts of the output segment, or the
+   * output slices if the segment is sliced.
+   */
+  public static class SegmentRecordWriter extends
+  RecordWriter<Text, MetaWrapper> {
+    private static final String DEFAULT_SLICE = "default";
 
-        // lazily create SequenceFile-s.
-        private SequenceFile.Writer ensureSequenceFile(String slice,
-                String dirName) throws IOException {
-          if (slice == null)
-            slice = DEFAULT_SLICE;
-          SequenceFile.Writer res = (SequenceFile.Writer) sliceWriters
-                  .get(slice + dirName);
-          if (res != null)
-            return res;
-          Path wname;
-          Path out = FileOutputFormat.getOutputPath(context);
-          if (slice == DEFAULT_SLICE) {
-            wname = new Path(new Path(new Path(out, segmentName), dirName),
-                    name);
-          } else {
-            wname = new Path(new Path(new Path(out, segmentName + "-" + slice),
-                    dirName), name);
-          }
+    private final TaskAttemptContext context;
+    private final Configuration conf;
+    private final FileSystem fs;
+    private final String name;
+    private final String segmentName;
 
-          res = SequenceFile.createWriter(conf, SequenceFile.Writer.file(wname),
-                  SequenceFile.Writer.keyClass(Text.class),
-                  SequenceFile.Writer.valueClass(CrawlDatum.class),
-                  SequenceFile.Writer.bufferSize(fs.getConf().getInt("io.file.buffer.size",4096)),
-                  SequenceFile.Writer.replication(fs.getDefaultReplication(wname)),
-                  SequenceFile.Writer.blockSize(1073741824),
-                  SequenceFile.Writer.compression(SequenceFileOutputFormat.getOutputCompressionType(context), new DefaultCodec()),
-                  SequenceFile.Writer.progressable((Progressable)context),
-                  SequenceFile.Writer.metadata(new Metadata())); 
-
-          sliceWriters.put(slice + dirName, res);
-          return res;
-        }
-
-        // lazily create MapFile-s.
-        private MapFile.Writer ensureMapFile(String slice, String dirName,
-                Class<? extends Writable> clazz) throws IOException {
-          if (slice == null)
-            slice = DEFAULT_SLICE;
-          MapFile.Writer res = (MapFile.Writer) sliceWriters.get(slice
-                  + dirName);
-          if (res != null)
-            return res;
-          Path wname;
-          Path out = FileOutputFormat.getOutputPath(context);
-          if (slice == DEFAULT_SLICE) {
-            wname = new Path(new Path(new Path(out, segmentName), dirName),
-                    name);
-          } else {
-            wname = new Path(new Path(new Path(out, segmentName + "-" + slice),
-                    dirName), name);
-          }
-          CompressionType compType = SequenceFileOutputFormat
-                  .getOutputCompressionType(context);
-          if (clazz.isAssignableFrom(ParseText.class)) {
-            compType = CompressionType.RECORD;
-          }
+    private MapFile.Writer cOut = null;
+    private MapFile.Writer fOut = null;
+    private MapFile.Writer pdOut = null;
+    private MapFile.Writer ptOut = null;
+    private SequenceFile.Writer gOut = null;
+    private SequenceFile.Writer pOut = null;
+    private HashMap<String, Closeable> sliceWriters = new HashMap<>();
 
-          Option rKeyClassOpt = MapFile.Writer.keyClass(Text.class);
-          org.apache.hadoop.io.SequenceFile.Writer.Option rValClassOpt = SequenceFile.Writer.valueClass(clazz);
-          org.apache.hadoop.io.SequenceFile.Writer.Option rProgressOpt = SequenceFile.Writer.progressable((Progressable)context);
-          org.apache.hadoop.io.SequenceFile.Writer.Option rCompOpt = SequenceFile.Writer.compression(compType);
+    /**
+     * @param context
+     *          task context
+     * @param name
+     *          file name of the parts written by this writer
+     */
+    public SegmentRecordWriter(TaskAttemptContext context, String name)
+            throws IOException {
+      this.context = context;
+      this.conf = context.getConfiguration();
+      this.name = name;
+      this.fs = FileOutputFormat.getOutputPath(context).getFileSystem(conf);
+      this.segmentName = conf.get("segment.merger.segmentName");
+    }
 
-          res = new MapFile.Writer(conf, wname, rKeyClassOpt,
-                  rValClassOpt, rCompOpt, rProgressOpt);
-          sliceWriters.put(slice + dirName, res);
-          return res;
+    @Override
+    public void write(Text key, MetaWrapper wrapper) throws IOException {
+      // unwrap
+      SegmentPart sp = SegmentPart.parse(wrapper.getMeta(SEGMENT_PART_KEY));
+      Writable o = wrapper.get();
+      String slice = wrapper.getMeta(SEGMENT_SLICE_KEY);
+      if (o instanceof CrawlDatum) {
+        if (sp.partName.equals(CrawlDatum.GENERATE_DIR_NAME)) {
+          gOut = ensureSequenceFile(slice, CrawlDatum.GENERATE_DIR_NAME);
+          gOut.append(key, o);
+        } else if (sp.partName.equals(CrawlDatum.FETCH_DIR_NAME)) {
+          fOut = ensureMapFile(slice, CrawlDatum.FETCH_DIR_NAME,
+                  CrawlDatum.class);
+          fOut.append(key, o);
+        } else if (sp.partName.equals(CrawlDatum.PARSE_DIR_NAME)) {
+          pOut = ensureSequenceFile(slice, CrawlDatum.PARSE_DIR_NAME);
+          pOut.append(key, o);
+        } else {
+          throw new IOException("Cannot determine segment part: "
+                  + sp.partName);
+        }
+      } else if (o instanceof Content) {
+        cOut = ensureMapFile(slice, Content.DIR_NAME, Content.class);
+        cOut.append(key, o);
+      } else if (o instanceof ParseData) {
+        // update the segment name inside contentMeta - required by Indexer
+        if (slice == null) {
+          ((ParseData) o).getContentMeta().set(Nutch.SEGMENT_NAME_KEY,
+                  segmentName);
+        } else {
+          ((ParseData) o).getContentMeta().set(Nutch.SEGMENT_NAME_KEY,
+                  segmentName + "-" + slice);
         }
+        pdOut = ensureMapFile(slice, ParseData.DIR_NAME, ParseData.class);
+        pdOut.append(key, o);
+      } else if (o instanceof ParseText) {
+        ptOut = ensureMapFile(slice, ParseText.DIR_NAME, ParseText.class);
+        ptOut.append(key, o);
+      }
+    }
 
-        @Override
-        public void close(TaskAttemptContext context) throws IOException {
-          Iterator<Closeable> it = sliceWriters.values().iterator();
-          while (it.hasNext()) {
-            Object o = it.next();
-            if (o instanceof SequenceFile.Writer) {
-              ((SequenceFile.Writer) o).close();
-            } else {
-              ((MapFile.Writer) o).close();
-            }
-          }
+    // lazily create SequenceFile-s.
+    private SequenceFile.Writer ensureSequenceFile(String slice,
+            String dirName) throws IOException {
+      if (slice == null)
+        slice = DEFAULT_SLICE;
+      SequenceFile.Writer res = (SequenceFile.Writer) sliceWriters
+              .get(slice + dirName);
+      if (res != null)
+        return res;
+      Path wname;
+      Path out = FileOutputFormat.getOutputPath(context);
+      if (slice == DEFAULT_SLICE) {
+        wname = new Path(new Path(new Path(out, segmentName), dirName),
+                name);
+      } else {
+        wname = new Path(new Path(new Path(out, segmentName + "-" + slice),
+                dirName), name);
+      }
+
+      res = SequenceFile.createWriter(conf, SequenceFile.Writer.file(wname),
+              SequenceFile.Writer.keyClass(Text.class),
+              SequenceFile.Writer.valueClass(CrawlDatum.class),
+              SequenceFile.Writer.bufferSize(fs.getConf().getInt("io.file.buffer.size",4096)),
+              SequenceFile.Writer.replication(fs.getDefaultReplication(wname)),
+              SequenceFile.Writer.blockSize(1073741824),
+              SequenceFile.Writer.compression(SequenceFileOutputFormat.getOutputCompressionType(context), new DefaultCodec()),
+              SequenceFile.Writer.progressable((Progressable)context),
+              SequenceFile.Writer.metadata(new Metadata())); 
+
+      sliceWriters.put(slice + dirName, res);
+      return res;
+    }
+
+    // lazily create MapFile-s.
+    private MapFile.Writer ensureMapFile(String slice, String dirName,
+            Class<? extends Writable> clazz) throws IOException {
+      if (slice == null)
+        slice = DEFAULT_SLICE;
+      MapFile.Writer res = (MapFile.Writer) sliceWriters.get(slice
+              + dirName);
+      if (res != null)
+        return res;
+      Path wname;
+      Path out = FileOutputFormat.getOutputPath(context);
+      if (slice == DEFAULT_SLICE) {
+        wname = new Path(new Path(new Path(out, segmentName), dirName),
+                name);
+      } else {
+        wname = new Path(new Path(new Path(out, segmentName + "-" + slice),
+                dirName), name);
+      }
+      CompressionType compType = SequenceFileOutputFormat
+              .getOutputCompressionType(context);
+      if (clazz.isAssignableFrom(ParseText.class)) {
+        compType = CompressionType.RECORD;
+      }
+
+      Option rKeyClassOpt = MapFile.Writer.keyClass(Text.class);
+      org.apache.hadoop.io.SequenceFile.Writer.Option rValClassOpt = SequenceFile.Writer.valueClass(clazz);
+      org.apache.hadoop.io.SequenceFile.Writer.Option rProgressOpt = SequenceFile.Writer.progressable((Progressable)context);
+      org.apache.hadoop.io.SequenceFile.Writer.Option rCompOpt = SequenceFile.Writer.compression(compType);
+
+      res = new MapFile.Writer(conf, wname, rKeyClassOpt,
+              rValClassOpt, rCompOpt, rProgressOpt);
+      sliceWriters.put(slice + dirName, res);
+      return res;
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) throws IOException {
+      Iterator<Closeable> it = sliceWriters.values().iterator();
+      while (it.hasNext()) {
+        Object o = it.next();
+        if (o instanceof SequenceFile.Writer) {
+          ((SequenceFile.Writer) o).close();
+        } else {
+          ((MapFile.Writer) o).close();
         }
-      };
+      }
     }
   }
 
@@ -411,36 +444,52 @@ public class SegmentMerger extends Configured implements Tool{
   }
 
   /**
+   * Receives the merged values of a URL, either the reducer's context or a
+   * {@link SegmentRecordWriter}.
+   */
+  interface MergeOutput {
+    void write(Text key, MetaWrapper value)
+        throws IOException, InterruptedException;
+  }
+
+  /**
+   * Merges all values of a URL, keeping only the latest version of every
+   * segment part, and optionally applies the {@link SegmentMergeFilters}.
+   * Shared by the reducer and the merge-join mapper, so that both produce the
+   * same merged segment.
+   * <p>
    * NOTE: in selecting the latest version we rely exclusively on the segment
    * name (not all segment data contain time information). Therefore it is
-   * extremely important that segments be named in an increasing lexicographic
-   * order as their creation time increases.
+   * extremely important that segments be named in an increasing
+   * lexicographic order as their creation time increases.
+   * </p>
    */
-  public static class SegmentMergerReducer extends
-  Reducer<Text, MetaWrapper, Text, MetaWrapper> {
+  static class SegmentRecordMerger {
 
     private SegmentMergeFilters mergeFilters = null;
     private long sliceSize = -1;
-    private long curCount = 0; 
+    private long curCount = 0;
 
-    @Override
-    public void setup(Reducer<Text, MetaWrapper, Text, MetaWrapper>.Context context) {
-      Configuration conf = context.getConfiguration();
+    /**
+     * @param conf
+     *          job configuration
+     * @param numPartitions
+     *          number of reducers or merge-join partitions, the slice size is
+     *          distributed over the partitions
+     */
+    SegmentRecordMerger(Configuration conf, int numPartitions) {
       if (conf.getBoolean("segment.merger.filter", false)) {
         mergeFilters = new SegmentMergeFilters(conf);
-      }      
+      }
       sliceSize = conf.getLong("segment.merger.slice", -1);
       if (sliceSize > 0) {
         LOG.info("Slice size: {} URLs.", sliceSize);
-      }
-      if (sliceSize > 0) {
-        sliceSize = sliceSize / Integer.parseInt(conf.get("mapreduce.job.reduces"));
+        sliceSize = sliceSize / numPartitions;
       }
     }
 
-    @Override
-    public void reduce(Text key, Iterable<MetaWrapper> values,
-            Context context) throws IOException, InterruptedException {
+    void merge(Text key, Iterable<MetaWrapper> values, MergeOutput output)
+        throws IOException, InterruptedException {
       CrawlDatum lastG = null;
       CrawlDatum lastF = null;
       CrawlDatum lastSig = null;
@@ -569,42 +618,42 @@ public class SegmentMerger extends Configured implements Tool{
         sp.partName = CrawlDatum.GENERATE_DIR_NAME;
         sp.segmentName = lastGname;
         wrapper.setMeta(SEGMENT_PART_KEY, sp.toString());
-        context.write(key, wrapper);
+        output.write(key, wrapper);
       }
       if (lastF != null) {
         wrapper.set(lastF);
         sp.partName = CrawlDatum.FETCH_DIR_NAME;
         sp.segmentName = lastFname;
         wrapper.setMeta(SEGMENT_PART_KEY, sp.toString());
-        context.write(key, wrapper);
+        output.write(key, wrapper);
       }
       if (lastSig != null) {
         wrapper.set(lastSig);
         sp.partName = CrawlDatum.PARSE_DIR_NAME;
         sp.segmentName = lastSigname;
         wrapper.setMeta(SEGMENT_PART_KEY, sp.toString());
-        context.write(key, wrapper);
+        output.write(key, wrapper);
       }
       if (lastC != null) {
         wrapper.set(lastC);
         sp.partName = Content.DIR_NAME;
         sp.segmentName = lastCname;
         wrapper.setMeta(SEGMENT_PART_KEY, sp.toString());
-        context.write(key, wrapper);
+        output.write(key, wrapper);
       }
       if (lastPD != null) {
         wrapper.set(lastPD);
         sp.partName = ParseData.DIR_NAME;
         sp.segmentName = lastPDname;
         wrapper.setMeta(SEGMENT_PART_KEY, sp.toString());
-        context.write(key, wrapper);
+        output.write(key, wrapper);
       }
       if (lastPT != null) {
         wrapper.set(lastPT);
         sp.partName = ParseText.DIR_NAME;
         sp.segmentName = lastPTname;
         wrapper.setMeta(SEGMENT_PART_KEY, sp.toString());
-        context.write(key, wrapper);
+        output.write(key, wrapper);
       }
       if (linked.size() > 0) {
         String name = linked.lastKey();
@@ -615,14 +664,356 @@ public class SegmentMerger extends Configured implements Tool{
         for (int i = 0; i < segLinked.size(); i++) {
           CrawlDatum link = segLinked.get(i);
           wrapper.set(link);
-          context.write(key, wrapper);
+          output.write(key, wrapper);
         }
       }
     }
   }
 
+  public static class SegmentMergerReducer extends
+  Reducer<Text, MetaWrapper, Text, MetaWrapper> {
+
+    private SegmentRecordMerger merger;
+
+    @Override
+    public void setup(Reducer<Text, MetaWrapper, Text, MetaWrapper>.Context context) {
+      Configuration conf = context.getConfiguration();
+      merger = new SegmentRecordMerger(conf,
+          conf.getInt("mapreduce.job.reduces", 1));
+    }
+
+    @Override
+    public void reduce(Text key, Iterable<MetaWrapper> values,
+            Context context) throws IOException, InterruptedException {
+      merger.merge(key, values, context::write);
+    }
+  }
+
+  /**
+   * Map-side merge-join of segments whose MapFile parts (content, crawl_fetch,
+   * parse_data, parse_text) have the same number of hash-partitioned parts.
+   * Every map task merges one partition: it reads part <i>N</i> of all
+   * segments, which are already sorted by URL, merges them in a single pass
+   * and writes part <i>N</i> of the merged segment, without shuffling the
+   * segment data. The records of crawl_generate and crawl_parse, which are
+   * neither sorted nor partitioned by URL, are selected by the hash partition
+   * of their URL and sorted locally.
+   * <p>
+   * The input is a list of the partitions to be merged, one per line.
+   * </p>
+   */
+  public static class SegmentMergeJoinMapper extends
+  Mapper<LongWritable, Text, Text, MetaWrapper> {
+
+    private Configuration conf;
+    private FileSystem localFs;
+    private Path[] segs;
+    private String[] mapFileParts;
+    private String[] sequenceFileParts;
+    private int numPartitions;
+    private URLFilters filters = null;
+
+    /** Reads the records of one segment part in the order of the URLs */
+    private static class JoinCursor {
+      private final SequenceFile.Reader reader;
+      private final String spString;
+      private final Configuration conf;
+      private Text key = new Text();
+      private MetaWrapper value;
+
+      /**
+       * @param spString
+       *          segment part to set as metadata, null if the values are
+       *          already wrapped
+       */
+      JoinCursor(SequenceFile.Reader reader, String spString,
+          Configuration conf) {
+        this.reader = reader;
+        this.spString = spString;
+        this.conf = conf;
+      }
+
+      boolean next() throws IOException {
+        Text nextKey = new Text();
+        if (spString == null) {
+          value = new MetaWrapper();
+          value.setConf(conf);
+          if (!reader.next(nextKey, value)) {
+            return false;
+          }
+        } else {
+          Writable w = (Writable) ReflectionUtils
+              .newInstance(reader.getValueClass(), conf);
+          if (!reader.next(nextKey, w)) {
+            return false;
+          }
+          value = new MetaWrapper(w, conf);
+          value.setMeta(SEGMENT_PART_KEY, spString);
+        }
+        if (nextKey.compareTo(key) < 0) {
+          throw new IOException("Segment part is not sorted: " + nextKey
+              + " after " + key + " in " + reader);
+        }
+        key = nextKey;
+        return true;
+      }
+
+      void close() throws IOException {
+        reader.close();
+      }
+    }
+
+    @Override
+    public void setup(
+        Mapper<LongWritable, Text, Text, MetaWrapper>.Context context)
+        throws IOException {
+      conf = context.getConfiguration();
+      localFs = FileSystem.getLocal(conf);
+      String[] segNames = conf.getStrings("segment.merger.join.segments");
+      segs = new Path[segNames.length];
+      for (int i = 0; i < segNames.length; i++) {
+        segs[i] = new Path(StringUtils.unEscapeString(segNames[i]));
+      }
+      mapFileParts = conf.getTrimmedStrings("segment.merger.join.mapfile.parts");
+      sequenceFileParts = conf
+          .getTrimmedStrings("segment.merger.join.sequencefile.parts");
+      numPartitions = conf.getInt("segment.merger.join.partitions", 1);
+      if (conf.getBoolean("segment.merger.filter", false)) {
+        filters = new URLFilters(conf);
+      }
+    }
+
+    @Override
+    public void map(LongWritable lineNum, Text line, Context context)
+        throws IOException, InterruptedException {
+      int partition = Integer.parseInt(line.toString().trim());
+      LOG.info("Merging partition {} of {} segments", partition, segs.length);
+      context.setStatus("partition " + partition);
+
+      List<JoinCursor> cursors = new ArrayList<>();
+      Path localDir = new Path(conf.get("mapreduce.cluster.local.dir",
+          System.getProperty("java.io.tmpdir")).split(",")[0],
+          "segmerge-join-" + UUID.randomUUID().toString());
+      SegmentRecordWriter writer = new SegmentRecordWriter(context,
+          String.format("part-r-%05d", partition));
+      try {
+        for (Path seg : segs) {
+          FileSystem fs = seg.getFileSystem(conf);
+          for (String partName : mapFileParts) {
+            Path dir = getPartitionDirs(fs, new Path(seg, partName))[partition];
+            String spString = new SegmentPart(seg.getName(), partName)
+                .toString();
+            cursors.add(new JoinCursor(new SequenceFile.Reader(conf,
+                SequenceFile.Reader.file(
+                    new Path(dir, MapFile.DATA_FILE_NAME))),
+                spString, conf));
+          }
+        }
+        if (sequenceFileParts.length > 0) {
+          Path sorted = sortSequenceFileParts(partition, localDir, context);
+          if (sorted != null) {
+            cursors.add(new JoinCursor(new SequenceFile.Reader(conf,
+                SequenceFile.Reader.file(localFs.makeQualified(sorted))),
+                null, conf));
+          }
+        }
+
+        PriorityQueue<JoinCursor> queue = new PriorityQueue<>(
+            Math.max(1, cursors.size()), (c1, c2) -> c1.key.compareTo(c2.key));
+        for (JoinCursor cursor : cursors) {
+          if (cursor.next()) {
+            queue.add(cursor);
+          }
+        }
+
+        SegmentRecordMerger merger = new SegmentRecordMerger(conf,
+            numPartitions);
+        List<MetaWrapper> values = new ArrayList<>();
+        long urls = 0;
+        while (!queue.isEmpty()) {
+          Text key = queue.peek().key;
+          values.clear();
+          while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+            JoinCursor cursor = queue.poll();
+            values.add(cursor.value);
+            if (cursor.next()) {
+              queue.add(cursor);
+            }
+          }
+          if ((key.hashCode() & Integer.MAX_VALUE) % numPartitions != partition) {
+            throw new IOException("URL " + key + " does not belong to partition "
+                + partition + ", segments are not hash-partitioned");
+          }
+          if (filters != null) {
+            String url = key.toString();
+            try {
+              url = filters.filter(url);
+            } catch (Exception e) {
+              LOG.warn("Skipping key {} : {}", url, e.getMessage());
+              url = null;
+            }
+            if (url == null) {
+              continue;
+            }
+          }
+          merger.merge(key, values, writer::write);
+          if ((++urls % 1000) == 0) {
+            context.progress();
+          }
+        }
+        LOG.info("Merged {} URLs of partition {}", urls, partition);
+      } finally {
+        for (JoinCursor cursor : cursors) {
+          cursor.close();
+        }
+        writer.close(context);
+        localFs.delete(localDir, true);
+      }
+    }
+
+    /*
+     * Collect the records of the partition from crawl_generate and crawl_parse
+     * of all segments into a local file sorted by URL
+     */
+    private Path sortSequenceFileParts(int partition, Path localDir,
+        Context context) throws IOException {
+      Path unsorted = new Path(localDir, "unsorted");
+      Path sorted = new Path(localDir, "sorted");
+      try (SequenceFile.Writer out = SequenceFile.createWriter(conf,
+          SequenceFile.Writer.file(localFs.makeQualified(unsorted)),
+          SequenceFile.Writer.keyClass(Text.class),
+          SequenceFile.Writer.valueClass(MetaWrapper.class))) {
+        for (Path seg : segs) {
+          FileSystem fs = seg.getFileSystem(conf);
+          for (String partName : sequenceFileParts) {
+            String spString = new SegmentPart(seg.getName(), partName)
+                .toString();
+            for (FileStatus file : fs.listStatus(new Path(seg, partName),
+                p -> p.getName().startsWith("part-"))) {
+              Path data = file.isDirectory()
+                  ? new Path(file.getPath(), MapFile.DATA_FILE_NAME)
+                  : file.getPath();
+              try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+                  SequenceFile.Reader.file(data))) {
+                Text key = new Text();
+                Writable value = (Writable) ReflectionUtils
+                    .newInstance(reader.getValueClass(), conf);
+                MetaWrapper wrapper = new MetaWrapper(value, conf);
+                wrapper.setMeta(SEGMENT_PART_KEY, spString);
+                while (reader.next(key, value)) {
+                  if ((key.hashCode() & Integer.MAX_VALUE)
+                      % numPartitions == partition) {
+                    out.append(key, wrapper);
+                  }
+                }
+              }
+              context.progress();
+            }
+          }
+        }
+      }
+      SequenceFile.Sorter sorter = new SequenceFile.Sorter(localFs,
+          Text.class, MetaWrapper.class, conf);
+      sorter.sort(new Path[] { unsorted }, sorted, true);
+      return localFs.exists(sorted) ? sorted : null;
+    }
+  }
+
+  /**
+   * Get the parts of a MapFile output directory, sorted by name so that the
+   * index in the array is the partition number.
+   */
+  private static Path[] getPartitionDirs(FileSystem fs, Path dir)
+      throws IOException {
+    FileStatus[] fstats = fs.listStatus(dir,
+        p -> p.getName().startsWith("part-"));
+    Path[] dirs = HadoopFSUtil.getPaths(fstats);
+    Arrays.sort(dirs);
+    return dirs;
+  }
+
+  /**
+   * Check whether the segment parts stored as MapFiles can be merged by a
+   * map-side merge-join: all parts must be split into the same number of
+   * partitions and every partition must hold the URLs assigned to it by the
+   * hash partitioner.
+   *
+   * @return the number of partitions, or -1 if a merge-join is not possible
+   */
+  private int getMergeJoinPartitions(Configuration conf, Path[] segs,
+      List<String> mapFileParts) throws IOException {
+    int numPartitions = -1;
+    for (Path seg : segs) {
+      if (seg == null)
+        continue;
+      FileSystem fs = seg.getFileSystem(conf);
+      for (String partName : mapFileParts) {
+        Path[] dirs = getPartitionDirs(fs, new Path(seg, partName));
+        if (numPartitions == -1) {
+          numPartitions = dirs.length;
+        } else if (numPartitions != dirs.length) {
+          LOG.warn(
+              "Merge-join not possible: {}/{} has {} parts, expected {}",
+              seg, partName, dirs.length, numPartitions);
+          return -1;
+        }
+        for (int i = 0; i < dirs.length; i++) {
+          Text key = new Text();
+          try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+              SequenceFile.Reader.file(
+                  new Path(dirs[i], MapFile.DATA_FILE_NAME)))) {
+            if (reader.next(key)
+                && (key.hashCode() & Integer.MAX_VALUE) % dirs.length != i) {
+              LOG.warn("Merge-join not possible: {} is not hash-partitioned",
+                  dirs[i]);
+              return -1;
+            }
+          }
+        }
+      }
+    }
+    if (numPartitions < 1) {
+      LOG.warn("Merge-join not possible: no partitioned MapFile parts found");
+      return -1;
+    }
+    return numPartitions;
+  }
+
   public void merge(Path out, Path[] segs, boolean filter, boolean normalize,
           long slice) throws IOException, ClassNotFoundException, InterruptedException {
+    merge(out, segs, filter, normalize, slice, false);
+  }
+
+  /**
+   * Merge segments.
+   *
+   * @param out
+   *          parent dir of the output segment(s)
+   * @param segs
+   *          input segments
+   * @param filter
+   *          filter URLs by the current URLFilters
+   * @param normalize
+   *          normalize URLs by the current URLNormalizers
+   * @param slice
+   *          number of URLs per output segment, or -1 to write a single
+   *          segment
+   * @param mergeJoin
+   *          merge the sorted and partitioned segment parts in a map-only job
+   *          (see {@link SegmentMergeJoinMapper}). If the segments are not
+   *          partitioned alike or URLs are normalized (which may change the
+   *          order of the URLs), the segments are merged by the MapReduce
+   *          shuffle.
+   * @throws IOException
+   *           if the merge job fails
+   * @throws ClassNotFoundException
+   *           if a class of the job is not found
+   * @throws InterruptedException
+   *           if the merge job is interrupted
+   */
+  public void merge(Path out, Path[] segs, boolean filter, boolean normalize,
+          long slice, boolean mergeJoin)
+          throws IOException, ClassNotFoundException, InterruptedException {
     String segmentName = Generator.generateSegmentName();
     LOG.info("Merging {} segments to {}/{}", segs.length, out, segmentName);
     Job job = Job.getInstance(getConf(), "Nutch SegmentMerger: " + out + "/" + segmentName);
@@ -692,38 +1083,98 @@ public class SegmentMerger extends Configured implements Tool{
         sb.append(" " + ParseText.DIR_NAME);
       LOG.info("SegmentMerger: using segment data from: {}", sb.toString());
     }
-    for (int i = 0; i < segs.length; i++) {
-      if (segs[i] == null)
-        continue;
-      if (g) {
-        Path gDir = new Path(segs[i], CrawlDatum.GENERATE_DIR_NAME);
-        FileInputFormat.addInputPath(job, gDir);
-      }
-      if (c) {
-        Path cDir = new Path(segs[i], Content.DIR_NAME);
-        FileInputFormat.addInputPath(job, cDir);
-      }
-      if (f) {
-        Path fDir = new Path(segs[i], CrawlDatum.FETCH_DIR_NAME);
-        FileInputFormat.addInputPath(job, fDir);
+    int numPartitions = -1;
+    if (mergeJoin) {
+      List<String> mapFileParts = new ArrayList<>();
+      if (c)
+        mapFileParts.add(Content.DIR_NAME);
+      if (f)
+        mapFileParts.add(CrawlDatum.FETCH_DIR_NAME);
+      if (pd)
+        mapFileParts.add(ParseData.DIR_NAME);
+      if (pt)
+        mapFileParts.add(ParseText.DIR_NAME);
+      List<String> sequenceFileParts = new ArrayList<>();
+      if (g)
+        sequenceFileParts.add(CrawlDatum.GENERATE_DIR_NAME);
+      if (p)
+        sequenceFileParts.add(CrawlDatum.PARSE_DIR_NAME);
+      if (normalize) {
+        LOG.warn("Merge-join not possible: URL normalization may change the order of URLs");
+      } else {
+        numPartitions = getMergeJoinPartitions(conf, segs, mapFileParts);
       }
-      if (p) {
-        Path pDir = new Path(segs[i], CrawlDatum.PARSE_DIR_NAME);
-        FileInputFormat.addInputPath(job, pDir);
+      if (numPartitions > 0) {
+        List<String> segNames = new ArrayList<>();
+        for (Path seg : segs) {
+          if (seg != null)
+            segNames.add(StringUtils.escapeString(seg.toString()));
+        }
+        conf.setStrings("segment.merger.join.segments",
+            segNames.toArray(new String[segNames.size()]));
+        conf.setStrings("segment.merger.join.mapfile.parts",
+            mapFileParts.toArray(new String[mapFileParts.size()]));
+        conf.setStrings("segment.merger.join.sequencefile.parts",
+            sequenceFileParts.toArray(new String[sequenceFileParts.size()]));
+        conf.setInt("segment.merger.join.partitions", numPartitions);
+      } else {
+        LOG.warn("Falling back to merge segments by MapReduce shuffle");
       }
-      if (pd) {
-        Path pdDir = new Path(segs[i], ParseData.DIR_NAME);
-        FileInputFormat.addInputPath(job, pdDir);
+    }
+    Path tempDir = null;
+    if (numPartitions > 0) {
+      LOG.info("SegmentMerger: merge-join of {} partitions", numPartitions);
+      // one map task per partition
+      tempDir = new Path(conf.get("mapreduce.cluster.temp.dir", ".")
+          + "/segmerge-temp-" + UUID.randomUUID().toString());
+      Path partitionsFile = new Path(tempDir, "partitions");
+      try (FSDataOutputStream os = partitionsFile.getFileSystem(conf)
+          .create(partitionsFile)) {
+        for (int i = 0; i < numPartitions; i++) {
+          os.write((i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
       }
-      if (pt) {
-        Path ptDir = new Path(segs[i], ParseText.DIR_NAME);
-        FileInputFormat.addInputPath(job, ptDir);
+      NLineInputFormat.addInputPath(job, partitionsFile);
+      NLineInputFormat.setNumLinesPerSplit(job, 1);
+      job.setInputFormatClass(NLineInputFormat.class);
+      job.setMapperClass(SegmentMerger.SegmentMergeJoinMapper.class);
+      job.setNumReduceTasks(0);
+      // output is written directly to the final output path
+      conf.setBoolean("mapreduce.map.speculative", false);
+    } else {
+      for (int i = 0; i < segs.length; i++) {
+        if (segs[i] == null)
+          continue;
+        if (g) {
+          Path gDir = new Path(segs[i], CrawlDatum.GENERATE_DIR_NAME);
+          FileInputFormat.addInputPath(job, gDir);
+        }
+        if (c) {
+          Path cDir = new Path(segs[i], Content.DIR_NAME);
+          FileInputFormat.addInputPath(job, cDir);
+        }
+        if (f) {
+          Path fDir = new Path(segs[i], CrawlDatum.FETCH_DIR_NAME);
+          FileInputFormat.addInputPath(job, fDir);
+        }
+        if (p) {
+          Path pDir = new Path(segs[i], CrawlDatum.PARSE_DIR_NAME);
+          FileInputFormat.addInputPath(job, pDir);
+        }
+        if (pd) {
+          Path pdDir = new Path(segs[i], ParseData.DIR_NAME);
+          FileInputFormat.addInputPath(job, pdDir);
+        }
+        if (pt) {
+          Path ptDir = new Path(segs[i], ParseText.DIR_NAME);
+          FileInputFormat.addInputPath(job, ptDir);
+        }
       }
+      job.setInputFormatClass(ObjectInputFormat.class);
+      job.setMapperClass(SegmentMerger.SegmentMergerMapper.class);
+      job.setReducerClass(SegmentMerger.SegmentMergerReducer.class);
     }
-    job.setInputFormatClass(ObjectInputFormat.class);
     job.setJarByClass(SegmentMerger.class);
-    job.setMapperClass(SegmentMerger.SegmentMergerMapper.class);
-    job.setReducerClass(SegmentMerger.SegmentMergerReducer.class);
     FileOutputFormat.setOutputPath(job, out);
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(MetaWrapper.class);
@@ -741,6 +1192,10 @@ public class SegmentMerger extends Configured implements Tool{
     } catch (IOException | InterruptedException | ClassNotFoundException e) {
       LOG.error("SegmentMerger job failed: {}", e.getMessage());
       throw e;
+    } finally {
+      if (tempDir != null) {
+        tempDir.getFileSystem(conf).delete(tempDir, true);
+      }
     }
   }
 
@@ -752,7 +1207,7 @@ public class SegmentMerger extends Configured implements Tool{
   public int run(String[] args)  throws Exception {
     if (args.length < 2) {
       System.err
-      .println("SegmentMerger output_dir (-dir segments | seg1 seg2 ...) [-filter] [-slice NNNN]");
+      .println("SegmentMerger output_dir (-dir segments | seg1 seg2 ...) [-filter] [-normalize] [-slice NNNN] [-mergeJoin]");
       System.err
       .println("\toutput_dir\tname of the parent dir for output segment slice(s)");
       System.err
@@ -764,6 +1219,10 @@ public class SegmentMerger extends Configured implements Tool{
       .println("\t-normalize\t\tnormalize URL via current URLNormalizers");
       System.err
       .println("\t-slice NNNN\tcreate many output segments, each containing NNNN URLs");
+      System.err
+      .println("\t-mergeJoin\tmerge the sorted segment parts partition by partition in a map-only job,");
+      System.err
+      .println("\t\t\tfalls back to the default merge if segments are not partitioned alike");
       return -1;
     }
     Configuration conf = NutchConfiguration.create();
@@ -772,6 +1231,7 @@ public class SegmentMerger extends Configured implements Tool{
     long sliceSize = 0;
     boolean filter = false;
     boolean normalize = false;
+    boolean mergeJoin = false;
     for (int i = 1; i < args.length; i++) {
       if ("-dir".equals(args[i])) {
         Path dirPath = new Path(args[++i]);
@@ -787,6 +1247,8 @@ public class SegmentMerger extends Configured implements Tool{
         normalize = true;
       } else if ("-slice".equals(args[i])) {
         sliceSize = Long.parseLong(args[++i]);
+      } else if ("-mergeJoin".equals(args[i])) {
+        mergeJoin = true;
       } else {
         segs.add(new Path(args[i]));
       }
@@ -797,7 +1259,7 @@ public class SegmentMerger extends Configured implements Tool{
     }
 
     merge(out, segs.toArray(new Path[segs.size()]), filter, normalize,
-            sliceSize);
+            sliceSize, mergeJoin);
     return 0;
   }
 
@@ -16,7 +16,9 @@
  */
 package org.apache.nutch.service.model.request;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class DbQuery {
@@ -25,6 +27,7 @@ public class DbQuery {
   private String type;
   private Map<String, String> args = new HashMap<>();
   private String crawlId;
+  private List<String> urls = new ArrayList<>();
 
   public String getConfId() {
     return confId;
@@ -50,6 +53,12 @@ public class DbQuery {
   public void setCrawlId(String crawlId) {
     this.crawlId = crawlId;
   }
+  public List<String> getUrls() {
+    return urls;
+  }
+  public void setUrls(List<String> urls) {
+    this.urls = urls;
+  }
 
 
 
@@ -16,7 +16,11 @@
  */
 package org.apache.nutch.service.resources;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,15 +36,46 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
 import org.apache.nutch.crawl.CrawlDbReader;
+import org.apache.nutch.crawl.Inlink;
+import org.apache.nutch.crawl.Inlinks;
+import org.apache.nutch.crawl.LinkDb;
 import org.apache.nutch.fetcher.FetchNode;
 import org.apache.nutch.fetcher.FetchNodeDb;
 import org.apache.nutch.service.model.request.DbQuery;
 import org.apache.nutch.service.model.response.FetchNodeDbInfo;
+import org.apache.nutch.util.MapFileLookup;
 
 @Path(value = "/db")
 public class DbResource extends AbstractResource {
 
+  /** Max. number of CrawlDb and LinkDb lookups kept open */
+  private static final int MAX_LOOKUPS = 16;
+
+  /** An open lookup and the number of requests using it */
+  private static class OpenLookup<V extends Writable> {
+    private final MapFileLookup<V> lookup;
+    // guarded by LOOKUPS
+    private int users = 0;
+    private boolean evicted = false;
+
+    private OpenLookup(MapFileLookup<V> lookup) {
+      this.lookup = lookup;
+    }
+  }
+
+  /**
+   * Lookups of CrawlDb and LinkDb records, kept open over requests, keyed by
+   * configuration ID and path. The least recently used lookup is evicted if
+   * more than {@link #MAX_LOOKUPS} are open, and closed outside the lock once
+   * the last request using it has finished.
+   */
+  private static final Map<String, OpenLookup<?>> LOOKUPS = new LinkedHashMap<>(
+      16, 0.75f, true);
+
   @POST
   @Path(value = "/crawldb")
   @Consumes(MediaType.APPLICATION_JSON)
@@ -67,12 +102,113 @@ public class DbResource extends AbstractResource {
       return crawlDbTopN(conf, dbQuery.getArgs(), dbQuery.getCrawlId());
     }
     if(type.equalsIgnoreCase("url")){
-      return crawlDbUrl(conf, dbQuery.getArgs(), dbQuery.getCrawlId());
+      return crawlDbUrl(conf, dbQuery);
+    }
+    if(type.equalsIgnoreCase("lookup")){
+      return crawlDbLookup(conf, dbQuery);
     }
     return null;
 
   }	
 
+  @POST
+  @Path(value = "/linkdb")
+  @Consumes(MediaType.APPLICATION_JSON)
+  public Response readLinkDb(DbQuery dbQuery){
+    if(dbQuery == null || dbQuery.getCrawlId() == null || dbQuery.getType() == null)
+      return Response.status(Status.BAD_REQUEST).build();
+
+    Configuration conf = configManager.get(dbQuery.getConfId());
+    if(conf == null){
+      conf = configManager.get(ConfigResource.DEFAULT);
+    }
+    if(!dbQuery.getType().equalsIgnoreCase("lookup")){
+      return Response.status(Status.BAD_REQUEST).build();
+    }
+    OpenLookup<Inlinks> lookup = acquireLookup(conf, dbQuery,
+        new org.apache.hadoop.fs.Path(dbQuery.getCrawlId() + "/linkdb",
+            LinkDb.CURRENT_NAME), Inlinks.class);
+    try{
+      Map<String, Object> results = new LinkedHashMap<>();
+      for(Map.Entry<String, Inlinks> e : lookup.lookup.getAll(getUrls(dbQuery)).entrySet()){
+        List<Map<String, String>> inlinks = null;
+        if(e.getValue() != null){
+          inlinks = new ArrayList<>();
+          for(Iterator<Inlink> it = e.getValue().iterator(); it.hasNext();){
+            Inlink inlink = it.next();
+            Map<String, String> link = new HashMap<>();
+            link.put("fromUrl", inlink.getFromUrl());
+            link.put("anchor", inlink.getAnchor());
+            inlinks.add(link);
+          }
+        }
+        results.put(e.getKey(), inlinks);
+      }
+      return Response.ok(results).build();
+    }catch(Exception e){
+      e.printStackTrace();
+      return Response.serverError().entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }finally{
+      releaseLookup(lookup);
+    }
+  }
+
+  /**
+   * Get an open lookup, {@link #releaseLookup(OpenLookup)} must be called
+   * when the request is done.
+   */
+  @SuppressWarnings("unchecked")
+  private <V extends Writable> OpenLookup<V> acquireLookup(Configuration conf,
+      DbQuery dbQuery, org.apache.hadoop.fs.Path dir, Class<V> valueClass){
+    OpenLookup<V> lookup;
+    OpenLookup<?> unused = null;
+    synchronized(LOOKUPS){
+      lookup = (OpenLookup<V>) LOOKUPS.computeIfAbsent(
+          dbQuery.getConfId() + " " + dir,
+          k -> new OpenLookup<>(new MapFileLookup<>(conf, dir, valueClass)));
+      lookup.users++;
+      if(LOOKUPS.size() > MAX_LOOKUPS){
+        // evict the least recently used lookup
+        Iterator<OpenLookup<?>> it = LOOKUPS.values().iterator();
+        OpenLookup<?> eldest = it.next();
+        it.remove();
+        eldest.evicted = true;
+        if(eldest.users == 0){
+          unused = eldest;
+        }
+      }
+    }
+    if(unused != null){
+      unused.lookup.close();
+    }
+    return lookup;
+  }
+
+  /** Release a lookup, close it if it is evicted and no longer used */
+  private static void releaseLookup(OpenLookup<?> lookup){
+    synchronized(LOOKUPS){
+      lookup.users--;
+      if(!lookup.evicted || lookup.users > 0){
+        return;
+      }
+    }
+    lookup.lookup.close();
+  }
+
+  private static List<String> getUrls(DbQuery dbQuery){
+    List<String> urls = new ArrayList<>(dbQuery.getUrls());
+    if(dbQuery.getArgs().containsKey("url")){
+      urls.add(dbQuery.getArgs().get("url"));
+    }
+    return urls;
+  }
+
+  private OpenLookup<CrawlDatum> acquireCrawlDbLookup(Configuration conf, DbQuery dbQuery){
+    return acquireLookup(conf, dbQuery, new org.apache.hadoop.fs.Path(
+        dbQuery.getCrawlId() + "/crawldb", CrawlDb.CURRENT_NAME),
+        CrawlDatum.class);
+  }
+
   @GET
   @Path(value="/fetchdb")
   public List<FetchNodeDbInfo> fetchDb(@DefaultValue("0")@QueryParam("to")int to, @DefaultValue("0")@QueryParam("from")int from){
@@ -132,14 +268,39 @@ public class DbResource extends AbstractResource {
     }		
   }
 
-  private Response crawlDbUrl(Configuration conf, Map<String, String> args, String crawlId){
-    @SuppressWarnings("resource")
-    CrawlDbReader dbr = new CrawlDbReader();
+  private Response crawlDbUrl(Configuration conf, DbQuery dbQuery){
+    OpenLookup<CrawlDatum> lookup = acquireCrawlDbLookup(conf, dbQuery);
     try{
-      return Response.ok(dbr.query(args, conf, "url", crawlId)).build();
+      CrawlDatum res = lookup.lookup
+          .get(new org.apache.hadoop.io.Text(dbQuery.getArgs().get("url")));
+      if(res == null){
+        return Response.status(Status.NOT_FOUND).build();
+      }
+      return Response.ok(CrawlDbReader.datumToMap(res)).build();
     }catch(Exception e){
       e.printStackTrace();
       return Response.serverError().entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }finally{
+      releaseLookup(lookup);
+    }
+  }
+
+  /** Batched lookup of the URLs in {@link DbQuery#getUrls()} */
+  private Response crawlDbLookup(Configuration conf, DbQuery dbQuery){
+    OpenLookup<CrawlDatum> lookup = acquireCrawlDbLookup(conf, dbQuery);
+    try{
+      Map<String, Object> results = new LinkedHashMap<>();
+      for(Map.Entry<String, CrawlDatum> e : lookup.lookup
+          .getAll(getUrls(dbQuery)).entrySet()){
+        results.put(e.getKey(),
+            e.getValue() == null ? null : CrawlDbReader.datumToMap(e.getValue()));
+      }
+      return Response.ok(results).build();
+    }catch(IOException | RuntimeException e){
+      e.printStackTrace();
+      return Response.serverError().entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+    }finally{
+      releaseLookup(lookup);
     }
   }
 }
@@ -44,6 +44,12 @@ public class CommonCrawlConfig implements Serializable {
 	private long warcSize = 0;
 
 	private String outputDir;
+
+	// Number of threads dumping segment parts in parallel
+	private int threads = 1;
+
+	// Target size of compressed archives, 0 for a single archive
+	private long shardSize = 0;
 	
 	/**
 	 * Default constructor
@@ -143,4 +149,20 @@ public class CommonCrawlConfig implements Serializable {
 	public void setOutputDir(String outputDir) {
 		this.outputDir = outputDir;
 	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public long getShardSize() {
+		return shardSize;
+	}
+
+	public void setShardSize(long shardSize) {
+		this.shardSize = shardSize;
+	}
 }
@@ -16,7 +16,6 @@
  */
 package org.apache.nutch.tools;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -35,6 +34,12 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
@@ -45,11 +50,9 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.SerializationUtils;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -173,6 +176,13 @@ import com.ibm.icu.text.SimpleDateFormat;
  *   }
  * }
  * </pre>
+ * <p>
+ * With <code>-threads</code> the segment parts are dumped in parallel. If the
+ * output is gzipped every thread compresses into its own tar archive, with
+ * <code>-shardSize</code> a new archive is started when the target size is
+ * exceeded. The throughput (records/sec. and bytes/sec.) is logged
+ * periodically.
+ * </p>
  */
 public class CommonCrawlDataDumper extends NutchTool implements Tool {
 
@@ -182,12 +192,10 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
   
   private CommonCrawlConfig config = null;
 
-  // Gzip initialization
-  private FileOutputStream fileOutput = null;
-  private BufferedOutputStream bufOutput = null;
-  private GzipCompressorOutputStream gzipOutput = null;
-  private TarArchiveOutputStream tarOutput = null;
-  private ArrayList<String> fileList = null;
+  // Gzip initialization, the archives are shared by the dumping threads
+  private BlockingQueue<ShardedTarGzOutput> tarOutputs = null;
+  private Set<String> fileList = null;
+  private DumpProgress progress = null;
 
   /**
    * Main method for invoking this tool
@@ -277,200 +285,244 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
       System.exit(1);
     }
     LOG.info("Found {} segment parts", parts.size());
+
+    int threads = Math.max(1, config.getThreads());
+    if (warc && threads > 1) {
+      LOG.warn("WARC files are written by a single thread");
+      threads = 1;
+    }
+    LOG.info("Dumping segment parts using {} threads", threads);
+
+    fileList = ConcurrentHashMap.newKeySet();
+    tarOutputs = new LinkedBlockingQueue<>();
     if (gzip && !warc) {
-      fileList = new ArrayList<>();
-      constructNewStream(outputDir);
+      // every thread compresses into its own archive (or sequence of shards)
+      String archiveName = new SimpleDateFormat("yyyyMMddhhmm")
+          .format(new Date());
+      for (int i = 0; i < threads; i++) {
+        tarOutputs.add(new ShardedTarGzOutput(outputDir,
+            threads == 1 ? archiveName : archiveName + "-" + i,
+            config.getShardSize()));
+      }
     }
 
-    for (Path segmentPart : parts) {
-      LOG.info("Processing segment Part : [ {} ]", segmentPart);
-      try {
-        SequenceFile.Reader reader = new SequenceFile.Reader(nutchConfig,
-            SequenceFile.Reader.file(segmentPart));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    progress = new DumpProgress(CommonCrawlDataDumper.class.getSimpleName(),
+        DumpProgress.DEFAULT_REPORT_INTERVAL);
+    try {
+      List<Future<PartStats>> results = new ArrayList<>();
+      for (Path segmentPart : parts) {
+        final LinkDbReader reader = linkDbReader;
+        results.add(executor.submit(() -> dumpPart(segmentPart, nutchConfig,
+            outputDir, reader, gzip, mimeTypes, epochFilename, extension,
+            warc)));
+      }
+      for (Future<PartStats> result : results) {
+        PartStats stats = result.get();
+        stats.typeCounts.forEach((k, v) -> typeCounts.merge(k, v, Integer::sum));
+        stats.filteredCounts
+            .forEach((k, v) -> filteredCounts.merge(k, v, Integer::sum));
+      }
+    } finally {
+      executor.shutdownNow();
+      progress.close();
+      for (ShardedTarGzOutput tarOutput : tarOutputs) {
+        closeStream(tarOutput);
+      }
+    }
 
-        Writable key = (Writable) reader.getKeyClass().getConstructor().newInstance();
+    if (!typeCounts.isEmpty()) {
+      LOG.info("CommonsCrawlDataDumper File Stats: " + DumpFileUtil
+          .displayFileTypes(typeCounts, filteredCounts));
+    }
 
-        Content content = null;
-        while (reader.next(key)) {
-          content = new Content();
-          reader.getCurrentValue(content);
-          Metadata metadata = content.getMetadata();
-          String url = key.toString();
+  }
 
-          String baseName = FilenameUtils.getBaseName(url);
-          String extensionName = FilenameUtils.getExtension(url);
+  /** Mimetype counts of one segment part */
+  private static class PartStats {
+    // total file counts
+    private final Map<String, Integer> typeCounts = new HashMap<>();
+    // filtered file counters
+    private final Map<String, Integer> filteredCounts = new HashMap<>();
+  }
 
-          if (!extension.isEmpty()) {
-            extensionName = extension;
-          } else if ((extensionName == null) || extensionName.isEmpty()) {
-            extensionName = "html";
-          }
+  /**
+   * Dumps the records of a single segment part. Called concurrently by the
+   * threads of the dump, all state modified while dumping a record is either
+   * local or thread-safe.
+   */
+  private PartStats dumpPart(Path segmentPart, Configuration nutchConfig,
+      File outputDir, LinkDbReader linkDbReader, boolean gzip,
+      String[] mimeTypes, boolean epochFilename, String extension,
+      boolean warc) {
+    PartStats stats = new PartStats();
+    // the reverse key value is set per record, use a copy of the configuration
+    CommonCrawlConfig config = SerializationUtils.clone(this.config);
+    Tika tika = new Tika();
+
+    LOG.info("Processing segment Part : [ {} ]", segmentPart);
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(nutchConfig,
+        SequenceFile.Reader.file(segmentPart))) {
+
+      Writable key = (Writable) reader.getKeyClass().getConstructor()
+          .newInstance();
+
+      Content content = null;
+      while (reader.next(key)) {
+        content = new Content();
+        reader.getCurrentValue(content);
+        progress.add(content.getContent().length);
+        Metadata metadata = content.getMetadata();
+        String url = key.toString();
+
+        String baseName = FilenameUtils.getBaseName(url);
+        String extensionName = FilenameUtils.getExtension(url);
+
+        if (!extension.isEmpty()) {
+          extensionName = extension;
+        } else if ((extensionName == null) || extensionName.isEmpty()) {
+          extensionName = "html";
+        }
 
-          String outputFullPath = null;
-          String outputRelativePath = null;
-          String filename = null;
-          String timestamp = null;
-          String reverseKey = null;
-
-          if (epochFilename || config.getReverseKey()) {
-            try {
-              long epoch = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z")
-                  .parse(getDate(metadata.get("Date"))).getTime();
-              timestamp = String.valueOf(epoch);
-            } catch (ParseException pe) {
-              LOG.warn(pe.getMessage());
-            }
+        String outputFullPath = null;
+        String outputRelativePath = null;
+        String filename = null;
+        String timestamp = null;
+        String reverseKey = null;
 
-            reverseKey = reverseUrl(url);
-            config.setReverseKeyValue(
-                reverseKey.replace("/", "_") + "_" + DigestUtils.sha1Hex(url)
-                    + "_" + timestamp);
+        if (epochFilename || config.getReverseKey()) {
+          try {
+            long epoch = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z")
+                .parse(getDate(metadata.get("Date"))).getTime();
+            timestamp = String.valueOf(epoch);
+          } catch (ParseException pe) {
+            LOG.warn(pe.getMessage());
           }
 
-          if (!warc) {
-            if (epochFilename) {
-              outputFullPath = DumpFileUtil
-                  .createFileNameFromUrl(outputDir.getAbsolutePath(),
-                      reverseKey, url, timestamp, extensionName, !gzip);
-              outputRelativePath = outputFullPath
-                  .substring(0, outputFullPath.lastIndexOf(File.separator) - 1);
-              filename = content.getMetadata().get(Metadata.DATE) + "."
-                  + extensionName;
-            } else {
-              String md5Ofurl = DumpFileUtil.getUrlMD5(url);
-              String fullDir = DumpFileUtil
-                  .createTwoLevelsDirectory(outputDir.getAbsolutePath(),
-                      md5Ofurl, !gzip);
-              filename = DumpFileUtil
-                  .createFileName(md5Ofurl, baseName, extensionName);
-              outputFullPath = String.format("%s/%s", fullDir, filename);
-
-              String[] fullPathLevels = fullDir
-                  .split(Pattern.quote(File.separator));
-              String firstLevelDirName = fullPathLevels[fullPathLevels.length
-                  - 2];
-              String secondLevelDirName = fullPathLevels[fullPathLevels.length
-                  - 1];
-              outputRelativePath = firstLevelDirName + secondLevelDirName;
-            }
-          }
-          // Encode all filetypes if no mimetypes have been given
-          Boolean filter = (mimeTypes == null);
+          reverseKey = reverseUrl(url);
+          config.setReverseKeyValue(
+              reverseKey.replace("/", "_") + "_" + DigestUtils.sha1Hex(url)
+                  + "_" + timestamp);
+        }
 
-          String jsonData = "";
-          try {
-            String mimeType = new Tika().detect(content.getContent());
-            // Maps file to JSON-based structure
-
-            Set<String> inUrls = null; //there may be duplicates, so using set
-            if (linkDbReader != null) {
-              Inlinks inlinks = linkDbReader.getInlinks((Text) key);
-              if (inlinks != null) {
-                Iterator<Inlink> iterator = inlinks.iterator();
-                inUrls = new LinkedHashSet<>();
-                while (inUrls.size() <= MAX_INLINKS && iterator.hasNext()){
-                  inUrls.add(iterator.next().getFromUrl());
-                }
-              }
+        if (!warc) {
+          if (epochFilename) {
+            outputFullPath = DumpFileUtil
+                .createFileNameFromUrl(outputDir.getAbsolutePath(),
+                    reverseKey, url, timestamp, extensionName, !gzip);
+            outputRelativePath = outputFullPath
+                .substring(0, outputFullPath.lastIndexOf(File.separator) - 1);
+            filename = content.getMetadata().get(Metadata.DATE) + "."
+                + extensionName;
+          } else {
+            String md5Ofurl = DumpFileUtil.getUrlMD5(url);
+            String fullDir = DumpFileUtil
+                .createTwoLevelsDirectory(outputDir.getAbsolutePath(),
+                    md5Ofurl, !gzip);
+            filename = DumpFileUtil
+                .createFileName(md5Ofurl, baseName, extensionName);
+            outputFullPath = String.format("%s/%s", fullDir, filename);
+
+            String[] fullPathLevels = fullDir
+                .split(Pattern.quote(File.separator));
+            String firstLevelDirName = fullPathLevels[fullPathLevels.length
+                - 2];
+            String secondLevelDirName = fullPathLevels[fullPathLevels.length
+                - 1];
+            outputRelativePath = firstLevelDirName + secondLevelDirName;
+          }
+        }
+        // Encode all filetypes if no mimetypes have been given
+        Boolean filter = (mimeTypes == null);
+
+        String jsonData = "";
+        try {
+          String mimeType = tika.detect(content.getContent());
+          // Maps file to JSON-based structure
+
+          Set<String> inUrls = null; //there may be duplicates, so using set
+          if (linkDbReader != null) {
+            Inlinks inlinks;
+            synchronized (linkDbReader) {
+              inlinks = linkDbReader.getInlinks((Text) key);
             }
-            //TODO: Make this Jackson Format implementation reusable
-            try (CommonCrawlFormat format = CommonCrawlFormatFactory
-                .getCommonCrawlFormat(warc ? "WARC" : "JACKSON", nutchConfig, config)) {
-              if (inUrls != null) {
-                format.setInLinks(new ArrayList<>(inUrls));
+            if (inlinks != null) {
+              Iterator<Inlink> iterator = inlinks.iterator();
+              inUrls = new LinkedHashSet<>();
+              while (inUrls.size() <= MAX_INLINKS && iterator.hasNext()){
+                inUrls.add(iterator.next().getFromUrl());
               }
-              jsonData = format.getJsonData(url, content, metadata);
             }
-
-            collectStats(typeCounts, mimeType);
-            // collects statistics for the given mimetypes
-            if ((mimeType != null) && (mimeTypes != null) && Arrays
-                .asList(mimeTypes).contains(mimeType)) {
-              collectStats(filteredCounts, mimeType);
-              filter = true;
+          }
+          //TODO: Make this Jackson Format implementation reusable
+          try (CommonCrawlFormat format = CommonCrawlFormatFactory
+              .getCommonCrawlFormat(warc ? "WARC" : "JACKSON", nutchConfig, config)) {
+            if (inUrls != null) {
+              format.setInLinks(new ArrayList<>(inUrls));
             }
-          } catch (IOException ioe) {
-            LOG.error("Fatal error in creating JSON data: " + ioe.getMessage());
-            return;
+            jsonData = format.getJsonData(url, content, metadata);
+          }
+
+          collectStats(stats.typeCounts, mimeType);
+          // collects statistics for the given mimetypes
+          if ((mimeType != null) && (mimeTypes != null) && Arrays
+              .asList(mimeTypes).contains(mimeType)) {
+            collectStats(stats.filteredCounts, mimeType);
+            filter = true;
           }
+        } catch (IOException ioe) {
+          LOG.error("Fatal error in creating JSON data: " + ioe.getMessage());
+          return stats;
+        }
+
+        if (!warc) {
+          if (filter) {
+            byte[] byteData = serializeCBORData(jsonData);
 
-          if (!warc) {
-            if (filter) {
-              byte[] byteData = serializeCBORData(jsonData);
-
-              if (!gzip) {
-                File outputFile = new File(outputFullPath);
-                if (outputFile.exists()) {
-                  LOG.info("Skipping writing: [" + outputFullPath
-                      + "]: file already exists");
-                } else {
-                  LOG.info("Writing: [" + outputFullPath + "]");
-                  IOUtils.copy(new ByteArrayInputStream(byteData),
-                      new FileOutputStream(outputFile));
+            if (!gzip) {
+              File outputFile = new File(outputFullPath);
+              if (outputFile.exists()) {
+                LOG.info("Skipping writing: [" + outputFullPath
+                    + "]: file already exists");
+              } else {
+                LOG.info("Writing: [" + outputFullPath + "]");
+                try (FileOutputStream output = new FileOutputStream(
+                    outputFile)) {
+                  IOUtils.copy(new ByteArrayInputStream(byteData), output);
                 }
+              }
+            } else {
+              if (!fileList.add(outputFullPath)) {
+                LOG.info("Skipping compressing: [" + outputFullPath
+                    + "]: file already exists");
               } else {
-                if (fileList.contains(outputFullPath)) {
-                  LOG.info("Skipping compressing: [" + outputFullPath
-                      + "]: file already exists");
-                } else {
-                  fileList.add(outputFullPath);
-                  LOG.info("Compressing: [" + outputFullPath + "]");
-                  //TarArchiveEntry tarEntry = new TarArchiveEntry(firstLevelDirName + File.separator + secondLevelDirName + File.separator + filename);
-                  TarArchiveEntry tarEntry = new TarArchiveEntry(
-                      outputRelativePath + File.separator + filename);
-                  tarEntry.setSize(byteData.length);
-                  tarOutput.putArchiveEntry(tarEntry);
-                  tarOutput.write(byteData);
-                  tarOutput.closeArchiveEntry();
+                LOG.info("Compressing: [" + outputFullPath + "]");
+                ShardedTarGzOutput tarOutput = tarOutputs.take();
+                try {
+                  tarOutput.write(outputRelativePath + File.separator
+                      + filename, byteData);
+                } finally {
+                  tarOutputs.put(tarOutput);
                 }
               }
             }
           }
         }
-        reader.close();
-      } catch (Exception e){
-        LOG.warn("SKIPPED: {} Because : {}", segmentPart, e.getMessage());
-      } finally {
-        fs.close();
       }
+    } catch (Exception e){
+      LOG.warn("SKIPPED: {} Because : {}", segmentPart, e.getMessage());
     }
-
-    if (gzip && !warc) {
-      closeStream();
-    }
-
-    if (!typeCounts.isEmpty()) {
-      LOG.info("CommonsCrawlDataDumper File Stats: " + DumpFileUtil
-          .displayFileTypes(typeCounts, filteredCounts));
-    }
-
+    return stats;
   }
 
-  private void closeStream() {
+  private void closeStream(ShardedTarGzOutput tarOutput) {
     try {
-      tarOutput.finish();
-
       tarOutput.close();
-      gzipOutput.close();
-      bufOutput.close();
-      fileOutput.close();
     } catch (IOException ioe) {
       LOG.warn("Error in closing stream: " + ioe.getMessage());
     }
   }
 
-  private void constructNewStream(File outputDir) throws IOException {
-    String archiveName = new SimpleDateFormat("yyyyMMddhhmm'.tar.gz'")
-        .format(new Date());
-    LOG.info("Creating a new gzip archive: " + archiveName);
-    fileOutput = new FileOutputStream(
-        new File(outputDir + File.separator + archiveName));
-    bufOutput = new BufferedOutputStream(fileOutput);
-    gzipOutput = new GzipCompressorOutputStream(bufOutput);
-    tarOutput = new TarArchiveOutputStream(gzipOutput);
-    tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
-  }
-
   /**
    * Writes the CBOR "Self-Describe Tag" (value 55799, serialized as 3-byte
    * sequence of {@code 0xd9d9f7}) at the current position. This method must
@@ -633,6 +685,16 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
         .withDescription("an optional linkdb parameter to include inlinks in dump files")
         .isRequired(false)
         .create("linkdb");
+    @SuppressWarnings("static-access")
+    Option threadsOpt = OptionBuilder.withArgName("threads").hasArg(true)
+        .withType(Number.class)
+        .withDescription("an optional number of threads dumping segment parts in parallel (default 1)")
+        .create("threads");
+    @SuppressWarnings("static-access")
+    Option shardSizeOpt = OptionBuilder.withArgName("shardSize").hasArg(true)
+        .withType(Number.class)
+        .withDescription("an optional target size in bytes of the gzipped tar archives, a new archive is started when exceeded")
+        .create("shardSize");
 
     // create the options
     Options options = new Options();
@@ -653,6 +715,8 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
     options.addOption(extensionOpt);
     options.addOption(sizeOpt);
     options.addOption(linkDbOpt);
+    options.addOption(threadsOpt);
+    options.addOption(shardSizeOpt);
 
     CommandLineParser parser = new GnuParser();
     try {
@@ -682,6 +746,14 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
       if (line.getParsedOptionValue("warcSize") != null) {
         warcSize = (Long) line.getParsedOptionValue("warcSize");
       }
+      int threads = 1;
+      if (line.getParsedOptionValue("threads") != null) {
+        threads = ((Long) line.getParsedOptionValue("threads")).intValue();
+      }
+      long shardSize = 0;
+      if (line.getParsedOptionValue("shardSize") != null) {
+        shardSize = (Long) line.getParsedOptionValue("shardSize");
+      }
       String linkdbPath = line.getOptionValue("linkdb");
       File linkdb = linkdbPath == null ? null : new File(linkdbPath);
 
@@ -693,6 +765,8 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
       config.setCompressed(gzip);
       config.setWarcSize(warcSize);
       config.setOutputDir(line.getOptionValue("outputDir"));
+      config.setThreads(threads);
+      config.setShardSize(shardSize);
 
       if (!outputDir.exists()) {
         LOG.warn("Output directory: [" + outputDir.getAbsolutePath()
@@ -762,6 +836,13 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
         : false;
     long warcSize = args.containsKey("warcSize") ? (Long) args.get("warcSize")
         : 0;
+    // numbers from JSON are Integer or Long, depending on the value
+    int threads = args.containsKey("threads")
+        ? ((Number) args.get("threads")).intValue()
+        : 1;
+    long shardSize = args.containsKey("shardSize")
+        ? ((Number) args.get("shardSize")).longValue()
+        : 0;
 
     CommonCrawlConfig config = new CommonCrawlConfig();
     config.setKeyPrefix(keyPrefix);
@@ -771,6 +852,8 @@ public class CommonCrawlDataDumper extends NutchTool implements Tool {
     config.setCompressed(gzip);
     config.setWarcSize(warcSize);
     config.setOutputDir((String) args.get("outputDir"));
+    config.setThreads(threads);
+    config.setShardSize(shardSize);
 
     if (!outputDir.exists()) {
       if (!outputDir.mkdirs())
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progress of a dump tool: counts the records and bytes processed by all
+ * worker threads and logs the throughput (records/sec. and bytes/sec.)
+ * periodically and when closed.
+ */
+public class DumpProgress implements Closeable {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Default interval between two progress reports in seconds */
+  public static final long DEFAULT_REPORT_INTERVAL = 10;
+
+  private final String name;
+  private final long start;
+  private final AtomicLong records = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final ScheduledExecutorService reporter;
+
+  /**
+   * @param name
+   *          name of the tool shown in the progress reports
+   * @param reportInterval
+   *          interval between two progress reports in seconds
+   */
+  public DumpProgress(String name, long reportInterval) {
+    this.name = name;
+    this.start = System.nanoTime();
+    reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, name + "-progress");
+      t.setDaemon(true);
+      return t;
+    });
+    reporter.scheduleAtFixedRate(this::report, reportInterval, reportInterval,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Count one processed record.
+   *
+   * @param size
+   *          size of the record in bytes
+   */
+  public void add(long size) {
+    records.incrementAndGet();
+    bytes.addAndGet(size);
+  }
+
+  public long getRecords() {
+    return records.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  private void report() {
+    double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+    long r = records.get();
+    long b = bytes.get();
+    LOG.info("{}: {} records ({} records/sec.), {} bytes ({} bytes/sec.)",
+        name, r, String.format("%.1f", r / seconds), b,
+        String.format("%.0f", b / seconds));
+  }
+
+  @Override
+  public void close() {
+    reporter.shutdownNow();
+    report();
+  }
+}
@@ -16,14 +16,24 @@
  */
 package org.apache.nutch.tools;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.ByteArrayInputStream;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import com.google.common.base.Strings;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -37,7 +47,6 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Writable;
@@ -52,6 +61,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.codehaus.jackson.map.ObjectMapper;
+
+import com.ibm.icu.text.SimpleDateFormat;
 /**
  * The file dumper tool enables one to reverse generate the raw content from
  * Nutch segment data directories.
@@ -101,6 +112,13 @@ import org.codehaus.jackson.map.ObjectMapper;
  * image/png image/jpeg image/vnd.microsoft.icon video/quicktime image/gif</b>
  * flag and corresponding values activated.
  * </p>
+ * <p>
+ * With <b>-threads</b> the segment parts are dumped in parallel, with
+ * <b>-gzip</b> the files are written into gzipped tar archives (one per
+ * thread, or a sequence of archives of <b>-shardSize</b> bytes) instead of
+ * single files. The throughput (records/sec. and bytes/sec.) is logged
+ * periodically.
+ * </p>
  */
 public class FileDumper {
 
@@ -132,6 +150,41 @@ public class FileDumper {
    */
   public void dump(File outputDir, File segmentRootDir, String[] mimeTypes, boolean 
           flatDir, boolean mimeTypeStats, boolean reverseURLDump) throws Exception {
+    dump(outputDir, segmentRootDir, mimeTypes, flatDir, mimeTypeStats,
+        reverseURLDump, 1, false, 0);
+  }
+
+  /**
+   * Dumps the reverse engineered raw content from the provided segment
+   * directories, processing the segment parts in parallel.
+   * 
+   * @param outputDir
+   *          the directory you wish to dump the raw content to. This directory
+   *          will be created.
+   * @param segmentRootDir
+   *          a directory containing one or more segments.
+   * @param mimeTypes
+   *          an array of mime types we have to dump, all others will be
+   *          filtered out.
+   * @param flatDir
+   *          a boolean flag specifying whether the output directory should contain
+   *          only files instead of using nested directories to prevent naming
+   *          conflicts.
+   * @param mimeTypeStats
+   *          a flag indicating whether mimetype stats should be displayed
+   *          instead of dumping files.
+   * @param reverseURLDump whether to reverse the URLs when they are written to disk
+   * @param threads number of threads dumping segment parts in parallel
+   * @param gzip if true the files are written into gzipped tar archives, one
+   *          per thread
+   * @param shardSize target size in bytes of the tar archives, a new archive
+   *          is started when exceeded. If 0 a single archive is written by
+   *          every thread.
+   * @throws Exception if there is a fatal error dumping files to disk
+   */
+  public void dump(File outputDir, File segmentRootDir, String[] mimeTypes,
+      boolean flatDir, boolean mimeTypeStats, boolean reverseURLDump,
+      int threads, boolean gzip, long shardSize) throws Exception {
     if (mimeTypes == null)
       LOG.info("Accepting all mimetypes.");
     // total file counts
@@ -139,7 +192,6 @@ public class FileDumper {
     // filtered file counts
     Map<String, Integer> filteredCounts = new HashMap<>();
     Configuration conf = NutchConfiguration.create();
-    int fileCount = 0;
     File[] segmentDirs = segmentRootDir.listFiles(file -> file.canRead() && file.isDirectory());
     if (segmentDirs == null) {
       LOG.error("No segment directories found in ["
@@ -147,154 +199,220 @@ public class FileDumper {
       return;
     }
 
-    for (File segment : segmentDirs) {
-      LOG.info("Processing segment: [" + segment.getAbsolutePath() + "]");
-      DataOutputStream doutputStream = null;
-      Map<String, String> filenameToUrl = new HashMap<String, String>();
+    threads = Math.max(1, threads);
+    LOG.info("Dumping segment parts using {} threads", threads);
+    BlockingQueue<ShardedTarGzOutput> tarOutputs = new LinkedBlockingQueue<>();
+    if (gzip && !mimeTypeStats) {
+      // every thread compresses into its own archive (or sequence of shards)
+      String archiveName = new SimpleDateFormat("yyyyMMddhhmm")
+          .format(new Date());
+      for (int i = 0; i < threads; i++) {
+        tarOutputs.add(new ShardedTarGzOutput(outputDir,
+            threads == 1 ? archiveName : archiveName + "-" + i, shardSize));
+      }
+    }
+    Set<String> written = ConcurrentHashMap.newKeySet();
 
-      File segmentDir = new File(segment.getAbsolutePath(), Content.DIR_NAME);
-      File[] partDirs = segmentDir.listFiles(file -> file.canRead() && file.isDirectory());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    DumpProgress progress = new DumpProgress(
+        FileDumper.class.getSimpleName(), DumpProgress.DEFAULT_REPORT_INTERVAL);
+    try {
+      Map<File, Map<String, String>> segmentFilenameToUrl = new LinkedHashMap<>();
+      List<Future<PartStats>> results = new ArrayList<>();
+      for (File segment : segmentDirs) {
+        LOG.info("Processing segment: [" + segment.getAbsolutePath() + "]");
+        Map<String, String> filenameToUrl = new ConcurrentHashMap<>();
+
+        File segmentDir = new File(segment.getAbsolutePath(), Content.DIR_NAME);
+        File[] partDirs = segmentDir.listFiles(file -> file.canRead() && file.isDirectory());
+
+        if (partDirs == null) {
+          LOG.warn("Skipping Corrupt Segment: [{}]", segment.getAbsolutePath());
+          continue;
+        }
+        segmentFilenameToUrl.put(segment, filenameToUrl);
 
-      if (partDirs == null) {
-        LOG.warn("Skipping Corrupt Segment: [{}]", segment.getAbsolutePath());
-        continue;
+        for (File partDir : partDirs) {
+          results.add(executor.submit(() -> dumpPart(partDir, conf, outputDir,
+              mimeTypes, flatDir, mimeTypeStats, reverseURLDump,
+              gzip && !mimeTypeStats, tarOutputs, written, filenameToUrl,
+              progress)));
+        }
+      }
+      for (Future<PartStats> result : results) {
+        PartStats stats = result.get();
+        stats.typeCounts.forEach((k, v) -> typeCounts.merge(k, v, Integer::sum));
+        stats.filteredCounts
+            .forEach((k, v) -> filteredCounts.merge(k, v, Integer::sum));
+      }
+      for (Map.Entry<File, Map<String, String>> e : segmentFilenameToUrl
+          .entrySet()) {
+        //save filenameToUrl in a json file for each segment there is one mapping file 
+        String filenameToUrlFilePath = String.format("%s/%s_filenameToUrl.json", outputDir.getAbsolutePath(), e.getKey().getName() );
+        new ObjectMapper().writeValue(new File(filenameToUrlFilePath), new TreeMap<>(e.getValue()));
       }
+    } finally {
+      executor.shutdownNow();
+      progress.close();
+      for (ShardedTarGzOutput tarOutput : tarOutputs) {
+        tarOutput.close();
+      }
+    }
+    LOG.info("Dumper File Stats: "
+        + DumpFileUtil.displayFileTypes(typeCounts, filteredCounts));
 
-      for (File partDir : partDirs) {
-        try (FileSystem fs = FileSystem.get(conf)) {
-          String segmentPath = partDir + "/data";
-          Path file = new Path(segmentPath);
-          if (!new File(file.toString()).exists()) {
-            LOG.warn("Skipping segment: [" + segmentPath
-                + "]: no data directory present");
-            continue;
-          }
+    if (mimeTypeStats) {
+      System.out.println("Dumper File Stats: " 
+          + DumpFileUtil.displayFileTypes(typeCounts, filteredCounts));
+    }
+  }
 
-          SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file));
+  /** Mimetype counts of one segment part */
+  private static class PartStats {
+    // total file counts
+    private final Map<String, Integer> typeCounts = new HashMap<>();
+    // filtered file counts
+    private final Map<String, Integer> filteredCounts = new HashMap<>();
+  }
 
-          Writable key = (Writable) reader.getKeyClass().getConstructor().newInstance();
-          Content content = null;
+  /**
+   * Dumps the records of a single segment part, called concurrently by the
+   * threads of the dump.
+   */
+  private PartStats dumpPart(File partDir, Configuration conf, File outputDir,
+      String[] mimeTypes, boolean flatDir, boolean mimeTypeStats,
+      boolean reverseURLDump, boolean gzip,
+      BlockingQueue<ShardedTarGzOutput> tarOutputs,
+      Set<String> written, Map<String, String> filenameToUrl,
+      DumpProgress progress) throws Exception {
+    PartStats stats = new PartStats();
+    String segmentPath = partDir + "/data";
+    Path file = new Path(segmentPath);
+    if (!new File(file.toString()).exists()) {
+      LOG.warn("Skipping segment: [" + segmentPath
+          + "]: no data directory present");
+      return stats;
+    }
 
-          while (reader.next(key)) {
-            content = new Content();
-            reader.getCurrentValue(content);
-            String url = key.toString();
-            String baseName = FilenameUtils.getBaseName(url);
-            String extension = FilenameUtils.getExtension(url);
-            if (extension == null || (extension != null && extension.equals(""))) {
-              extension = "html";
-            }
+    Tika tika = new Tika();
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+        SequenceFile.Reader.file(file))) {
+
+      Writable key = (Writable) reader.getKeyClass().getConstructor().newInstance();
+      Content content = null;
+
+      while (reader.next(key)) {
+        content = new Content();
+        reader.getCurrentValue(content);
+        progress.add(content.getContent().length);
+        String url = key.toString();
+        String baseName = FilenameUtils.getBaseName(url);
+        String extension = FilenameUtils.getExtension(url);
+        if (extension == null || (extension != null && extension.equals(""))) {
+          extension = "html";
+        }
 
-            ByteArrayInputStream bas = null;
-            Boolean filter = false;
-            try {
-              bas = new ByteArrayInputStream(content.getContent());
-              String mimeType = new Tika().detect(content.getContent());
-              collectStats(typeCounts, mimeType);
-              if (mimeType != null) {
-                if (mimeTypes == null
-                    || Arrays.asList(mimeTypes).contains(mimeType)) {
-                  collectStats(filteredCounts, mimeType);
-                  filter = true;
-                }
-              }
-            } catch (Exception e) {
-              e.printStackTrace();
-              LOG.warn("Tika is unable to detect type for: [" + url + "]");
-            } finally {
-              if (bas != null) {
-                try {
-                  bas.close();
-                } catch (Exception ignore) {
-                }
-              }
+        Boolean filter = false;
+        try {
+          String mimeType = tika.detect(content.getContent());
+          collectStats(stats.typeCounts, mimeType);
+          if (mimeType != null) {
+            if (mimeTypes == null
+                || Arrays.asList(mimeTypes).contains(mimeType)) {
+              collectStats(stats.filteredCounts, mimeType);
+              filter = true;
             }
+          }
+        } catch (Exception e) {
+          e.printStackTrace();
+          LOG.warn("Tika is unable to detect type for: [" + url + "]");
+        }
 
-            if (filter) {
-              if (!mimeTypeStats) {
-                String md5Ofurl = DumpFileUtil.getUrlMD5(url);
+        if (filter) {
+          if (!mimeTypeStats) {
+            String md5Ofurl = DumpFileUtil.getUrlMD5(url);
 
-                String fullDir = outputDir.getAbsolutePath();
-                if (!flatDir && !reverseURLDump) {
-                  fullDir = DumpFileUtil.createTwoLevelsDirectory(fullDir, md5Ofurl);
-                }
+            String fullDir = outputDir.getAbsolutePath();
+            if (!flatDir && !reverseURLDump) {
+              fullDir = DumpFileUtil.createTwoLevelsDirectory(fullDir, md5Ofurl, !gzip);
+            }
 
-                if (!Strings.isNullOrEmpty(fullDir)) {
-                  String outputFullPath;
+            if (!Strings.isNullOrEmpty(fullDir)) {
+              String outputFullPath;
 
-                  if (reverseURLDump) {
-                    String[] reversedURL = TableUtil.reverseUrl(url).split(":");
-                    reversedURL[0] = reversedURL[0].replace('.', '/');
+              if (reverseURLDump) {
+                String[] reversedURL = TableUtil.reverseUrl(url).split(":");
+                reversedURL[0] = reversedURL[0].replace('.', '/');
 
-                    String reversedURLPath = reversedURL[0] + "/" + DigestUtils.sha256Hex(url).toUpperCase();
-                    outputFullPath = String.format("%s/%s", fullDir, reversedURLPath);
+                String reversedURLPath = reversedURL[0] + "/" + DigestUtils.sha256Hex(url).toUpperCase();
+                outputFullPath = String.format("%s/%s", fullDir, reversedURLPath);
 
-                    // We'll drop the trailing file name and create the nested structure if it doesn't already exist.
-                    String[] splitPath = outputFullPath.split("/");
-                    File fullOutputDir = new File(org.apache.commons.lang3.StringUtils.join(Arrays.copyOf(splitPath, splitPath.length - 1), "/"));
+                // We'll drop the trailing file name and create the nested structure if it doesn't already exist.
+                String[] splitPath = outputFullPath.split("/");
+                File fullOutputDir = new File(org.apache.commons.lang3.StringUtils.join(Arrays.copyOf(splitPath, splitPath.length - 1), "/"));
 
-                    if (!fullOutputDir.exists()) {
-                      if(!fullOutputDir.mkdirs());
-                        throw new Exception("Unable to create: ["
-                              + fullOutputDir.getAbsolutePath() + "]"); 
-                    }
-                  } else {
-                    outputFullPath = String.format("%s/%s", fullDir, DumpFileUtil.createFileName(md5Ofurl, baseName, extension));
+                if (!gzip) {
+                  // the directory may be created concurrently by another thread
+                  if (!fullOutputDir.mkdirs() && !fullOutputDir.isDirectory()) {
+                    throw new Exception("Unable to create: ["
+                        + fullOutputDir.getAbsolutePath() + "]");
+                  }
+                }
+              } else {
+                outputFullPath = String.format("%s/%s", fullDir, DumpFileUtil.createFileName(md5Ofurl, baseName, extension));
+              }
+              filenameToUrl.put(outputFullPath, url);
+
+              if (gzip) {
+                if (written.add(outputFullPath)) {
+                  LOG.info("Compressing: [" + outputFullPath + "]");
+                  String entryName = outputFullPath
+                      .substring(outputDir.getAbsolutePath().length() + 1);
+                  ShardedTarGzOutput tarOutput = tarOutputs.take();
+                  try {
+                    tarOutput.write(entryName, content.getContent());
+                  } finally {
+                    tarOutputs.put(tarOutput);
                   }
-                  filenameToUrl.put(outputFullPath, url);
-                  File outputFile = new File(outputFullPath);
+                } else {
+                  LOG.info("Skipping compressing: [" + outputFullPath
+                      + "]: file already exists");
+                }
+                continue;
+              }
+
+              File outputFile = new File(outputFullPath);
 
-                  if (!outputFile.exists()) {
-                    LOG.info("Writing: [" + outputFullPath + "]");
+              if (!outputFile.exists()) {
+                LOG.info("Writing: [" + outputFullPath + "]");
 
-                    // Modified to prevent FileNotFoundException (Invalid Argument)
-                    FileOutputStream output = null;
+                // Modified to prevent FileNotFoundException (Invalid Argument)
+                FileOutputStream output = null;
+                try {
+                  output = new FileOutputStream(outputFile);
+                  IOUtils.write(content.getContent(), output);
+                } catch (Exception e) {
+                  LOG.warn("Write Error: [" + outputFullPath + "]");
+                  e.printStackTrace();
+                } finally {
+                  if (output != null) {
+                    output.flush();
                     try {
-                      output = new FileOutputStream(outputFile);
-                      IOUtils.write(content.getContent(), output);
-                    } catch (Exception e) {
-                      LOG.warn("Write Error: [" + outputFullPath + "]");
-                      e.printStackTrace();
-                    } finally {
-                      if (output != null) {
-                        output.flush();
-                        try {
-                          output.close();
-                        } catch (Exception ignore) {
-                        }
-                      }
+                      output.close();
+                    } catch (Exception ignore) {
                     }
-                    fileCount++;
-                  } else {
-                    LOG.info("Skipping writing: [" + outputFullPath
-                        + "]: file already exists");
                   }
                 }
+              } else {
+                LOG.info("Skipping writing: [" + outputFullPath
+                    + "]: file already exists");
               }
             }
           }
-          reader.close();
-        } finally {
-          if (doutputStream != null) {
-            try {
-              doutputStream.close();
-            } catch (Exception ignore) {
-            }
-          }
         }
       }
-      //save filenameToUrl in a json file for each segment there is one mapping file 
-      String filenameToUrlFilePath = String.format("%s/%s_filenameToUrl.json", outputDir.getAbsolutePath(), segment.getName() );
-      new ObjectMapper().writeValue(new File(filenameToUrlFilePath), filenameToUrl);
-      
-    }
-    LOG.info("Dumper File Stats: "
-        + DumpFileUtil.displayFileTypes(typeCounts, filteredCounts));
-
-    if (mimeTypeStats) {
-      System.out.println("Dumper File Stats: " 
-          + DumpFileUtil.displayFileTypes(typeCounts, filteredCounts));
     }
+    return stats;
   }
 
   /**
@@ -344,6 +462,28 @@ public class FileDumper {
     .withDescription(
         "optionally specify to use reverse URL folders for output structure.")
     .create("reverseUrlDirs");
+    @SuppressWarnings("static-access")
+    Option threadsOpt = OptionBuilder
+    .withArgName("threads")
+    .hasArg()
+    .withType(Number.class)
+    .withDescription(
+        "optionally specify the number of threads dumping segment parts in parallel (default 1).")
+    .create("threads");
+    @SuppressWarnings("static-access")
+    Option gzipOpt = OptionBuilder
+    .withArgName("gzip")
+    .withDescription(
+        "optionally write the files into gzipped tar archives, one per thread.")
+    .create("gzip");
+    @SuppressWarnings("static-access")
+    Option shardSizeOpt = OptionBuilder
+    .withArgName("shardSize")
+    .hasArg()
+    .withType(Number.class)
+    .withDescription(
+        "optionally specify the target size in bytes of the tar archives, a new archive is started when exceeded.")
+    .create("shardSize");
 
     // create the options
     Options options = new Options();
@@ -354,6 +494,9 @@ public class FileDumper {
     options.addOption(mimeStat);
     options.addOption(dirStructureOpt);
     options.addOption(reverseURLOutput);
+    options.addOption(threadsOpt);
+    options.addOption(gzipOpt);
+    options.addOption(shardSizeOpt);
 
     CommandLineParser parser = new GnuParser();
     try {
@@ -375,6 +518,13 @@ public class FileDumper {
       boolean reverseURLDump = false;
       if (line.hasOption("reverseUrlDirs"))
         reverseURLDump = true;
+      int threads = 1;
+      if (line.getParsedOptionValue("threads") != null)
+        threads = ((Long) line.getParsedOptionValue("threads")).intValue();
+      boolean gzip = line.hasOption("gzip");
+      long shardSize = 0;
+      if (line.getParsedOptionValue("shardSize") != null)
+        shardSize = (Long) line.getParsedOptionValue("shardSize");
 
       if (!outputDir.exists()) {
         LOG.warn("Output directory: [" + outputDir.getAbsolutePath()
@@ -387,7 +537,8 @@ public class FileDumper {
       }
 
       FileDumper dumper = new FileDumper();
-      dumper.dump(outputDir, segmentRootDir, mimeTypes, flatDir, shouldDisplayStats, reverseURLDump);
+      dumper.dump(outputDir, segmentRootDir, mimeTypes, flatDir, shouldDisplayStats, reverseURLDump,
+          threads, gzip, shardSize);
     } catch (Exception e) {
       LOG.error("FileDumper: " + StringUtils.stringifyException(e));
       e.printStackTrace();
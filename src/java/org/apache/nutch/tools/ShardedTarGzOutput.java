@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes entries into gzip-compressed tar archives. If a target shard size
+ * is given, a new archive <code>&lt;name&gt;-00000.tar.gz</code>,
+ * <code>&lt;name&gt;-00001.tar.gz</code>, ... is started as soon as the
+ * compressed size of the current one exceeds the target size, otherwise all
+ * entries are written into <code>&lt;name&gt;.tar.gz</code>.
+ * <p>
+ * Instances are not thread-safe: the dump tools use one output per worker
+ * thread, so that the archives are compressed in parallel.
+ * </p>
+ */
+public class ShardedTarGzOutput implements Closeable {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private final File outputDir;
+  private final String name;
+  private final long shardSize;
+
+  private int shard = 0;
+  private CountingOutputStream countingOutput;
+  private TarArchiveOutputStream tarOutput;
+
+  /**
+   * @param outputDir
+   *          directory the archives are written to
+   * @param name
+   *          base name of the archives
+   * @param shardSize
+   *          target size of an archive in bytes, 0 or negative to write a
+   *          single archive
+   */
+  public ShardedTarGzOutput(File outputDir, String name, long shardSize) {
+    this.outputDir = outputDir;
+    this.name = name;
+    this.shardSize = shardSize;
+  }
+
+  /**
+   * Add an entry to the current archive.
+   *
+   * @param entryName
+   *          path of the entry in the archive
+   * @param data
+   *          content of the entry
+   * @throws IOException
+   *           if the entry could not be written
+   */
+  public void write(String entryName, byte[] data) throws IOException {
+    if (tarOutput == null) {
+      open();
+    }
+    TarArchiveEntry tarEntry = new TarArchiveEntry(entryName);
+    tarEntry.setSize(data.length);
+    tarOutput.putArchiveEntry(tarEntry);
+    tarOutput.write(data);
+    tarOutput.closeArchiveEntry();
+    if (shardSize > 0 && countingOutput.getByteCount() >= shardSize) {
+      finish();
+    }
+  }
+
+  private void open() throws IOException {
+    String archiveName;
+    if (shardSize > 0) {
+      archiveName = String.format("%s-%05d.tar.gz", name, shard++);
+    } else {
+      archiveName = name + ".tar.gz";
+    }
+    LOG.info("Creating a new gzip archive: " + archiveName);
+    countingOutput = new CountingOutputStream(
+        new FileOutputStream(new File(outputDir, archiveName)));
+    tarOutput = new TarArchiveOutputStream(new GzipCompressorOutputStream(
+        new BufferedOutputStream(countingOutput)));
+    tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU);
+  }
+
+  private void finish() throws IOException {
+    try {
+      tarOutput.finish();
+    } finally {
+      tarOutput.close();
+      tarOutput = null;
+      countingOutput = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (tarOutput != null) {
+      finish();
+    }
+  }
+}
@@ -23,6 +23,8 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -31,6 +33,7 @@ import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.codec.binary.Base32;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.hadoop.conf.Configuration;
@@ -77,12 +80,16 @@ import com.martinkl.warc.mapreduce.WARCOutputFormat;
  * Generates elements of type response if the configuration 'store.http.headers'
  * was set to true during the fetching and the http headers were stored
  * verbatim; generates elements of type 'resource' otherwise.
+ * With <code>-perRecordGzip</code> every record is compressed as a separate
+ * gzip member and a CDXJ index is written, see {@link WARCGzipOutputFormat}.
  */
 public class WARCExporter extends Configured implements Tool {
 
   private static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
   private static final String ONLY_SUCCESSFUL_RESPONSES = "warc.exporter.only.successful.responses";
+  /** WARC header holding the SHA-1 digest of the payload */
+  public static final String PAYLOAD_DIGEST = "WARC-Payload-Digest";
   private static final String CRLF = "\r\n";
   private static final byte[] CRLF_BYTES = { 13, 10 };
 
@@ -111,6 +118,18 @@ public class WARCExporter extends Configured implements Tool {
       // Metadata to JSON
       Gson gson = new Gson();
 
+      private MessageDigest sha1;
+      private Base32 base32 = new Base32();
+
+      @Override
+      public void setup(Context context) throws IOException {
+        try {
+          sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+          throw new IOException(e);
+        }
+      }
+
       @Override
       public void reduce(Text key, Iterable<NutchWritable> values,
           Context context) throws IOException, InterruptedException {
@@ -214,6 +233,12 @@ public class WARCExporter extends Configured implements Tool {
         buffer.append("WARC-Type").append(": ").append(warcTypeValue)
             .append(CRLF);
 
+        if (content.getContent() != null) {
+          buffer.append(PAYLOAD_DIGEST).append(": ").append("sha1:")
+              .append(base32.encodeAsString(sha1.digest(content.getContent())))
+              .append(CRLF);
+        }
+
         // "WARC-IP-Address" if present
         String IP = content.getMetadata().get("_ip_");
         if (StringUtils.isNotBlank(IP)) {
@@ -245,6 +270,9 @@ public class WARCExporter extends Configured implements Tool {
         if (warcTypeValue.equals("response")) {
           buffer.append("Content-Type: application/http; msgtype=response")
               .append(CRLF);
+        } else if (StringUtils.isNotBlank(content.getContentType())) {
+          buffer.append("Content-Type").append(": ")
+              .append(content.getContentType()).append(CRLF);
         }
 
         // finished writing the WARC headers, now let's serialize it
@@ -429,6 +457,36 @@ public class WARCExporter extends Configured implements Tool {
   public int generateWARC(String output, List<Path> segments,
       boolean onlySuccessfulResponses, boolean includeParseData,
       boolean includeParseText) throws IOException {
+    return generateWARC(output, segments, onlySuccessfulResponses,
+        includeParseData, includeParseText, 0);
+  }
+
+  /**
+   * Export segments as WARC files.
+   *
+   * @param output
+   *          output directory
+   * @param segments
+   *          segments to export
+   * @param onlySuccessfulResponses
+   *          skip all records which were not fetched successfully
+   * @param includeParseData
+   *          write the parse metadata as metadata record
+   * @param includeParseText
+   *          write the parsed text as conversion record
+   * @param compressionThreads
+   *          if positive, every record is compressed as a separate gzip
+   *          member using the given number of threads per reducer and a CDXJ
+   *          index is written alongside the WARC files (see
+   *          {@link WARCGzipOutputFormat}). Otherwise the WARC files are
+   *          compressed as a whole.
+   * @return 0 if the export succeeded, -1 otherwise
+   * @throws IOException
+   *           if the job could not be set up
+   */
+  public int generateWARC(String output, List<Path> segments,
+      boolean onlySuccessfulResponses, boolean includeParseData,
+      boolean includeParseText, int compressionThreads) throws IOException {
     StopWatch stopWatch = new StopWatch();
     stopWatch.start();
     LOG.info("WARCExporter: starting");
@@ -465,8 +523,13 @@ public class WARCExporter extends Configured implements Tool {
     job.setMapOutputValueClass(NutchWritable.class);
 
     FileOutputFormat.setOutputPath(job, new Path(output));
-    // using the old api
-    job.setOutputFormatClass(WARCOutputFormat.class);
+    if (compressionThreads > 0) {
+      job.getConfiguration().setInt(WARCGzipOutputFormat.COMPRESSION_THREADS,
+          compressionThreads);
+      job.setOutputFormatClass(WARCGzipOutputFormat.class);
+    } else {
+      job.setOutputFormatClass(WARCOutputFormat.class);
+    }
 
     job.setOutputKeyClass(NullWritable.class);
     job.setOutputValueClass(WARCWritable.class);
@@ -494,13 +557,14 @@ public class WARCExporter extends Configured implements Tool {
   public int run(String[] args) throws Exception {
     if (args.length < 2) {
       System.err.println(
-          "Usage: WARCExporter <output> (<segment> ... | -dir <segments>) [-onlySuccessfulResponses] [-includeParseData] [-includeParseText]");
+          "Usage: WARCExporter <output> (<segment> ... | -dir <segments>) [-onlySuccessfulResponses] [-includeParseData] [-includeParseText] [-perRecordGzip [<threads>]]");
       return -1;
     }
 
     boolean onlySuccessfulResponses = false;
     boolean includeParseData = false;
     boolean includeParseText = false;
+    int compressionThreads = 0;
     final List<Path> segments = new ArrayList<>();
 
     for (int i = 1; i < args.length; i++) {
@@ -516,6 +580,13 @@ public class WARCExporter extends Configured implements Tool {
         includeParseText = true;
         continue;
       }
+      if (args[i].equals("-perRecordGzip")) {
+        compressionThreads = 2;
+        if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+          compressionThreads = Integer.parseInt(args[++i]);
+        }
+        continue;
+      }
       if (args[i].equals("-dir")) {
         Path dir = new Path(args[++i]);
         FileSystem fs = dir.getFileSystem(getConf());
@@ -531,7 +602,7 @@ public class WARCExporter extends Configured implements Tool {
     }
 
     return generateWARC(args[0], segments, onlySuccessfulResponses,
-        includeParseData, includeParseText);
+        includeParseData, includeParseText, compressionThreads);
   }
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.warc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import com.martinkl.warc.WARCRecord;
+import com.martinkl.warc.WARCWritable;
+
+/**
+ * Writes WARC files where every record is compressed as an independent gzip
+ * member (<code>.warc.gz</code> as recommended by the WARC standard), so that
+ * every record can be read by seeking to its offset. The records are
+ * compressed on a pool of <code>warc.exporter.compression.threads</code>
+ * threads and written in the order they are passed to the record writer.
+ * <p>
+ * Alongside every WARC file a <a href=
+ * "https://specs.webrecorder.net/cdxj/0.1.0/">CDXJ</a> index
+ * (<code>.cdxj</code>) is written, holding for every response and resource
+ * record the SURT URL key, the timestamp and a JSON block with URL, mime type,
+ * HTTP status, payload digest, and offset and length of the gzip member. The
+ * index lines follow the order of the records, they need to be sorted (e.g.,
+ * <code>LC_ALL=C sort</code>) before being used for lookups.
+ * </p>
+ */
+public class WARCGzipOutputFormat
+    extends FileOutputFormat<NullWritable, WARCWritable> {
+
+  public static final String COMPRESSION_THREADS = "warc.exporter.compression.threads";
+
+  @Override
+  public RecordWriter<NullWritable, WARCWritable> getRecordWriter(
+      TaskAttemptContext context) throws IOException, InterruptedException {
+    Configuration conf = context.getConfiguration();
+    Path warcFile = getDefaultWorkFile(context, ".warc.gz");
+    Path indexFile = getDefaultWorkFile(context, ".cdxj");
+    FileSystem fs = warcFile.getFileSystem(conf);
+    return new WARCGzipRecordWriter(fs.create(warcFile, false),
+        fs.create(indexFile, false), warcFile.getName(),
+        conf.getInt(COMPRESSION_THREADS, 2));
+  }
+
+  /** A compressed WARC record and its CDXJ index line */
+  private static class CompressedRecord {
+    private byte[] data;
+    private String indexKey;
+    private JsonObject indexFields;
+  }
+
+  /**
+   * Record writer which compresses records on a thread pool and writes them
+   * in order.
+   */
+  public static class WARCGzipRecordWriter
+      extends RecordWriter<NullWritable, WARCWritable> {
+
+    private final Gson gson = new Gson();
+    private final OutputStream warcOut;
+    private final Writer indexOut;
+    private final String fileName;
+    private final ExecutorService executor;
+    private final Deque<Future<CompressedRecord>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private long offset = 0;
+    private boolean failed = false;
+
+    /**
+     * @param warcOut
+     *          output stream of the WARC file
+     * @param indexOut
+     *          output stream of the CDXJ index
+     * @param fileName
+     *          name of the WARC file referenced in the index
+     * @param threads
+     *          number of compression threads
+     */
+    public WARCGzipRecordWriter(OutputStream warcOut, OutputStream indexOut,
+        String fileName, int threads) {
+      this.warcOut = warcOut;
+      this.indexOut = new OutputStreamWriter(indexOut, StandardCharsets.UTF_8);
+      this.fileName = fileName;
+      threads = Math.max(1, threads);
+      // daemon threads: do not block the JVM exit if the task fails
+      this.executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactoryBuilder().setNameFormat("warc-gzip-%d")
+              .setDaemon(true).build());
+      // bound the memory held by compressed records waiting to be written
+      this.maxPending = 4 * threads;
+    }
+
+    @Override
+    public void write(NullWritable key, WARCWritable value)
+        throws IOException, InterruptedException {
+      WARCRecord record = value.getRecord();
+      try {
+        pending.add(executor.submit(() -> compress(record)));
+        while (pending.size() > maxPending) {
+          writeNext();
+        }
+      } catch (IOException | InterruptedException | RuntimeException e) {
+        // close() may not be called after a failed write
+        abort(e);
+        throw e;
+      }
+    }
+
+    /** Release compression threads and output streams after a failure */
+    private void abort(Exception cause) {
+      failed = true;
+      executor.shutdownNow();
+      for (Closeable out : new Closeable[] { warcOut, indexOut }) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          cause.addSuppressed(e);
+        }
+      }
+    }
+
+    private void writeNext() throws IOException, InterruptedException {
+      CompressedRecord compressed;
+      try {
+        compressed = pending.removeFirst().get();
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+      warcOut.write(compressed.data);
+      if (compressed.indexKey != null) {
+        compressed.indexFields.addProperty("length", compressed.data.length);
+        compressed.indexFields.addProperty("offset", offset);
+        compressed.indexFields.addProperty("filename", fileName);
+        indexOut.write(compressed.indexKey);
+        indexOut.write(' ');
+        indexOut.write(gson.toJson(compressed.indexFields));
+        indexOut.write('\n');
+      }
+      offset += compressed.data.length;
+    }
+
+    private CompressedRecord compress(WARCRecord record) throws IOException {
+      CompressedRecord compressed = new CompressedRecord();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+          record.getContent().length / 2 + 512);
+      try (DataOutputStream out = new DataOutputStream(
+          new GZIPOutputStream(bytes))) {
+        record.write(out);
+      }
+      compressed.data = bytes.toByteArray();
+
+      WARCRecord.Header header = record.getHeader();
+      String type = header.getRecordType();
+      if ("response".equals(type) || "resource".equals(type)) {
+        String url = header.getTargetURI();
+        String timestamp = header.getDateString().replaceAll("[^0-9]", "");
+        compressed.indexKey = toSurt(url) + " " + timestamp;
+        JsonObject fields = new JsonObject();
+        fields.addProperty("url", url);
+        String mime = header.getContentType();
+        if ("response".equals(type)) {
+          mime = null;
+          String[] lines = httpHeaderLines(record.getContent());
+          if (lines.length > 0) {
+            String[] statusLine = lines[0].split(" ");
+            if (statusLine.length > 1) {
+              fields.addProperty("status", statusLine[1]);
+            }
+          }
+          for (int i = 1; i < lines.length; i++) {
+            if (lines[i].regionMatches(true, 0, "Content-Type:", 0, 13)) {
+              mime = lines[i].substring(13).trim();
+              break;
+            }
+          }
+        }
+        if (mime != null) {
+          int semicolon = mime.indexOf(';');
+          if (semicolon != -1) {
+            mime = mime.substring(0, semicolon).trim();
+          }
+          fields.addProperty("mime", mime);
+        }
+        String digest = header.getField(WARCExporter.PAYLOAD_DIGEST);
+        if (digest != null) {
+          fields.addProperty("digest", digest);
+        }
+        compressed.indexFields = fields;
+      }
+      return compressed;
+    }
+
+    /**
+     * @return the lines of the HTTP header at the beginning of the content of
+     *         a response record
+     */
+    private static String[] httpHeaderLines(byte[] content) {
+      int end = 0;
+      while (end + 3 < content.length && !(content[end] == '\r'
+          && content[end + 1] == '\n' && content[end + 2] == '\r'
+          && content[end + 3] == '\n')) {
+        end++;
+      }
+      if (end + 3 >= content.length) {
+        return new String[0];
+      }
+      return new String(content, 0, end, StandardCharsets.ISO_8859_1)
+          .split("\r\n");
+    }
+
+    @Override
+    public void close(TaskAttemptContext context)
+        throws IOException, InterruptedException {
+      try {
+        while (!failed && !pending.isEmpty()) {
+          writeNext();
+        }
+      } finally {
+        executor.shutdownNow();
+        warcOut.close();
+        indexOut.close();
+      }
+    }
+  }
+
+  /**
+   * Convert a URL into the Sort-friendly URI Reordering Transform (SURT)
+   * form used as key of CDX(J) indexes, e.g.,
+   * <code>http://www.example.com/Path?q=1</code> becomes
+   * <code>com,example)/path?q=1</code>.
+   *
+   * @param url
+   *          URL
+   * @return SURT form of the URL, or the URL itself if it is not valid
+   */
+  public static String toSurt(String url) {
+    URL u;
+    try {
+      u = new URL(url);
+    } catch (MalformedURLException e) {
+      return url;
+    }
+    String host = u.getHost().toLowerCase(Locale.ROOT);
+    if (host.startsWith("www.")) {
+      host = host.substring(4);
+    }
+    String[] labels = host.split("\\.");
+    StringBuilder surt = new StringBuilder();
+    for (int i = labels.length - 1; i >= 0; i--) {
+      surt.append(labels[i]);
+      if (i > 0) {
+        surt.append(',');
+      }
+    }
+    if (u.getPort() != -1 && u.getPort() != u.getDefaultPort()) {
+      surt.append(':').append(u.getPort());
+    }
+    surt.append(')');
+    String file = u.getFile();
+    surt.append(file.isEmpty() ? "/" : file.toLowerCase(Locale.ROOT));
+    return surt.toString();
+  }
+}
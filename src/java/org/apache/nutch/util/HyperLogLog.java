@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hadoop.io.Writable;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Minimal HyperLogLog cardinality estimator (Flajolet et al. 2007) with the
+ * small range correction (linear counting). Items are hashed by the 64-bit
+ * MurmurHash3, so no large range correction is required. Two estimators of the
+ * same precision can be merged, the merged estimator is the same as if all
+ * items were added to one estimator.
+ *
+ * The relative standard error is about <code>1.04 / sqrt(2^precision)</code>,
+ * e.g. 0.8% for the default precision 14 which requires 16 kB of registers.
+ */
+public class HyperLogLog implements Writable {
+
+  public static final int DEFAULT_PRECISION = 14;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private int precision;
+  private byte[] registers;
+
+  public HyperLogLog() {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * @param precision
+   *          number of bits used to select the register, between 4 and 18
+   */
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 18) {
+      throw new IllegalArgumentException(
+          "HyperLogLog precision must be in range [4,18]: " + precision);
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+
+  public void add(String item) {
+    addHash(HASH.hashString(item, StandardCharsets.UTF_8).asLong());
+  }
+
+  public void addHash(long hash) {
+    int index = (int) (hash >>> (64 - precision));
+    // guard bit limits the rank to 64 - precision + 1
+    long w = (hash << precision) | (1L << (precision - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+    if (registers[index] < rank) {
+      registers[index] = rank;
+    }
+  }
+
+  /**
+   * Merge another estimator into this one.
+   *
+   * @param other
+   *          estimator of the same precision
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException(
+          "Cannot merge HyperLogLog of different precision: " + precision
+              + " <> " + other.precision);
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (registers[i] < other.registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  /**
+   * @return estimated number of distinct items added
+   */
+  public long cardinality() {
+    int m = registers.length;
+    double sum = 0.0;
+    int zeros = 0;
+    for (byte r : registers) {
+      sum += 1.0 / (1L << r);
+      if (r == 0) {
+        zeros++;
+      }
+    }
+    double estimate = alpha(m) * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      // small range correction
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  private static double alpha(int m) {
+    switch (m) {
+    case 16:
+      return 0.673;
+    case 32:
+      return 0.697;
+    case 64:
+      return 0.709;
+    default:
+      return 0.7213 / (1.0 + 1.079 / m);
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(precision);
+    out.write(registers);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int p = in.readByte();
+    if (p != precision) {
+      precision = p;
+      registers = new byte[1 << p];
+    }
+    in.readFully(registers);
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(cardinality());
+  }
+}
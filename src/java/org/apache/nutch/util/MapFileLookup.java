@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Filter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Random-access lookup of records in a partitioned MapFile output (e.g.,
+ * <code>crawldb/current/</code> or <code>linkdb/current/</code>) for
+ * long-running services. In difference to
+ * {@link org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat#getEntry}
+ * called on freshly opened readers:</p>
+ * <ul>
+ * <li>the readers of all parts are kept open and their index is loaded when
+ * the readers are opened,</li>
+ * <li>per part a bloom filter answers lookups of missing keys without any
+ * I/O. The bloom filter is read from the file <code>bloom</code> if the part
+ * has been written as {@link BloomMapFile}, otherwise it is built in the
+ * background by scanning the keys of the part. Until the bloom filter is
+ * ready, lookups are answered by the reader,</li>
+ * <li>batched lookups ({@link #getAll(Collection)}) visit every part once and
+ * look up keys in sorted order,</li>
+ * <li>the modification time of the directory is checked at most every
+ * <code>db.lookup.check.interval</code> seconds, readers are reopened if the
+ * directory has been modified.</li>
+ * </ul>
+ * <p>Keys must be {@link Text}, records are assigned to parts by the
+ * {@link HashPartitioner}, same as done by
+ * <code>MapFileOutputFormat.getEntry(...)</code>.</p>
+ */
+public class MapFileLookup<V extends Writable> implements Closeable {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  /** number of hash functions, same as used by {@link BloomMapFile} */
+  private static final int HASH_COUNT = 5;
+
+  private static final Partitioner<Text, Writable> PARTITIONER = new HashPartitioner<>();
+
+  /* builds bloom filters by scanning parts, idle thread terminates */
+  private static final ThreadPoolExecutor BLOOM_FILTER_BUILDER;
+  static {
+    BLOOM_FILTER_BUILDER = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+          Thread t = new Thread(r, "MapFileLookup-bloom-filter");
+          t.setDaemon(true);
+          return t;
+        });
+    BLOOM_FILTER_BUILDER.allowCoreThreadTimeOut(true);
+  }
+
+  private static class Part {
+    private final Path path;
+    private final MapFile.Reader reader;
+    /* null if not used or not yet built */
+    private volatile Filter bloomFilter;
+    private volatile boolean closed = false;
+
+    private Part(Path path, MapFile.Reader reader) {
+      this.path = path;
+      this.reader = reader;
+    }
+  }
+
+  private final Configuration conf;
+  private final Path directory;
+  private final Class<V> valueClass;
+  private final boolean useBloomFilter;
+  private final long checkInterval;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile Part[] parts;
+  private boolean closed = false;
+  private long lastModified;
+  private volatile long lastChecked;
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong bloomFilterMisses = new AtomicLong();
+  private final AtomicLong found = new AtomicLong();
+
+  /**
+   * @param conf
+   *          configuration
+   * @param directory
+   *          directory holding the MapFile parts, e.g.
+   *          <code>crawldb/current/</code>
+   * @param valueClass
+   *          class of the record values
+   */
+  public MapFileLookup(Configuration conf, Path directory,
+      Class<V> valueClass) {
+    this.conf = conf;
+    this.directory = directory;
+    this.valueClass = valueClass;
+    useBloomFilter = conf.getBoolean("db.lookup.bloom.filter", true);
+    checkInterval = conf.getLong("db.lookup.check.interval", 10) * 1000;
+  }
+
+  /**
+   * Open the readers if not yet done or if the directory has been modified
+   * since the readers have been opened.
+   *
+   * @throws IOException
+   *           if the readers cannot be opened or the lookup has been closed
+   */
+  public void open() throws IOException {
+    long now = System.currentTimeMillis();
+    if (parts != null && (now - lastChecked) < checkInterval) {
+      return;
+    }
+    FileSystem fs = directory.getFileSystem(conf);
+    long modified = fs.getFileStatus(directory).getModificationTime();
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        throw new IOException("Lookup of " + directory + " is closed");
+      }
+      lastChecked = now;
+      if (parts != null) {
+        if (lastModified == modified) {
+          return;
+        }
+        LOG.info("{} modified, reopening readers", directory);
+        closeParts();
+      }
+      parts = openParts(fs);
+      lastModified = modified;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private Part[] openParts(FileSystem fs) throws IOException {
+    Path[] names = FileUtil.stat2Paths(fs.listStatus(directory,
+        p -> !p.getName().startsWith("_") && !p.getName().startsWith(".")));
+    Arrays.sort(names);
+    Part[] parts = new Part[names.length];
+    for (int i = 0; i < names.length; i++) {
+      MapFile.Reader reader = new MapFile.Reader(names[i], conf);
+      // load the index now, not on the first lookup
+      reader.midKey();
+      parts[i] = new Part(names[i], reader);
+      if (useBloomFilter) {
+        loadBloomFilter(fs, parts[i]);
+      }
+    }
+    LOG.info("Opened {} parts of {}", parts.length, directory);
+    return parts;
+  }
+
+  /*
+   * Read the bloom filter of a BloomMapFile part, otherwise start building it
+   * in the background.
+   */
+  private void loadBloomFilter(FileSystem fs, Part part) throws IOException {
+    Path bloomFile = new Path(part.path, BloomMapFile.BLOOM_FILE_NAME);
+    if (fs.exists(bloomFile)) {
+      DynamicBloomFilter bloomFilter = new DynamicBloomFilter();
+      try (FSDataInputStream in = fs.open(bloomFile)) {
+        bloomFilter.readFields(in);
+      }
+      part.bloomFilter = bloomFilter;
+      return;
+    }
+    BLOOM_FILTER_BUILDER.execute(() -> {
+      try {
+        Filter bloomFilter = buildBloomFilter(part);
+        if (bloomFilter != null) {
+          part.bloomFilter = bloomFilter;
+          LOG.info("Built bloom filter of {}", part.path);
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to build bloom filter of {}: {}", part.path,
+            e.getMessage());
+      }
+    });
+  }
+
+  /* scan the keys of a part, returns null if the part is closed meanwhile */
+  private Filter buildBloomFilter(Part part) throws IOException {
+    if (part.closed) {
+      return null;
+    }
+    // same parameters as used by BloomMapFile
+    int numKeys = conf.getInt("io.mapfile.bloom.size", 1024 * 1024);
+    float errorRate = conf.getFloat("io.mapfile.bloom.error.rate", 0.005f);
+    int vectorSize = (int) Math.ceil((double) (-HASH_COUNT * numKeys)
+        / Math.log(1.0 - Math.pow(errorRate, 1.0 / HASH_COUNT)));
+    DynamicBloomFilter bloomFilter = new DynamicBloomFilter(vectorSize,
+        HASH_COUNT, Hash.getHashType(conf), numKeys);
+    Text key = new Text();
+    DataOutputBuffer buf = new DataOutputBuffer();
+    try (SequenceFile.Reader data = new SequenceFile.Reader(conf,
+        SequenceFile.Reader.file(
+            new Path(part.path, MapFile.DATA_FILE_NAME)))) {
+      while (data.next(key)) {
+        if (part.closed) {
+          return null;
+        }
+        bloomFilter.add(getBloomKey(key, buf));
+      }
+    }
+    return bloomFilter;
+  }
+
+  /**
+   * @return true if the bloom filters of all parts are loaded, false if the
+   *         readers are not open, bloom filters are not used or still built
+   */
+  public boolean isBloomFilterReady() {
+    lock.readLock().lock();
+    try {
+      if (parts == null || !useBloomFilter) {
+        return false;
+      }
+      return Arrays.stream(parts).allMatch(p -> p.bloomFilter != null);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Serialized key, compatible with keys used by {@link BloomMapFile} */
+  private static Key getBloomKey(Text key, DataOutputBuffer buf)
+      throws IOException {
+    buf.reset();
+    key.write(buf);
+    return new Key(Arrays.copyOf(buf.getData(), buf.getLength()));
+  }
+
+  private V lookup(Part[] parts, Text key, DataOutputBuffer buf)
+      throws IOException {
+    lookups.incrementAndGet();
+    Part part = parts[PARTITIONER.getPartition(key, null, parts.length)];
+    Filter bloomFilter = part.bloomFilter;
+    if (bloomFilter != null
+        && !bloomFilter.membershipTest(getBloomKey(key, buf))) {
+      bloomFilterMisses.incrementAndGet();
+      return null;
+    }
+    V value = ReflectionUtils.newInstance(valueClass, conf);
+    if (part.reader.get(key, value) == null) {
+      return null;
+    }
+    found.incrementAndGet();
+    return value;
+  }
+
+  /**
+   * Look up a single key.
+   *
+   * @param key
+   *          the key, e.g. URL
+   * @return the value or null if the key is not found
+   * @throws IOException
+   *           if the lookup fails
+   */
+  public V get(Text key) throws IOException {
+    while (true) {
+      open();
+      lock.readLock().lock();
+      try {
+        // null if closed concurrently, try to reopen
+        Part[] current = parts;
+        if (current != null) {
+          return lookup(current, key, new DataOutputBuffer());
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Look up multiple keys at once. Keys are grouped by part and looked up in
+   * sorted order, so that every reader moves forward only.
+   *
+   * @param keys
+   *          the keys, e.g. URLs
+   * @return map of keys and values in the order of the input keys, keys not
+   *         found are mapped to null
+   * @throws IOException
+   *           if a lookup fails
+   */
+  public Map<String, V> getAll(Collection<String> keys) throws IOException {
+    while (true) {
+      open();
+      lock.readLock().lock();
+      try {
+        // null if closed concurrently, try to reopen
+        Part[] current = parts;
+        if (current != null) {
+          return lookupAll(current, keys);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+  }
+
+  private Map<String, V> lookupAll(Part[] parts, Collection<String> keys)
+      throws IOException {
+    Map<String, V> result = new LinkedHashMap<>();
+    List<TreeMap<Text, String>> byPart = new ArrayList<>(parts.length);
+    for (int i = 0; i < parts.length; i++) {
+      byPart.add(new TreeMap<>());
+    }
+    for (String k : keys) {
+      result.put(k, null);
+      Text key = new Text(k);
+      byPart.get(PARTITIONER.getPartition(key, null, parts.length)).put(key, k);
+    }
+    DataOutputBuffer buf = new DataOutputBuffer();
+    for (TreeMap<Text, String> partKeys : byPart) {
+      for (Map.Entry<Text, String> e : partKeys.entrySet()) {
+        result.put(e.getValue(), lookup(parts, e.getKey(), buf));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get lookup statistics:
+   * <dl>
+   * <dt>lookups</dt>
+   * <dd>number of keys looked up</dd>
+   * <dt>bloomFilterMisses</dt>
+   * <dd>keys not found answered by the bloom filter without I/O</dd>
+   * <dt>found</dt>
+   * <dd>keys found</dd>
+   * </dl>
+   *
+   * @return map of counter names and values
+   */
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new TreeMap<>();
+    counters.put("lookups", lookups.get());
+    counters.put("bloomFilterMisses", bloomFilterMisses.get());
+    counters.put("found", found.get());
+    return counters;
+  }
+
+  private void closeParts() {
+    if (parts == null) {
+      return;
+    }
+    for (Part part : parts) {
+      part.closed = true;
+      try {
+        part.reader.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close reader of {}: {}", directory, e.getMessage());
+      }
+    }
+    parts = null;
+  }
+
+  /**
+   * Close the readers. The lookup cannot be used anymore after it has been
+   * closed.
+   */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      closed = true;
+      closeParts();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * <p>Bounded cache of MIME type detection results used by {@link MimeUtil} to
+ * skip the MIME magic detection for documents which look like previously
+ * detected ones. Documents are considered alike if they share the host, the
+ * declared Content-Type, the file extension in the URL and the hash of the
+ * first bytes of the content (the "magic prefix").</p>
+ *
+ * <p>A cached type is only trusted after the full detection returned the same
+ * type for <code>mime.type.cache.min.agreement</code> documents. Every
+ * <code>mime.type.cache.verify.interval</code>-th cache hit is verified by
+ * running the full detection; if the result differs (a misprediction) the
+ * entry is replaced by the new result and must gain trust again.</p>
+ *
+ * <p>The cache is shared between all {@link MimeUtil} instances using the same
+ * (or a copied) Nutch configuration, see {@link #get(Configuration)}.</p>
+ */
+public class MimeTypeDetectionCache {
+
+  /** Counter group used to report the cache statistics */
+  public static final String COUNTER_GROUP = "MimeTypeDetection";
+
+  private static class Entry {
+    private String type;
+    private int agreements;
+    private int hits;
+
+    private Entry(String type) {
+      this.type = type;
+      this.agreements = 1;
+    }
+  }
+
+  private static final WeakHashMap<String, MimeTypeDetectionCache> CACHES = new WeakHashMap<>();
+
+  private static final int MAX_NON_NUTCH_CACHES = 16;
+
+  /*
+   * caches of configurations without UUID, the key is not referenced by the
+   * configuration, so the caches are held strongly, least recently used ones
+   * are dropped
+   */
+  private static final Map<String, MimeTypeDetectionCache> NON_NUTCH_CACHES = new LinkedHashMap<String, MimeTypeDetectionCache>(
+      16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(
+        Map.Entry<String, MimeTypeDetectionCache> eldest) {
+      return size() > MAX_NON_NUTCH_CACHES;
+    }
+  };
+
+  private final int maxSize;
+  private final int minAgreement;
+  private final int verifyInterval;
+  private final int prefixLength;
+
+  private final Map<String, Entry> cache;
+
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong fullDetections = new AtomicLong();
+  private final AtomicLong verifications = new AtomicLong();
+  private final AtomicLong mispredictions = new AtomicLong();
+
+  /**
+   * @param conf
+   *          a populated {@link Configuration}, the cache size is configured
+   *          by <code>mime.type.cache.size</code>
+   */
+  public MimeTypeDetectionCache(Configuration conf) {
+    maxSize = conf.getInt("mime.type.cache.size", 0);
+    minAgreement = Math.max(1, conf.getInt("mime.type.cache.min.agreement", 3));
+    verifyInterval = conf.getInt("mime.type.cache.verify.interval", 100);
+    prefixLength = conf.getInt("mime.type.cache.prefix.length", 8);
+    cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get the detection cache shared by all users of the configuration.
+   *
+   * @param conf
+   *          a populated {@link Configuration}
+   * @return the shared cache or null if the cache is disabled
+   *         (<code>mime.type.cache.size</code> is 0)
+   */
+  public static MimeTypeDetectionCache get(Configuration conf) {
+    if (conf.getInt("mime.type.cache.size", 0) <= 0) {
+      return null;
+    }
+    // plugins get a copy of the job configuration, so the cache is looked up
+    // by the configuration's UUID, same as the PluginRepository
+    String uuid = NutchConfiguration.getUUID(conf);
+    Map<String, MimeTypeDetectionCache> caches = CACHES;
+    if (uuid == null) {
+      uuid = "nonNutchConf@" + conf.hashCode(); // fallback
+      caches = NON_NUTCH_CACHES;
+    }
+    synchronized (CACHES) {
+      MimeTypeDetectionCache cache = caches.get(uuid);
+      if (cache == null) {
+        cache = new MimeTypeDetectionCache(conf);
+        caches.put(uuid, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Build the cache key of a document.
+   *
+   * @param declaredType
+   *          the (cleaned) Content-Type sent by the server, may be null
+   * @param url
+   *          the document URL
+   * @param data
+   *          the document content
+   * @return the cache key
+   */
+  public String getKey(String declaredType, String url, byte[] data) {
+    StringBuilder key = new StringBuilder();
+    key.append(getHost(url)).append(' ');
+    if (declaredType != null) {
+      key.append(declaredType.trim().toLowerCase(Locale.ROOT));
+    }
+    key.append(' ').append(getExtension(url)).append(' ');
+    int hash = 1;
+    if (data != null) {
+      int length = Math.min(prefixLength, data.length);
+      for (int i = 0; i < length; i++) {
+        hash = 31 * hash + data[i];
+      }
+    }
+    key.append(Integer.toHexString(hash));
+    return key.toString();
+  }
+
+  /**
+   * Look up the trusted MIME type for a key. If the cache hit is selected for
+   * verification, null is returned and the caller is expected to run the full
+   * detection and pass the result to {@link #update(String, String)}.
+   *
+   * @param key
+   *          cache key obtained by {@link #getKey(String, String, byte[])}
+   * @return the trusted MIME type or null
+   */
+  public String lookup(String key) {
+    synchronized (cache) {
+      Entry entry = cache.get(key);
+      if (entry == null || entry.agreements < minAgreement) {
+        return null;
+      }
+      entry.hits++;
+      if (verifyInterval > 0 && (entry.hits % verifyInterval) == 0) {
+        return null;
+      }
+      cacheHits.incrementAndGet();
+      return entry.type;
+    }
+  }
+
+  /**
+   * Record the result of a full MIME type detection.
+   *
+   * @param key
+   *          cache key obtained by {@link #getKey(String, String, byte[])}
+   * @param type
+   *          the detected MIME type
+   */
+  public void update(String key, String type) {
+    fullDetections.incrementAndGet();
+    if (type == null) {
+      return;
+    }
+    synchronized (cache) {
+      Entry entry = cache.get(key);
+      if (entry == null) {
+        cache.put(key, new Entry(type));
+        return;
+      }
+      boolean trusted = entry.agreements >= minAgreement;
+      if (trusted) {
+        verifications.incrementAndGet();
+      }
+      if (entry.type.equals(type)) {
+        entry.agreements++;
+      } else {
+        if (trusted) {
+          mispredictions.incrementAndGet();
+        }
+        cache.put(key, new Entry(type));
+      }
+    }
+  }
+
+  /**
+   * @return the number of cached entries
+   */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Get the cache statistics, to be reported as counters in group
+   * {@link #COUNTER_GROUP}:
+   * <dl>
+   * <dt>cacheHits</dt>
+   * <dd>documents where the MIME magic detection was skipped</dd>
+   * <dt>fullDetections</dt>
+   * <dd>documents where the full detection was run</dd>
+   * <dt>verifications</dt>
+   * <dd>full detections run to verify a trusted cache entry</dd>
+   * <dt>mispredictions</dt>
+   * <dd>verifications which returned a different type than the cached one
+   * </dd>
+   * </dl>
+   *
+   * @return map of counter names and values
+   */
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new TreeMap<>();
+    counters.put("cacheHits", cacheHits.get());
+    counters.put("fullDetections", fullDetections.get());
+    counters.put("verifications", verifications.get());
+    counters.put("mispredictions", mispredictions.get());
+    return counters;
+  }
+
+  private static String getHost(String url) {
+    int start = url.indexOf("://");
+    if (start < 0) {
+      return "";
+    }
+    start += 3;
+    int end = start;
+    while (end < url.length()) {
+      char c = url.charAt(end);
+      if (c == '/' || c == '?' || c == '#') {
+        break;
+      }
+      end++;
+    }
+    return url.substring(start, end).toLowerCase(Locale.ROOT);
+  }
+
+  private static String getExtension(String url) {
+    int end = url.length();
+    int query = url.indexOf('?');
+    if (query >= 0) {
+      end = query;
+    }
+    int fragment = url.indexOf('#');
+    if (fragment >= 0 && fragment < end) {
+      end = fragment;
+    }
+    int scheme = url.indexOf("://");
+    int path = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+    if (path < 0 || path >= end) {
+      return "";
+    }
+    int slash = url.lastIndexOf('/', end - 1);
+    int dot = url.lastIndexOf('.', end - 1);
+    if (dot <= slash || dot < 0 || (end - dot) > 10) {
+      return "";
+    }
+    return url.substring(dot + 1, end).toLowerCase(Locale.ROOT);
+  }
+}
@@ -55,6 +55,9 @@ public final class MimeUtil {
   /* whether or not magic should be employed or not */
   private boolean mimeMagic;
 
+  /* cache of detection results, null if disabled */
+  private MimeTypeDetectionCache detectionCache;
+
   /* our log stream */
   private static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
@@ -101,6 +104,7 @@ public final class MimeUtil {
 
     this.mimeTypes = mimeTypez;
     this.mimeMagic = conf.getBoolean("mime.type.magic", true);
+    this.detectionCache = MimeTypeDetectionCache.get(conf);
   }
 
   /**
@@ -151,6 +155,22 @@ public final class MimeUtil {
    * @return The correctly, automatically guessed {@link MimeType} name.
    */
   public String autoResolveContentType(String typeName, String url, byte[] data) {
+    if (detectionCache == null || !this.mimeMagic) {
+      return resolveContentType(typeName, url, data);
+    }
+    // fast path: skip the MIME magic detection for documents with the same
+    // host, Content-Type, file extension and content prefix as previously
+    // detected ones, see MimeTypeDetectionCache
+    String key = detectionCache.getKey(cleanMimeType(typeName), url, data);
+    String retType = detectionCache.lookup(key);
+    if (retType == null) {
+      retType = resolveContentType(typeName, url, data);
+      detectionCache.update(key, retType);
+    }
+    return retType;
+  }
+
+  private String resolveContentType(String typeName, String url, byte[] data) {
     String retType = null;
     MimeType type = null;
     String cleanedMimeType = null;
@@ -62,12 +62,13 @@ public class PrefixStringMatcher extends TrieStringMatcher {
    */
   @Override
   public boolean matches(String input) {
-    TrieNode node = root;
+    DoubleArrayTrie trie = getTrie();
+    int state = DoubleArrayTrie.ROOT;
     for (int i = 0; i < input.length(); i++) {
-      node = node.getChild(input.charAt(i));
-      if (node == null)
+      state = trie.child(state, input.charAt(i));
+      if (state == DoubleArrayTrie.NONE)
         return false;
-      if (node.isTerminal())
+      if (trie.isTerminal(state))
         return true;
     }
     return false;
@@ -79,12 +80,13 @@ public class PrefixStringMatcher extends TrieStringMatcher {
    */
   @Override
   public String shortestMatch(String input) {
-    TrieNode node = root;
+    DoubleArrayTrie trie = getTrie();
+    int state = DoubleArrayTrie.ROOT;
     for (int i = 0; i < input.length(); i++) {
-      node = node.getChild(input.charAt(i));
-      if (node == null)
+      state = trie.child(state, input.charAt(i));
+      if (state == DoubleArrayTrie.NONE)
         return null;
-      if (node.isTerminal())
+      if (trie.isTerminal(state))
         return input.substring(0, i + 1);
     }
     return null;
@@ -96,13 +98,14 @@ public class PrefixStringMatcher extends TrieStringMatcher {
    */
   @Override
   public String longestMatch(String input) {
-    TrieNode node = root;
+    DoubleArrayTrie trie = getTrie();
+    int state = DoubleArrayTrie.ROOT;
     String result = null;
     for (int i = 0; i < input.length(); i++) {
-      node = node.getChild(input.charAt(i));
-      if (node == null)
+      state = trie.child(state, input.charAt(i));
+      if (state == DoubleArrayTrie.NONE)
         break;
-      if (node.isTerminal())
+      if (trie.isTerminal(state))
         result = input.substring(0, i + 1);
     }
     return result;
@@ -18,7 +18,10 @@ package org.apache.nutch.util;
 
 import java.io.IOException;
 import java.net.URL;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
@@ -29,8 +32,12 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
@@ -40,11 +47,14 @@ import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.map.MultithreadedMapper;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.crawl.CrawlDatum;
 import org.apache.nutch.hostdb.HostDatum;
+import org.apache.nutch.metadata.HttpHeaders;
+import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.protocol.Content;
@@ -82,6 +92,15 @@ import crawlercommons.sitemaps.SiteMapURL;
  * the sitemaps into the CrawlDb.</li>
  * </ol>
  *
+ * <p>
+ * Optionally, a sitemap state store (<code>-sitemapDb</code>) keeps for every
+ * sitemap the ETag, Last-Modified and a hash of the content, and the hashes of
+ * all URL entries. Unchanged sitemaps are skipped (conditional requests, or
+ * same content hash) and only new or changed URL entries of modified sitemaps
+ * are emitted, so that the work of a sitemap cycle is proportional to the
+ * amount of change rather than to the size of the sitemaps.
+ * </p>
+ *
  * @see
  * <a href="https://cwiki.apache.org/confluence/display/NUTCH/SitemapFeature">SitemapFeature</a>
  */
@@ -98,8 +117,57 @@ public class SitemapProcessor extends Configured implements Tool {
   public static final String SITEMAP_OVERWRITE_EXISTING = "sitemap.url.overwrite.existing";
   public static final String SITEMAP_REDIR_MAX = "sitemap.redir.max";
   public static final String SITEMAP_SIZE_MAX = "sitemap.size.max";
+  public static final String SITEMAP_STREAMING = "sitemap.streaming";
+  public static final String SITEMAP_URLS_MAX = "sitemap.urls.max";
+  public static final String SITEMAP_DB = "sitemap.db";
+  public static final String SITEMAP_DB_OUTPUT = "sitemapdb";
+
+  /**
+   * Union of the values passed from the {@link SitemapMapper} to the
+   * {@link SitemapReducer}: CrawlDatums and states of sitemaps.
+   */
+  public static class SitemapWritable extends GenericWritable {
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Writable>[] CLASSES = new Class[] {
+        CrawlDatum.class, SitemapState.class };
+
+    public SitemapWritable() {
+    }
 
-  private static class SitemapMapper extends Mapper<Text, Writable, Text, CrawlDatum> {
+    public SitemapWritable(Writable instance) {
+      set(instance);
+    }
+
+    @Override
+    protected Class<? extends Writable>[] getTypes() {
+      return CLASSES;
+    }
+  }
+
+  /** URL entries of a sitemap processed so far */
+  private static class SitemapEntries {
+    private long[] hashes;
+    private int numHashes = 0;
+    private int numUrls = 0;
+
+    SitemapEntries(boolean trackHashes) {
+      hashes = trackHashes ? new long[16] : null;
+    }
+
+    void addHash(long hash) {
+      if (numHashes == hashes.length) {
+        hashes = Arrays.copyOf(hashes, 2 * numHashes);
+      }
+      hashes[numHashes++] = hash;
+    }
+
+    long[] getHashes() {
+      return Arrays.copyOf(hashes, numHashes);
+    }
+  }
+
+  private static class SitemapMapper extends Mapper<Text, Writable, Text, SitemapWritable> {
     private ProtocolFactory protocolFactory = null;
     private boolean strict = true;
     private boolean filter = true;
@@ -110,9 +178,13 @@ public class SitemapProcessor extends Configured implements Tool {
     private URLNormalizers normalizers = null;
     private CrawlDatum datum = new CrawlDatum();
     private SiteMapParser parser = null;
+    private SitemapStreamParser streamParser = null;
+    private int maxUrls = -1;
+    private MapFile.Reader[] sitemapDbReaders = null;
+    private boolean trackState = false;
 
     @Override
-    public void setup(Context context) {
+    public void setup(Context context) throws IOException {
       Configuration conf = context.getConfiguration();
       int maxSize = conf.getInt(SITEMAP_SIZE_MAX, SiteMapParser.MAX_BYTES_ALLOWED);
       conf.setInt("http.content.limit", maxSize);
@@ -124,6 +196,10 @@ public class SitemapProcessor extends Configured implements Tool {
       this.tryDefaultSitemapXml = conf.getBoolean(SITEMAP_ALWAYS_TRY_SITEMAPXML_ON_ROOT, true);
       this.maxRedir = conf.getInt(SITEMAP_REDIR_MAX, 3);
       this.parser = new SiteMapParser(strict);
+      if (conf.getBoolean(SITEMAP_STREAMING, false)) {
+        this.streamParser = new SitemapStreamParser();
+      }
+      this.maxUrls = conf.getInt(SITEMAP_URLS_MAX, -1);
 
       if (filter) {
         filters = new URLFilters(conf);
@@ -131,6 +207,42 @@ public class SitemapProcessor extends Configured implements Tool {
       if (normalize) {
         normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_DEFAULT);
       }
+      if (conf.get(SITEMAP_DB) != null) {
+        trackState = true;
+        Path current = new Path(conf.get(SITEMAP_DB), CURRENT_NAME);
+        if (current.getFileSystem(conf).exists(current)) {
+          sitemapDbReaders = MapFileOutputFormat.getReaders(current, conf);
+        }
+      }
+    }
+
+    @Override
+    public void cleanup(Context context) throws IOException {
+      if (sitemapDbReaders != null) {
+        for (MapFile.Reader reader : sitemapDbReaders) {
+          reader.close();
+        }
+      }
+    }
+
+    /*
+     * Look up the state of a sitemap from the previous run. All parts are
+     * searched: the states are written by MultipleOutputs which creates parts
+     * only in reducers holding states, so the part index of a key cannot be
+     * computed by the partitioner.
+     */
+    private SitemapState getPreviousState(String url) throws IOException {
+      if (sitemapDbReaders == null) {
+        return null;
+      }
+      Text key = new Text(url);
+      SitemapState state = new SitemapState();
+      for (MapFile.Reader reader : sitemapDbReaders) {
+        if (reader.get(key, state) != null) {
+          return state;
+        }
+      }
+      return null;
     }
 
     @Override
@@ -140,7 +252,11 @@ public class SitemapProcessor extends Configured implements Tool {
       try {
         if (value instanceof CrawlDatum) {
           // If its an entry from CrawlDb, emit it. It will be merged in the reducer
-          context.write(key, (CrawlDatum) value);
+          context.write(key, new SitemapWritable(value));
+        }
+        else if (value instanceof SitemapState) {
+          // state from the sitemap db, kept if the sitemap isn't processed again
+          context.write(key, new SitemapWritable(value));
         }
         else if (value instanceof HostDatum) {
           generateSitemapsFromHostname(key.toString(), context);
@@ -222,7 +338,20 @@ public class SitemapProcessor extends Configured implements Tool {
     }
 
     private void generateSitemapUrlDatum(Protocol protocol, String url, Context context) throws Exception {
-      ProtocolOutput output = protocol.getProtocolOutput(new Text(url), datum);
+      // conditional request if the sitemap was processed before
+      SitemapState previous = getPreviousState(url);
+      CrawlDatum fetchDatum = datum;
+      if (previous != null) {
+        fetchDatum = new CrawlDatum();
+        fetchDatum.setModifiedTime(previous.getLastModified());
+        if (!previous.getEtag().isEmpty()) {
+          fetchDatum.getMetaData().put(HttpHeaders.WRITABLE_ETAG,
+              new Text(previous.getEtag()));
+        }
+      }
+      String stateUrl = url;
+
+      ProtocolOutput output = protocol.getProtocolOutput(new Text(url), fetchDatum);
       ProtocolStatus status = output.getStatus();
       Content content = output.getContent();
 
@@ -243,6 +372,12 @@ public class SitemapProcessor extends Configured implements Tool {
         maxRedir--;
       }
 
+      if (previous != null && status.getCode() == ProtocolStatus.NOTMODIFIED) {
+        context.getCounter("Sitemap", "unmodified_sitemaps").increment(1);
+        processUnmodified(protocol, previous, context);
+        return;
+      }
+
       if(status.getCode() != ProtocolStatus.SUCCESS) {
         // If there were any problems fetching the sitemap, log the error and let it go. Not sure how often
         // sitemaps are redirected. In future we might have to handle redirects.
@@ -251,83 +386,237 @@ public class SitemapProcessor extends Configured implements Tool {
         return;
       }
 
+      SitemapState state = null;
+      if (trackState) {
+        state = new SitemapState();
+        state.setFetchTime(System.currentTimeMillis());
+        state.setContentHash(MD5Hash.digest(content.getContent()).getDigest());
+        state.setEtag(content.getMetadata().get(HttpHeaders.ETAG));
+        String lastModified = content.getMetadata().get(HttpHeaders.LAST_MODIFIED);
+        if (lastModified != null) {
+          try {
+            state.setLastModified(HttpDateFormat.toLong(lastModified));
+          } catch (ParseException e) {
+            // no If-Modified-Since in the next run
+          }
+        }
+        if (previous != null
+            && Arrays.equals(previous.getContentHash(), state.getContentHash())) {
+          context.getCounter("Sitemap", "unmodified_sitemaps").increment(1);
+          // keep the entries and sitemaps, update the validators
+          previous.setFetchTime(state.getFetchTime());
+          previous.setEtag(state.getEtag());
+          previous.setLastModified(state.getLastModified());
+          context.write(new Text(stateUrl), new SitemapWritable(previous));
+          processUnmodified(protocol, previous, context);
+          return;
+        }
+      }
+
+      if (streamParser != null) {
+        SitemapEntries entries = new SitemapEntries(state != null);
+        List<String> sitemaps = new ArrayList<>();
+        SitemapStreamParser.Format format = streamParser.parse(
+            content.getContentType(), content.getContent(), new URL(url),
+            new SitemapStreamParser.Handler() {
+              @Override
+              public boolean url(SiteMapURL sitemapUrl)
+                  throws IOException, InterruptedException {
+                return processSitemapUrl(sitemapUrl, previous, entries,
+                    context);
+              }
+
+              @Override
+              public void sitemap(String childUrl) {
+                childUrl = filterNormalize(childUrl);
+                if (childUrl != null) {
+                  sitemaps.add(childUrl);
+                }
+              }
+            });
+        if (format == SitemapStreamParser.Format.URLSET) {
+          LOG.info("Parsed sitemap file: {}", url);
+          if (state != null) {
+            state.setEntryHashes(entries.getHashes());
+            context.write(new Text(stateUrl), new SitemapWritable(state));
+          }
+          return;
+        } else if (format == SitemapStreamParser.Format.INDEX) {
+          processIndex(protocol, url, sitemaps, state, stateUrl, context);
+          return;
+        }
+        // feeds are not streamed, fall back to the crawler-commons parser
+      }
+
       AbstractSiteMap asm = parser.parseSiteMap(content.getContentType(), content.getContent(), new URL(url));
 
       if(asm instanceof SiteMap) {
         LOG.info("Parsing sitemap file: {}", asm.getUrl().toString());
         SiteMap sm = (SiteMap) asm;
         Collection<SiteMapURL> sitemapUrls = sm.getSiteMapUrls();
+        SitemapEntries entries = new SitemapEntries(state != null);
         for(SiteMapURL sitemapUrl: sitemapUrls) {
-          // If 'strict' is ON, only allow valid urls. Else allow all urls
-          if(!strict || sitemapUrl.isValid()) {
-            String key = filterNormalize(sitemapUrl.getUrl().toString());
-
-            if (key != null) {
-              CrawlDatum sitemapUrlDatum = new CrawlDatum();
-              sitemapUrlDatum.setStatus(CrawlDatum.STATUS_INJECTED);
-              sitemapUrlDatum.setScore((float) sitemapUrl.getPriority());
-
-              if(sitemapUrl.getChangeFrequency() != null) {
-                int fetchInterval = -1;
-                switch(sitemapUrl.getChangeFrequency()) {
-                  case ALWAYS:  fetchInterval = 1;        break;
-                  case HOURLY:  fetchInterval = 3600;     break; // 60*60
-                  case DAILY:   fetchInterval = 86400;    break; // 60*60*24
-                  case WEEKLY:  fetchInterval = 604800;   break; // 60*60*24*7
-                  case MONTHLY: fetchInterval = 2592000;  break; // 60*60*24*30
-                  case YEARLY:  fetchInterval = 31536000; break; // 60*60*24*365
-                  case NEVER:   fetchInterval = Integer.MAX_VALUE; break; // Loose "NEVER" contract
-                }
-                sitemapUrlDatum.setFetchInterval(fetchInterval);
-              }
-
-              if(sitemapUrl.getLastModified() != null) {
-                sitemapUrlDatum.setModifiedTime(sitemapUrl.getLastModified().getTime());
-              }
-
-              context.write(new Text(key), sitemapUrlDatum);
-            }
+          if (!processSitemapUrl(sitemapUrl, previous, entries, context)) {
+            break;
           }
         }
+        if (state != null) {
+          state.setEntryHashes(entries.getHashes());
+          context.write(new Text(stateUrl), new SitemapWritable(state));
+        }
       }
       else if (asm instanceof SiteMapIndex) {
         SiteMapIndex index = (SiteMapIndex) asm;
         Collection<AbstractSiteMap> sitemapUrls = index.getSitemaps(true);
+        List<String> sitemaps = new ArrayList<>();
+        for (AbstractSiteMap sitemap : sitemapUrls) {
+          String childUrl = filterNormalize(sitemap.getUrl().toString());
+          if (childUrl != null) {
+            sitemaps.add(childUrl);
+          }
+        }
+        processIndex(protocol, index.getUrl().toString(), sitemaps, state,
+            stateUrl, context);
+      }
+    }
 
-        if (sitemapUrls.isEmpty()) {
-          return;
+    private void processIndex(Protocol protocol, String url,
+        List<String> sitemaps, SitemapState state, String stateUrl,
+        Context context) throws Exception {
+      if (state != null) {
+        state.setSitemaps(sitemaps);
+        context.write(new Text(stateUrl), new SitemapWritable(state));
+      }
+
+      if (sitemaps.isEmpty()) {
+        return;
+      }
+
+      LOG.info("Parsing sitemap index file: {}", url);
+      for (String childUrl : sitemaps) {
+        generateSitemapUrlDatum(protocol, childUrl, context);
+      }
+    }
+
+    /*
+     * Emits the CrawlDatum of a URL entry of a sitemap unless the entry is not
+     * valid, filtered or unchanged since the previous run. Returns false if
+     * the maximum number of URLs per sitemap is reached.
+     */
+    private boolean processSitemapUrl(SiteMapURL sitemapUrl,
+        SitemapState previous, SitemapEntries entries, Context context)
+        throws IOException, InterruptedException {
+      // If 'strict' is ON, only allow valid urls. Else allow all urls
+      if (strict && !sitemapUrl.isValid()) {
+        return true;
+      }
+      String key = filterNormalize(sitemapUrl.getUrl().toString());
+      if (key == null) {
+        return true;
+      }
+      if (maxUrls >= 0 && entries.numUrls >= maxUrls) {
+        context.getCounter("Sitemap", "capped_sitemaps").increment(1);
+        return false;
+      }
+      entries.numUrls++;
+
+      if (entries.hashes != null) {
+        long entryHash = SitemapState.hash(key, sitemapUrl);
+        entries.addHash(entryHash);
+        if (previous != null && previous.containsEntry(entryHash)) {
+          // unchanged since the previous run
+          context.getCounter("Sitemap", "unchanged_sitemap_entries")
+              .increment(1);
+          return true;
         }
+      }
 
-        LOG.info("Parsing sitemap index file: {}", index.getUrl().toString());
-        for (AbstractSiteMap sitemap : sitemapUrls) {
-          String sitemapUrl = filterNormalize(sitemap.getUrl().toString());
-          if (sitemapUrl != null) {
-            generateSitemapUrlDatum(protocol, sitemapUrl, context);
-          }
+      CrawlDatum sitemapUrlDatum = new CrawlDatum();
+      sitemapUrlDatum.setStatus(CrawlDatum.STATUS_INJECTED);
+      sitemapUrlDatum.setScore((float) sitemapUrl.getPriority());
+
+      if(sitemapUrl.getChangeFrequency() != null) {
+        int fetchInterval = -1;
+        switch(sitemapUrl.getChangeFrequency()) {
+          case ALWAYS:  fetchInterval = 1;        break;
+          case HOURLY:  fetchInterval = 3600;     break; // 60*60
+          case DAILY:   fetchInterval = 86400;    break; // 60*60*24
+          case WEEKLY:  fetchInterval = 604800;   break; // 60*60*24*7
+          case MONTHLY: fetchInterval = 2592000;  break; // 60*60*24*30
+          case YEARLY:  fetchInterval = 31536000; break; // 60*60*24*365
+          case NEVER:   fetchInterval = Integer.MAX_VALUE; break; // Loose "NEVER" contract
         }
+        sitemapUrlDatum.setFetchInterval(fetchInterval);
+      }
+
+      if(sitemapUrl.getLastModified() != null) {
+        sitemapUrlDatum.setModifiedTime(sitemapUrl.getLastModified().getTime());
+      }
+
+      context.write(new Text(key), new SitemapWritable(sitemapUrlDatum));
+      return true;
+    }
+
+    /*
+     * An unmodified sitemap index may still list modified sitemaps, the
+     * sitemaps of an index are checked one by one.
+     */
+    private void processUnmodified(Protocol protocol, SitemapState previous,
+        Context context) throws Exception {
+      if (previous.getNumEntries() > 0) {
+        context.getCounter("Sitemap", "unchanged_sitemap_entries")
+            .increment(previous.getNumEntries());
+      }
+      for (String childUrl : previous.getSitemaps()) {
+        generateSitemapUrlDatum(protocol, childUrl, context);
       }
     }
   }
 
-  private static class SitemapReducer extends Reducer<Text, CrawlDatum, Text, CrawlDatum> {
+  private static class SitemapReducer extends Reducer<Text, SitemapWritable, Text, CrawlDatum> {
     CrawlDatum sitemapDatum  = null;
     CrawlDatum originalDatum = null;
 
     private boolean overwriteExisting = false; // DO NOT ENABLE!!
+    private MultipleOutputs<Text, CrawlDatum> sitemapDb = null;
 
     @Override
     public void setup(Context context) {
       Configuration conf = context.getConfiguration();
       this.overwriteExisting = conf.getBoolean(SITEMAP_OVERWRITE_EXISTING, false);
+      if (conf.get(SITEMAP_DB) != null) {
+        sitemapDb = new MultipleOutputs<>(context);
+      }
     }
 
     @Override
-    public void reduce(Text key, Iterable<CrawlDatum> values, Context context)
+    public void cleanup(Context context)
+        throws IOException, InterruptedException {
+      if (sitemapDb != null) {
+        sitemapDb.close();
+      }
+    }
+
+    @Override
+    public void reduce(Text key, Iterable<SitemapWritable> values, Context context)
         throws IOException, InterruptedException {
       sitemapDatum  = null;
       originalDatum = null;
-
-      for (CrawlDatum curr: values) {
+      SitemapState sitemapState = null;
+
+      for (SitemapWritable value: values) {
+        Writable w = value.get();
+        if (w instanceof SitemapState) {
+          // keep the latest state
+          SitemapState state = (SitemapState) w;
+          if (sitemapState == null
+              || state.getFetchTime() > sitemapState.getFetchTime()) {
+            sitemapState = WritableUtils.clone(state,
+                context.getConfiguration());
+          }
+          continue;
+        }
+        CrawlDatum curr = (CrawlDatum) w;
         if(curr.getStatus() == CrawlDatum.STATUS_INJECTED) {
           sitemapDatum = new CrawlDatum();
           sitemapDatum.set(curr);
@@ -356,11 +645,37 @@ public class SitemapProcessor extends Configured implements Tool {
         sitemapDatum.setStatus(CrawlDatum.STATUS_DB_UNFETCHED);
         context.write(key, sitemapDatum);
       }
+
+      if (sitemapState != null && sitemapDb != null) {
+        sitemapDb.write(SITEMAP_DB_OUTPUT, key, sitemapState,
+            SITEMAP_DB_OUTPUT + "/part");
+      }
     }
   }
 
   public void sitemap(Path crawldb, Path hostdb, Path sitemapUrlDir, boolean strict, boolean filter,
                       boolean normalize, int threads) throws Exception {
+    sitemap(crawldb, hostdb, sitemapUrlDir, null, strict, filter, normalize, threads);
+  }
+
+  /**
+   * Fetch and parse sitemaps and merge the URLs into the CrawlDb.
+   *
+   * @param crawldb path to the CrawlDb
+   * @param hostdb path to a HostDb, sitemaps of all hosts are processed (optional)
+   * @param sitemapUrlDir directory with sitemap URLs or host names (optional)
+   * @param sitemapDb path to the sitemap state store (optional). If given,
+   *          unchanged sitemaps are skipped using conditional requests and
+   *          content hashes, and only new or changed URL entries are emitted.
+   * @param strict whether to reject invalid URLs
+   * @param filter whether to filter URLs
+   * @param normalize whether to normalize URLs
+   * @param threads number of threads fetching sitemaps per map task
+   * @throws Exception if the job failed
+   */
+  public void sitemap(Path crawldb, Path hostdb, Path sitemapUrlDir, Path sitemapDb,
+                      boolean strict, boolean filter, boolean normalize, int threads)
+      throws Exception {
     StopWatch stopWatch = new StopWatch();
     stopWatch.start();
     LOG.info("SitemapProcessor: starting");
@@ -400,11 +715,22 @@ public class SitemapProcessor extends Configured implements Tool {
       }
     }
 
+    if (sitemapDb != null) {
+      job.getConfiguration().set(SITEMAP_DB, sitemapDb.toString());
+      Path currentSitemapDb = new Path(sitemapDb, CURRENT_NAME);
+      if (fs.exists(currentSitemapDb)) {
+        MultipleInputs.addInputPath(job, currentSitemapDb, SequenceFileInputFormat.class);
+      }
+      MultipleOutputs.addNamedOutput(job, SITEMAP_DB_OUTPUT,
+          MapFileOutputFormat.class, Text.class, SitemapState.class);
+    }
+
     FileOutputFormat.setOutputPath(job, tempCrawlDb);
 
     job.setOutputFormatClass(MapFileOutputFormat.class);
     job.setOutputKeyClass(Text.class);
     job.setOutputValueClass(CrawlDatum.class);
+    job.setMapOutputValueClass(SitemapWritable.class);
 
     job.setMapperClass(MultithreadedMapper.class);
     MultithreadedMapper.setMapperClass(job, SitemapMapper.class);
@@ -428,6 +754,19 @@ public class SitemapProcessor extends Configured implements Tool {
       else
         FSUtils.replace(fs, old, current, true);
 
+      if (sitemapDb != null) {
+        // move the sitemap states out of the new CrawlDb and install them
+        Path newSitemapDb = new Path(tempCrawlDb, SITEMAP_DB_OUTPUT);
+        Path currentSitemapDb = new Path(sitemapDb, CURRENT_NAME);
+        if (fs.exists(newSitemapDb)) {
+          Path tempSitemapDb = new Path(sitemapDb, "sitemapdb-"
+              + Integer.toString(new Random().nextInt(Integer.MAX_VALUE)));
+          fs.mkdirs(sitemapDb);
+          fs.rename(newSitemapDb, tempSitemapDb);
+          FSUtils.replace(fs, currentSitemapDb, tempSitemapDb, true);
+        }
+      }
+
       FSUtils.replace(fs, current, tempCrawlDb, true);
       LockUtil.removeLockFile(fs, lock);
 
@@ -436,12 +775,22 @@ public class SitemapProcessor extends Configured implements Tool {
       long fromSeeds = job.getCounters().findCounter("Sitemap", "sitemap_seeds").getValue();
       long failedFetches = job.getCounters().findCounter("Sitemap", "failed_fetches").getValue();
       long newSitemapEntries = job.getCounters().findCounter("Sitemap", "new_sitemap_entries").getValue();
+      long unmodifiedSitemaps = job.getCounters().findCounter("Sitemap", "unmodified_sitemaps").getValue();
+      long unchangedEntries = job.getCounters().findCounter("Sitemap", "unchanged_sitemap_entries").getValue();
+      long cappedSitemaps = job.getCounters().findCounter("Sitemap", "capped_sitemaps").getValue();
 
       LOG.info("SitemapProcessor: Total records rejected by filters: {}", filteredRecords);
       LOG.info("SitemapProcessor: Total sitemaps from host name: {}", fromHostname);
       LOG.info("SitemapProcessor: Total sitemaps from seed urls: {}", fromSeeds);
       LOG.info("SitemapProcessor: Total failed sitemap fetches: {}", failedFetches);
       LOG.info("SitemapProcessor: Total new sitemap entries added: {}", newSitemapEntries);
+      if (cappedSitemaps > 0) {
+        LOG.info("SitemapProcessor: Total sitemaps exceeding {}: {}", SITEMAP_URLS_MAX, cappedSitemaps);
+      }
+      if (sitemapDb != null) {
+        LOG.info("SitemapProcessor: Total unmodified sitemaps skipped: {}", unmodifiedSitemaps);
+        LOG.info("SitemapProcessor: Total unchanged sitemap entries skipped: {}", unchangedEntries);
+      }
 
       stopWatch.stop();
       LOG.info("SitemapProcessor: finished, elapsed: {} ms", stopWatch.getTime(
@@ -460,11 +809,12 @@ public class SitemapProcessor extends Configured implements Tool {
 
   public static void usage() {
     System.err.println("Usage:\n SitemapProcessor <crawldb> [-hostdb <hostdb>] [-sitemapUrls <url_dir>] " +
-        "[-threads <threads>] [-force] [-noStrict] [-noFilter] [-noNormalize]\n");
+        "[-sitemapDb <sitemapdb>] [-threads <threads>] [-force] [-noStrict] [-noFilter] [-noNormalize]\n");
 
     System.err.println("\t<crawldb>\t\tpath to crawldb where the sitemap urls would be injected");
     System.err.println("\t-hostdb <hostdb>\tpath of a hostdb. Sitemap(s) from these hosts would be downloaded");
     System.err.println("\t-sitemapUrls <url_dir>\tpath to directory with sitemap urls or hostnames");
+    System.err.println("\t-sitemapDb <sitemapdb>\tpath of a sitemap state store. Unchanged sitemaps and sitemap entries are skipped");
     System.err.println("\t-threads <threads>\tNumber of threads created per mapper to fetch sitemap urls (default: 8)");
     System.err.println("\t-force\t\t\tforce update even if CrawlDb appears to be locked (CAUTION advised)");
     System.err.println("\t-noStrict\t\tBy default Sitemap parser rejects invalid urls. '-noStrict' disables that.");
@@ -482,6 +832,7 @@ public class SitemapProcessor extends Configured implements Tool {
     Path crawlDb = new Path(args[0]);
     Path hostDb = null;
     Path urlDir = null;
+    Path sitemapDb = null;
     boolean strict = true;
     boolean filter = true;
     boolean normalize = true;
@@ -496,6 +847,10 @@ public class SitemapProcessor extends Configured implements Tool {
         urlDir = new Path(args[++i]);
         LOG.info("SitemapProcessor: sitemap urls dir: {}", urlDir);
       }
+      else if (args[i].equals("-sitemapDb")) {
+        sitemapDb = new Path(args[++i]);
+        LOG.info("SitemapProcessor: sitemap db: {}", sitemapDb);
+      }
       else if (args[i].equals("-threads")) {
         threads = Integer.parseInt(args[++i]);
         LOG.info("SitemapProcessor: threads: {}", threads);
@@ -520,7 +875,7 @@ public class SitemapProcessor extends Configured implements Tool {
     }
 
     try {
-      sitemap(crawlDb, hostDb, urlDir, strict, filter, normalize, threads);
+      sitemap(crawlDb, hostDb, urlDir, sitemapDb, strict, filter, normalize, threads);
       return 0;
     } catch (Exception e) {
       LOG.error("SitemapProcessor: {}", StringUtils.stringifyException(e));
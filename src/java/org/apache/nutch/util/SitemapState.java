@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import crawlercommons.sitemaps.SiteMapURL;
+
+/**
+ * State of a sitemap kept in the sitemap state store of the
+ * {@link SitemapProcessor}: the time the sitemap was processed, the ETag and
+ * Last-Modified header values used for conditional requests, a hash of the
+ * content to detect unchanged sitemaps, and the hashes of all URL entries of
+ * a sitemap (URL, last modification time, change frequency and priority), so
+ * that only new or changed entries are emitted. For a sitemap index, the URLs
+ * of the sitemaps listed in the index are kept instead.
+ */
+public class SitemapState implements Writable {
+
+  private static final byte CUR_VERSION = 1;
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private long fetchTime = 0;
+  private String etag = "";
+  private long lastModified = 0;
+  private byte[] contentHash = new byte[0];
+  private long[] entryHashes = new long[0];
+  private List<String> sitemaps = new ArrayList<>();
+
+  public long getFetchTime() {
+    return fetchTime;
+  }
+
+  public void setFetchTime(long fetchTime) {
+    this.fetchTime = fetchTime;
+  }
+
+  /** @return the ETag of the sitemap, empty if unknown */
+  public String getEtag() {
+    return etag;
+  }
+
+  public void setEtag(String etag) {
+    this.etag = (etag == null ? "" : etag);
+  }
+
+  /** @return the Last-Modified time of the sitemap, 0 if unknown */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public void setLastModified(long lastModified) {
+    this.lastModified = lastModified;
+  }
+
+  public byte[] getContentHash() {
+    return contentHash;
+  }
+
+  public void setContentHash(byte[] contentHash) {
+    this.contentHash = contentHash;
+  }
+
+  /**
+   * @param entryHashes
+   *          hashes of the URL entries (see
+   *          {@link #hash(String, SiteMapURL)}), the array is sorted in place
+   */
+  public void setEntryHashes(long[] entryHashes) {
+    Arrays.sort(entryHashes);
+    this.entryHashes = entryHashes;
+  }
+
+  public int getNumEntries() {
+    return entryHashes.length;
+  }
+
+  /**
+   * @param entryHash
+   *          hash of a URL entry
+   * @return true if the URL entry was contained unchanged in the sitemap
+   */
+  public boolean containsEntry(long entryHash) {
+    return Arrays.binarySearch(entryHashes, entryHash) >= 0;
+  }
+
+  /** @return URLs of the sitemaps listed in a sitemap index */
+  public List<String> getSitemaps() {
+    return sitemaps;
+  }
+
+  public void setSitemaps(List<String> sitemaps) {
+    this.sitemaps = sitemaps;
+  }
+
+  /**
+   * Hash a URL entry of a sitemap: the entry is considered as changed if one
+   * of URL, last modification time, change frequency or priority changes.
+   *
+   * @param url
+   *          normalized URL of the entry
+   * @param entry
+   *          the sitemap entry
+   * @return 64-bit hash of the entry
+   */
+  public static long hash(String url, SiteMapURL entry) {
+    Hasher hasher = HASH.newHasher();
+    hasher.putString(url, StandardCharsets.UTF_8);
+    hasher.putLong(entry.getLastModified() == null ? 0
+        : entry.getLastModified().getTime());
+    hasher.putInt(entry.getChangeFrequency() == null ? -1
+        : entry.getChangeFrequency().ordinal());
+    hasher.putDouble(entry.getPriority());
+    return hasher.hash().asLong();
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    in.readByte(); // version
+    fetchTime = in.readLong();
+    etag = Text.readString(in);
+    lastModified = in.readLong();
+    contentHash = new byte[WritableUtils.readVInt(in)];
+    in.readFully(contentHash);
+    entryHashes = new long[WritableUtils.readVInt(in)];
+    for (int i = 0; i < entryHashes.length; i++) {
+      entryHashes[i] = in.readLong();
+    }
+    int numSitemaps = WritableUtils.readVInt(in);
+    sitemaps = new ArrayList<>(numSitemaps);
+    for (int i = 0; i < numSitemaps; i++) {
+      sitemaps.add(Text.readString(in));
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(CUR_VERSION);
+    out.writeLong(fetchTime);
+    Text.writeString(out, etag);
+    out.writeLong(lastModified);
+    WritableUtils.writeVInt(out, contentHash.length);
+    out.write(contentHash);
+    WritableUtils.writeVInt(out, entryHashes.length);
+    for (long hash : entryHashes) {
+      out.writeLong(hash);
+    }
+    WritableUtils.writeVInt(out, sitemaps.size());
+    for (String sitemap : sitemaps) {
+      Text.writeString(out, sitemap);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "fetchTime=" + fetchTime + ", etag=" + etag + ", lastModified="
+        + lastModified + ", entries=" + entryHashes.length + ", sitemaps="
+        + sitemaps.size();
+  }
+}
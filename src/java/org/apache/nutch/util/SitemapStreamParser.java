@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import crawlercommons.sitemaps.SiteMap;
+import crawlercommons.sitemaps.SiteMapParser;
+import crawlercommons.sitemaps.SiteMapURL;
+
+/**
+ * Streaming (StAX) parser for XML sitemaps, sitemap indexes and plain text
+ * sitemaps. Contrary to crawler-commons' {@link SiteMapParser}, which builds a
+ * {@link SiteMap} holding all URL entries, every entry is passed to a
+ * {@link Handler} as soon as it is parsed, so that the memory used does not
+ * depend on the number of entries. Gzip-compressed sitemaps are decompressed
+ * on the fly.
+ * <p>
+ * RSS and Atom feeds are not supported: for these
+ * {@link Format#UNSUPPORTED} is returned and the caller should fall back to
+ * {@link SiteMapParser}.
+ * </p>
+ */
+public class SitemapStreamParser {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Format of a parsed sitemap */
+  public enum Format {
+    /** sitemap listing URLs (XML <code>urlset</code> or plain text) */
+    URLSET,
+    /** sitemap index listing sitemaps */
+    INDEX,
+    /** not supported by the streaming parser */
+    UNSUPPORTED
+  }
+
+  /** Receives the entries of a sitemap while it is parsed */
+  public interface Handler {
+
+    /**
+     * Called for every URL entry of a sitemap.
+     *
+     * @param url
+     *          the URL entry
+     * @return false to stop parsing
+     */
+    boolean url(SiteMapURL url) throws IOException, InterruptedException;
+
+    /**
+     * Called for every sitemap listed in a sitemap index.
+     *
+     * @param url
+     *          URL of the sitemap
+     */
+    void sitemap(String url) throws IOException, InterruptedException;
+  }
+
+  private final XMLInputFactory factory;
+
+  public SitemapStreamParser() {
+    factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+        false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+  }
+
+  /**
+   * Parse a sitemap and pass its entries to the handler.
+   *
+   * @param contentType
+   *          MIME type of the sitemap, used to detect plain text sitemaps
+   * @param content
+   *          content of the sitemap, optionally gzip-compressed
+   * @param url
+   *          URL of the sitemap
+   * @param handler
+   *          handler receiving the entries
+   * @return format of the sitemap, {@link Format#UNSUPPORTED} if no entry was
+   *         passed to the handler because the format is not supported
+   */
+  public Format parse(String contentType, byte[] content, URL url,
+      Handler handler) throws IOException, InterruptedException {
+    InputStream in = new ByteArrayInputStream(content);
+    if (content.length > 2 && (content[0] & 0xff) == 0x1f
+        && (content[1] & 0xff) == 0x8b) {
+      in = new GZIPInputStream(in);
+    }
+    in = new BufferedInputStream(in);
+    String baseUrl = new SiteMap(url).getBaseUrl();
+    int first = skipLeadingWhiteSpace(in);
+    if (first == '<') {
+      return parseXml(in, url, baseUrl, handler);
+    } else if (contentType != null && contentType.startsWith("text/plain")) {
+      return parseText(in, baseUrl, handler);
+    }
+    return Format.UNSUPPORTED;
+  }
+
+  /*
+   * Skip white space and byte order mark, return the first remaining byte
+   * without consuming it
+   */
+  private static int skipLeadingWhiteSpace(InputStream in) throws IOException {
+    while (true) {
+      in.mark(1);
+      int b = in.read();
+      if (b == -1) {
+        return b;
+      }
+      if (!Character.isWhitespace(b) && b != 0xef && b != 0xbb && b != 0xbf) {
+        in.reset();
+        return b;
+      }
+    }
+  }
+
+  private Format parseXml(InputStream in, URL url, String baseUrl,
+      Handler handler) throws IOException, InterruptedException {
+    Format format = Format.UNSUPPORTED;
+    XMLStreamReader reader = null;
+    try {
+      reader = factory.createXMLStreamReader(in);
+      while (reader.hasNext()
+          && reader.next() != XMLStreamConstants.START_ELEMENT) {
+      }
+      if (!reader.isStartElement()) {
+        return format;
+      }
+      String entryName;
+      if ("urlset".equals(reader.getLocalName())) {
+        format = Format.URLSET;
+        entryName = "url";
+      } else if ("sitemapindex".equals(reader.getLocalName())) {
+        format = Format.INDEX;
+        entryName = "sitemap";
+      } else {
+        return format;
+      }
+      String namespace = reader.getNamespaceURI();
+
+      // elements of an entry: loc, lastmod, changefreq, priority
+      String loc = null, lastmod = null, changefreq = null, priority = null;
+      String field = null;
+      StringBuilder text = new StringBuilder();
+      boolean inEntry = false;
+      int depth = 1;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          if (depth == 2 && entryName.equals(reader.getLocalName())) {
+            inEntry = true;
+            loc = lastmod = changefreq = priority = null;
+          } else if (inEntry && depth == 3
+              && Objects.equals(namespace, reader.getNamespaceURI())) {
+            field = reader.getLocalName();
+            text.setLength(0);
+          }
+        } else if (event == XMLStreamConstants.CHARACTERS
+            || event == XMLStreamConstants.CDATA) {
+          if (field != null) {
+            text.append(reader.getText());
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          if (field != null && depth == 3) {
+            String value = text.toString().trim();
+            switch (field) {
+            case "loc":
+              loc = value;
+              break;
+            case "lastmod":
+              lastmod = value;
+              break;
+            case "changefreq":
+              changefreq = value;
+              break;
+            case "priority":
+              priority = value;
+              break;
+            }
+            field = null;
+          } else if (inEntry && depth == 2) {
+            inEntry = false;
+            if (loc != null && !loc.isEmpty()) {
+              if (format == Format.INDEX) {
+                handler.sitemap(loc);
+              } else if (isURL(loc) && !handler.url(new SiteMapURL(loc,
+                  lastmod, changefreq, priority,
+                  SiteMapParser.urlIsValid(baseUrl, loc)))) {
+                return format;
+              }
+            }
+          }
+          depth--;
+        }
+      }
+    } catch (XMLStreamException e) {
+      // entries passed to the handler so far are kept (e.g., if the sitemap
+      // is truncated)
+      LOG.warn("Failed to parse sitemap {}: {}", url, e.getMessage());
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          // ignore
+        }
+      }
+    }
+    return format;
+  }
+
+  private Format parseText(InputStream in, String baseUrl, Handler handler)
+      throws IOException, InterruptedException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(in, StandardCharsets.UTF_8));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || !isURL(line)) {
+        continue;
+      }
+      if (!handler.url(new SiteMapURL(line,
+          SiteMapParser.urlIsValid(baseUrl, line)))) {
+        break;
+      }
+    }
+    return Format.URLSET;
+  }
+
+  private static boolean isURL(String url) {
+    try {
+      new URL(url);
+      return true;
+    } catch (MalformedURLException e) {
+      return false;
+    }
+  }
+}
@@ -55,12 +55,13 @@ public class SuffixStringMatcher extends TrieStringMatcher {
    */
   @Override
   public boolean matches(String input) {
-    TrieNode node = root;
+    DoubleArrayTrie trie = getTrie();
+    int state = DoubleArrayTrie.ROOT;
     for (int i = input.length() - 1; i >= 0; i--) {
-      node = node.getChild(input.charAt(i));
-      if (node == null)
+      state = trie.child(state, input.charAt(i));
+      if (state == DoubleArrayTrie.NONE)
         return false;
-      if (node.isTerminal())
+      if (trie.isTerminal(state))
         return true;
     }
     return false;
@@ -72,12 +73,13 @@ public class SuffixStringMatcher extends TrieStringMatcher {
    */
   @Override
   public String shortestMatch(String input) {
-    TrieNode node = root;
+    DoubleArrayTrie trie = getTrie();
+    int state = DoubleArrayTrie.ROOT;
     for (int i = input.length() - 1; i >= 0; i--) {
-      node = node.getChild(input.charAt(i));
-      if (node == null)
+      state = trie.child(state, input.charAt(i));
+      if (state == DoubleArrayTrie.NONE)
         return null;
-      if (node.isTerminal())
+      if (trie.isTerminal(state))
         return input.substring(i);
     }
     return null;
@@ -89,13 +91,14 @@ public class SuffixStringMatcher extends TrieStringMatcher {
    */
   @Override
   public String longestMatch(String input) {
-    TrieNode node = root;
+    DoubleArrayTrie trie = getTrie();
+    int state = DoubleArrayTrie.ROOT;
     String result = null;
     for (int i = input.length() - 1; i >= 0; i--) {
-      node = node.getChild(input.charAt(i));
-      if (node == null)
+      state = trie.child(state, input.charAt(i));
+      if (state == DoubleArrayTrie.NONE)
         break;
-      if (node.isTerminal())
+      if (trie.isTerminal(state))
         result = input.substring(i);
     }
     return result;
@@ -16,186 +16,375 @@
  */
 package org.apache.nutch.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * TrieStringMatcher is a base class for simple tree-based string matching.
- * 
+ * <p>
+ * Patterns are collected when added and compiled into a
+ * {@link DoubleArrayTrie} before the first match. The trie is held in a few
+ * primitive arrays instead of one object per character node, which reduces
+ * the memory footprint for large pattern lists and makes the transition for
+ * every input character a constant-time array lookup.
+ * </p>
  * This class is thread-safe during string matching but not when adding strings
  * to the trie.
  */
 public abstract class TrieStringMatcher {
-  protected TrieNode root;
+
+  /* patterns added but not yet compiled into the trie, as decoded by the trie */
+  private List<String> patterns = new ArrayList<>();
+
+  private volatile DoubleArrayTrie trie;
 
   protected TrieStringMatcher() {
-    this.root = new TrieNode('\000', false);
   }
 
   /**
-   * Node class for the character tree.
+   * A compiled, immutable trie in double-array representation: the child of
+   * state <code>s</code> for a character with code <code>c</code> is the
+   * state <code>t = base[s] + c</code> if <code>check[t] == s</code>.
+   * Characters are mapped to dense codes, so that the arrays stay compact for
+   * any alphabet. Characters not contained in any pattern have no code and
+   * never match.
    */
-  protected class TrieNode implements Comparable<TrieNode> {
-    protected TrieNode[] children;
-    protected LinkedList<TrieNode> childrenList;
-    protected char nodeChar;
-    protected boolean terminal;
+  protected static final class DoubleArrayTrie {
+
+    /** State of the trie root */
+    public static final int ROOT = 0;
+
+    /** Returned by {@link #child(int, char)} if there is no such child */
+    public static final int NONE = -1;
+
+    /* character -> code (1..alphabet size), 0 if not contained in patterns */
+    private final char[] codes;
+    /* code -> character */
+    private final char[] alphabet;
+    private final int[] base;
+    private final int[] check;
+    /* bit set of terminal states */
+    private final long[] terminal;
+
+    private DoubleArrayTrie(char[] codes, char[] alphabet, int[] base,
+        int[] check, long[] terminal) {
+      this.codes = codes;
+      this.alphabet = alphabet;
+      this.base = base;
+      this.check = check;
+      this.terminal = terminal;
+    }
 
     /**
-     * Creates a new TrieNode, which contains the given <code>nodeChar</code>.
-     * If <code>isTerminal</code> is <code>true</code>, the new node is a
-     * <em>terminal</em> node in the trie.
+     * Get the state reached from <code>state</code> by the character
+     * <code>c</code>.
+     * @param state current state, initially {@link #ROOT}
+     * @param c next character of the input
+     * @return the child state or {@link #NONE}
      */
-    TrieNode(char nodeChar, boolean isTerminal) {
-      this.nodeChar = nodeChar;
-      this.terminal = isTerminal;
-      this.childrenList = new LinkedList<>();
+    public int child(int state, char c) {
+      if (c >= codes.length) {
+        return NONE;
+      }
+      int code = codes[c];
+      if (code == 0) {
+        return NONE;
+      }
+      int t = base[state] + code;
+      if (t >= check.length || check[t] != state) {
+        return NONE;
+      }
+      return t;
     }
 
     /**
-     * Returns <code>true</code> if this node is a <em>terminal</em> node in the
-     * trie.
+     * @param state a state of the trie
+     * @return true if a pattern ends in <code>state</code>
      */
-    boolean isTerminal() {
-      return terminal;
+    public boolean isTerminal(int state) {
+      return (terminal[state >>> 6] & (1L << state)) != 0;
     }
 
     /**
-     * Returns the child node of this node whose node-character is
-     * <code>nextChar</code>. If no such node exists, one will be is added. If
-     * <em>isTerminal</em> is <code>true</code>, the node will be a terminal
-     * node in the trie.
+     * @return the number of slots in the trie arrays
      */
-    TrieNode getChildAddIfNotPresent(char nextChar, boolean isTerminal) {
-      if (childrenList == null) {
-        childrenList = new LinkedList<>();
-        childrenList.addAll(Arrays.asList(children));
-        children = null;
-      }
+    public int size() {
+      return check.length;
+    }
 
-      if (childrenList.size() == 0) {
-        TrieNode newNode = new TrieNode(nextChar, isTerminal);
-        childrenList.add(newNode);
-        return newNode;
-      }
+    /**
+     * @return approximate memory used by the trie arrays in bytes
+     */
+    public long sizeInBytes() {
+      return 2L * codes.length + 2L * alphabet.length + 4L * base.length
+          + 4L * check.length + 8L * terminal.length;
+    }
 
-      ListIterator<TrieNode> iter = childrenList.listIterator();
-      TrieNode node = iter.next();
-      while ((node.nodeChar < nextChar) && iter.hasNext())
-        node = iter.next();
+    /* collect the decoded patterns of the trie */
+    private void patterns(List<String> result) {
+      StringBuilder sb = new StringBuilder();
+      patterns(ROOT, sb, result);
+    }
 
-      if (node.nodeChar == nextChar) {
-        node.terminal = node.terminal | isTerminal;
-        return node;
+    private void patterns(int state, StringBuilder sb, List<String> result) {
+      if (isTerminal(state)) {
+        result.add(sb.toString());
+      }
+      for (int code = 1; code < alphabet.length; code++) {
+        int t = base[state] + code;
+        if (t < check.length && check[t] == state) {
+          sb.append(alphabet[code]);
+          patterns(t, sb, result);
+          sb.setLength(sb.length() - 1);
+        }
       }
-
-      if (node.nodeChar > nextChar)
-        iter.previous();
-
-      TrieNode newNode = new TrieNode(nextChar, isTerminal);
-      iter.add(newNode);
-      return newNode;
     }
 
-    /**
-     * Returns the child node of this node whose node-character is
-     * <code>nextChar</code>. If no such node exists, <code>null</code> is
-     * returned.
-     */
-    TrieNode getChild(char nextChar) {
-      if (children == null) {
-        compile();
+    /* build the trie from a sorted list of unique, non-empty patterns */
+    private static DoubleArrayTrie build(List<String> keys) {
+      char maxChar = 0;
+      boolean[] used = new boolean[Character.MAX_VALUE + 1];
+      long numChars = 0;
+      for (String key : keys) {
+        for (int i = 0; i < key.length(); i++) {
+          char c = key.charAt(i);
+          used[c] = true;
+          maxChar = (char) Math.max(maxChar, c);
+        }
+        numChars += key.length();
       }
-
-      int min = 0;
-      int max = children.length - 1;
-      int mid = 0;
-      while (min < max) {
-        mid = (min + max) / 2;
-        if (children[mid].nodeChar == nextChar)
-          return children[mid];
-        if (children[mid].nodeChar < nextChar)
-          min = mid + 1;
-        else
-          // if (children[mid].nodeChar > nextChar)
-          max = mid - 1;
+      char[] codes = new char[keys.isEmpty() ? 0 : maxChar + 1];
+      int alphabetSize = 0;
+      for (int c = 0; c < codes.length; c++) {
+        if (used[c]) {
+          codes[c] = (char) ++alphabetSize;
+        }
       }
+      char[] alphabet = new char[alphabetSize + 1];
+      for (int c = 0; c < codes.length; c++) {
+        if (codes[c] != 0) {
+          alphabet[codes[c]] = (char) c;
+        }
+      }
+
+      Builder builder = new Builder(keys, codes,
+          (int) Math.min(Integer.MAX_VALUE - 8, numChars + alphabetSize + 1));
+      builder.build();
+      int size = builder.maxState + 1;
+      return new DoubleArrayTrie(codes, alphabet,
+          Arrays.copyOf(builder.base, size), Arrays.copyOf(builder.check, size),
+          Arrays.copyOf(builder.terminal, (size + 63) >>> 6));
+    }
+  }
 
-      if (min == max)
-        if (children[min].nodeChar == nextChar)
-          return children[min];
+  /*
+   * Places the nodes of the trie into the double array, the children of a node
+   * are the distinct characters at the same position of a range of sorted
+   * keys.
+   */
+  private static final class Builder {
+    private final List<String> keys;
+    private final char[] codes;
+    private int[] base;
+    private int[] check;
+    private long[] terminal;
+    private int maxState = DoubleArrayTrie.ROOT;
+    /* all slots below are occupied */
+    private int nextCheckPos = 1;
 
-      return null;
+    private Builder(List<String> keys, char[] codes, int initialSize) {
+      this.keys = keys;
+      this.codes = codes;
+      base = new int[Math.max(initialSize, 16)];
+      check = new int[base.length];
+      Arrays.fill(check, -1);
+      check[DoubleArrayTrie.ROOT] = DoubleArrayTrie.ROOT;
+      terminal = new long[(base.length + 63) >>> 6];
     }
 
-    @Override
-    public int compareTo(TrieNode other) {
-      if (this.nodeChar < other.nodeChar)
-        return -1;
-      if (this.nodeChar == other.nodeChar)
-        return 0;
-      // if (this.nodeChar > other.nodeChar)
-      return 1;
+    private void ensureCapacity(int size) {
+      if (size <= base.length) {
+        return;
+      }
+      int newSize = Math.max(size, base.length + (base.length >>> 1));
+      base = Arrays.copyOf(base, newSize);
+      int oldSize = check.length;
+      check = Arrays.copyOf(check, newSize);
+      Arrays.fill(check, oldSize, newSize, -1);
+      terminal = Arrays.copyOf(terminal, (newSize + 63) >>> 6);
     }
 
-    /**
-     * Prepare node for matching. Note: this method is synchronized because it
-     * may be called concurrently when the trie is used for matching.
-     */
-    synchronized void compile() {
-      if (childrenList != null) {
-        children = childrenList.toArray(new TrieNode[childrenList.size()]);
-        childrenList = null;
-        Arrays.sort(children);
+    private void build() {
+      // state, first key, end of key range, depth
+      int[] stack = new int[64];
+      int top = 0;
+      stack[top++] = DoubleArrayTrie.ROOT;
+      stack[top++] = 0;
+      stack[top++] = keys.size();
+      stack[top++] = 0;
+      int[] childCodes = new int[16];
+      int[] childStarts = new int[17];
+      while (top > 0) {
+        int depth = stack[--top];
+        int end = stack[--top];
+        int start = stack[--top];
+        int state = stack[--top];
+        if (start < end && keys.get(start).length() == depth) {
+          // keys are sorted, a key ending here is first in the range
+          terminal[state >>> 6] |= 1L << state;
+          start++;
+        }
+        if (start == end) {
+          continue;
+        }
+        // group the keys by their character at depth
+        int numChildren = 0;
+        int lastCode = -1;
+        for (int i = start; i < end; i++) {
+          int code = codes[keys.get(i).charAt(depth)];
+          if (code != lastCode) {
+            if (numChildren == childCodes.length) {
+              childCodes = Arrays.copyOf(childCodes, numChildren * 2);
+              childStarts = Arrays.copyOf(childStarts, numChildren * 2 + 1);
+            }
+            childCodes[numChildren] = code;
+            childStarts[numChildren] = i;
+            numChildren++;
+            lastCode = code;
+          }
+        }
+        childStarts[numChildren] = end;
+
+        int b = findBase(childCodes, numChildren);
+        base[state] = b;
+        for (int i = 0; i < numChildren; i++) {
+          int t = b + childCodes[i];
+          check[t] = state;
+          maxState = Math.max(maxState, t);
+        }
+        if (top + 4 * numChildren > stack.length) {
+          stack = Arrays.copyOf(stack,
+              Math.max(stack.length * 2, top + 4 * numChildren));
+        }
+        for (int i = numChildren - 1; i >= 0; i--) {
+          stack[top++] = b + childCodes[i];
+          stack[top++] = childStarts[i];
+          stack[top++] = childStarts[i + 1];
+          stack[top++] = depth + 1;
+        }
+      }
+    }
+
+    /* find a base so that the slots of all children are free */
+    private int findBase(int[] childCodes, int numChildren) {
+      int first = childCodes[0];
+      int last = childCodes[numChildren - 1];
+      int pos = Math.max(first + 1, nextCheckPos) - 1;
+      int occupied = 0;
+      boolean firstFree = true;
+      int startPos = nextCheckPos;
+      while (true) {
+        pos++;
+        ensureCapacity(pos + 1);
+        if (check[pos] != -1) {
+          occupied++;
+          continue;
+        } else if (firstFree) {
+          nextCheckPos = pos;
+          startPos = pos;
+          firstFree = false;
+        }
+        int b = pos - first;
+        ensureCapacity(b + last + 1);
+        boolean free = true;
+        for (int i = 1; i < numChildren; i++) {
+          if (check[b + childCodes[i]] != -1) {
+            free = false;
+            break;
+          }
+        }
+        if (free) {
+          // skip densely occupied regions in later searches
+          if (occupied >= 0.95 * (pos - startPos + 1)) {
+            nextCheckPos = pos;
+          }
+          return b;
+        }
       }
     }
   }
 
   /**
-   * Get the next {@link TrieNode} visited, given that you are at
-   * <code>node</code>, and that the next character in the input is the
-   * <code>idx</code>'th character of <code>s</code>. Can return null.
-   * @see TrieNode#getChild(char)
-   * @param node Input {@link TrieNode} containing child nodes
-   * @param s String to match character at indexed position
-   * @param idx Indexed position in input string
-   * @return child {@link TrieNode}
+   * Get the compiled trie, compiling all patterns added so far if necessary.
+   * Note: compiling is synchronized because it may be called concurrently
+   * when the trie is used for matching.
+   * @return the compiled trie
    */
-  protected final TrieNode matchChar(TrieNode node, String s, int idx) {
-    return node.getChild(s.charAt(idx));
+  protected final DoubleArrayTrie getTrie() {
+    DoubleArrayTrie t = trie;
+    if (t == null) {
+      t = compile();
+    }
+    return t;
+  }
+
+  private synchronized DoubleArrayTrie compile() {
+    if (trie == null) {
+      List<String> keys = patterns;
+      Collections.sort(keys);
+      List<String> unique = new ArrayList<>(keys.size());
+      String previous = null;
+      for (String key : keys) {
+        if (!key.equals(previous)) {
+          unique.add(key);
+        }
+        previous = key;
+      }
+      patterns = null;
+      trie = DoubleArrayTrie.build(unique);
+    }
+    return trie;
+  }
+
+  /* add a pattern as decoded by the trie */
+  private void addPattern(String s) {
+    if (s.length() == 0) {
+      return;
+    }
+    if (patterns == null) {
+      // patterns are added after the trie was compiled: decompile the trie
+      // and compile again before the next match
+      patterns = new ArrayList<>();
+      trie.patterns(patterns);
+      trie = null;
+    }
+    patterns.add(s);
   }
 
   /**
-   * Adds any necessary nodes to the trie so that the given <code>String</code>
-   * can be decoded and the last character is represented by a terminal node.
+   * Adds the given <code>String</code> to the trie so that it is decoded
+   * forward and the last character is represented by a terminal state.
    * Zero-length <code>Strings</code> are ignored.
    * @param s String to be decoded.
    */
   protected final void addPatternForward(String s) {
-    TrieNode node = root;
-    int stop = s.length() - 1;
-    int i;
-    if (s.length() > 0) {
-      for (i = 0; i < stop; i++)
-        node = node.getChildAddIfNotPresent(s.charAt(i), false);
-      node = node.getChildAddIfNotPresent(s.charAt(i), true);
-    }
+    addPattern(s);
   }
 
   /**
-   * Adds any necessary nodes to the trie so that the given <code>String</code>
-   * can be decoded <em>in reverse</em> and the first character is represented
-   * by a terminal node. Zero-length <code>Strings</code> are ignored.
+   * Adds the given <code>String</code> to the trie so that it is decoded
+   * <em>in reverse</em> and the first character is represented by a terminal
+   * state. Zero-length <code>Strings</code> are ignored.
    * @param s String to be decoded.
    */
   protected final void addPatternBackward(String s) {
-    TrieNode node = root;
-    if (s.length() > 0) {
-      for (int i = s.length() - 1; i > 0; i--)
-        node = node.getChildAddIfNotPresent(s.charAt(i), false);
-      node = node.getChildAddIfNotPresent(s.charAt(0), true);
+    char[] reversed = new char[s.length()];
+    for (int i = 0; i < reversed.length; i++) {
+      reversed[i] = s.charAt(reversed.length - 1 - i);
     }
+    addPattern(new String(reversed));
   }
 
   /**
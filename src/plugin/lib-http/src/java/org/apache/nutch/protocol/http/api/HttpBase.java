@@ -23,14 +23,17 @@ import java.io.Reader;
 import java.net.Proxy;
 import java.net.URI;
 import java.net.URL;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.slf4j.Logger;
@@ -52,6 +55,7 @@ import org.apache.nutch.util.DeflateUtils;
 import org.apache.hadoop.util.StringUtils;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BooleanWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
 
@@ -61,6 +65,19 @@ public abstract class HttpBase implements Protocol {
 
   public static final Text RESPONSE_TIME = new Text("_rs_");
 
+  /**
+   * Time in milliseconds spent in the TLS handshake, part of the response
+   * time {@link #RESPONSE_TIME}. Only recorded if a new TLS connection was
+   * established to fetch the page.
+   */
+  public static final Text TLS_HANDSHAKE_TIME = new Text("_rs_tls_");
+
+  /**
+   * Whether the TLS session of the handshake {@link #TLS_HANDSHAKE_TIME} was
+   * resumed (abbreviated handshake) or newly negotiated (full handshake).
+   */
+  public static final Text TLS_SESSION_RESUMED = new Text("_rs_tls_resumed_");
+
   public static final Text COOKIE = new Text("Cookie");
 
   public static final int BUFFER_SIZE = 8 * 1024;
@@ -179,6 +196,15 @@ public abstract class HttpBase implements Protocol {
   /** Whether to check TLS/SSL certificates */
   protected boolean tlsCheckCertificate = false;
 
+  /** Shared TLS context and session cache */
+  private TlsSessionCache tlsSessionCache;
+
+  /* number and accumulated time of full and resumed TLS handshakes */
+  private final AtomicLong tlsFullHandshakes = new AtomicLong();
+  private final AtomicLong tlsFullHandshakeTime = new AtomicLong();
+  private final AtomicLong tlsResumedHandshakes = new AtomicLong();
+  private final AtomicLong tlsResumedHandshakeTime = new AtomicLong();
+
   /** Which TLS/SSL protocols to support */
   protected Set<String> tlsPreferredProtocols;
 
@@ -238,6 +264,12 @@ public abstract class HttpBase implements Protocol {
     this.tlsCheckCertificate = conf.getBoolean("http.tls.certificates.check",
         false);
     this.responseTime = conf.getBoolean("http.store.responsetime", true);
+    try {
+      this.tlsSessionCache = TlsSessionCache.get(conf);
+    } catch (GeneralSecurityException e) {
+      this.logger.error("Failed to initialize TLS context", e);
+      this.tlsSessionCache = null;
+    }
     this.storeIPAddress = conf.getBoolean("store.ip.address", false);
     this.storeHttpRequest = conf.getBoolean("store.http.request", false);
     this.storeHttpHeaders = conf.getBoolean("store.http.headers", false);
@@ -358,6 +390,11 @@ public abstract class HttpBase implements Protocol {
       URL u = new URL(urlString);
 
       long startTime = System.currentTimeMillis();
+      if (this.responseTime) {
+        // remove handshake metrics of a previous fetch
+        datum.getMetaData().remove(TLS_HANDSHAKE_TIME);
+        datum.getMetaData().remove(TLS_SESSION_RESUMED);
+      }
       Response response = getResponse(u, datum, false); // make a request
 
       if (this.responseTime) {
@@ -560,6 +597,60 @@ public abstract class HttpBase implements Protocol {
     return this.tlsCheckCertificate;
   }
 
+  /**
+   * @return the shared TLS context and session cache, null if the TLS
+   *         context could not be initialized
+   */
+  public TlsSessionCache getTlsSessionCache() {
+    return this.tlsSessionCache;
+  }
+
+  /**
+   * Record a TLS handshake: counts full and resumed handshakes and, if
+   * response times are recorded (<code>http.store.responsetime</code>),
+   * stores the handshake time in the CrawlDatum's meta data.
+   * 
+   * @param datum
+   *          CrawlDatum of the fetched page
+   * @param elapsedTime
+   *          time in milliseconds spent in the handshake
+   * @param resumed
+   *          whether the TLS session was resumed
+   */
+  public void recordTlsHandshake(CrawlDatum datum, long elapsedTime,
+      boolean resumed) {
+    if (resumed) {
+      tlsResumedHandshakes.incrementAndGet();
+      tlsResumedHandshakeTime.addAndGet(elapsedTime);
+    } else {
+      tlsFullHandshakes.incrementAndGet();
+      tlsFullHandshakeTime.addAndGet(elapsedTime);
+    }
+    if (this.responseTime && datum != null) {
+      datum.getMetaData().put(TLS_HANDSHAKE_TIME,
+          new IntWritable((int) elapsedTime));
+      datum.getMetaData().put(TLS_SESSION_RESUMED,
+          new BooleanWritable(resumed));
+    }
+  }
+
+  /**
+   * Get the number and the accumulated time in milliseconds of full and
+   * resumed TLS handshakes, empty if there was no TLS handshake.
+   */
+  @Override
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new LinkedHashMap<>();
+    if (tlsFullHandshakes.get() > 0 || tlsResumedHandshakes.get() > 0) {
+      counters.put("tls_handshakes_full", tlsFullHandshakes.get());
+      counters.put("tls_handshakes_full_time_ms", tlsFullHandshakeTime.get());
+      counters.put("tls_handshakes_resumed", tlsResumedHandshakes.get());
+      counters.put("tls_handshakes_resumed_time_ms",
+          tlsResumedHandshakeTime.get());
+    }
+    return counters;
+  }
+
   public Set<String> getTlsPreferredCipherSuites() {
     return this.tlsPreferredCipherSuites;
   }
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TLS context shared by all protocol instances and fetcher threads of a JVM.
+ * The client session cache of the context keeps the sessions of previous
+ * connections keyed by host and port, so that a later connection to the same
+ * server can resume the session with an abbreviated handshake instead of a
+ * full one. The cache is bounded by <code>http.tls.session.cache.size</code>
+ * sessions, sessions expire after <code>http.tls.session.timeout</code>
+ * seconds.
+ * <p>
+ * One context is held per combination of certificate checking
+ * (<code>http.tls.certificates.check</code>), cache size and timeout. If
+ * certificates are checked, the context also presents the client certificates
+ * of the key store defined by the system property
+ * <code>javax.net.ssl.keyStore</code>, same as the JVM default context.
+ * </p>
+ */
+public class TlsSessionCache {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final Map<String, TlsSessionCache> CACHES = new HashMap<>();
+
+  /** Accepts any server certificate */
+  private static final X509TrustManager TRUST_ALL = new X509TrustManager() {
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  };
+
+  private final SSLContext sslContext;
+  private final X509TrustManager trustManager;
+
+  private TlsSessionCache(boolean checkCertificates, int size, int timeout)
+      throws GeneralSecurityException {
+    KeyManager[] keyManagers = null;
+    if (checkCertificates) {
+      keyManagers = getDefaultKeyManagers();
+      TrustManagerFactory factory = TrustManagerFactory
+          .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      factory.init((KeyStore) null);
+      X509TrustManager defaultTrustManager = null;
+      for (TrustManager tm : factory.getTrustManagers()) {
+        if (tm instanceof X509TrustManager) {
+          defaultTrustManager = (X509TrustManager) tm;
+          break;
+        }
+      }
+      trustManager = defaultTrustManager;
+    } else {
+      trustManager = TRUST_ALL;
+    }
+    sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(keyManagers, new TrustManager[] { trustManager }, null);
+    SSLSessionContext sessions = sslContext.getClientSessionContext();
+    sessions.setSessionCacheSize(size);
+    sessions.setSessionTimeout(timeout);
+  }
+
+  /**
+   * Get the key managers of the key store defined by the system properties
+   * <code>javax.net.ssl.keyStore</code>, <code>javax.net.ssl.keyStoreType</code>
+   * and <code>javax.net.ssl.keyStorePassword</code>, as used by the JVM
+   * default TLS context.
+   * 
+   * @return the key managers or null if no key store is defined
+   */
+  private static KeyManager[] getDefaultKeyManagers()
+      throws GeneralSecurityException {
+    String file = System.getProperty("javax.net.ssl.keyStore", "");
+    if (file.isEmpty()) {
+      return null;
+    }
+    String type = System.getProperty("javax.net.ssl.keyStoreType",
+        KeyStore.getDefaultType());
+    String password = System.getProperty("javax.net.ssl.keyStorePassword");
+    char[] passwordChars = password == null ? null : password.toCharArray();
+    KeyStore keyStore = KeyStore.getInstance(type);
+    // "NONE": key store not backed by a file, e.g. PKCS11
+    try (InputStream in = "NONE".equals(file) ? null
+        : new FileInputStream(file)) {
+      keyStore.load(in, passwordChars);
+    } catch (IOException e) {
+      throw new GeneralSecurityException("Failed to load key store " + file,
+          e);
+    }
+    KeyManagerFactory factory = KeyManagerFactory
+        .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    factory.init(keyStore, passwordChars);
+    return factory.getKeyManagers();
+  }
+
+  /**
+   * Get the shared TLS context for a configuration.
+   * 
+   * @param conf
+   *          the configuration
+   * @return the shared TLS context
+   * @throws GeneralSecurityException
+   *           if the TLS context cannot be initialized
+   */
+  public static TlsSessionCache get(Configuration conf)
+      throws GeneralSecurityException {
+    boolean checkCertificates = conf.getBoolean("http.tls.certificates.check",
+        false);
+    int size = conf.getInt("http.tls.session.cache.size", 20000);
+    int timeout = conf.getInt("http.tls.session.timeout", 3600);
+    String key = checkCertificates + "," + size + "," + timeout;
+    synchronized (CACHES) {
+      TlsSessionCache cache = CACHES.get(key);
+      if (cache == null) {
+        cache = new TlsSessionCache(checkCertificates, size, timeout);
+        LOG.info(
+            "Created TLS context (certificates checked: {}) with session cache of size {} and {} sec. timeout",
+            checkCertificates, size, timeout);
+        CACHES.put(key, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * @return the shared TLS context
+   */
+  public SSLContext getSSLContext() {
+    return sslContext;
+  }
+
+  /**
+   * @return socket factory of the shared TLS context
+   */
+  public SSLSocketFactory getSocketFactory() {
+    return sslContext.getSocketFactory();
+  }
+
+  /**
+   * @return the trust manager of the shared TLS context
+   */
+  public X509TrustManager getTrustManager() {
+    return trustManager;
+  }
+
+  /**
+   * Whether a session has been resumed by an abbreviated handshake: the
+   * session then has been created before the handshake.
+   * 
+   * @param session
+   *          the session after the handshake
+   * @param handshakeStart
+   *          start of the handshake (milliseconds since epoch)
+   * @return true if the session was resumed
+   */
+  public static boolean isResumed(SSLSession session, long handshakeStart) {
+    return session != null && session.getCreationTime() < handshakeStart;
+  }
+}
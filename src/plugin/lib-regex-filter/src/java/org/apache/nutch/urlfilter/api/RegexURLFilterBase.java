@@ -166,6 +166,15 @@ public abstract class RegexURLFilterBase implements URLFilter {
   protected abstract Reader getRulesReader(Configuration conf)
       throws IOException;
 
+  /**
+   * Get the rules in order of their definition.
+   * 
+   * @return the rules read from the rules file
+   */
+  protected List<RegexRule> getRules() {
+    return rules;
+  }
+
   @Override
   public String filter(String url) {
     String host = null;
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse.tika;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.parse.Parse;
+import org.apache.nutch.parse.ParseUtil;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.Protocol;
+import org.apache.nutch.protocol.ProtocolFactory;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warm-up benchmark: many threads parse documents of mixed MIME types with a
+ * fresh plugin repository, so that all parser classes are loaded concurrently
+ * by the plugin classloaders.
+ */
+public class TestParallelParse extends TikaParserTest {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final int NUM_THREADS = 64;
+
+  private String[] sampleFiles = { "pdftest.pdf", "word97.doc", "ootest.odt",
+      "ootest.sxw", "test.rtf", "test.xlsx", "rsstest.rss",
+      "nutch_logo_tm.gif", "test_recursive_embedded.docx" };
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmarkWarmup() throws Exception {
+    List<Content> contents = new ArrayList<>();
+    for (String fileName : sampleFiles) {
+      String urlString = "file:" + sampleDir + fileSeparator + fileName;
+      Protocol protocol = new ProtocolFactory(conf).getProtocol(urlString);
+      contents.add(protocol
+          .getProtocolOutput(new Text(urlString), new CrawlDatum())
+          .getContent());
+    }
+
+    // a new configuration gets a new plugin repository with new classloaders
+    Configuration parseConf = NutchConfiguration.create();
+    parseConf.set("file.content.limit", "-1");
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int offset = t;
+      results.add(executor.submit(() -> {
+        ParseUtil parseUtil = new ParseUtil(parseConf);
+        start.await();
+        int parsed = 0;
+        for (int i = 0; i < contents.size(); i++) {
+          Content content = contents.get((offset + i) % contents.size());
+          Parse parse = parseUtil.parseByExtensionId("parse-tika", content)
+              .get(content.getUrl());
+          if (parse != null && parse.getData().getStatus().isSuccess()) {
+            parsed++;
+          }
+        }
+        return parsed;
+      }));
+    }
+
+    StopWatch stopWatch = new StopWatch();
+    stopWatch.start();
+    start.countDown();
+    int parsed = 0;
+    for (Future<Integer> result : results) {
+      parsed += result.get();
+    }
+    stopWatch.stop();
+    executor.shutdown();
+
+    Assert.assertEquals(NUM_THREADS * contents.size(), parsed);
+    LOG.info("warm-up parse {} threads, {} documents: {} ms", NUM_THREADS,
+        parsed, stopWatch.getTime(TimeUnit.MILLISECONDS));
+  }
+
+}
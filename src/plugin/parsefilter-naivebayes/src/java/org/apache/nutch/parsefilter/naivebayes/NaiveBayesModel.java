@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parsefilter.naivebayes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Immutable Naive Bayes model, as written by {@link Train}. The log
+ * probabilities of all words are computed once when the model is loaded and
+ * are held in an open-addressing hash table of primitive arrays. A model can
+ * be shared by all threads.
+ * <p>
+ * Texts are tokenized exactly as by the original classifier, i.e. as
+ * <code>text.replaceAll("[^a-zA-Z ]", "").toLowerCase().split(" ")</code>, but
+ * without creating any intermediate strings.
+ * </p>
+ */
+public class NaiveBayesModel {
+
+  /** Label of irrelevant texts */
+  public static final String IRRELEVANT = "0";
+  /** Label of relevant texts */
+  public static final String RELEVANT = "1";
+
+  /* word table: keys, their hash codes and the term of every class */
+  private final String[] keys;
+  private final int[] hashes;
+  private final double[] termsIr;
+  private final double[] termsR;
+  private final int mask;
+  private final int maxKeyLength;
+
+  /* terms of words not contained in the training data of a class */
+  private final double defaultIr;
+  private final double defaultR;
+
+  /* terms of empty tokens, e.g. between two consecutive spaces */
+  private final double emptyIr;
+  private final double emptyR;
+
+  /* log prior probabilities */
+  private final double priorIr;
+  private final double priorR;
+
+  /**
+   * Build the model from the class statistics.
+   *
+   * @param uniqueWords
+   *          number of unique words in the training data
+   * @param numIr
+   *          number of irrelevant examples
+   * @param numWordsIr
+   *          number of words in irrelevant examples
+   * @param wordFreqIr
+   *          word frequencies in irrelevant examples
+   * @param numR
+   *          number of relevant examples
+   * @param numWordsR
+   *          number of words in relevant examples
+   * @param wordFreqR
+   *          word frequencies in relevant examples
+   */
+  public NaiveBayesModel(int uniqueWords, int numIr, int numWordsIr,
+      Map<String, Integer> wordFreqIr, int numR, int numWordsR,
+      Map<String, Integer> wordFreqR) {
+    // the terms are computed by the same expressions as in the original
+    // classifier, so that the scores are exactly the same
+    defaultIr = 1 - Math.log(numWordsIr + uniqueWords);
+    defaultR = 1 - Math.log(numWordsR + uniqueWords);
+    priorIr = Math.log(numIr) - Math.log(numIr + numR);
+    priorR = Math.log(numR) - Math.log(numIr + numR);
+
+    Set<String> words = new HashSet<>(wordFreqIr.keySet());
+    words.addAll(wordFreqR.keySet());
+    int capacity = Integer.highestOneBit(Math.max(2, words.size() * 2) - 1) << 1;
+    keys = new String[capacity];
+    hashes = new int[capacity];
+    termsIr = new double[capacity];
+    termsR = new double[capacity];
+    mask = capacity - 1;
+    int maxLength = 0;
+    for (String word : words) {
+      int hash = word.hashCode();
+      int i = mix(hash) & mask;
+      while (keys[i] != null) {
+        i = (i + 1) & mask;
+      }
+      keys[i] = word;
+      hashes[i] = hash;
+      Integer freq = wordFreqIr.get(word);
+      termsIr[i] = freq != null
+          ? Math.log(freq) + 1 - Math.log(numWordsIr + uniqueWords)
+          : defaultIr;
+      freq = wordFreqR.get(word);
+      termsR[i] = freq != null
+          ? Math.log(freq) + 1 - Math.log(numWordsR + uniqueWords)
+          : defaultR;
+      maxLength = Math.max(maxLength, word.length());
+    }
+    maxKeyLength = maxLength;
+    int slot = lookup(new char[0], 0, 0);
+    emptyIr = slot >= 0 ? termsIr[slot] : defaultIr;
+    emptyR = slot >= 0 ? termsR[slot] : defaultR;
+  }
+
+  /**
+   * Read a model file written by {@link Train}.
+   *
+   * @param conf
+   *          configuration to get the file system
+   * @param path
+   *          path of the model file
+   * @return the model
+   * @throws IOException
+   *           if the model file cannot be read
+   */
+  public static NaiveBayesModel read(Configuration conf, Path path)
+      throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(fs.open(path), StandardCharsets.UTF_8))) {
+      return read(reader);
+    }
+  }
+
+  /**
+   * Read a model written by {@link Train}.
+   *
+   * @param reader
+   *          reader of the model
+   * @return the model
+   * @throws IOException
+   *           if the model cannot be read
+   */
+  public static NaiveBayesModel read(BufferedReader reader)
+      throws IOException {
+    try {
+      int uniqueWords = Integer.parseInt(reader.readLine());
+      reader.readLine();
+      int numIr = Integer.parseInt(reader.readLine());
+      int numWordsIr = Integer.parseInt(reader.readLine());
+      HashMap<String, Integer> wordFreqIr = Classify
+          .unflattenToHashmap(reader.readLine());
+      reader.readLine();
+      int numR = Integer.parseInt(reader.readLine());
+      int numWordsR = Integer.parseInt(reader.readLine());
+      HashMap<String, Integer> wordFreqR = Classify
+          .unflattenToHashmap(reader.readLine());
+      return new NaiveBayesModel(uniqueWords, numIr, numWordsIr, wordFreqIr,
+          numR, numWordsR, wordFreqR);
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid Naive Bayes model: " + e.getMessage(), e);
+    }
+  }
+
+  /* spread the bits of String.hashCode() over the table index */
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Classify a text.
+   *
+   * @param text
+   *          the text
+   * @return {@link #RELEVANT} or {@link #IRRELEVANT}
+   */
+  public String classify(CharSequence text) {
+    double[] scores = score(text);
+    return scores[0] > scores[1] ? IRRELEVANT : RELEVANT;
+  }
+
+  /**
+   * Compute the log probabilities of the classes.
+   *
+   * @param text
+   *          the text
+   * @return the log probabilities of the irrelevant and the relevant class
+   */
+  double[] score(CharSequence text) {
+    double probIr = 0;
+    double probR = 0;
+    // characters of the current token, tokens longer than the longest word
+    // are not looked up
+    char[] token = new char[maxKeyLength];
+    int length = 0;
+    int hash = 0;
+    // empty tokens are only counted if followed by a non-empty one (trailing
+    // empty strings are removed by String.split())
+    int pendingEmpty = 0;
+    boolean split = false;
+    for (int i = 0, n = text.length(); i < n; i++) {
+      char c = text.charAt(i);
+      if (c == ' ') {
+        split = true;
+        if (length == 0) {
+          pendingEmpty++;
+          continue;
+        }
+        for (; pendingEmpty > 0; pendingEmpty--) {
+          probIr += emptyIr;
+          probR += emptyR;
+        }
+        int slot = lookup(token, length, hash);
+        probIr += slot >= 0 ? termsIr[slot] : defaultIr;
+        probR += slot >= 0 ? termsR[slot] : defaultR;
+        length = 0;
+        hash = 0;
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        if (c <= 'Z') {
+          c += 'a' - 'A';
+        }
+        if (length < token.length) {
+          token[length] = c;
+        }
+        length++;
+        hash = 31 * hash + c;
+      }
+    }
+    if (length > 0) {
+      for (; pendingEmpty > 0; pendingEmpty--) {
+        probIr += emptyIr;
+        probR += emptyR;
+      }
+      int slot = lookup(token, length, hash);
+      probIr += slot >= 0 ? termsIr[slot] : defaultIr;
+      probR += slot >= 0 ? termsR[slot] : defaultR;
+    } else if (!split) {
+      // an empty text is a single empty token
+      probIr += emptyIr;
+      probR += emptyR;
+    }
+    probIr += priorIr;
+    probR += priorR;
+    return new double[] { probIr, probR };
+  }
+
+  /* get the slot of a token in the word table, -1 if not found */
+  private int lookup(char[] token, int length, int hash) {
+    if (length > maxKeyLength) {
+      return -1;
+    }
+    int i = mix(hash) & mask;
+    String key;
+    while ((key = keys[i]) != null) {
+      if (hashes[i] == hash && key.length() == length) {
+        int j = 0;
+        while (j < length && key.charAt(j) == token[j]) {
+          j++;
+        }
+        if (j == length) {
+          return i;
+        }
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parsefilter.naivebayes;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the precompiled {@link NaiveBayesModel} with the original
+ * classifier based on word frequency maps.
+ */
+public class TestNaiveBayesModel {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String[] TRAINING = {
+      "1\tNutch is a highly extensible and scalable web crawler",
+      "1\tThe crawler fetches pages, parses them and follows the links",
+      "1\tApache Nutch runs on Hadoop to crawl billions of web pages",
+      "0\tBuy cheap watches and shoes, best prices online!",
+      "0\tWin a free cruise: click here to claim your prize",
+      "0\tCheap flights and hotels, book now and save 50%" };
+
+  private static final String[] WORDS = { "nutch", "crawler", "web", "pages",
+      "cheap", "prize", "hadoop", "Click", "FREE", "unknown", "xyzzy", "a",
+      "the", "and", "links" };
+
+  private static final String[] SEPARATORS = { " ", " ", " ", "  ", ", ",
+      ". ", "\n", "-", "'", "1", " 2 ", "\t", "!" };
+
+  /* original model data and classifier */
+  private int uniquewords_size;
+  private int numof_ir;
+  private int numwords_ir;
+  private HashMap<String, Integer> wordfreq_ir;
+  private int numof_r;
+  private int numwords_r;
+  private HashMap<String, Integer> wordfreq_r;
+
+  private NaiveBayesModel model;
+
+  @Before
+  public void setUp() throws Exception {
+    // train as Train.start() does
+    HashSet<String> uniquewords = new HashSet<String>();
+    wordfreq_ir = new HashMap<String, Integer>();
+    wordfreq_r = new HashMap<String, Integer>();
+    for (String line : TRAINING) {
+      String target = line.split("\t")[0];
+      line = Train.replacefirstoccuranceof(target + "\t", line);
+      String[] linearray = line.replaceAll("[^a-zA-Z ]", "").toLowerCase()
+          .split(" ");
+      HashMap<String, Integer> wordfreq;
+      if (target.equals("0")) {
+        numof_ir += 1;
+        numwords_ir += linearray.length;
+        wordfreq = wordfreq_ir;
+      } else {
+        numof_r += 1;
+        numwords_r += linearray.length;
+        wordfreq = wordfreq_r;
+      }
+      for (String word : linearray) {
+        uniquewords.add(word);
+        Train.updateHashMap(wordfreq, word);
+      }
+    }
+    uniquewords_size = uniquewords.size();
+
+    String modelFile = uniquewords_size + "\n0\n" + numof_ir + "\n"
+        + numwords_ir + "\n" + Train.flattenHashMap(wordfreq_ir) + "\n1\n"
+        + numof_r + "\n" + numwords_r + "\n" + Train.flattenHashMap(wordfreq_r)
+        + "\n";
+    model = NaiveBayesModel.read(new BufferedReader(new StringReader(modelFile)));
+  }
+
+  /* the original implementation of Classify.classify() */
+  private double[] originalScore(String line) {
+    double prob_ir = 0;
+    double prob_r = 0;
+
+    String[] linearray = line.replaceAll("[^a-zA-Z ]", "").toLowerCase()
+        .split(" ");
+
+    for (String word : linearray) {
+      if (wordfreq_ir.containsKey(word))
+        prob_ir += Math.log(wordfreq_ir.get(word)) + 1
+            - Math.log(numwords_ir + uniquewords_size);
+      else
+        prob_ir += 1 - Math.log(numwords_ir + uniquewords_size);
+
+      if (wordfreq_r.containsKey(word))
+        prob_r += Math.log(wordfreq_r.get(word)) + 1
+            - Math.log(numwords_r + uniquewords_size);
+      else
+        prob_r += 1 - Math.log(numwords_r + uniquewords_size);
+    }
+
+    prob_ir += Math.log(numof_ir) - Math.log(numof_ir + numof_r);
+    prob_r += Math.log(numof_r) - Math.log(numof_ir + numof_r);
+
+    return new double[] { prob_ir, prob_r };
+  }
+
+  private String originalClassify(String line) {
+    double[] scores = originalScore(line);
+    return scores[0] > scores[1] ? "0" : "1";
+  }
+
+  private static List<String> randomTexts(Random random, int count) {
+    List<String> texts = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder();
+      if (random.nextInt(4) == 0) {
+        sb.append(' ');
+      }
+      int numWords = random.nextInt(40);
+      for (int j = 0; j < numWords; j++) {
+        sb.append(WORDS[random.nextInt(WORDS.length)]);
+        sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+      }
+      texts.add(sb.toString());
+    }
+    return texts;
+  }
+
+  private void assertParity(String text) {
+    double[] expected = originalScore(text);
+    double[] actual = model.score(text);
+    Assert.assertEquals("irrelevant score of '" + text + "'", expected[0],
+        actual[0], 0.0);
+    Assert.assertEquals("relevant score of '" + text + "'", expected[1],
+        actual[1], 0.0);
+    Assert.assertEquals(originalClassify(text), model.classify(text));
+  }
+
+  @Test
+  public void testParity() {
+    for (String text : new String[] { "", " ", "   ", "nutch", " nutch",
+        "nutch ", "nutch  crawler", "  cheap  prize  ", "Nutch's crawler",
+        "web-pages 123 !!", "\n", "a b c", "ÄÖÜ nutch ß",
+        "supercalifragilisticexpialidocious crawler" }) {
+      assertParity(text);
+    }
+    for (String text : randomTexts(new Random(42), 2000)) {
+      assertParity(text);
+    }
+    Assert.assertEquals("1",
+        model.classify("Nutch crawls web pages with Hadoop"));
+    Assert.assertEquals("0", model.classify("Cheap prize, click here!"));
+  }
+
+  @Test
+  public void testThreadSafety() throws Exception {
+    List<String> texts = randomTexts(new Random(7), 500);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 20; i++) {
+            for (String text : texts) {
+              if (!originalClassify(text).equals(model.classify(text))) {
+                return false;
+              }
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void testThroughput() {
+    List<String> texts = randomTexts(new Random(1), 1000);
+    int rounds = 50;
+    // warm up
+    for (String text : texts) {
+      originalClassify(text);
+      model.classify(text);
+    }
+    long start = System.nanoTime();
+    int relevant = 0;
+    for (int i = 0; i < rounds; i++) {
+      for (String text : texts) {
+        if (originalClassify(text).equals("1")) {
+          relevant++;
+        }
+      }
+    }
+    long original = System.nanoTime() - start;
+    start = System.nanoTime();
+    int relevantModel = 0;
+    for (int i = 0; i < rounds; i++) {
+      for (String text : texts) {
+        if (model.classify(text).equals("1")) {
+          relevantModel++;
+        }
+      }
+    }
+    long precompiled = System.nanoTime() - start;
+    LOG.info("Classified {} texts: original {} ms, precompiled {} ms",
+        rounds * texts.size(), original / 1000000, precompiled / 1000000);
+    Assert.assertEquals(relevant, relevantModel);
+  }
+}
@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Collects the content of an HTTP response while it is read from the
+ * connection and decodes it on the fly if it is compressed (Content-Encoding
+ * gzip or deflate). Compressed content is inflated directly into the content
+ * buffer, neither the compressed content nor intermediate copies of the
+ * decompressed content are held. The content limit
+ * (<code>http.content.limit</code>) is applied to the decoded content.
+ * <p>
+ * The buffer and the inflaters are held per thread and reused for the
+ * following responses. The buffer grows up to the content limit, but only
+ * buffers up to {@link #MAX_RETAINED_SIZE} bytes are kept for reuse.
+ * </p>
+ * <p>
+ * Decoding is done "best effort", same as by
+ * {@link org.apache.nutch.util.GZIPUtils#unzipBestEffort(byte[], int)} resp.
+ * {@link org.apache.nutch.util.DeflateUtils#inflateBestEffort(byte[], int)}:
+ * if the compressed content is corrupt or truncated, the content decoded so
+ * far is kept. Content with encoding "deflate" is accepted in raw deflate and
+ * zlib format.
+ * </p>
+ */
+class ContentDecoder {
+
+  enum Encoding {
+    IDENTITY, GZIP, DEFLATE
+  }
+
+  /** Max. size of a content buffer kept for reuse */
+  static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+  /*
+   * max. output per inflate call: output of the call which fails on corrupt
+   * content is lost, same as for the buffered reads of GZIPUtils/DeflateUtils
+   */
+  private static final int MAX_INFLATE_CHUNK = 4096;
+
+  /* max. size of a gzip header including file name and comment */
+  private static final int MAX_GZIP_HEADER = 64 * 1024;
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  private static final ThreadLocal<ContentDecoder> DECODERS = ThreadLocal
+      .withInitial(ContentDecoder::new);
+
+  private enum GzipState {
+    HEADER, DATA, TRAILER
+  }
+
+  private byte[] buffer = new byte[Http.BUFFER_SIZE];
+  private int length;
+  private int limit;
+  private Encoding encoding;
+  private long rawLength;
+
+  /* no more content is decoded: limit reached or decoding failed/finished */
+  private boolean done;
+  /* decoded content has been discarded because of the limit */
+  private boolean truncated;
+
+  /* inflaters for raw deflate (also used for gzip) and zlib format */
+  private Inflater rawInflater;
+  private Inflater zlibInflater;
+  private Inflater inflater;
+  private final byte[] probe = new byte[1];
+
+  private GzipState gzipState;
+  private boolean gzipHeaderSeen;
+  /* bytes of the gzip header or trailer read so far */
+  private byte[] pending = new byte[64];
+  private int pendingLength;
+
+  /**
+   * @param contentEncoding
+   *          value of the Content-Encoding header, may be null
+   * @return the encoding
+   */
+  static Encoding getEncoding(String contentEncoding) {
+    if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+      return Encoding.GZIP;
+    } else if ("deflate".equals(contentEncoding)) {
+      return Encoding.DEFLATE;
+    }
+    return Encoding.IDENTITY;
+  }
+
+  /**
+   * Get the decoder of the current thread, reset to decode a new response.
+   *
+   * @param encoding
+   *          content encoding of the response
+   * @param limit
+   *          max. number of decoded bytes, -1 if unlimited
+   * @return the decoder
+   */
+  static ContentDecoder get(Encoding encoding, int limit) {
+    ContentDecoder decoder = DECODERS.get();
+    decoder.reset(encoding, limit);
+    return decoder;
+  }
+
+  private void reset(Encoding encoding, int limit) {
+    this.encoding = encoding;
+    this.limit = limit;
+    length = 0;
+    rawLength = 0;
+    done = false;
+    truncated = false;
+    pendingLength = 0;
+    gzipState = GzipState.HEADER;
+    gzipHeaderSeen = false;
+    if (encoding == Encoding.GZIP) {
+      inflater = getRawInflater();
+      inflater.reset();
+    } else {
+      // deflate: raw or zlib format, chosen by the first byte
+      inflater = null;
+    }
+  }
+
+  private Inflater getRawInflater() {
+    if (rawInflater == null) {
+      rawInflater = new Inflater(true);
+    }
+    return rawInflater;
+  }
+
+  /**
+   * @return true if the content is compressed
+   */
+  boolean isEncoded() {
+    return encoding != Encoding.IDENTITY;
+  }
+
+  /**
+   * Make room for the expected content length, e.g. given by the
+   * Content-Length header of a response which is not compressed.
+   *
+   * @param expectedLength
+   *          expected number of content bytes
+   */
+  void expect(int expectedLength) {
+    if (limit >= 0) {
+      expectedLength = Math.min(expectedLength, limit);
+    }
+    if (expectedLength > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(length, expectedLength));
+    }
+  }
+
+  /**
+   * @return true if no more content is decoded because the content limit has
+   *         been reached or the compressed content is finished or corrupt.
+   *         The remaining content does not need to be read.
+   */
+  boolean isDone() {
+    return done;
+  }
+
+  /**
+   * @return true if decoded content has been discarded because it exceeds
+   *         the content limit
+   */
+  boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * @return number of bytes passed to {@link #write(byte[], int, int)}
+   */
+  long getRawLength() {
+    return rawLength;
+  }
+
+  /**
+   * Decode content bytes read from the connection.
+   */
+  void write(byte[] bytes, int off, int len) {
+    rawLength += len;
+    if (done || len == 0) {
+      return;
+    }
+    switch (encoding) {
+    case GZIP:
+      gunzip(bytes, off, len);
+      break;
+    case DEFLATE:
+      if (inflater == null) {
+        // "deflate" should be in zlib format (RFC 1950) but is often sent as
+        // raw deflate data (RFC 1951). The zlib header starts with the
+        // compression method 8 and a window size of max. 32 kB.
+        int cmf = bytes[off] & 0xff;
+        if ((cmf & 0x0f) == 8 && (cmf >> 4) <= 7) {
+          if (zlibInflater == null) {
+            zlibInflater = new Inflater();
+          }
+          inflater = zlibInflater;
+        } else {
+          inflater = getRawInflater();
+        }
+        inflater.reset();
+      }
+      inflater.setInput(bytes, off, len);
+      inflate();
+      if (inflater.finished()) {
+        done = true;
+      }
+      break;
+    default:
+      append(bytes, off, len);
+    }
+  }
+
+  /**
+   * @return the decoded content
+   * @throws IOException
+   *           if gzip-compressed content lacks a valid gzip header
+   */
+  byte[] toByteArray() throws IOException {
+    try {
+      if (encoding == Encoding.GZIP && rawLength > 0 && !gzipHeaderSeen) {
+        throw new IOException("Not in gzip format");
+      }
+      return Arrays.copyOf(buffer, length);
+    } finally {
+      if (buffer.length > MAX_RETAINED_SIZE) {
+        buffer = new byte[Http.BUFFER_SIZE];
+      }
+      if (pending.length > 64) {
+        pending = new byte[64];
+      }
+    }
+  }
+
+  private void append(byte[] bytes, int off, int len) {
+    if (limit >= 0 && length + len > limit) {
+      len = limit - length;
+      truncated = true;
+      done = true;
+    }
+    ensureCapacity(length + len);
+    System.arraycopy(bytes, off, buffer, length, len);
+    length += len;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      long size = Math.max(capacity, 2L * buffer.length);
+      if (limit >= 0) {
+        size = Math.min(size, limit);
+      }
+      buffer = Arrays.copyOf(buffer,
+          (int) Math.min(size, Integer.MAX_VALUE - 8));
+    }
+  }
+
+  /* inflate the input of the inflater, as long as output is produced */
+  private void inflate() {
+    try {
+      while (!inflater.finished()) {
+        if (limit >= 0 && length >= limit) {
+          // check whether there is more content to be discarded
+          if (inflater.inflate(probe, 0, 1) > 0) {
+            truncated = true;
+            done = true;
+            return;
+          }
+        } else {
+          if (length == buffer.length) {
+            ensureCapacity(length + 1);
+          }
+          int end = limit >= 0 ? Math.min(buffer.length, limit) : buffer.length;
+          int n = inflater.inflate(buffer, length,
+              Math.min(end - length, MAX_INFLATE_CHUNK));
+          length += n;
+          if (n > 0) {
+            continue;
+          }
+        }
+        if (inflater.needsInput() || inflater.needsDictionary()) {
+          return;
+        }
+      }
+    } catch (DataFormatException e) {
+      // corrupt content: keep the content decoded so far
+      done = true;
+    }
+  }
+
+  private void gunzip(byte[] bytes, int off, int len) {
+    while (len > 0 && !done) {
+      switch (gzipState) {
+      case HEADER:
+        int prevLength = pendingLength;
+        int n = Math.min(len, MAX_GZIP_HEADER - pendingLength);
+        appendPending(bytes, off, n);
+        int headerLength = parseGzipHeader();
+        if (headerLength == 0) {
+          // need more bytes
+          if (pendingLength == MAX_GZIP_HEADER) {
+            done = true;
+          }
+          off += n;
+          len -= n;
+        } else if (headerLength < 0) {
+          // invalid header: if this is not the first member, trailing garbage
+          // is ignored, same as by GZIPInputStream
+          done = true;
+        } else {
+          gzipHeaderSeen = true;
+          int used = headerLength - prevLength;
+          off += used;
+          len -= used;
+          pendingLength = 0;
+          inflater.reset();
+          gzipState = GzipState.DATA;
+        }
+        break;
+      case DATA:
+        inflater.setInput(bytes, off, len);
+        inflate();
+        if (inflater.finished()) {
+          int remaining = inflater.getRemaining();
+          off += len - remaining;
+          len = remaining;
+          gzipState = GzipState.TRAILER;
+        } else {
+          len = 0;
+        }
+        break;
+      case TRAILER:
+        // CRC and size are not verified (best effort)
+        int m = Math.min(len, 8 - pendingLength);
+        appendPending(bytes, off, m);
+        off += m;
+        len -= m;
+        if (pendingLength == 8) {
+          pendingLength = 0;
+          gzipState = GzipState.HEADER;
+        }
+        break;
+      }
+    }
+  }
+
+  private void appendPending(byte[] bytes, int off, int len) {
+    if (pendingLength + len > pending.length) {
+      pending = Arrays.copyOf(pending,
+          Math.max(pendingLength + len, 2 * pending.length));
+    }
+    System.arraycopy(bytes, off, pending, pendingLength, len);
+    pendingLength += len;
+  }
+
+  /*
+   * Parse the gzip header (RFC 1952) in the pending bytes. Returns the length
+   * of the header, 0 if more bytes are required, -1 if the header is invalid.
+   */
+  private int parseGzipHeader() {
+    if (pendingLength < 10) {
+      if ((pendingLength >= 1 && (pending[0] & 0xff) != (GZIP_MAGIC & 0xff))
+          || (pendingLength >= 2 && (pending[1] & 0xff) != (GZIP_MAGIC >> 8))
+          || (pendingLength >= 3 && pending[2] != 8)) {
+        return -1;
+      }
+      return 0;
+    }
+    if (((pending[0] & 0xff) | ((pending[1] & 0xff) << 8)) != GZIP_MAGIC
+        || pending[2] != 8) {
+      return -1;
+    }
+    int flags = pending[3] & 0xff;
+    int pos = 10;
+    if ((flags & FEXTRA) != 0) {
+      if (pendingLength < pos + 2) {
+        return 0;
+      }
+      pos += 2 + ((pending[pos] & 0xff) | ((pending[pos + 1] & 0xff) << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      pos = skipZeroTerminated(pos);
+    }
+    if ((flags & FCOMMENT) != 0) {
+      pos = skipZeroTerminated(pos);
+    }
+    if ((flags & FHCRC) != 0) {
+      pos += 2;
+    }
+    if (pos > pendingLength) {
+      return 0;
+    }
+    return pos;
+  }
+
+  /* position after the terminating zero, beyond the pending bytes if none */
+  private int skipZeroTerminated(int pos) {
+    while (pos < pendingLength) {
+      if (pending[pos++] == 0) {
+        return pos;
+      }
+    }
+    return pendingLength + 1;
+  }
+}
@@ -19,6 +19,7 @@ package org.apache.nutch.protocol.http;
 import java.lang.invoke.MethodHandles;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +37,9 @@ public class Http extends HttpBase {
   protected static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
 
+  /** Pool of persistent connections, null if connections are not reused */
+  private HttpConnectionPool connectionPool;
+
   /**
    * Public default constructor.
    */
@@ -51,6 +55,49 @@ public class Http extends HttpBase {
   @Override
   public void setConf(Configuration conf) {
     super.setConf(conf);
+    if (connectionPool != null) {
+      connectionPool.close();
+      connectionPool = null;
+    }
+    String poolConf = conf.get("http.connection.pool.http", "");
+    if (!poolConf.trim().isEmpty()) {
+      int[] poolConfig = {};
+      try {
+        poolConfig = conf.getInts("http.connection.pool.http");
+      } catch (NumberFormatException e) {
+        // will show warning below
+      }
+      if (poolConfig.length == 3 && poolConfig[0] > 0 && poolConfig[1] > 0
+          && poolConfig[2] > 0) {
+        connectionPool = new HttpConnectionPool(poolConfig[0], poolConfig[1],
+            poolConfig[2] * 1000L);
+        LOG.info(
+            "Using connection pool with max. {} idle connections ({} per host) "
+                + "and {} sec. keep-alive time",
+            poolConfig[0], poolConfig[1], poolConfig[2]);
+      } else {
+        LOG.warn(
+            "Ignoring invalid connection pool configuration 'http.connection.pool.http': '{}'",
+            poolConf);
+      }
+    }
+  }
+
+  /**
+   * @return the pool of persistent connections, null if connections are
+   *         closed after every request
+   */
+  HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  @Override
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = super.getCounters();
+    if (connectionPool != null) {
+      counters.putAll(connectionPool.getCounters());
+    }
+    return counters;
   }
 
   public static void main(String[] args) throws Exception {
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of idle persistent (keep-alive) HTTP connections, see
+ * <a href="https://tools.ietf.org/html/rfc7230#section-6.3">RFC 7230,
+ * section 6.3</a>. Connections are pooled per target (scheme, host, port and
+ * proxy). The number of idle connections is limited in total and per target,
+ * if the pool is full the connection idle for the longest time is closed.
+ * Idle connections are closed after a timeout, or earlier if the server
+ * announces a shorter timeout in the <code>Keep-Alive</code> response header.
+ * <p>
+ * The pool is shared by all fetcher threads using the same {@link Http}
+ * instance. A connection is used by one thread at a time: it is removed from
+ * the pool by {@link #acquire(String)} and returned by
+ * {@link #release(Connection, long)} once the response has been read
+ * completely.
+ * </p>
+ */
+public class HttpConnectionPool {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  /** An open connection and its buffered streams */
+  static class Connection {
+    final String key;
+    final Socket socket;
+    final PushbackInputStream in;
+    final OutputStream out;
+    /** number of requests sent over this connection */
+    int requests = 0;
+    /** time until the idle connection may be reused */
+    long expires;
+
+    Connection(String key, Socket socket) throws IOException {
+      this.key = key;
+      this.socket = socket;
+      this.in = new PushbackInputStream(new BufferedInputStream(
+          socket.getInputStream(), Http.BUFFER_SIZE), Http.BUFFER_SIZE);
+      this.out = socket.getOutputStream();
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private final int maxIdle;
+  private final int maxIdlePerHost;
+  private final long idleTimeout;
+
+  /*
+   * idle connections per target, most recently used last; access is
+   * synchronized on the pool
+   */
+  private final Map<String, ArrayDeque<Connection>> idle = new HashMap<>();
+  private int numIdle = 0;
+  private long nextCleanup = 0;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong stale = new AtomicLong();
+  private final AtomicLong returned = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+
+  /**
+   * @param maxIdle
+   *          max. number of idle connections in total
+   * @param maxIdlePerHost
+   *          max. number of idle connections per target host
+   * @param idleTimeout
+   *          max. time in milliseconds a connection is kept idle
+   */
+  public HttpConnectionPool(int maxIdle, int maxIdlePerHost,
+      long idleTimeout) {
+    this.maxIdle = maxIdle;
+    this.maxIdlePerHost = maxIdlePerHost;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Get the key connections to a target are pooled by.
+   * 
+   * @param scheme
+   *          URL scheme, http or https
+   * @param host
+   *          target host
+   * @param port
+   *          target port
+   * @param proxy
+   *          proxy host and port (<code>host:port</code>), null if the
+   *          connection is not made via a proxy
+   * @return the pool key
+   */
+  static String key(String scheme, String host, int port, String proxy) {
+    StringBuilder sb = new StringBuilder(scheme).append("://").append(host)
+        .append(':').append(port);
+    if (proxy != null) {
+      sb.append('@').append(proxy);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Take an idle connection to a target from the pool.
+   * 
+   * @param key
+   *          target key, see {@link #key(String, String, int, String)}
+   * @return an idle connection or null if there is none
+   */
+  Connection acquire(String key) {
+    requests.incrementAndGet();
+    List<Connection> toClose = null;
+    Connection conn = null;
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      ArrayDeque<Connection> connections = idle.get(key);
+      while (connections != null && !connections.isEmpty()) {
+        Connection c = connections.pollLast();
+        numIdle--;
+        if (c.expires <= now || c.socket.isClosed()
+            || c.socket.isInputShutdown()) {
+          if (toClose == null) {
+            toClose = new ArrayList<>();
+          }
+          toClose.add(c);
+          continue;
+        }
+        conn = c;
+        break;
+      }
+      if (connections != null && connections.isEmpty()) {
+        idle.remove(key);
+      }
+    }
+    close(toClose, expired);
+    if (conn != null) {
+      hits.incrementAndGet();
+    }
+    return conn;
+  }
+
+  /**
+   * Return a connection to the pool after the response has been read
+   * completely.
+   * 
+   * @param conn
+   *          the connection
+   * @param keepAlive
+   *          max. idle time in milliseconds announced by the server, or a
+   *          negative value if not announced
+   */
+  void release(Connection conn, long keepAlive) {
+    long now = System.currentTimeMillis();
+    long timeout = idleTimeout;
+    if (keepAlive >= 0) {
+      timeout = Math.min(timeout, keepAlive);
+    }
+    if (timeout <= 0 || maxIdlePerHost <= 0 || maxIdle <= 0) {
+      conn.close();
+      return;
+    }
+    conn.expires = now + timeout;
+    List<Connection> toClose = new ArrayList<>();
+    List<Connection> toEvict = new ArrayList<>();
+    synchronized (this) {
+      if (now >= nextCleanup) {
+        removeExpired(now, toClose);
+        nextCleanup = now + Math.max(1000, idleTimeout / 2);
+      }
+      ArrayDeque<Connection> connections = idle.computeIfAbsent(conn.key,
+          k -> new ArrayDeque<>());
+      if (connections.size() >= maxIdlePerHost) {
+        toEvict.add(connections.pollFirst());
+        numIdle--;
+      }
+      connections.addLast(conn);
+      numIdle++;
+      while (numIdle > maxIdle) {
+        toEvict.add(removeOldest());
+      }
+    }
+    returned.incrementAndGet();
+    close(toClose, expired);
+    close(toEvict, evicted);
+  }
+
+  /** Count a pooled connection closed by the server before it was reused */
+  void countStale() {
+    stale.incrementAndGet();
+  }
+
+  /* remove expired connections, must hold the lock */
+  private void removeExpired(long now, List<Connection> toClose) {
+    Iterator<ArrayDeque<Connection>> it = idle.values().iterator();
+    while (it.hasNext()) {
+      ArrayDeque<Connection> connections = it.next();
+      while (!connections.isEmpty()
+          && connections.peekFirst().expires <= now) {
+        toClose.add(connections.pollFirst());
+        numIdle--;
+      }
+      if (connections.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  /* remove the connection idle for the longest time, must hold the lock */
+  private Connection removeOldest() {
+    ArrayDeque<Connection> oldest = null;
+    for (ArrayDeque<Connection> connections : idle.values()) {
+      if (oldest == null
+          || connections.peekFirst().expires < oldest.peekFirst().expires) {
+        oldest = connections;
+      }
+    }
+    Connection conn = oldest.pollFirst();
+    numIdle--;
+    if (oldest.isEmpty()) {
+      idle.remove(conn.key);
+    }
+    return conn;
+  }
+
+  private static void close(List<Connection> connections, AtomicLong counter) {
+    if (connections == null) {
+      return;
+    }
+    for (Connection conn : connections) {
+      LOG.trace("Closing idle connection to {}", conn.key);
+      conn.close();
+      counter.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return number of idle connections held in the pool
+   */
+  public synchronized int getIdleCount() {
+    return numIdle;
+  }
+
+  /**
+   * Close all idle connections.
+   */
+  public void close() {
+    List<Connection> toClose = new ArrayList<>();
+    synchronized (this) {
+      for (ArrayDeque<Connection> connections : idle.values()) {
+        toClose.addAll(connections);
+      }
+      idle.clear();
+      numIdle = 0;
+    }
+    for (Connection conn : toClose) {
+      conn.close();
+    }
+  }
+
+  /**
+   * Get the pool counters:
+   * <dl>
+   * <dt>connection_requests</dt>
+   * <dd>number of requests for a connection</dd>
+   * <dt>connection_pool_hits</dt>
+   * <dd>number of requests served by an idle pooled connection</dd>
+   * <dt>connection_pool_misses</dt>
+   * <dd>number of requests requiring a new connection</dd>
+   * <dt>connections_stale</dt>
+   * <dd>pooled connections found closed by the server when reused, the
+   * request is then sent over a new connection</dd>
+   * <dt>connections_returned</dt>
+   * <dd>connections returned to the pool after a response</dd>
+   * <dt>connections_expired</dt>
+   * <dd>idle connections closed because of the idle timeout</dd>
+   * <dt>connections_evicted</dt>
+   * <dd>idle connections closed because the pool was full</dd>
+   * </dl>
+   * 
+   * @return map of counter names and values
+   */
+  public Map<String, Long> getCounters() {
+    long numHits = hits.get();
+    long numRequests = Math.max(requests.get(), numHits);
+    Map<String, Long> counters = new LinkedHashMap<>();
+    counters.put("connection_requests", numRequests);
+    counters.put("connection_pool_hits", numHits);
+    counters.put("connection_pool_misses", numRequests - numHits);
+    counters.put("connections_stale", stale.get());
+    counters.put("connections_returned", returned.get());
+    counters.put("connections_expired", expired.get());
+    counters.put("connections_evicted", evicted.get());
+    return counters;
+  }
+}
@@ -16,11 +16,9 @@
  */
 package org.apache.nutch.protocol.http;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PushbackInputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -28,12 +26,12 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
-import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
 
 import org.apache.hadoop.io.Text;
 import org.apache.nutch.crawl.CrawlDatum;
@@ -45,6 +43,7 @@ import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.protocol.http.api.HttpException;
+import org.apache.nutch.protocol.http.api.TlsSessionCache;
 
 /**
  * An HTTP response.
@@ -58,6 +57,23 @@ public class HttpResponse implements Response {
   private Metadata headers = new SpellCheckedMetadata();
   // used for storing the http headers verbatim
   private StringBuffer httpHeaders;
+
+  /*
+   * max. number of bytes of the remaining content skipped after the content
+   * limit has been reached to reuse the connection, otherwise it is closed
+   */
+  private static final int MAX_DRAIN = 64 * 1024;
+
+  // whether the connection may be kept open after the response
+  private boolean persistent = false;
+  // whether the content has been trimmed to the content limit
+  private boolean truncated = false;
+  private boolean http11 = false;
+  private boolean connectionClose = false;
+  private boolean connectionKeepAlive = false;
+  // parameters of the Keep-Alive response header
+  private long keepAliveTimeout = -1;
+  private int keepAliveMax = -1;
   
   protected enum Scheme {
     HTTP, HTTPS,
@@ -116,56 +132,35 @@ public class HttpResponse implements Response {
       port = url.getPort();
       portString = ":" + port;
     }
-    Socket socket = null;
+    boolean useProxy = http.useProxy(url);
+    String sockHost = useProxy ? http.getProxyHost() : host;
+    int sockPort = useProxy ? http.getProxyPort() : port;
+
+    // persistent connections are only used with HTTP/1.1
+    HttpConnectionPool pool = null;
+    if (http instanceof Http && http.getUseHttp11()) {
+      pool = ((Http) http).getConnectionPool();
+    }
+    String poolKey = null;
+    if (pool != null) {
+      poolKey = HttpConnectionPool.key(url.getProtocol(), host, port,
+          useProxy ? sockHost + ":" + sockPort : null);
+    }
+    persistent = (pool != null);
+    HttpConnectionPool.Connection conn = null;
+    boolean reusable = false;
 
     try {
-      socket = new Socket(); // create the socket
-      socket.setSoTimeout(http.getTimeout());
-
-      // connect
-      String sockHost = http.useProxy(url) ? http.getProxyHost() : host;
-      int sockPort = http.useProxy(url) ? http.getProxyPort() : port;
-      InetSocketAddress sockAddr = new InetSocketAddress(sockHost, sockPort);
-      socket.connect(sockAddr, http.getTimeout());
-
-      if (scheme == Scheme.HTTPS) {
-        SSLSocket sslsocket = null;
-
-        try {
-          sslsocket = getSSLSocket(socket, sockHost, sockPort);
-          sslsocket.startHandshake();
-        } catch (Exception e) {
-          Http.LOG.debug("SSL connection to {} failed with: {}", url,
-              e.getMessage());
-          if ("handshake alert:  unrecognized_name".equals(e.getMessage())) {
-            try {
-              // Reconnect, see NUTCH-2447
-              socket = new Socket();
-              socket.setSoTimeout(http.getTimeout());
-              socket.connect(sockAddr, http.getTimeout());
-              sslsocket = getSSLSocket(socket, "", sockPort);
-              sslsocket.startHandshake();
-            } catch (Exception ex) {
-              String msg = "SSL reconnect to " + url + " failed with: "
-                  + e.getMessage();
-              throw new HttpException(msg);
-            }
-          } else {
-            String msg = "SSL connect to " + url + " failed with: "
-                    + e.getMessage();
-            throw new HttpException(msg, e);
-          }
-        }
-        socket = sslsocket;
+      boolean reused = false;
+      if (pool != null) {
+        conn = pool.acquire(poolKey);
+        reused = (conn != null);
       }
-
-      if (http.isStoreIPAddress()) {
-        headers.add("_ip_", sockAddr.getAddress().getHostAddress());
+      if (conn == null) {
+        conn = connect(scheme, sockHost, sockPort, poolKey, datum);
       }
 
       // make request
-      OutputStream req = socket.getOutputStream();
-
       StringBuffer reqStr = new StringBuffer("GET ");
       if (http.useProxy(url)) {
         reqStr.append(url.getProtocol() + "://" + host + portString + path);
@@ -241,10 +236,20 @@ public class HttpResponse implements Response {
             + HttpDateFormat.toString(datum.getModifiedTime()));
         reqStr.append("\r\n");
       }
+      if (http.isIfModifiedSinceEnabled()
+          && datum.getMetaData().get(HttpHeaders.WRITABLE_ETAG) != null) {
+        reqStr.append(HttpHeaders.IF_NONE_MATCH + ": "
+            + datum.getMetaData().get(HttpHeaders.WRITABLE_ETAG));
+        reqStr.append("\r\n");
+      }
 
       // "signal that this connection will be closed after completion of the
       // response", see https://tools.ietf.org/html/rfc7230#section-6.1
-      reqStr.append("Connection: close\r\n");
+      if (persistent) {
+        reqStr.append("Connection: keep-alive\r\n");
+      } else {
+        reqStr.append("Connection: close\r\n");
+      }
       reqStr.append("\r\n");
 
       // store the request in the metadata?
@@ -254,13 +259,26 @@ public class HttpResponse implements Response {
 
       byte[] reqBytes = reqStr.toString().getBytes();
 
-      req.write(reqBytes);
-      req.flush();
+      try {
+        sendRequest(conn, reqBytes, reused);
+      } catch (IOException e) {
+        if (!reused) {
+          throw e;
+        }
+        // the server has closed the idle connection, retry with a new one
+        Http.LOG.debug("Pooled connection to {} closed by server ({}), reconnecting",
+            poolKey, e.getMessage());
+        pool.countStale();
+        conn.close();
+        conn = connect(scheme, sockHost, sockPort, poolKey, datum);
+        sendRequest(conn, reqBytes, false);
+      }
 
-      PushbackInputStream in = // process response
-          new PushbackInputStream(
-              new BufferedInputStream(socket.getInputStream(),
-                  Http.BUFFER_SIZE), Http.BUFFER_SIZE);
+      if (http.isStoreIPAddress()) {
+        headers.add("_ip_", conn.socket.getInetAddress().getHostAddress());
+      }
+
+      PushbackInputStream in = conn.in; // process response
 
       StringBuffer line = new StringBuffer();
       StringBuffer lineSeparator = new StringBuffer();
@@ -277,12 +295,14 @@ public class HttpResponse implements Response {
         // parse status code line
         try {
           this.code = parseStatusLine(in, line, lineSeparator);
+          http11 = line.indexOf("HTTP/1.1") == 0;
         } catch(HttpException e) {
           Http.LOG.warn("Missing or invalid HTTP status line", e);
           Http.LOG.warn("No HTTP header, assuming HTTP/0.9 for {}", getUrl());
           this.code = 200;
           in.unread(lineSeparator.toString().getBytes(StandardCharsets.ISO_8859_1));
           in.unread(line.toString().getBytes(StandardCharsets.ISO_8859_1));
+          persistent = false;
           break;
         }
         if (httpHeaders != null)
@@ -294,22 +314,31 @@ public class HttpResponse implements Response {
 
       try {
         String transferEncoding = getHeader(Response.TRANSFER_ENCODING);
-        if (transferEncoding != null
-            && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
-          readChunkedContent(in, line);
-        } else {
-          readPlainContent(in);
-        }
-
-        String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-        if ("gzip".equals(contentEncoding)
-            || "x-gzip".equals(contentEncoding)) {
-          content = http.processGzipEncoded(content, url);
-        } else if ("deflate".equals(contentEncoding)) {
-          content = http.processDeflateEncoded(content, url);
+        if ((code >= 100 && code < 200) || code == 204 || code == 304) {
+          // no message body, see
+          // https://tools.ietf.org/html/rfc7230#section-3.3.3
+          content = new byte[0];
         } else {
+          // compressed content is decoded while it is read
+          ContentDecoder decoder = ContentDecoder.get(
+              ContentDecoder.getEncoding(getHeader(Response.CONTENT_ENCODING)),
+              http.getMaxContent());
+          if (transferEncoding != null
+              && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
+            readChunkedContent(in, line, decoder);
+          } else {
+            readPlainContent(in, decoder);
+          }
+          content = decoder.toByteArray();
+          if (truncated || decoder.isTruncated()) {
+            headers.set(Response.TRUNCATED_CONTENT, "true");
+            headers.set(Response.TRUNCATED_CONTENT_REASON,
+                Response.TruncatedContentReason.LENGTH.toString()
+                    .toLowerCase(Locale.ROOT));
+          }
           if (Http.LOG.isTraceEnabled()) {
-            Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+            Http.LOG.trace("fetched {} bytes (decoded to {} bytes) from {}",
+                decoder.getRawLength(), content.length, url);
           }
         }
         if (httpHeaders != null) {
@@ -325,6 +354,7 @@ public class HttpResponse implements Response {
                   + code + ":",
               e);
           content = null;
+          persistent = false;
           if (httpHeaders != null) {
             httpHeaders.append("\r\n");
             headers.add(Response.RESPONSE_HEADERS, httpHeaders.toString());
@@ -335,9 +365,18 @@ public class HttpResponse implements Response {
           throw e;
         }
       }
+
+      reusable = persistent
+          && (http11 ? !connectionClose : connectionKeepAlive)
+          && keepAliveMax != 0;
     } finally {
-      if (socket != null)
-        socket.close();
+      if (conn != null) {
+        if (reusable) {
+          pool.release(conn, keepAliveTimeout);
+        } else {
+          conn.close();
+        }
+      }
     }
 
   }
@@ -377,17 +416,99 @@ public class HttpResponse implements Response {
    * -------------------------
    */
 
+  private HttpConnectionPool.Connection connect(Scheme scheme,
+      String sockHost, int sockPort, String poolKey, CrawlDatum datum)
+      throws IOException, HttpException {
+    Socket socket = new Socket(); // create the socket
+    try {
+      socket.setSoTimeout(http.getTimeout());
+
+      // connect
+      InetSocketAddress sockAddr = new InetSocketAddress(sockHost, sockPort);
+      socket.connect(sockAddr, http.getTimeout());
+
+      if (scheme == Scheme.HTTPS) {
+        SSLSocket sslsocket = null;
+
+        try {
+          sslsocket = getSSLSocket(socket, sockHost, sockPort);
+          handshake(sslsocket, datum);
+        } catch (Exception e) {
+          Http.LOG.debug("SSL connection to {} failed with: {}", url,
+              e.getMessage());
+          if ("handshake alert:  unrecognized_name".equals(e.getMessage())) {
+            try {
+              // Reconnect, see NUTCH-2447
+              socket.close();
+              socket = new Socket();
+              socket.setSoTimeout(http.getTimeout());
+              socket.connect(sockAddr, http.getTimeout());
+              sslsocket = getSSLSocket(socket, "", sockPort);
+              handshake(sslsocket, datum);
+            } catch (Exception ex) {
+              String msg = "SSL reconnect to " + url + " failed with: "
+                  + e.getMessage();
+              throw new HttpException(msg);
+            }
+          } else {
+            String msg = "SSL connect to " + url + " failed with: "
+                    + e.getMessage();
+            throw new HttpException(msg, e);
+          }
+        }
+        socket = sslsocket;
+      }
+
+      return new HttpConnectionPool.Connection(poolKey, socket);
+    } catch (IOException | HttpException | RuntimeException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /*
+   * Send the request. If the connection has been taken from the pool, wait
+   * for the first byte of the response: if the server has closed the idle
+   * connection meanwhile, the request is sent again over a new connection.
+   */
+  private static void sendRequest(HttpConnectionPool.Connection conn,
+      byte[] request, boolean reused) throws IOException {
+    conn.out.write(request);
+    conn.out.flush();
+    conn.requests++;
+    if (reused) {
+      int b = conn.in.read();
+      if (b == -1) {
+        throw new EOFException("connection closed");
+      }
+      conn.in.unread(b);
+    }
+  }
+
+  /*
+   * Perform the TLS handshake and record whether the session cached by the
+   * shared TLS context was resumed
+   */
+  private void handshake(SSLSocket sslsocket, CrawlDatum datum)
+      throws IOException {
+    long start = System.currentTimeMillis();
+    long startNanos = System.nanoTime();
+    sslsocket.startHandshake();
+    long elapsed = (System.nanoTime() - startNanos) / 1000000;
+    http.recordTlsHandshake(datum, elapsed,
+        TlsSessionCache.isResumed(sslsocket.getSession(), start));
+  }
+
   private SSLSocket getSSLSocket(Socket socket, String sockHost, int sockPort)
       throws Exception {
-    SSLSocketFactory factory;
-    if (http.isTlsCheckCertificates()) {
-      factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-    } else {
-      SSLContext sslContext = SSLContext.getInstance("TLS");
-      sslContext.init(null,
-          new TrustManager[] { new DummyX509TrustManager(null) }, null);
-      factory = sslContext.getSocketFactory();
+    // the socket factory of the shared TLS context caches sessions by host
+    // and port, so that later connections to the same server can resume the
+    // session
+    TlsSessionCache tlsSessionCache = http.getTlsSessionCache();
+    if (tlsSessionCache == null) {
+      throw new SSLException("TLS context not initialized");
     }
+    SSLSocketFactory factory = tlsSessionCache.getSocketFactory();
     
     SSLSocket sslsocket = (SSLSocket) factory
       .createSocket(socket, sockHost, sockPort, true);
@@ -411,7 +532,7 @@ public class HttpResponse implements Response {
     return sslsocket;
   }
 
-  private void readPlainContent(InputStream in)
+  private void readPlainContent(InputStream in, ContentDecoder decoder)
       throws HttpException, IOException {
 
     int contentLength = Integer.MAX_VALUE; // get content length
@@ -426,27 +547,38 @@ public class HttpResponse implements Response {
         Http.LOG.warn("bad content length: {}", contentLengthString);
       }
     }
+    // without a valid content length the content is read until the server
+    // closes the connection
+    boolean lengthKnown = contentLength >= 0
+        && contentLength != Integer.MAX_VALUE;
+    int declaredLength = contentLength;
     if (http.getMaxContent() >= 0 && contentLength > http.getMaxContent()) {
       // limit the download size
       contentLength = http.getMaxContent();
     }
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
     byte[] bytes = new byte[Http.BUFFER_SIZE];
     int length = 0;
 
     // do not try to read if the contentLength is 0
     if (contentLength == 0) {
-      content = new byte[0];
+      if (declaredLength > 0) {
+        truncated = true;
+        persistent = persistent && drain(in, declaredLength);
+      }
       return;
     }
+    if (lengthKnown && !decoder.isEncoded()) {
+      decoder.expect(contentLength);
+    }
 
-    // read content
-    int i = in.read(bytes);
+    // read content, but never beyond the content length: the next response
+    // may follow on a persistent connection
+    int i = in.read(bytes, 0, Math.min(Http.BUFFER_SIZE, contentLength));
     while (i != -1) {
-      out.write(bytes, 0, i);
+      decoder.write(bytes, 0, i);
       length += i;
-      if (length >= contentLength) {
+      if (length >= contentLength || decoder.isDone()) {
         break;
       }
       if ((length + Http.BUFFER_SIZE) > contentLength) {
@@ -457,7 +589,91 @@ public class HttpResponse implements Response {
         i = in.read(bytes);
       }
     }
-    content = out.toByteArray();
+    if (length >= contentLength && contentLength < declaredLength) {
+      // content trimmed to the content limit
+      truncated = true;
+    }
+    if (!lengthKnown || (length < contentLength && !decoder.isDone())) {
+      persistent = false;
+    } else if (length < declaredLength) {
+      // content trimmed, or no more content is decoded
+      persistent = persistent && drain(in, declaredLength - length);
+    }
+  }
+
+  /*
+   * Skip the remaining content after the content limit has been reached.
+   * Returns true if the content has been skipped completely and the
+   * connection can be reused.
+   */
+  private static boolean drain(InputStream in, long length) throws IOException {
+    if (length > MAX_DRAIN) {
+      return false;
+    }
+    byte[] bytes = new byte[(int) Math.min(length, Http.BUFFER_SIZE)];
+    while (length > 0) {
+      int len = in.read(bytes, 0, (int) Math.min(length, bytes.length));
+      if (len == -1) {
+        return false;
+      }
+      length -= len;
+    }
+    return true;
+  }
+
+  /*
+   * Skip the remaining chunks after the content limit has been reached,
+   * starting with the remainder of the current chunk.
+   */
+  private boolean drainChunks(PushbackInputStream in, StringBuffer line,
+      int chunkRemainder) {
+    try {
+      long drained = chunkRemainder;
+      if (!drain(in, chunkRemainder)) {
+        return false;
+      }
+      readLine(in, line, false); // end of chunk
+      while (true) {
+        readLine(in, line, false);
+        int chunkLen = parseChunkLength(line);
+        if (chunkLen == 0) {
+          // read trailing headers
+          parseHeaders(in, line, null);
+          return true;
+        }
+        drained += chunkLen;
+        if (drained > MAX_DRAIN || !drain(in, chunkLen)) {
+          return false;
+        }
+        readLine(in, line, false);
+      }
+    } catch (IOException | HttpException e) {
+      Http.LOG.debug("Failed to skip remaining chunks of {}: {}", url,
+          e.getMessage());
+      return false;
+    }
+  }
+
+  private static int parseChunkLength(StringBuffer line)
+      throws HttpException {
+    String chunkLenStr;
+    // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'");
+    // }
+
+    int pos = line.indexOf(";");
+    if (pos < 0) {
+      chunkLenStr = line.toString();
+    } else {
+      chunkLenStr = line.substring(0, pos);
+      // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " +
+      // line.substring(pos+1)); }
+    }
+    chunkLenStr = chunkLenStr.trim();
+    try {
+      return Integer.parseInt(chunkLenStr, 16);
+    } catch (NumberFormatException e) {
+      throw new HttpException("bad chunk length: " + line.toString());
+    }
   }
 
   /**
@@ -466,12 +682,12 @@ public class HttpResponse implements Response {
    * @throws HttpException
    * @throws IOException
    */
-  private void readChunkedContent(PushbackInputStream in, StringBuffer line)
-      throws HttpException, IOException {
+  private void readChunkedContent(PushbackInputStream in, StringBuffer line,
+      ContentDecoder decoder) throws HttpException, IOException {
     boolean doneChunks = false;
     int contentBytesRead = 0;
+    int chunkRemainder = 0;
     byte[] bytes = new byte[Http.BUFFER_SIZE];
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
 
     while (true) {
       if (Http.LOG.isTraceEnabled()) {
@@ -480,25 +696,7 @@ public class HttpResponse implements Response {
 
       readLine(in, line, false);
 
-      String chunkLenStr;
-      // if (LOG.isTraceEnabled()) { LOG.trace("chunk-header: '" + line + "'");
-      // }
-
-      int pos = line.indexOf(";");
-      if (pos < 0) {
-        chunkLenStr = line.toString();
-      } else {
-        chunkLenStr = line.substring(0, pos);
-        // if (LOG.isTraceEnabled()) { LOG.trace("got chunk-ext: " +
-        // line.substring(pos+1)); }
-      }
-      chunkLenStr = chunkLenStr.trim();
-      int chunkLen;
-      try {
-        chunkLen = Integer.parseInt(chunkLenStr, 16);
-      } catch (NumberFormatException e) {
-        throw new HttpException("bad chunk length: " + line.toString());
-      }
+      int chunkLen = parseChunkLength(line);
 
       if (chunkLen == 0) {
         doneChunks = true;
@@ -508,12 +706,13 @@ public class HttpResponse implements Response {
       if (http.getMaxContent() >= 0
           && (contentBytesRead + chunkLen) > http.getMaxContent()) {
         // content will be trimmed when processing this chunk
+        chunkRemainder = chunkLen - (http.getMaxContent() - contentBytesRead);
         chunkLen = http.getMaxContent() - contentBytesRead;
       }
 
       // read one chunk
       int chunkBytesRead = 0;
-      while (chunkBytesRead < chunkLen) {
+      while (chunkBytesRead < chunkLen && !decoder.isDone()) {
 
         int toRead = (chunkLen - chunkBytesRead) < Http.BUFFER_SIZE ?
             (chunkLen - chunkBytesRead) :
@@ -530,11 +729,16 @@ public class HttpResponse implements Response {
         // if (LOG.isTraceEnabled()) { LOG.trace("read: " + new String(bytes, 0,
         // len)); }
 
-        out.write(bytes, 0, len);
+        decoder.write(bytes, 0, len);
         chunkBytesRead += len;
       }
 
       contentBytesRead += chunkBytesRead;
+      if (decoder.isDone()) {
+        // decoded content limit reached or compressed content finished
+        chunkRemainder += chunkLen - chunkBytesRead;
+        break;
+      }
       if (http.getMaxContent() >= 0
           && contentBytesRead >= http.getMaxContent()) {
         Http.LOG.trace("Http: content limit reached");
@@ -545,12 +749,12 @@ public class HttpResponse implements Response {
 
     }
 
-    content = out.toByteArray();
-
     if (!doneChunks) {
       // content trimmed
-      if (contentBytesRead != http.getMaxContent())
+      if (contentBytesRead != http.getMaxContent() && !decoder.isDone())
         throw new HttpException("chunk eof: !doneChunk && didn't max out");
+      truncated = truncated || !decoder.isDone();
+      persistent = persistent && drainChunks(in, line, chunkRemainder);
       return;
     }
 
@@ -599,6 +803,45 @@ public class HttpResponse implements Response {
     }
     String value = line.substring(valueStart);
     headers.set(key, value);
+
+    if ("Connection".equalsIgnoreCase(key)) {
+      for (String token : value.split(",")) {
+        token = token.trim();
+        if ("close".equalsIgnoreCase(token)) {
+          connectionClose = true;
+        } else if ("keep-alive".equalsIgnoreCase(token)) {
+          connectionKeepAlive = true;
+        }
+      }
+    } else if ("Keep-Alive".equalsIgnoreCase(key)) {
+      processKeepAlive(value);
+    }
+  }
+
+  /*
+   * Parse the Keep-Alive header, e.g. "timeout=5, max=100", see
+   * https://tools.ietf.org/html/draft-thomson-hybi-http-timeout-03
+   */
+  private void processKeepAlive(String value) {
+    for (String param : value.split(",")) {
+      int eq = param.indexOf('=');
+      if (eq == -1) {
+        continue;
+      }
+      String name = param.substring(0, eq).trim();
+      try {
+        int num = Integer.parseInt(param.substring(eq + 1).trim());
+        if ("timeout".equalsIgnoreCase(name)) {
+          // leave a safety margin of one second: the server may close the
+          // connection exactly after the timeout
+          keepAliveTimeout = Math.max(0, num - 1) * 1000L;
+        } else if ("max".equalsIgnoreCase(name)) {
+          keepAliveMax = num;
+        }
+      } catch (NumberFormatException e) {
+        Http.LOG.debug("Invalid Keep-Alive header: {}", value);
+      }
+    }
   }
 
   // Adds headers to our headers Metadata
@@ -618,6 +861,8 @@ public class HttpResponse implements Response {
 
         in.unread(line.substring(pos).getBytes(StandardCharsets.ISO_8859_1));
         line.setLength(pos);
+        // the message is malformed, do not reuse the connection
+        persistent = false;
 
         try {
           // TODO: (CM) We don't know the header names here
@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.http.ContentDecoder.Encoding;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for {@link ContentDecoder}: the content decoded while reading must be
+ * the same as the content decoded by {@link GZIPUtils} resp.
+ * {@link DeflateUtils} after reading.
+ */
+public class TestContentDecoder {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String[] WORDS = { "Apache", "Nutch", "is", "a",
+      "highly", "extensible", "and", "scalable", "web", "crawler", "<p>",
+      "</p>", "\n", "0123456789", "Ünïcödé" };
+
+  private ServerSocket server;
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private static byte[] text(Random random, int length) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length) {
+      sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+      if (random.nextInt(50) == 0) {
+        // some less compressible content
+        for (int i = 0; i < 100; i++) {
+          sb.append((char) ('a' + random.nextInt(26)));
+        }
+      }
+    }
+    return sb.toString().getBytes(UTF_8);
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(content);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] deflateRaw(byte[] content) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflate = new DeflaterOutputStream(out,
+        new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+      deflate.write(content);
+    }
+    return out.toByteArray();
+  }
+
+  /* gzip header with extra field, file name, comment and header CRC */
+  private static byte[] gzipWithHeaderFields(byte[] content)
+      throws IOException {
+    byte[] gzipped = gzip(content);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0,
+        0, 3 });
+    out.write(new byte[] { 5, 0, 'x', 'y', 2, 0, 'z' });
+    out.write("index.html\0".getBytes(ISO_8859_1));
+    out.write("a comment\0".getBytes(ISO_8859_1));
+    CRC32 crc = new CRC32();
+    crc.update(out.toByteArray());
+    long headerCrc = crc.getValue();
+    out.write(new byte[] { (byte) headerCrc, (byte) (headerCrc >> 8) });
+    out.write(gzipped, 10, gzipped.length - 10);
+    return out.toByteArray();
+  }
+
+  /* pass the input in pieces of random size */
+  private static ContentDecoder decode(Encoding encoding, int limit,
+      byte[] input, Random random) {
+    ContentDecoder decoder = ContentDecoder.get(encoding, limit);
+    int off = 0;
+    while (off < input.length && !decoder.isDone()) {
+      int len = Math.min(input.length - off, 1 + random.nextInt(3000));
+      decoder.write(input, off, len);
+      off += len;
+    }
+    return decoder;
+  }
+
+  private static void assertParity(Encoding encoding, byte[] input, int limit,
+      Random random) throws IOException {
+    byte[] expected;
+    if (encoding == Encoding.GZIP) {
+      expected = GZIPUtils.unzipBestEffort(input, limit);
+    } else {
+      expected = DeflateUtils.inflateBestEffort(input, limit);
+    }
+    byte[] actual = decode(encoding, limit, input, random).toByteArray();
+    Assert.assertArrayEquals(expected, actual);
+  }
+
+  /*
+   * On corrupt content the output of the failing inflate call is lost, the
+   * decoded content may differ in length by the size of one read
+   */
+  private static void assertCorruptParity(Encoding encoding, byte[] input,
+      int limit, Random random) throws IOException {
+    byte[] expected;
+    if (encoding == Encoding.GZIP) {
+      expected = GZIPUtils.unzipBestEffort(input, limit);
+    } else {
+      expected = DeflateUtils.inflateBestEffort(input, limit);
+    }
+    byte[] actual = decode(encoding, limit, input, random).toByteArray();
+    int common = Math.min(expected.length, actual.length);
+    Assert.assertArrayEquals(Arrays.copyOf(expected, common),
+        Arrays.copyOf(actual, common));
+    Assert.assertTrue("decoded " + actual.length + " bytes, expected "
+        + expected.length, Math.abs(expected.length - actual.length) <= 8192);
+  }
+
+  @Test
+  public void testParity() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 50; i++) {
+      byte[] content = text(random, random.nextInt(200000));
+      byte[] gzipped = gzip(content);
+      byte[] deflated = deflateRaw(content);
+      int limit = random.nextBoolean() ? Integer.MAX_VALUE
+          : random.nextInt(content.length + 10);
+      assertParity(Encoding.GZIP, gzipped, limit, random);
+      assertParity(Encoding.DEFLATE, deflated, limit, random);
+      assertParity(Encoding.GZIP, gzipWithHeaderFields(content), limit, random);
+      // truncated compressed content
+      int cut = 10 + random.nextInt(Math.max(1, gzipped.length - 10));
+      assertParity(Encoding.GZIP, Arrays.copyOf(gzipped, cut), limit, random);
+      cut = 2 + random.nextInt(Math.max(1, deflated.length - 2));
+      assertParity(Encoding.DEFLATE, Arrays.copyOf(deflated, cut), limit,
+          random);
+      // corrupt compressed content
+      byte[] corrupt = gzipped.clone();
+      corrupt[10 + random.nextInt(corrupt.length - 10)] ^= 0x55;
+      assertCorruptParity(Encoding.GZIP, corrupt, limit, random);
+      corrupt = deflated.clone();
+      corrupt[random.nextInt(corrupt.length)] ^= 0x55;
+      assertCorruptParity(Encoding.DEFLATE, corrupt, limit, random);
+    }
+  }
+
+  @Test
+  public void testMultipleMembers() throws Exception {
+    Random random = new Random(1);
+    byte[] first = text(random, 10000);
+    byte[] second = text(random, 20000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(gzip(first));
+    out.write(gzip(second));
+    byte[] input = out.toByteArray();
+    assertParity(Encoding.GZIP, input, Integer.MAX_VALUE, random);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(first);
+    expected.write(second);
+    Assert.assertArrayEquals(expected.toByteArray(),
+        decode(Encoding.GZIP, -1, input, random).toByteArray());
+    // trailing garbage is ignored
+    out.write("garbage".getBytes(UTF_8));
+    Assert.assertArrayEquals(expected.toByteArray(),
+        decode(Encoding.GZIP, -1, out.toByteArray(), random).toByteArray());
+  }
+
+  @Test
+  public void testZlibFormat() throws Exception {
+    Random random = new Random(5);
+    byte[] content = text(random, 50000);
+    Assert.assertArrayEquals(content, decode(Encoding.DEFLATE, -1,
+        DeflateUtils.deflate(content), random).toByteArray());
+    Assert.assertArrayEquals(content, decode(Encoding.DEFLATE, -1,
+        deflateRaw(content), random).toByteArray());
+  }
+
+  @Test
+  public void testLimit() throws Exception {
+    Random random = new Random(2);
+    byte[] content = text(random, 100000);
+    byte[] gzipped = gzip(content);
+
+    ContentDecoder decoder = decode(Encoding.GZIP, 1000, gzipped, random);
+    Assert.assertTrue(decoder.isDone());
+    Assert.assertTrue(decoder.isTruncated());
+    // decoding stops early, the remaining compressed content is not needed
+    Assert.assertTrue(decoder.getRawLength() < gzipped.length);
+    Assert.assertArrayEquals(Arrays.copyOf(content, 1000),
+        decoder.toByteArray());
+
+    // content fits exactly
+    decoder = decode(Encoding.GZIP, content.length, gzipped, random);
+    Assert.assertFalse(decoder.isTruncated());
+    Assert.assertArrayEquals(content, decoder.toByteArray());
+
+    decoder = decode(Encoding.IDENTITY, 1000, content, random);
+    Assert.assertTrue(decoder.isTruncated());
+    Assert.assertArrayEquals(Arrays.copyOf(content, 1000),
+        decoder.toByteArray());
+  }
+
+  @Test
+  public void testInvalidGzipHeader() throws Exception {
+    ContentDecoder decoder = decode(Encoding.GZIP, -1,
+        "not compressed".getBytes(UTF_8), new Random());
+    Assert.assertTrue(decoder.isDone());
+    Assert.assertThrows(IOException.class, () -> decoder.toByteArray());
+    // empty content
+    Assert.assertEquals(0, ContentDecoder.get(Encoding.GZIP, -1)
+        .toByteArray().length);
+  }
+
+  /**
+   * Start a server responding with gzip-compressed content, either with a
+   * Content-Length or chunked, keeping the connection open.
+   */
+  private void launchServer(byte[] gzipped, AtomicInteger connections)
+      throws IOException {
+    ServerSocket serverSocket = new ServerSocket(0);
+    server = serverSocket;
+    Thread serverThread = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> {
+            try (Socket s = socket) {
+              InputStream in = s.getInputStream();
+              OutputStream out = s.getOutputStream();
+              StringBuilder request = new StringBuilder();
+              int b;
+              while ((b = in.read()) != -1) {
+                request.append((char) b);
+                if (request.toString().endsWith("\r\n\r\n")) {
+                  boolean chunked = request.indexOf("/chunked") != -1;
+                  request.setLength(0);
+                  String headers = "HTTP/1.1 200 OK\r\n"
+                      + "Content-Type: text/html\r\n"
+                      + "Content-Encoding: gzip\r\n";
+                  if (chunked) {
+                    out.write((headers + "Transfer-Encoding: chunked\r\n\r\n")
+                        .getBytes(ISO_8859_1));
+                    for (int i = 0; i < gzipped.length; i += 1000) {
+                      int len = Math.min(1000, gzipped.length - i);
+                      out.write((Integer.toHexString(len) + "\r\n")
+                          .getBytes(ISO_8859_1));
+                      out.write(gzipped, i, len);
+                      out.write("\r\n".getBytes(ISO_8859_1));
+                    }
+                    out.write("0\r\n\r\n".getBytes(ISO_8859_1));
+                  } else {
+                    out.write((headers + "Content-Length: " + gzipped.length
+                        + "\r\n\r\n").getBytes(ISO_8859_1));
+                    out.write(gzipped);
+                  }
+                  out.flush();
+                }
+              }
+            } catch (IOException e) {
+              LOG.info("Connection closed: {}", e.getMessage());
+            }
+          });
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          LOG.info("Server closed: {}", e.getMessage());
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  @Test
+  public void testHttpResponse() throws Exception {
+    Random random = new Random(3);
+    byte[] content = text(random, 200000);
+    byte[] gzipped = gzip(content);
+    AtomicInteger connections = new AtomicInteger();
+    launchServer(gzipped, connections);
+    Assert.assertTrue(gzipped.length < 65536);
+
+    Configuration conf = new Configuration();
+    conf.addResource("nutch-default.xml");
+    conf.addResource("nutch-site-test.xml");
+    conf.set("http.connection.pool.http", "10,2,30");
+    for (int limit : new int[] { -1, 65536, 1000 }) {
+      conf.setInt("http.content.limit", limit);
+      Http http = new Http();
+      http.setConf(conf);
+      for (String path : new String[] { "/plain", "/chunked", "/plain" }) {
+        HttpResponse response = new HttpResponse(http,
+            new URL("http", "127.0.0.1", server.getLocalPort(), path),
+            new CrawlDatum());
+        Assert.assertEquals(200, response.getCode());
+        // the limit applies to the decoded content
+        int expectedLength = limit < 0 ? content.length : limit;
+        Assert.assertArrayEquals(path + " limit " + limit,
+            Arrays.copyOf(content, expectedLength), response.getContent());
+        Assert.assertEquals(limit < 0 ? null : "true",
+            response.getHeader(Response.TRUNCATED_CONTENT));
+      }
+      // the remaining compressed content (less than 64 kB) is skipped and the
+      // connection is reused
+      Assert.assertEquals(2L, (long) http.getCounters()
+          .get("connection_pool_hits"));
+    }
+    Assert.assertEquals(3, connections.get());
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean()).getThreadAllocatedBytes(
+            Thread.currentThread().getId());
+  }
+
+  /* read and decode the response body as before: buffer, then decompress */
+  private static byte[] bufferAndDecode(byte[] gzipped, int limit) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
+    byte[] bytes = new byte[Http.BUFFER_SIZE];
+    for (int off = 0; off < gzipped.length; off += bytes.length) {
+      int len = Math.min(bytes.length, gzipped.length - off);
+      System.arraycopy(gzipped, off, bytes, 0, len);
+      out.write(bytes, 0, len);
+    }
+    return GZIPUtils.unzipBestEffort(out.toByteArray(), limit);
+  }
+
+  private static byte[] streamDecode(byte[] gzipped, int limit)
+      throws IOException {
+    ContentDecoder decoder = ContentDecoder.get(Encoding.GZIP, limit);
+    byte[] bytes = new byte[Http.BUFFER_SIZE];
+    for (int off = 0; off < gzipped.length
+        && !decoder.isDone(); off += bytes.length) {
+      int len = Math.min(bytes.length, gzipped.length - off);
+      System.arraycopy(gzipped, off, bytes, 0, len);
+      decoder.write(bytes, 0, len);
+    }
+    return decoder.toByteArray();
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void testAllocation() throws Exception {
+    Assume.assumeTrue(ManagementFactory
+        .getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    Random random = new Random(4);
+    int limit = 1024 * 1024;
+    byte[] content = text(random, 800000);
+    byte[] gzipped = gzip(content);
+    int rounds = 20;
+    // warm up
+    for (int i = 0; i < rounds; i++) {
+      Assert.assertArrayEquals(bufferAndDecode(gzipped, limit),
+          streamDecode(gzipped, limit));
+    }
+    long start = allocatedBytes();
+    long time = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      bufferAndDecode(gzipped, limit);
+    }
+    long bufferedTime = System.nanoTime() - time;
+    long buffered = (allocatedBytes() - start) / rounds;
+    start = allocatedBytes();
+    time = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      streamDecode(gzipped, limit);
+    }
+    long streamedTime = System.nanoTime() - time;
+    long streamed = (allocatedBytes() - start) / rounds;
+    LOG.info("Decoding {} bytes gzip-compressed to {} bytes, allocated bytes"
+        + " per response: buffered {} ({} ms), streamed {} ({} ms)",
+        gzipped.length, content.length, buffered, bufferedTime / 1000000,
+        streamed, streamedTime / 1000000);
+    // the decoded content needs to be allocated once
+    Assert.assertTrue(streamed < 1.2 * content.length);
+    Assert.assertTrue(streamed < buffered);
+  }
+}
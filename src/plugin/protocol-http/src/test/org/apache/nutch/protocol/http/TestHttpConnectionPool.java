@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for persistent connections of protocol-http, using a local HTTP
+ * server which keeps connections open.
+ */
+public class TestHttpConnectionPool {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String CONTENT = "This is a text.";
+
+  private Configuration conf;
+  private Http http;
+
+  private ServerSocket server;
+  private final AtomicInteger connections = new AtomicInteger();
+  private final List<String> requests = Collections
+      .synchronizedList(new ArrayList<>());
+  /* close the connection after every response without announcing it */
+  private volatile boolean closeSilently = false;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new Configuration();
+    conf.addResource("nutch-default.xml");
+    conf.addResource("nutch-site-test.xml");
+    conf.set("http.connection.pool.http", "10,2,30");
+    http = new Http();
+    http.setConf(conf);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  /**
+   * Start a server responding to every request with the response returned
+   * by the responder for the request path. The connection is kept open
+   * unless the response contains "Connection: close" or is not delimited.
+   */
+  private void launchServer(Function<String, String> responder)
+      throws IOException {
+    ServerSocket serverSocket = new ServerSocket(0);
+    server = serverSocket;
+    Thread serverThread = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> handle(socket, responder));
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          LOG.info("Server closed: {}", e.getMessage());
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private void handle(Socket socket, Function<String, String> responder) {
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), UTF_8))) {
+      OutputStream out = s.getOutputStream();
+      String line;
+      while ((line = in.readLine()) != null) {
+        String path = line.split(" ")[1];
+        requests.add(line);
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+          requests.add(line);
+        }
+        String response = responder.apply(path);
+        out.write(response.getBytes(UTF_8));
+        out.flush();
+        if (closeSilently || response.contains("Connection: close")
+            || !(response.contains("Content-Length")
+                || response.contains("chunked")
+                || response.startsWith("HTTP/1.1 304"))) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      LOG.info("Connection closed: {}", e.getMessage());
+    }
+  }
+
+  private HttpResponse fetch(String path) throws Exception {
+    URL url = new URL("http", "127.0.0.1", server.getLocalPort(), path);
+    return new HttpResponse(http, url, new CrawlDatum());
+  }
+
+  private static String plain(String content, String headers) {
+    return "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: "
+        + content.length() + "\r\n" + headers + "\r\n" + content;
+  }
+
+  private static String chunked(String content, int chunkSize) {
+    StringBuilder sb = new StringBuilder("HTTP/1.1 200 OK\r\n"
+        + "Content-Type: text/plain\r\nTransfer-Encoding: chunked\r\n\r\n");
+    for (int i = 0; i < content.length(); i += chunkSize) {
+      String chunk = content.substring(i,
+          Math.min(content.length(), i + chunkSize));
+      sb.append(Integer.toHexString(chunk.length())).append("\r\n")
+          .append(chunk).append("\r\n");
+    }
+    sb.append("0\r\nX-Trailer: done\r\n\r\n");
+    return sb.toString();
+  }
+
+  private long counter(String name) {
+    return http.getCounters().get(name);
+  }
+
+  private void assertContent(String expected, HttpResponse response) {
+    Assert.assertEquals(200, response.getCode());
+    Assert.assertEquals(expected, new String(response.getContent(), UTF_8));
+  }
+
+  @Test
+  public void testKeepAlive() throws Exception {
+    launchServer(path -> plain(CONTENT + path, ""));
+    for (int i = 0; i < 5; i++) {
+      assertContent(CONTENT + "/" + i, fetch("/" + i));
+    }
+    Assert.assertEquals(1, connections.get());
+    Assert.assertTrue(requests.contains("Connection: keep-alive"));
+    Map<String, Long> counters = http.getCounters();
+    Assert.assertEquals(5L, (long) counters.get("connection_requests"));
+    Assert.assertEquals(4L, (long) counters.get("connection_pool_hits"));
+    Assert.assertEquals(1L, (long) counters.get("connection_pool_misses"));
+    Assert.assertEquals(5L, (long) counters.get("connections_returned"));
+    Assert.assertEquals(1, http.getConnectionPool().getIdleCount());
+  }
+
+  @Test
+  public void testConnectionClose() throws Exception {
+    launchServer(path -> plain(CONTENT, "Connection: close\r\n"));
+    for (int i = 0; i < 3; i++) {
+      assertContent(CONTENT, fetch("/"));
+    }
+    Assert.assertEquals(3, connections.get());
+    Assert.assertEquals(0L, counter("connections_returned"));
+  }
+
+  @Test
+  public void testHttp10KeepAlive() throws Exception {
+    // HTTP/1.0 responses require an explicit "Connection: keep-alive"
+    launchServer(path -> plain(CONTENT, "").replace("HTTP/1.1", "HTTP/1.0"));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(0L, counter("connection_pool_hits"));
+    server.close();
+
+    launchServer(path -> plain(CONTENT, "Connection: Keep-Alive\r\n")
+        .replace("HTTP/1.1", "HTTP/1.0"));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(1L, counter("connection_pool_hits"));
+  }
+
+  @Test
+  public void testKeepAliveHeader() throws Exception {
+    // server timeout too short to reuse the connection
+    launchServer(path -> plain(CONTENT, "Keep-Alive: timeout=1, max=100\r\n"));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(0L, counter("connection_pool_hits"));
+    server.close();
+
+    // last request allowed by the server
+    launchServer(path -> plain(CONTENT, "Keep-Alive: timeout=5, max=0\r\n"));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(0L, counter("connection_pool_hits"));
+    server.close();
+
+    launchServer(path -> plain(CONTENT, "Keep-Alive: timeout=5, max=10\r\n"));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(1L, counter("connection_pool_hits"));
+  }
+
+  @Test
+  public void testChunked() throws Exception {
+    launchServer(path -> path.equals("/chunked") ? chunked(CONTENT, 4)
+        : plain(CONTENT, ""));
+    assertContent(CONTENT, fetch("/chunked"));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/chunked"));
+    Assert.assertEquals(1, connections.get());
+  }
+
+  @Test
+  public void testDrainTruncatedContent() throws Exception {
+    conf.setInt("http.content.limit", 6);
+    http.setConf(conf);
+    launchServer(path -> path.equals("/chunked") ? chunked(CONTENT, 4)
+        : plain(CONTENT, ""));
+    assertContent(CONTENT.substring(0, 6), fetch("/chunked"));
+    assertContent(CONTENT.substring(0, 6), fetch("/"));
+    assertContent(CONTENT.substring(0, 6), fetch("/chunked"));
+    Assert.assertEquals(1, connections.get());
+  }
+
+  @Test
+  public void testNoDrainOfLargeContent() throws Exception {
+    conf.setInt("http.content.limit", 6);
+    http.setConf(conf);
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 100000) {
+      large.append(CONTENT);
+    }
+    launchServer(path -> plain(large.toString(), ""));
+    assertContent(CONTENT.substring(0, 6), fetch("/"));
+    assertContent(CONTENT.substring(0, 6), fetch("/"));
+    Assert.assertEquals(2, connections.get());
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    // no body, although the Content-Length of the representation is sent
+    launchServer(path -> path.equals("/304")
+        ? "HTTP/1.1 304 Not Modified\r\nContent-Length: 1234\r\n\r\n"
+        : plain(CONTENT, ""));
+    HttpResponse response = fetch("/304");
+    Assert.assertEquals(304, response.getCode());
+    Assert.assertEquals(0, response.getContent().length);
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(1, connections.get());
+  }
+
+  @Test
+  public void testUndelimitedContent() throws Exception {
+    // content is read until the server closes the connection
+    launchServer(path -> "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n"
+        + CONTENT);
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(2, connections.get());
+    Assert.assertEquals(0L, counter("connections_returned"));
+  }
+
+  @Test
+  public void testStaleConnection() throws Exception {
+    closeSilently = true;
+    launchServer(path -> plain(CONTENT, ""));
+    assertContent(CONTENT, fetch("/"));
+    // wait until the server has closed the connection
+    Thread.sleep(200);
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(2, connections.get());
+    Assert.assertEquals(1L, counter("connection_pool_hits"));
+    Assert.assertEquals(1L, counter("connections_stale"));
+  }
+
+  @Test
+  public void testMaxIdlePerHost() throws Exception {
+    launchServer(path -> plain(CONTENT, ""));
+    HttpConnectionPool pool = http.getConnectionPool();
+    String key = HttpConnectionPool.key("http", "127.0.0.1",
+        server.getLocalPort(), null);
+    // hold three connections at the same time
+    List<HttpConnectionPool.Connection> conns = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      conns.add(new HttpConnectionPool.Connection(key,
+          new Socket("127.0.0.1", server.getLocalPort())));
+    }
+    for (HttpConnectionPool.Connection conn : conns) {
+      pool.release(conn, -1);
+    }
+    Assert.assertEquals(2, pool.getIdleCount());
+    Assert.assertEquals(1L, counter("connections_evicted"));
+    Assert.assertTrue(conns.get(0).socket.isClosed());
+    // most recently used connection is reused first
+    Assert.assertSame(conns.get(2), pool.acquire(key));
+  }
+
+  @Test
+  public void testIdleTimeout() throws Exception {
+    launchServer(path -> plain(CONTENT, ""));
+    HttpConnectionPool pool = new HttpConnectionPool(10, 2, 100);
+    String key = HttpConnectionPool.key("http", "127.0.0.1",
+        server.getLocalPort(), null);
+    HttpConnectionPool.Connection conn = new HttpConnectionPool.Connection(
+        key, new Socket("127.0.0.1", server.getLocalPort()));
+    pool.release(conn, -1);
+    Assert.assertSame(conn, pool.acquire(key));
+    pool.release(conn, -1);
+    Thread.sleep(200);
+    Assert.assertNull(pool.acquire(key));
+    Assert.assertTrue(conn.socket.isClosed());
+    Assert.assertEquals(1L, (long) pool.getCounters().get("connections_expired"));
+  }
+
+  @Test
+  public void testPoolDisabled() throws Exception {
+    conf.set("http.connection.pool.http", "");
+    http.setConf(conf);
+    Assert.assertNull(http.getConnectionPool());
+    launchServer(path -> plain(CONTENT, ""));
+    assertContent(CONTENT, fetch("/"));
+    assertContent(CONTENT, fetch("/"));
+    Assert.assertEquals(2, connections.get());
+    Assert.assertTrue(requests.contains("Connection: close"));
+    Assert.assertTrue(http.getCounters().isEmpty());
+  }
+}
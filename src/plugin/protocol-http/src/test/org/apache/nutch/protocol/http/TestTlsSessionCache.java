@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for the TLS session cache shared by all fetcher threads, using a local
+ * TLS server with a self-signed certificate.
+ */
+public class TestTlsSessionCache {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String CONTENT = "This is a text.";
+
+  private Http http;
+
+  private SSLServerSocket server;
+  private final AtomicInteger connections = new AtomicInteger();
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void setUp(String pool, boolean responseTime) {
+    Configuration conf = new Configuration();
+    conf.addResource("nutch-default.xml");
+    conf.addResource("nutch-site-test.xml");
+    conf.set("http.connection.pool.http", pool);
+    conf.setBoolean("http.store.responsetime", responseTime);
+    http = new Http();
+    http.setConf(conf);
+  }
+
+  /**
+   * Start a TLS server responding to every request with the same text. The
+   * server keeps the connection open if the client asks for it.
+   */
+  private void launchServer() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    try (InputStream in = getClass().getClassLoader()
+        .getResourceAsStream("tls-test.p12")) {
+      keyStore.load(in, "nutchtest".toCharArray());
+    }
+    KeyManagerFactory kmf = KeyManagerFactory
+        .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keyStore, "nutchtest".toCharArray());
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(kmf.getKeyManagers(), null, null);
+    SSLServerSocket serverSocket = (SSLServerSocket) sslContext
+        .getServerSocketFactory()
+        .createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    server = serverSocket;
+    Thread serverThread = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          SSLSocket socket = (SSLSocket) serverSocket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> handle(socket));
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          LOG.info("Server closed: {}", e.getMessage());
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private void handle(SSLSocket socket) {
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), UTF_8))) {
+      OutputStream out = s.getOutputStream();
+      String line;
+      while ((line = in.readLine()) != null) {
+        boolean keepAlive = false;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+          keepAlive |= line.equalsIgnoreCase("Connection: keep-alive");
+        }
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"
+            + "Content-Length: " + CONTENT.length() + "\r\n"
+            + (keepAlive ? "" : "Connection: close\r\n") + "\r\n" + CONTENT)
+                .getBytes(UTF_8));
+        out.flush();
+        if (!keepAlive) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      LOG.info("Connection closed: {}", e.getMessage());
+    }
+  }
+
+  private CrawlDatum fetch() throws Exception {
+    CrawlDatum datum = new CrawlDatum();
+    ProtocolOutput out = http.getProtocolOutput(
+        new Text("https://127.0.0.1:" + server.getLocalPort() + "/"), datum);
+    Assert.assertTrue(out.getStatus().isSuccess());
+    Assert.assertEquals(CONTENT,
+        new String(out.getContent().getContent(), UTF_8));
+    return datum;
+  }
+
+  private static Boolean resumed(CrawlDatum datum) {
+    BooleanWritable resumed = (BooleanWritable) datum.getMetaData()
+        .get(HttpBase.TLS_SESSION_RESUMED);
+    return resumed == null ? null : resumed.get();
+  }
+
+  @Test
+  public void testSessionResumption() throws Exception {
+    setUp("", true);
+    launchServer();
+    CrawlDatum datum = fetch();
+    Assert.assertEquals(Boolean.FALSE, resumed(datum));
+    IntWritable handshakeTime = (IntWritable) datum.getMetaData()
+        .get(HttpBase.TLS_HANDSHAKE_TIME);
+    IntWritable responseTime = (IntWritable) datum.getMetaData()
+        .get(HttpBase.RESPONSE_TIME);
+    Assert.assertNotNull(handshakeTime);
+    Assert.assertTrue(handshakeTime.get() <= responseTime.get());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(Boolean.TRUE, resumed(fetch()));
+    }
+    Assert.assertEquals(4, connections.get());
+
+    Map<String, Long> counters = http.getCounters();
+    Assert.assertEquals(1L, (long) counters.get("tls_handshakes_full"));
+    Assert.assertEquals(3L, (long) counters.get("tls_handshakes_resumed"));
+    LOG.info("TLS handshakes: {}", counters);
+  }
+
+  @Test
+  public void testSharedAcrossInstances() throws Exception {
+    setUp("", true);
+    launchServer();
+    Assert.assertEquals(Boolean.FALSE, resumed(fetch()));
+    // a second protocol instance (e.g., of another fetcher task in the same
+    // JVM) resumes the session negotiated by the first one
+    Http first = http;
+    setUp("", true);
+    Assert.assertNotSame(first, http);
+    Assert.assertSame(first.getTlsSessionCache(), http.getTlsSessionCache());
+    Assert.assertEquals(Boolean.TRUE, resumed(fetch()));
+  }
+
+  @Test
+  public void testPooledConnection() throws Exception {
+    setUp("10,2,30", true);
+    launchServer();
+    Assert.assertEquals(Boolean.FALSE, resumed(fetch()));
+    // no handshake on a pooled connection
+    CrawlDatum datum = fetch();
+    Assert.assertNull(resumed(datum));
+    Assert.assertNull(datum.getMetaData().get(HttpBase.TLS_HANDSHAKE_TIME));
+    Assert.assertEquals(1, connections.get());
+    Map<String, Long> counters = http.getCounters();
+    Assert.assertEquals(1L, (long) counters.get("tls_handshakes_full"));
+    Assert.assertEquals(0L, (long) counters.get("tls_handshakes_resumed"));
+  }
+
+  @Test
+  public void testNoResponseTime() throws Exception {
+    setUp("", false);
+    launchServer();
+    Assert.assertNull(resumed(fetch()));
+    Assert.assertNull(resumed(fetch()));
+    // handshakes are counted nevertheless
+    Map<String, Long> counters = http.getCounters();
+    Assert.assertEquals(1L, (long) counters.get("tls_handshakes_full"));
+    Assert.assertEquals(1L, (long) counters.get("tls_handshakes_resumed"));
+  }
+}
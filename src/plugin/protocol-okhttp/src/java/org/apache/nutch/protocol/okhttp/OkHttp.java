@@ -32,28 +32,36 @@ import java.util.Base64;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.fetcher.FetchItemQueues;
+import org.apache.nutch.net.DNSCache;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.protocol.http.api.TlsSessionCache;
 import org.apache.nutch.util.NutchConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import okhttp3.Authenticator;
+import okhttp3.Call;
 import okhttp3.Connection;
 import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
 import okhttp3.Handshake;
 import okhttp3.Headers;
 import okhttp3.Interceptor;
@@ -72,6 +80,13 @@ public class OkHttp extends HttpBase {
   /** clients, each holding a separate connection pool */
   private OkHttpClient[] clients;
 
+  /** clients sharded by fetch queue, null if not sharded by queue */
+  private QueueClients queueClients;
+
+  /* number of connections requested by calls, and how many were reused */
+  private final AtomicLong connectionRequests = new AtomicLong();
+  private final AtomicLong connectionPoolHits = new AtomicLong();
+
   private static final TrustManager[] trustAllCerts = new TrustManager[] {
       new X509TrustManager() {
         @Override
@@ -115,7 +130,13 @@ public class OkHttp extends HttpBase {
         .writeTimeout(this.timeout, TimeUnit.MILLISECONDS)
         .readTimeout(this.timeout, TimeUnit.MILLISECONDS);
 
-    if (!this.tlsCheckCertificate) {
+    // share the TLS context and session cache with all other protocol
+    // instances and fetcher threads
+    TlsSessionCache tlsSessionCache = getTlsSessionCache();
+    if (tlsSessionCache != null) {
+      builder.sslSocketFactory(tlsSessionCache.getSocketFactory(),
+          tlsSessionCache.getTrustManager());
+    } else if (!this.tlsCheckCertificate) {
       try {
         SSLContext trustAllSslContext = SSLContext.getInstance("TLS");
         trustAllSslContext.init(null, trustAllCerts, null);
@@ -128,6 +149,8 @@ public class OkHttp extends HttpBase {
             "Failed to disable TLS certificate verification (property http.tls.certificates.check)",
             e);
       }
+    }
+    if (!this.tlsCheckCertificate) {
       builder.hostnameVerifier(new HostnameVerifier() {
         @Override
         public boolean verify(String hostname, SSLSession session) {
@@ -227,9 +250,14 @@ public class OkHttp extends HttpBase {
     // enable support for Brotli compression (Content-Encoding)
     builder.addInterceptor(BrotliInterceptor.INSTANCE);
 
+    // count reused connections, record time and type (full or resumed) of
+    // TLS handshakes
+    builder.eventListenerFactory(call -> new ConnectionListener());
+
     // instantiate connection pool(s), cf.
     // https://square.github.io/okhttp/3.x/okhttp/okhttp3/ConnectionPool.html
     int numConnectionPools = 1;
+    long keepAliveTime = 300;
     Supplier<ConnectionPool> poolSupplier = null;
     if (conf.get("http.connection.pool.okhttp", "").isEmpty()) {
       // empty pool configuration: use a single pool of default size
@@ -245,6 +273,7 @@ public class OkHttp extends HttpBase {
         numConnectionPools = poolConfig[0];
         int size = poolConfig[1];
         int time = poolConfig[2];
+        keepAliveTime = time;
         poolSupplier = () -> new ConnectionPool(size, time, TimeUnit.SECONDS);
         LOG.info(
             "Using {} connection pool{} with max. {} idle connections "
@@ -265,6 +294,78 @@ public class OkHttp extends HttpBase {
     for (int i = 0; i < numConnectionPools; i++) {
       this.clients[i] = builder.connectionPool(poolSupplier.get()).build();
     }
+
+    // shard connection pools by fetch queue
+    int maxQueuePools = conf.getInt("http.connection.pool.okhttp.queues", 0);
+    if (maxQueuePools > 0) {
+      String queueMode = conf.get("fetcher.queue.mode",
+          FetchItemQueues.QUEUE_MODE_HOST);
+      DNSCache dnsCache = null;
+      if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
+        dnsCache = DNSCache.get(conf);
+      }
+      // a queue's connections are used by at most
+      // fetcher.threads.per.queue threads at a time
+      int maxIdlePerQueue = Math.max(1,
+          conf.getInt("fetcher.threads.per.queue", 1));
+      this.queueClients = new QueueClients(this.clients[0], queueMode,
+          dnsCache, maxQueuePools, maxIdlePerQueue, keepAliveTime);
+      LOG.info(
+          "Using connection pools per fetch queue ({}): max. {} pools with max. {} idle connections and {} sec. keep-alive time",
+          queueMode, maxQueuePools, maxIdlePerQueue, keepAliveTime);
+    } else {
+      this.queueClients = null;
+    }
+  }
+
+  /**
+   * Counts the requested and reused connections of a call. Measures the TLS
+   * handshake of a call, if a new connection is established, and records it
+   * together with the CrawlDatum passed as request tag.
+   */
+  class ConnectionListener extends EventListener {
+
+    private boolean connected = false;
+    private long handshakeStart = -1;
+    private long handshakeStartNanos;
+    private long handshakeTime;
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress,
+        Proxy proxy) {
+      connected = true;
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      handshakeStart = System.currentTimeMillis();
+      handshakeStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+      handshakeTime = (System.nanoTime() - handshakeStartNanos) / 1000000;
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+      connectionRequests.incrementAndGet();
+      if (!connected) {
+        connectionPoolHits.incrementAndGet();
+      }
+      connected = false;
+      if (handshakeStart == -1) {
+        // pooled connection, no handshake
+        return;
+      }
+      SSLSession session = null;
+      if (connection.socket() instanceof SSLSocket) {
+        session = ((SSLSocket) connection.socket()).getSession();
+      }
+      recordTlsHandshake(call.request().tag(CrawlDatum.class), handshakeTime,
+          TlsSessionCache.isResumed(session, handshakeStart));
+      handshakeStart = -1;
+    }
   }
 
   class HTTPFilterIPAddressInterceptor implements Interceptor {
@@ -413,13 +514,17 @@ public class OkHttp extends HttpBase {
   }
 
   /**
-   * Distribute hosts over clients by host name
+   * Distribute hosts over clients by fetch queue, if configured by
+   * <code>http.connection.pool.okhttp.queues</code>, otherwise by host name
    * 
    * @param url
    *          URL to fetch
    * @return client responsible to fetch the given URL
    */
   protected OkHttpClient getClient(URL url) {
+    if (this.queueClients != null) {
+      return this.queueClients.get(url);
+    }
     if (this.clients.length == 1) {
       return this.clients[0];
     }
@@ -427,6 +532,66 @@ public class OkHttp extends HttpBase {
     return this.clients[(hash & Integer.MAX_VALUE) % this.clients.length];
   }
 
+  /**
+   * Evict the connection pool of a removed fetch queue, if connection pools
+   * are sharded by queue.
+   */
+  @Override
+  public void queueRemoved(String queueId) {
+    if (this.queueClients != null) {
+      this.queueClients.remove(queueId);
+    }
+  }
+
+  /**
+   * @return the connection pools of all clients
+   */
+  ConnectionPool[] getConnectionPools() {
+    if (this.queueClients != null) {
+      return this.queueClients.getConnectionPools();
+    }
+    ConnectionPool[] pools = new ConnectionPool[this.clients.length];
+    for (int i = 0; i < pools.length; i++) {
+      pools[i] = this.clients[i].connectionPool();
+    }
+    return pools;
+  }
+
+  /**
+   * Get the TLS handshake counters, the number of requested connections and
+   * how many of them were reused from a pool (the connection reuse ratio is
+   * <code>connection_pool_hits / connection_requests</code>). Counters are
+   * summed up over all tasks, so the occupancy of the connection pools
+   * (number of pools, open and idle connections) is only logged.
+   */
+  @Override
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = super.getCounters();
+    long requests = connectionRequests.get();
+    long hits = connectionPoolHits.get();
+    counters.put("connection_requests", requests);
+    counters.put("connection_pool_hits", hits);
+    counters.put("connection_pool_misses", requests - hits);
+    if (this.queueClients != null) {
+      counters.putAll(this.queueClients.getCounters());
+    }
+    if (LOG.isInfoEnabled()) {
+      ConnectionPool[] pools = getConnectionPools();
+      long open = 0, idle = 0;
+      for (ConnectionPool pool : pools) {
+        open += pool.connectionCount();
+        idle += pool.idleConnectionCount();
+      }
+      LOG.info(
+          "Connection pools: {} pools ({} max.), {} open connections, {} idle",
+          pools.length,
+          (this.queueClients != null ? this.queueClients.getMaxSize()
+              : pools.length),
+          open, idle);
+    }
+    return counters;
+  }
+
   @Override
   protected Response getResponse(URL url, CrawlDatum datum, boolean redirect)
       throws ProtocolException, IOException {
@@ -74,6 +74,8 @@ public class OkHttpResponse implements Response {
     this.url = url;
 
     Request.Builder rb = new Request.Builder().url(url);
+    // the CrawlDatum is used to record the TLS handshake
+    rb.tag(CrawlDatum.class, datum);
 
     rb.header(USER_AGENT, okhttp.getUserAgent());
     okhttp.getCustomRequestHeaders().forEach((k) -> {
@@ -84,6 +86,11 @@ public class OkHttpResponse implements Response {
       rb.header(IF_MODIFIED_SINCE,
           HttpDateFormat.toString(datum.getModifiedTime()));
     }
+    if (okhttp.isIfModifiedSinceEnabled()
+        && datum.getMetaData().get(WRITABLE_ETAG) != null) {
+      rb.header(IF_NONE_MATCH,
+          datum.getMetaData().get(WRITABLE_ETAG).toString());
+    }
 
     if (okhttp.isCookieEnabled()) {
       String cookie = null;
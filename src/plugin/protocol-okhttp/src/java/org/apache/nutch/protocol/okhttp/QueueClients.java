@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.okhttp;
+
+import java.lang.invoke.MethodHandles;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nutch.fetcher.FetchItem;
+import org.apache.nutch.fetcher.FetchItemQueues;
+import org.apache.nutch.net.DNSCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * OkHttp clients sharded by fetch queue: every queue of the fetcher (host,
+ * domain or IP address, see <code>fetcher.queue.mode</code>) is assigned a
+ * client with its own connection pool, so that all connections to the
+ * queue's server(s) are held in one small pool. The number of pools adapts to
+ * the number of active queues, up to a maximum. If the maximum is reached,
+ * the pool of the least recently used queue is evicted. The pool of a queue
+ * removed by the fetcher is evicted immediately.
+ */
+class QueueClients {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private final OkHttpClient baseClient;
+  private final String queueMode;
+  private final DNSCache dnsCache;
+  private final int maxIdlePerQueue;
+  private final long keepAliveSeconds;
+  private final int maxQueues;
+
+  /* clients by queue id, in access order */
+  private final LinkedHashMap<String, OkHttpClient> clients;
+
+  private long poolsCreated = 0;
+  private long poolsEvicted = 0;
+  private long poolsRemoved = 0;
+  private long poolsMax = 0;
+
+  /**
+   * @param baseClient
+   *          client all queue clients are derived from
+   * @param queueMode
+   *          fetcher queue mode, one of {@link FetchItemQueues#QUEUE_MODE_HOST},
+   *          {@link FetchItemQueues#QUEUE_MODE_DOMAIN} or
+   *          {@link FetchItemQueues#QUEUE_MODE_IP}
+   * @param dnsCache
+   *          DNS cache to resolve host names in byIP mode
+   * @param maxQueues
+   *          max. number of queue connection pools
+   * @param maxIdlePerQueue
+   *          max. number of idle connections per queue
+   * @param keepAliveSeconds
+   *          keep-alive time of idle connections
+   */
+  QueueClients(OkHttpClient baseClient, String queueMode, DNSCache dnsCache,
+      int maxQueues, int maxIdlePerQueue, long keepAliveSeconds) {
+    this.baseClient = baseClient;
+    this.queueMode = queueMode;
+    this.dnsCache = dnsCache;
+    this.maxQueues = maxQueues;
+    this.maxIdlePerQueue = maxIdlePerQueue;
+    this.keepAliveSeconds = keepAliveSeconds;
+    this.clients = new LinkedHashMap<String, OkHttpClient>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<String, OkHttpClient> eldest) {
+        if (size() > QueueClients.this.maxQueues) {
+          LOG.debug("Evicting connection pool of least recently used queue {}",
+              eldest.getKey());
+          eldest.getValue().connectionPool().evictAll();
+          poolsEvicted++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get the id of the queue a URL belongs to, consistent with
+   * {@link FetchItemQueues}.
+   */
+  String getQueueId(URL url) {
+    String id = FetchItem.getQueueID(url, queueMode, dnsCache);
+    if (id == null) {
+      // host name not resolvable, the request will fail anyway
+      id = url.getHost().toLowerCase(Locale.ROOT);
+    }
+    return id;
+  }
+
+  /**
+   * @param url
+   *          URL to fetch
+   * @return client of the URL's fetch queue
+   */
+  OkHttpClient get(URL url) {
+    String id = getQueueId(url);
+    synchronized (clients) {
+      OkHttpClient client = clients.get(id);
+      if (client == null) {
+        client = baseClient.newBuilder()
+            .connectionPool(new ConnectionPool(maxIdlePerQueue,
+                keepAliveSeconds, TimeUnit.SECONDS))
+            .build();
+        clients.put(id, client);
+        poolsCreated++;
+        poolsMax = Math.max(poolsMax, clients.size());
+      }
+      return client;
+    }
+  }
+
+  /**
+   * Evict the connection pool of a queue removed by the fetcher.
+   *
+   * @param queueId
+   *          id of the removed queue
+   */
+  void remove(String queueId) {
+    OkHttpClient client;
+    synchronized (clients) {
+      client = clients.remove(queueId);
+      if (client == null) {
+        return;
+      }
+      poolsRemoved++;
+    }
+    client.connectionPool().evictAll();
+  }
+
+  /**
+   * @return number of queue connection pools
+   */
+  int size() {
+    synchronized (clients) {
+      return clients.size();
+    }
+  }
+
+  /**
+   * @return max. number of queue connection pools held at any time
+   */
+  long getMaxSize() {
+    synchronized (clients) {
+      return poolsMax;
+    }
+  }
+
+  /**
+   * @return connection pools of all queues
+   */
+  ConnectionPool[] getConnectionPools() {
+    synchronized (clients) {
+      return clients.values().stream().map(OkHttpClient::connectionPool)
+          .toArray(ConnectionPool[]::new);
+    }
+  }
+
+  /**
+   * Get the counters of created, evicted (least recently used) and removed
+   * (queue removed by the fetcher) queue connection pools.
+   */
+  Map<String, Long> getCounters() {
+    Map<String, Long> counters = new LinkedHashMap<>();
+    synchronized (clients) {
+      counters.put("connection_pools_created", poolsCreated);
+      counters.put("connection_pools_evicted", poolsEvicted);
+      counters.put("connection_pools_removed", poolsRemoved);
+    }
+    return counters;
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.okhttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.ConnectionPool;
+
+/**
+ * Tests for connection pools sharded by fetch queue, using a local HTTP server
+ * which keeps connections open. The host names "127.0.0.1" and "localhost"
+ * are different fetch queues in the default queue mode (byHost).
+ */
+public class TestQueueClients {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String CONTENT = "This is a text.";
+
+  private Configuration conf;
+  private OkHttp okhttp;
+
+  private ServerSocket server;
+  private final AtomicInteger connections = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new Configuration();
+    conf.addResource("nutch-default.xml");
+    conf.addResource("nutch-site-test.xml");
+    launchServer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void setUpProtocol(int maxQueuePools) {
+    conf.setInt("http.connection.pool.okhttp.queues", maxQueuePools);
+    okhttp = new OkHttp();
+    okhttp.setConf(conf);
+  }
+
+  /**
+   * Start a server responding to every request with the same text, keeping
+   * the connection open.
+   */
+  private void launchServer() throws IOException {
+    ServerSocket serverSocket = new ServerSocket(0);
+    server = serverSocket;
+    Thread serverThread = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> handle(socket));
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          LOG.info("Server closed: {}", e.getMessage());
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private void handle(Socket socket) {
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), UTF_8))) {
+      OutputStream out = s.getOutputStream();
+      String line;
+      while ((line = in.readLine()) != null) {
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+          // skip request headers
+        }
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"
+            + "Content-Length: " + CONTENT.length() + "\r\n\r\n" + CONTENT)
+                .getBytes(UTF_8));
+        out.flush();
+      }
+    } catch (IOException e) {
+      LOG.info("Connection closed: {}", e.getMessage());
+    }
+  }
+
+  private void fetch(String host) throws Exception {
+    ProtocolOutput out = okhttp.getProtocolOutput(
+        new Text("http://" + host + ":" + server.getLocalPort() + "/"),
+        new CrawlDatum());
+    Assert.assertTrue(out.getStatus().isSuccess());
+    Assert.assertEquals(CONTENT,
+        new String(out.getContent().getContent(), UTF_8));
+  }
+
+  private long counter(String name) {
+    return okhttp.getCounters().get(name);
+  }
+
+  private long connectionPools() {
+    return okhttp.getConnectionPools().length;
+  }
+
+  private long idleConnections() {
+    long idle = 0;
+    for (ConnectionPool pool : okhttp.getConnectionPools()) {
+      idle += pool.idleConnectionCount();
+    }
+    return idle;
+  }
+
+  @Test
+  public void testPoolPerQueue() throws Exception {
+    setUpProtocol(10);
+    for (int i = 0; i < 3; i++) {
+      fetch("127.0.0.1");
+      fetch("localhost");
+    }
+    Assert.assertEquals(2, connections.get());
+    Map<String, Long> counters = okhttp.getCounters();
+    LOG.info("Counters: {}", counters);
+    Assert.assertEquals(6L, (long) counters.get("connection_requests"));
+    Assert.assertEquals(4L, (long) counters.get("connection_pool_hits"));
+    Assert.assertEquals(2L, (long) counters.get("connection_pool_misses"));
+    Assert.assertEquals(2L, connectionPools());
+    Assert.assertEquals(2L, idleConnections());
+    Assert.assertEquals(2L, (long) counters.get("connection_pools_created"));
+    Assert.assertEquals(0L, (long) counters.get("connection_pools_evicted"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    setUpProtocol(1);
+    fetch("127.0.0.1");
+    fetch("127.0.0.1");
+    fetch("localhost");
+    fetch("127.0.0.1");
+    Assert.assertEquals(3, connections.get());
+    Assert.assertEquals(1L, connectionPools());
+    Assert.assertEquals(2L, counter("connection_pools_evicted"));
+    Assert.assertEquals(1L, counter("connection_pool_hits"));
+    Assert.assertNull(okhttp.getCounters().get("connection_pools_max"));
+  }
+
+  @Test
+  public void testQueueRemoved() throws Exception {
+    setUpProtocol(10);
+    fetch("127.0.0.1");
+    fetch("localhost");
+    Assert.assertEquals(2L, idleConnections());
+    okhttp.queueRemoved("127.0.0.1");
+    okhttp.queueRemoved("unknown.example.com");
+    Assert.assertEquals(1L, counter("connection_pools_removed"));
+    Assert.assertEquals(1L, connectionPools());
+    Assert.assertEquals(1L, idleConnections());
+    fetch("127.0.0.1");
+    fetch("localhost");
+    Assert.assertEquals(3, connections.get());
+    Assert.assertEquals(1L, counter("connection_pool_hits"));
+  }
+
+  @Test
+  public void testQueueModeDomain() throws Exception {
+    conf.set("fetcher.queue.mode", "byDomain");
+    setUpProtocol(10);
+    QueueClients queueClients = new QueueClients(null, "byDomain", null, 1, 1,
+        1);
+    Assert.assertEquals("example.com",
+        queueClients.getQueueId(new URL("https://www.example.com/")));
+    fetch("127.0.0.1");
+    fetch("127.0.0.1");
+    Assert.assertEquals(1, connections.get());
+    Assert.assertEquals(1L, counter("connection_pool_hits"));
+  }
+
+  @Test
+  public void testNotSharded() throws Exception {
+    setUpProtocol(0);
+    for (int i = 0; i < 3; i++) {
+      fetch("127.0.0.1");
+      fetch("localhost");
+    }
+    Assert.assertEquals(2, connections.get());
+    Map<String, Long> counters = okhttp.getCounters();
+    Assert.assertEquals(6L, (long) counters.get("connection_requests"));
+    Assert.assertEquals(4L, (long) counters.get("connection_pool_hits"));
+    Assert.assertEquals(1L, connectionPools());
+    Assert.assertNull(counters.get("connection_pools_created"));
+    Assert.assertNull(counters.get("connections_idle"));
+    // ignored if not sharded by queue
+    okhttp.queueRemoved("127.0.0.1");
+    Assert.assertEquals(2L, idleConnections());
+  }
+}
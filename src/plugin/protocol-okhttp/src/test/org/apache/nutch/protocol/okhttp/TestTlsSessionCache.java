@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.okhttp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.http.api.HttpBase;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests for the TLS session cache shared by all fetcher threads, using a local
+ * TLS server with a self-signed certificate.
+ */
+public class TestTlsSessionCache {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String CONTENT = "This is a text.";
+
+  private OkHttp okhttp;
+
+  private SSLServerSocket server;
+  private final AtomicInteger connections = new AtomicInteger();
+  /* whether to keep connections open */
+  private volatile boolean keepAlive = false;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.addResource("nutch-default.xml");
+    conf.addResource("nutch-site-test.xml");
+    okhttp = new OkHttp();
+    okhttp.setConf(conf);
+    launchServer();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  /**
+   * Start a TLS server responding to every request with the same text.
+   */
+  private void launchServer() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    try (InputStream in = getClass().getClassLoader()
+        .getResourceAsStream("tls-test.p12")) {
+      keyStore.load(in, "nutchtest".toCharArray());
+    }
+    KeyManagerFactory kmf = KeyManagerFactory
+        .getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(keyStore, "nutchtest".toCharArray());
+    SSLContext sslContext = SSLContext.getInstance("TLS");
+    sslContext.init(kmf.getKeyManagers(), null, null);
+    SSLServerSocket serverSocket = (SSLServerSocket) sslContext
+        .getServerSocketFactory()
+        .createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    server = serverSocket;
+    Thread serverThread = new Thread(() -> {
+      while (!serverSocket.isClosed()) {
+        try {
+          SSLSocket socket = (SSLSocket) serverSocket.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> handle(socket));
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          LOG.info("Server closed: {}", e.getMessage());
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private void handle(SSLSocket socket) {
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(s.getInputStream(), UTF_8))) {
+      OutputStream out = s.getOutputStream();
+      String line;
+      while ((line = in.readLine()) != null) {
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+          // skip request headers
+        }
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"
+            + "Content-Length: " + CONTENT.length() + "\r\n"
+            + (keepAlive ? "" : "Connection: close\r\n") + "\r\n" + CONTENT)
+                .getBytes(UTF_8));
+        out.flush();
+        if (!keepAlive) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      LOG.info("Connection closed: {}", e.getMessage());
+    }
+  }
+
+  private Boolean fetch() throws Exception {
+    CrawlDatum datum = new CrawlDatum();
+    ProtocolOutput out = okhttp.getProtocolOutput(
+        new Text("https://127.0.0.1:" + server.getLocalPort() + "/"), datum);
+    Assert.assertTrue(out.getStatus().isSuccess());
+    Assert.assertEquals(CONTENT,
+        new String(out.getContent().getContent(), UTF_8));
+    BooleanWritable resumed = (BooleanWritable) datum.getMetaData()
+        .get(HttpBase.TLS_SESSION_RESUMED);
+    if (resumed != null) {
+      Assert.assertNotNull(
+          datum.getMetaData().get(HttpBase.TLS_HANDSHAKE_TIME));
+    }
+    return resumed == null ? null : resumed.get();
+  }
+
+  @Test
+  public void testSessionResumption() throws Exception {
+    Assert.assertEquals(Boolean.FALSE, fetch());
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(Boolean.TRUE, fetch());
+    }
+    Assert.assertEquals(4, connections.get());
+    Map<String, Long> counters = okhttp.getCounters();
+    Assert.assertEquals(1L, (long) counters.get("tls_handshakes_full"));
+    Assert.assertEquals(3L, (long) counters.get("tls_handshakes_resumed"));
+    LOG.info("TLS handshakes: {}", counters);
+  }
+
+  @Test
+  public void testPooledConnection() throws Exception {
+    keepAlive = true;
+    Assert.assertEquals(Boolean.FALSE, fetch());
+    // no handshake on a pooled connection
+    Assert.assertNull(fetch());
+    Assert.assertEquals(1, connections.get());
+    Map<String, Long> counters = okhttp.getCounters();
+    Assert.assertEquals(1L, (long) counters.get("tls_handshakes_full"));
+    Assert.assertEquals(0L, (long) counters.get("tls_handshakes_resumed"));
+  }
+}
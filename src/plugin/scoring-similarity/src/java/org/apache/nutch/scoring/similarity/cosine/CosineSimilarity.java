@@ -53,17 +53,8 @@ public class CosineSimilarity implements SimilarityModel{
       }
       String metatags = parse.getData().getParseMeta().get("metatag.keyword");
       String metaDescription = parse.getData().getParseMeta().get("metatag.description");
-      int[] ngramArr = Model.retrieveNgrams(conf);
-      int mingram = ngramArr[0];
-      int maxgram = ngramArr[1];
-      DocVector docVector = Model.createDocVector(parse.getText()+metaDescription+metatags, mingram, maxgram);
-      if(docVector!=null){
-        score = Model.computeCosineSimilarity(docVector);
-        LOG.info("Setting score of {} to {}",url, score);
-      }
-      else {
-        throw new Exception("Could not create DocVector from parsed text");
-      }
+      score = Model.computeCosineSimilarity(parse.getText()+metaDescription+metatags);
+      LOG.info("Setting score of {} to {}",url, score);
     } catch (Exception e) {
       LOG.error("Error creating Cosine Model, setting scores of urls to 1 : {}", StringUtils.stringifyException(e));
     }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.similarity.cosine;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.CharArrayMap;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.ByteBlockPool;
+import org.apache.lucene.util.BytesRefHash;
+
+/**
+ * Term vectors of the gold standard documents over their vocabulary. Every
+ * term of the gold standard is assigned an id, the term vector of a document
+ * to be scored is collected as sparse vector of term ids and counts, terms
+ * not contained in the gold standard only count for the norm of the vector.
+ * <p>
+ * The index is immutable and can be shared by all threads, the buffers to
+ * collect the term vector of a document are held per thread.
+ * </p>
+ */
+public class GoldStandardIndex {
+
+  /* term -> id, read-only after construction */
+  private final CharArrayMap<Integer> vocabulary;
+  /* counts of the terms of every gold standard document, indexed by id */
+  private final int[][] goldCounts;
+  private final float[] goldNorms;
+
+  private final ThreadLocal<TermCounts> termCounts;
+
+  /* sparse term vector of the document currently scored by a thread */
+  private static class TermCounts {
+    /* counts of gold standard terms, indexed by term id */
+    private final int[] counts;
+    /* ids of the gold standard terms contained in the document */
+    private int[] ids = new int[64];
+    private int numIds = 0;
+    /* terms not contained in the gold standard and their counts */
+    private final ByteBlockPool pool = new ByteBlockPool(
+        new ByteBlockPool.DirectAllocator());
+    private final BytesRefHash otherTerms = new BytesRefHash(pool);
+    private int[] otherCounts = new int[64];
+
+    private TermCounts(int vocabularySize) {
+      counts = new int[vocabularySize];
+    }
+
+    private void clear() {
+      for (int i = 0; i < numIds; i++) {
+        counts[ids[i]] = 0;
+      }
+      numIds = 0;
+      // keep the first block of the pool for the next document
+      otherTerms.clear(false);
+      pool.reset(false, true);
+      otherTerms.reinit();
+    }
+  }
+
+  /**
+   * @param goldStandard
+   *          term frequency vectors of the gold standard documents
+   */
+  public GoldStandardIndex(List<DocVector> goldStandard) {
+    vocabulary = new CharArrayMap<>(1024, false);
+    for (DocVector doc : goldStandard) {
+      for (String term : doc.termFreqVector.keySet()) {
+        if (!vocabulary.containsKey(term)) {
+          vocabulary.put(term, vocabulary.size());
+        }
+      }
+    }
+    goldCounts = new int[goldStandard.size()][];
+    goldNorms = new float[goldStandard.size()];
+    for (int i = 0; i < goldStandard.size(); i++) {
+      DocVector doc = goldStandard.get(i);
+      goldCounts[i] = new int[vocabulary.size()];
+      for (Map.Entry<String, Integer> e : doc.termFreqVector.entrySet()) {
+        goldCounts[i][vocabulary.get(e.getKey())] = e.getValue();
+      }
+      goldNorms[i] = doc.getL2Norm();
+    }
+    int vocabularySize = vocabulary.size();
+    termCounts = ThreadLocal.withInitial(() -> new TermCounts(vocabularySize));
+  }
+
+  /**
+   * @return number of distinct terms in the gold standard
+   */
+  public int getVocabularySize() {
+    return vocabulary.size();
+  }
+
+  /**
+   * Compute the cosine similarity between a document and the gold standard
+   * documents.
+   *
+   * @param stream
+   *          tokens of the document, the stream is consumed but not closed
+   * @return the max. cosine similarity between the document and any of the
+   *         gold standard documents
+   * @throws IOException
+   *           if the stream cannot be read
+   */
+  public float computeCosineSimilarity(TokenStream stream) throws IOException {
+    TermCounts tc = termCounts.get();
+    try {
+      CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+      TermToBytesRefAttribute bytesAtt = stream
+          .addAttribute(TermToBytesRefAttribute.class);
+      stream.reset();
+      while (stream.incrementToken()) {
+        Integer id = vocabulary.get(termAtt.buffer(), 0, termAtt.length());
+        if (id != null) {
+          if (tc.counts[id]++ == 0) {
+            tc.ids = ArrayUtil.grow(tc.ids, tc.numIds + 1);
+            tc.ids[tc.numIds++] = id;
+          }
+        } else {
+          int ord = tc.otherTerms.add(bytesAtt.getBytesRef());
+          if (ord >= 0) {
+            tc.otherCounts = ArrayUtil.grow(tc.otherCounts, ord + 1);
+            tc.otherCounts[ord] = 1;
+          } else {
+            tc.otherCounts[-ord - 1]++;
+          }
+        }
+      }
+      stream.end();
+
+      float sum = 0;
+      for (int i = 0; i < tc.numIds; i++) {
+        int count = tc.counts[tc.ids[i]];
+        sum += count * count;
+      }
+      for (int ord = 0; ord < tc.otherTerms.size(); ord++) {
+        sum += tc.otherCounts[ord] * tc.otherCounts[ord];
+      }
+      float norm = (float) Math.sqrt(sum);
+
+      float maxScore = 0;
+      for (int d = 0; d < goldCounts.length; d++) {
+        int[] gold = goldCounts[d];
+        float product = 0;
+        for (int i = 0; i < tc.numIds; i++) {
+          int id = tc.ids[i];
+          product += gold[id] * tc.counts[id];
+        }
+        float score = product / (norm * goldNorms[d]);
+        maxScore = (score > maxScore) ? score : maxScore;
+      }
+      return maxScore;
+    } finally {
+      tc.clear();
+    }
+  }
+}
@@ -25,10 +25,13 @@ import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.nutch.scoring.similarity.util.LuceneAnalyzerUtil.StemFilterType;
 import org.apache.nutch.scoring.similarity.util.LuceneTokenizer;
+import org.apache.nutch.scoring.similarity.util.ReusableAnalyzer;
 import org.apache.nutch.scoring.similarity.util.LuceneTokenizer.TokenizerType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,8 +46,11 @@ public class Model {
   public static ArrayList<DocVector> docVectors = new ArrayList<>();
   private static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
-  public static boolean isModelCreated = false;
+  public static volatile boolean isModelCreated = false;
   private static List<String> stopWords;
+  // analysis chain and gold standard term vectors used to score documents
+  private static volatile ReusableAnalyzer analyzer;
+  private static volatile GoldStandardIndex goldStandardIndex;
 
   public static synchronized void createModel(Configuration conf) throws IOException {
     if(isModelCreated) {
@@ -82,6 +88,9 @@ public class Model {
       else {
         throw new Exception("Could not create DocVector for goldstandard");
       }
+      analyzer = createAnalyzer(mingram, maxgram);
+      goldStandardIndex = new GoldStandardIndex(docVectors);
+      LOG.info("Gold standard vocabulary size: {}", goldStandardIndex.getVocabularySize());
     } catch (Exception e) {
       LOG.warn("Failed to add {} to model : {}",conf.get("cosine.goldstandard.file","goldstandard.txt.template"), 
           StringUtils.stringifyException(e));
@@ -147,6 +156,51 @@ public class Model {
     return null;
   }
 
+  /**
+   * Creates an analyzer producing the same tokens as the {@link LuceneTokenizer}
+   * used by {@link #createDocVector(String, int, int)}. The analyzer reuses
+   * its analysis chain per thread.
+   * @param mingram Value of mingram for tokenizing
+   * @param maxgram Value of maxgram for tokenizing
+   * @return The created {@link ReusableAnalyzer}
+   */
+  static ReusableAnalyzer createAnalyzer(int mingram, int maxgram) {
+    if (mingram > 1) {
+      if (maxgram <= 1) {
+        maxgram = mingram;
+      }
+      LOG.info("Using Ngram Cosine Model, user specified mingram value : {} maxgram value : {}", mingram, maxgram);
+      return new ReusableAnalyzer(StemFilterType.PORTERSTEM_FILTER, mingram, maxgram);
+    }
+    CharArraySet stopSet = CharArraySet.copy(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+    if (stopWords != null) {
+      stopSet.addAll(stopWords);
+    }
+    return new ReusableAnalyzer(TokenizerType.STANDARD, stopSet,
+        StemFilterType.PORTERSTEM_FILTER);
+  }
+
+  /**
+   * Computes the cosine similarity between the given text and the gold
+   * standard. Used during the parse stage of the crawl cycle to score the
+   * currently parsed page. Contrary to
+   * {@link #createDocVector(String, int, int)} and
+   * {@link #computeCosineSimilarity(DocVector)}, the analysis chain and the
+   * term vector buffers are reused.
+   * @param content The text to score
+   * @return the max score amongst all documents in the gold standard
+   * @throws IOException if the text cannot be tokenized
+   */
+  public static float computeCosineSimilarity(String content) throws IOException {
+    if (goldStandardIndex == null) {
+      // no gold standard
+      return 0;
+    }
+    try (TokenStream tStream = analyzer.tokenStream("content", content)) {
+      return goldStandardIndex.computeCosineSimilarity(tStream);
+    }
+  }
+
   public static float computeCosineSimilarity(DocVector docVector) {
     float scores[] = new float[docVectors.size()];
     int i=0;
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.similarity.util;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.en.EnglishMinimalStemFilter;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.shingle.ShingleFilter;
+import org.apache.lucene.analysis.standard.ClassicTokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.nutch.scoring.similarity.util.LuceneAnalyzerUtil.StemFilterType;
+import org.apache.nutch.scoring.similarity.util.LuceneTokenizer.TokenizerType;
+
+/**
+ * Analyzer producing the same tokens as {@link LuceneTokenizer}. Contrary to
+ * {@link LuceneTokenizer}, which builds a new analysis chain for every text,
+ * the chain is created once per thread and reused for all texts analyzed by
+ * the thread, see {@link Analyzer#tokenStream(String, String)}. An instance
+ * can be shared by all threads.
+ */
+public class ReusableAnalyzer extends Analyzer {
+
+  private final TokenizerType tokenizerType;
+  private final CharArraySet stopSet;
+  private final StemFilterType stemFilterType;
+  private final int mingram;
+  private final int maxgram;
+
+  /**
+   * Creates an analyzer for single terms, same as
+   * {@link LuceneTokenizer#LuceneTokenizer(String, TokenizerType, boolean, StemFilterType)}
+   * resp.
+   * {@link LuceneTokenizer#LuceneTokenizer(String, TokenizerType, java.util.List, boolean, StemFilterType)}.
+   *
+   * @param tokenizerType
+   *          the type of tokenizer to use
+   * @param stopSet
+   *          the stop words, null to keep all terms
+   * @param stemFilterType
+   *          the type of stemming to perform
+   */
+  public ReusableAnalyzer(TokenizerType tokenizerType, CharArraySet stopSet,
+      StemFilterType stemFilterType) {
+    this.tokenizerType = tokenizerType;
+    this.stopSet = stopSet;
+    this.stemFilterType = stemFilterType;
+    this.mingram = 1;
+    this.maxgram = 1;
+  }
+
+  /**
+   * Creates an analyzer for ngrams, same as
+   * {@link LuceneTokenizer#LuceneTokenizer(String, TokenizerType, StemFilterType, int, int)}.
+   *
+   * @param stemFilterType
+   *          the type of stemming to perform
+   * @param mingram
+   *          min. number of terms of an ngram
+   * @param maxgram
+   *          max. number of terms of an ngram
+   */
+  public ReusableAnalyzer(StemFilterType stemFilterType, int mingram,
+      int maxgram) {
+    this.tokenizerType = TokenizerType.STANDARD;
+    this.stopSet = null;
+    this.stemFilterType = stemFilterType;
+    this.mingram = mingram;
+    this.maxgram = maxgram;
+  }
+
+  @Override
+  protected TokenStreamComponents createComponents(String fieldName) {
+    Tokenizer source;
+    if (tokenizerType == TokenizerType.CLASSIC) {
+      source = new ClassicTokenizer();
+    } else {
+      source = new StandardTokenizer();
+    }
+    TokenStream filter = new LowerCaseFilter(source);
+    if (stopSet != null) {
+      filter = new StopFilter(filter, stopSet);
+    }
+    switch (stemFilterType) {
+    case ENGLISHMINIMALSTEM_FILTER:
+      filter = new EnglishMinimalStemFilter(filter);
+      break;
+    case PORTERSTEM_FILTER:
+      filter = new PorterStemFilter(filter);
+      break;
+    default:
+      break;
+    }
+    if (mingram > 1) {
+      ShingleFilter shingleFilter = new ShingleFilter(filter, mingram,
+          maxgram);
+      shingleFilter.setOutputUnigrams(false);
+      filter = shingleFilter;
+    }
+    return new TokenStreamComponents(source, filter);
+  }
+}
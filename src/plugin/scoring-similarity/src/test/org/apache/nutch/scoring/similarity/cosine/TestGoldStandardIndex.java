@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.similarity.cosine;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.nutch.scoring.similarity.util.ReusableAnalyzer;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the cosine similarity computed by the {@link GoldStandardIndex}
+ * using a {@link ReusableAnalyzer} with the similarity of {@link DocVector}s.
+ */
+public class TestGoldStandardIndex {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String GOLD_STANDARD = "Apache Nutch is a highly "
+      + "extensible and scalable open source web crawler software project. "
+      + "Nutch can run on a single machine, but gains a lot of its strength "
+      + "from running in a Hadoop cluster. The crawler fetches web pages, "
+      + "parses the fetched documents, extracts outlinks and updates the "
+      + "crawl database. Pages are indexed into Solr or Elasticsearch. "
+      + "Plugins provide parsing, indexing, URL filtering and scoring.";
+
+  private static final String[] SENTENCES = {
+      "Welcome to our online shop, free shipping on all orders over $50!",
+      "The web crawler downloads pages and follows the links it finds.",
+      "Hadoop clusters process large amounts of data in parallel.",
+      "Read our privacy policy and terms of service before signing up.",
+      "Indexing crawled documents into Solr makes them searchable.",
+      "Contact us: support@example.com or call +1 (555) 010-2030.",
+      "Scoring filters assign a relevance score to every fetched page.",
+      "Today's weather: sunny, 25°C, light winds from the south-west.",
+      "URL filters and normalizers decide which outlinks are crawled.",
+      "Copyright © 2024 Example Inc. All rights reserved.",
+      "Die Webseite ist leider nicht verfügbar, bitte später versuchen.",
+      "Parsing HTML extracts the text, the title and the outlinks.",
+      "Subscribe to our newsletter for the latest deals and coupons." };
+
+  /* pseudo-random page texts composed of the sentences */
+  private static List<String> pageTexts(Random random, int count) {
+    List<String> texts = new ArrayList<>();
+    texts.add("");
+    texts.add("the and of");
+    for (int i = 0; i < count; i++) {
+      StringBuilder sb = new StringBuilder();
+      int numSentences = 1 + random.nextInt(60);
+      for (int j = 0; j < numSentences; j++) {
+        sb.append(SENTENCES[random.nextInt(SENTENCES.length)]).append(' ');
+        if (random.nextInt(8) == 0) {
+          sb.append("\n\n");
+        }
+      }
+      texts.add(sb.toString());
+    }
+    return texts;
+  }
+
+  /* same as Model.computeCosineSimilarity(DocVector) */
+  private static float docVectorSimilarity(String text, DocVector gold,
+      int mingram, int maxgram) {
+    DocVector docVector = Model.createDocVector(text, mingram, maxgram);
+    float score = docVector.dotProduct(gold)
+        / (docVector.getL2Norm() * gold.getL2Norm());
+    return score > 0 ? score : 0;
+  }
+
+  private static float indexSimilarity(ReusableAnalyzer analyzer,
+      GoldStandardIndex index, String text) throws Exception {
+    try (TokenStream stream = analyzer.tokenStream("content", text)) {
+      return index.computeCosineSimilarity(stream);
+    }
+  }
+
+  private void checkParity(int mingram, int maxgram) throws Exception {
+    DocVector gold = Model.createDocVector(GOLD_STANDARD, mingram, maxgram);
+    GoldStandardIndex index = new GoldStandardIndex(
+        Collections.singletonList(gold));
+    ReusableAnalyzer analyzer = Model.createAnalyzer(mingram, maxgram);
+    int positive = 0;
+    for (String text : pageTexts(new Random(42), 300)) {
+      float expected = docVectorSimilarity(text, gold, mingram, maxgram);
+      float actual = indexSimilarity(analyzer, index, text);
+      Assert.assertEquals("score of '" + text + "'", expected, actual, 1e-5f);
+      if (actual > 0) {
+        positive++;
+      }
+    }
+    Assert.assertTrue(positive > 0);
+    // the gold standard is most similar to itself
+    Assert.assertEquals(1.0f, indexSimilarity(analyzer, index, GOLD_STANDARD),
+        1e-5f);
+  }
+
+  @Test
+  public void testParity() throws Exception {
+    checkParity(1, 1);
+  }
+
+  @Test
+  public void testParityNgrams() throws Exception {
+    checkParity(2, 3);
+  }
+
+  @Test
+  public void testThreadSafety() throws Exception {
+    DocVector gold = Model.createDocVector(GOLD_STANDARD, 1, 1);
+    GoldStandardIndex index = new GoldStandardIndex(
+        Collections.singletonList(gold));
+    ReusableAnalyzer analyzer = Model.createAnalyzer(1, 1);
+    List<String> texts = pageTexts(new Random(7), 100);
+    float[] expected = new float[texts.size()];
+    for (int i = 0; i < texts.size(); i++) {
+      expected[i] = indexSimilarity(analyzer, index, texts.get(i));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        results.add(executor.submit(() -> {
+          for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < texts.size(); i++) {
+              if (indexSimilarity(analyzer, index, texts.get(i)) != expected[i]) {
+                return false;
+              }
+            }
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        Assert.assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void testThroughput() throws Exception {
+    DocVector gold = Model.createDocVector(GOLD_STANDARD, 1, 1);
+    GoldStandardIndex index = new GoldStandardIndex(
+        Collections.singletonList(gold));
+    ReusableAnalyzer analyzer = Model.createAnalyzer(1, 1);
+    List<String> texts = pageTexts(new Random(1), 500);
+    long chars = 0;
+    for (String text : texts) {
+      // warm up
+      docVectorSimilarity(text, gold, 1, 1);
+      indexSimilarity(analyzer, index, text);
+      chars += text.length();
+    }
+    int rounds = 5;
+    long start = System.nanoTime();
+    double sumDocVector = 0;
+    for (int r = 0; r < rounds; r++) {
+      for (String text : texts) {
+        sumDocVector += docVectorSimilarity(text, gold, 1, 1);
+      }
+    }
+    long docVectorTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    double sumIndex = 0;
+    for (int r = 0; r < rounds; r++) {
+      for (String text : texts) {
+        sumIndex += indexSimilarity(analyzer, index, text);
+      }
+    }
+    long indexTime = System.nanoTime() - start;
+    LOG.info(
+        "Scored {} pages ({} chars): DocVector {} ms, GoldStandardIndex {} ms",
+        rounds * texts.size(), rounds * chars, docVectorTime / 1000000,
+        indexTime / 1000000);
+    Assert.assertEquals(sumDocVector, sumIndex, 1e-3);
+  }
+}
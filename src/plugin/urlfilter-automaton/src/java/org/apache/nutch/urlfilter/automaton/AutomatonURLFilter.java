@@ -16,18 +16,33 @@
  */
 package org.apache.nutch.urlfilter.automaton;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.lang.invoke.MethodHandles;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.PatternSyntaxException;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 
 import dk.brics.automaton.RegExp;
 import dk.brics.automaton.RunAutomaton;
 import org.apache.nutch.urlfilter.api.RegexRule;
 import org.apache.nutch.urlfilter.api.RegexURLFilterBase;
+import org.apache.nutch.util.URLUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +57,9 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
 
   public static final String URLFILTER_AUTOMATON_FILE = "urlfilter.automaton.file";
   public static final String URLFILTER_AUTOMATON_RULES = "urlfilter.automaton.rules";
+  public static final String URLFILTER_AUTOMATON_COMBINED = "urlfilter.automaton.combined";
+  public static final String URLFILTER_AUTOMATON_COMBINED_MAX_STATES = "urlfilter.automaton.combined.max.states";
+  public static final String URLFILTER_AUTOMATON_COMBINED_CACHE_DIR = "urlfilter.automaton.combined.cache.dir";
 
   private static final Logger LOG = LoggerFactory
       .getLogger(MethodHandles.lookup().lookupClass());
@@ -60,6 +78,140 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
     super(reader);
   }
 
+  /** Whether rules are only compiled into the combined automaton */
+  private boolean combinedMode;
+
+  /** All rules compiled into one automaton, null if not used */
+  private CombinedAutomaton combined;
+  private Rule[] combinedRules;
+
+  @Override
+  public void setConf(Configuration conf) {
+    combinedMode = conf.getBoolean(URLFILTER_AUTOMATON_COMBINED, false);
+    super.setConf(conf);
+    initCombined(conf);
+  }
+
+  private void initCombined(Configuration conf) {
+    combined = null;
+    combinedRules = null;
+    if (!conf.getBoolean(URLFILTER_AUTOMATON_COMBINED, false)) {
+      return;
+    }
+    List<RegexRule> rules = getRules();
+    Rule[] ruleArray = new Rule[rules.size()];
+    List<String> regexes = new ArrayList<>(rules.size());
+    boolean[] signs = new boolean[rules.size()];
+    String[] hostOrDomains = new String[rules.size()];
+    StringBuilder ruleText = new StringBuilder();
+    for (int i = 0; i < ruleArray.length; i++) {
+      ruleArray[i] = (Rule) rules.get(i);
+      regexes.add(ruleArray[i].regex());
+      signs[i] = ruleArray[i].accept();
+      hostOrDomains[i] = ruleArray[i].hostOrDomain();
+      ruleText.append(signs[i] ? '+' : '-')
+          .append(hostOrDomains[i] == null ? "" : hostOrDomains[i])
+          .append('\t').append(regexes.get(i)).append('\n');
+    }
+    int maxStates = conf.getInt(URLFILTER_AUTOMATON_COMBINED_MAX_STATES,
+        100000);
+    String cacheDir = conf.get(URLFILTER_AUTOMATON_COMBINED_CACHE_DIR);
+    File cacheFile = null;
+    if (StringUtils.isNotBlank(cacheDir)) {
+      cacheFile = new File(cacheDir.trim(), "automaton-"
+          + DigestUtils.sha256Hex(ruleText.toString()) + ".bin");
+    }
+
+    CombinedAutomaton automaton = null;
+    if (cacheFile != null && cacheFile.isFile()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(cacheFile), 1 << 16))) {
+        automaton = CombinedAutomaton.read(in);
+        LOG.info("Read combined automaton with {} states from {}",
+            automaton.getNumberOfStates(), cacheFile);
+      } catch (IOException e) {
+        LOG.warn("Failed to read combined automaton from {}: {}", cacheFile,
+            e.getMessage());
+      }
+    }
+    if (automaton == null) {
+      long start = System.currentTimeMillis();
+      automaton = CombinedAutomaton.build(regexes, signs, hostOrDomains,
+          maxStates);
+      if (automaton == null) {
+        LOG.warn(
+            "Combined automaton of {} rules exceeds {} states, matching rules one by one",
+            regexes.size(), maxStates);
+        return;
+      }
+      LOG.info("Compiled {} rules into combined automaton with {} states in {} ms",
+          regexes.size(), automaton.getNumberOfStates(),
+          System.currentTimeMillis() - start);
+      if (cacheFile != null) {
+        writeCombined(automaton, cacheFile);
+      }
+    }
+    combinedRules = ruleArray;
+    combined = automaton;
+  }
+
+  /* write the automaton into a temporary file and atomically move it into
+   * place, so that concurrent tasks never read an incomplete file */
+  private static void writeCombined(CombinedAutomaton automaton,
+      File cacheFile) {
+    File tmp = null;
+    try {
+      File dir = cacheFile.getParentFile();
+      dir.mkdirs();
+      tmp = File.createTempFile("automaton-", ".tmp", dir);
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+        automaton.write(out);
+      }
+      Files.move(tmp.toPath(), cacheFile.toPath(),
+          StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      LOG.info("Stored combined automaton in {}", cacheFile);
+    } catch (IOException e) {
+      LOG.warn("Failed to store combined automaton in {}: {}", cacheFile,
+          e.getMessage());
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+  }
+
+  @Override
+  public String filter(String url) {
+    CombinedAutomaton automaton = combined;
+    if (automaton == null) {
+      return super.filter(url);
+    }
+    String host = null;
+    String domain = null;
+    boolean hostDomainKnown = false;
+    // rules matching the URL, in order of their definition
+    for (int r : automaton.run(url)) {
+      Rule rule = combinedRules[r];
+      if (rule.hostOrDomain() != null) {
+        if (!hostDomainKnown) {
+          host = URLUtil.getHost(url);
+          try {
+            domain = URLUtil.getDomainName(url);
+          } catch (MalformedURLException e) {
+            // same as RegexURLFilterBase
+          }
+          hostDomainKnown = true;
+        }
+        if (!rule.hostOrDomain().equals(host)
+            && !rule.hostOrDomain().equals(domain)) {
+          continue;
+        }
+      }
+      return rule.accept() ? url : null;
+    }
+    return null;
+  }
+
   /**
    * Rules specified as a config property will override rules specified as a
    * config file.
@@ -99,21 +251,54 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
 
   private class Rule extends RegexRule {
 
-    private RunAutomaton automaton;
+    /*
+     * compiled lazily if all rules are compiled into the combined automaton:
+     * only needed if the combined automaton exceeds the max. number of states
+     */
+    private volatile RunAutomaton automaton;
 
     Rule(boolean sign, String regex) {
-      super(sign, regex);
-      automaton = new RunAutomaton(new RegExp(regex, RegExp.ALL).toAutomaton());
+      this(sign, regex, null);
     }
     
     Rule(boolean sign, String regex, String hostOrDomain) {
       super(sign, regex, hostOrDomain);
-      automaton = new RunAutomaton(new RegExp(regex, RegExp.ALL).toAutomaton());
+      if (!combinedMode) {
+        automaton = compile();
+      }
+    }
+
+    /*
+     * the rule properties are protected in RegexRule, declared here they are
+     * also accessible to the combined automaton in this package
+     */
+    @Override
+    protected boolean accept() {
+      return super.accept();
+    }
+
+    @Override
+    protected String regex() {
+      return super.regex();
+    }
+
+    @Override
+    protected String hostOrDomain() {
+      return super.hostOrDomain();
+    }
+
+    private RunAutomaton compile() {
+      return new RunAutomaton(new RegExp(regex(), RegExp.ALL).toAutomaton());
     }
 
     @Override
     protected boolean match(String url) {
-      return automaton.run(url);
+      RunAutomaton a = automaton;
+      if (a == null) {
+        a = compile();
+        automaton = a;
+      }
+      return a.run(url);
     }
   }
 
@@ -0,0 +1,594 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.automaton;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.State;
+import dk.brics.automaton.Transition;
+
+/**
+ * A single deterministic automaton for all rules of a rule file. Every state
+ * is tagged with the rules matching an input which ends in the state, in
+ * order of the rules. Rules following the first rule which is not restricted
+ * to a host or domain are never applied and are not included in the tags.
+ * <p>
+ * The automaton is built by the product construction over the automata of
+ * all rules and minimized (states with the same tags and transitions are
+ * merged). Once built the automaton is immutable, the run state is local to
+ * {@link #run(String)}, so that the automaton can be shared by all threads.
+ * </p>
+ */
+class CombinedAutomaton {
+
+  private static final int MAGIC = 0x4e415554; // NAUT
+  private static final int VERSION = 1;
+  private static final int[] NO_TAGS = new int[0];
+
+  /* start points of the character classes */
+  private final char[] points;
+  /* character -> character class */
+  private final int[] classmap;
+  private final int numClasses;
+  private final int initial;
+  /* state * numClasses + class -> state, -1 if no rule can match */
+  private final int[] transitions;
+  private final int[][] tags;
+
+  private CombinedAutomaton(char[] points, int initial, int[] transitions,
+      int[][] tags) {
+    this.points = points;
+    this.numClasses = points.length;
+    this.initial = initial;
+    this.transitions = transitions;
+    this.tags = tags;
+    classmap = new int[Character.MAX_VALUE + 1];
+    for (int c = 0, i = 0; c <= Character.MAX_VALUE; c++) {
+      if (i + 1 < points.length && c == points[i + 1]) {
+        i++;
+      }
+      classmap[c] = i;
+    }
+  }
+
+  /**
+   * @return number of states
+   */
+  int getNumberOfStates() {
+    return tags.length;
+  }
+
+  /**
+   * Run the automaton.
+   * 
+   * @param input
+   *          the input
+   * @return indexes of the rules matching the entire input, in order, an
+   *         empty array if no rule matches
+   */
+  int[] run(String input) {
+    int state = initial;
+    for (int i = 0, n = input.length(); i < n && state >= 0; i++) {
+      state = transitions[state * numClasses + classmap[input.charAt(i)]];
+    }
+    return state < 0 ? NO_TAGS : tags[state];
+  }
+
+  /** Wraps an array as hash map key */
+  private static final class Key {
+    private final long[] longs;
+    private final int[] ints;
+    private final int hash;
+
+    private Key(long[] longs) {
+      this.longs = longs;
+      this.ints = null;
+      hash = Arrays.hashCode(longs);
+    }
+
+    private Key(int[] ints) {
+      this.longs = null;
+      this.ints = ints;
+      hash = Arrays.hashCode(ints);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      Key other = (Key) obj;
+      return hash == other.hash && Arrays.equals(longs, other.longs)
+          && Arrays.equals(ints, other.ints);
+    }
+  }
+
+  /**
+   * Build the automaton.
+   * 
+   * @param regexes
+   *          the regular expressions of the rules, in order
+   * @param signs
+   *          the signs of the rules (accept or reject)
+   * @param hostOrDomains
+   *          the host or domain a rule is restricted to, null if the rule is
+   *          applied to all URLs
+   * @param maxStates
+   *          max. number of states of the product automaton
+   * @return the automaton or null if the product automaton exceeds
+   *         <code>maxStates</code>
+   */
+  static CombinedAutomaton build(List<String> regexes, boolean[] signs,
+      String[] hostOrDomains, int maxStates) {
+    int numRules = regexes.size();
+
+    // automata of all rules, the states are numbered with the initial state
+    // as state 0
+    List<List<State>> ruleStates = new ArrayList<>(numRules);
+    BitSet bounds = new BitSet(Character.MAX_VALUE + 2);
+    bounds.set(0);
+    int numRuleStates = 0;
+    for (String regex : regexes) {
+      Automaton a = new RegExp(regex, RegExp.ALL).toAutomaton();
+      a.expandSingleton();
+      List<State> states = new ArrayList<>(a.getStates());
+      states.remove(a.getInitialState());
+      states.add(0, a.getInitialState());
+      for (State s : states) {
+        for (Transition t : s.getTransitions()) {
+          bounds.set(t.getMin());
+          bounds.set(t.getMax() + 1);
+        }
+      }
+      ruleStates.add(states);
+      numRuleStates += states.size();
+    }
+    char[] points = new char[bounds.cardinality()
+        - (bounds.get(Character.MAX_VALUE + 1) ? 1 : 0)];
+    for (int c = bounds.nextSetBit(0), i = 0; c >= 0
+        && c <= Character.MAX_VALUE; c = bounds.nextSetBit(c + 1)) {
+      points[i++] = (char) c;
+    }
+    int numClasses = points.length;
+
+    // the states of all rule automata, numbered consecutively, with their
+    // transitions as sorted class intervals (from, to, target)
+    int[] initialStates = new int[numRules];
+    int[][] stateTransitions = new int[numRuleStates][];
+    boolean[] stateAccept = new boolean[numRuleStates];
+    int offset = 0;
+    for (int r = 0; r < numRules; r++) {
+      List<State> states = ruleStates.get(r);
+      Map<State, Integer> ids = new HashMap<>();
+      for (State s : states) {
+        ids.put(s, offset + ids.size());
+      }
+      initialStates[r] = offset;
+      for (State s : states) {
+        List<Transition> sorted = s.getSortedTransitions(false);
+        int[] intervals = new int[3 * sorted.size()];
+        int j = 0;
+        for (Transition t : sorted) {
+          intervals[j++] = Arrays.binarySearch(points, t.getMin());
+          intervals[j++] = t.getMax() == Character.MAX_VALUE ? numClasses - 1
+              : Arrays.binarySearch(points, (char) (t.getMax() + 1)) - 1;
+          intervals[j++] = ids.get(t.getDest());
+        }
+        stateTransitions[ids.get(s)] = intervals;
+        stateAccept[ids.get(s)] = s.isAccept();
+      }
+      offset += states.size();
+    }
+    ruleStates = null;
+
+    // merge the states of all rules accepting the same language, so that
+    // the product automaton does not depend on which rule a state belongs to
+    int[] stateClass = mergeEquivalentStates(stateTransitions, stateAccept);
+    int numStateClasses = 0;
+    for (int c : stateClass) {
+      numStateClasses = Math.max(numStateClasses, c + 1);
+    }
+    int[][] classTransitions = new int[numStateClasses][];
+    boolean[] classAccept = new boolean[numStateClasses];
+    boolean[] classUniversal = new boolean[numStateClasses];
+    for (int s = 0; s < numRuleStates; s++) {
+      int g = stateClass[s];
+      if (classTransitions[g] != null) {
+        continue;
+      }
+      int[] intervals = stateTransitions[s].clone();
+      for (int j = 2; j < intervals.length; j += 3) {
+        intervals[j] = stateClass[intervals[j]];
+      }
+      classTransitions[g] = intervals;
+      classAccept[g] = stateAccept[s];
+    }
+    for (int g = 0; g < numStateClasses; g++) {
+      // accepts every continuation
+      int[] intervals = classTransitions[g];
+      boolean loop = true;
+      int covered = 0;
+      for (int j = 0; j < intervals.length; j += 3) {
+        loop &= intervals[j + 2] == g && intervals[j] == covered;
+        covered = intervals[j + 1] + 1;
+      }
+      classUniversal[g] = classAccept[g] && loop && covered == numClasses;
+    }
+    stateTransitions = null;
+
+    // the action of a rule is the first rule with the same sign and host or
+    // domain: rules with the same action are interchangeable
+    int[] action = new int[numRules];
+    boolean[] unconditional = new boolean[numRules];
+    Map<String, Integer> actions = new HashMap<>();
+    for (int r = 0; r < numRules; r++) {
+      String key = (signs[r] ? '+' : '-')
+          + (hostOrDomains[r] == null ? "" : ">" + hostOrDomains[r]);
+      Integer a = actions.get(key);
+      if (a == null) {
+        a = r;
+        actions.put(key, a);
+      }
+      action[r] = a;
+      unconditional[r] = hostOrDomains[r] == null;
+    }
+
+    // product construction: a state is the list of (action, state class) of
+    // all rules, in order of the rules, which may still match. Entries which
+    // can never be the first match are removed: duplicates and all entries
+    // following an unconditional entry accepting every continuation.
+    ComponentList initialComponents = new ComponentList(numRules);
+    for (int r = 0; r < numRules; r++) {
+      initialComponents.add(action[r], stateClass[initialStates[r]],
+          unconditional[r] && classUniversal[stateClass[initialStates[r]]]);
+    }
+    Map<Key, Integer> stateIds = new HashMap<>();
+    List<long[]> states = new ArrayList<>();
+    if (initialComponents.size > 0) {
+      long[] start = initialComponents.toArray();
+      stateIds.put(new Key(start), 0);
+      states.add(start);
+    }
+    int[] transitions = new int[Math.max(1, numClasses * 16)];
+    List<int[]> tags = new ArrayList<>();
+    ComponentList[] next = new ComponentList[numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      next[c] = new ComponentList(8);
+    }
+    for (int p = 0; p < states.size(); p++) {
+      long[] components = states.get(p);
+      for (ComponentList list : next) {
+        list.clear();
+      }
+      int[] stateTags = NO_TAGS;
+      boolean tagsComplete = false;
+      for (long component : components) {
+        int a = (int) (component >>> 32);
+        int g = (int) component;
+        if (classAccept[g] && !tagsComplete) {
+          stateTags = Arrays.copyOf(stateTags, stateTags.length + 1);
+          stateTags[stateTags.length - 1] = a;
+          tagsComplete = unconditional[a];
+        }
+        int[] intervals = classTransitions[g];
+        for (int j = 0; j < intervals.length; j += 3) {
+          int target = intervals[j + 2];
+          boolean closing = unconditional[a] && classUniversal[target];
+          for (int c = intervals[j]; c <= intervals[j + 1]; c++) {
+            next[c].add(a, target, closing);
+          }
+        }
+      }
+      tags.add(stateTags);
+      if ((p + 1) * numClasses > transitions.length) {
+        transitions = Arrays.copyOf(transitions,
+            Math.max((p + 1) * numClasses, 2 * transitions.length));
+      }
+      for (int c = 0; c < numClasses; c++) {
+        int target;
+        if (next[c].size == 0) {
+          target = -1;
+        } else if (c > 0 && next[c].equals(next[c - 1])) {
+          target = transitions[p * numClasses + c - 1];
+        } else {
+          long[] key = next[c].toArray();
+          Key k = new Key(key);
+          Integer id = stateIds.get(k);
+          if (id == null) {
+            if (states.size() >= maxStates) {
+              return null;
+            }
+            id = states.size();
+            stateIds.put(k, id);
+            states.add(key);
+          }
+          target = id;
+        }
+        transitions[p * numClasses + c] = target;
+      }
+    }
+    int numStates = states.size();
+    stateIds = null;
+    states = null;
+
+    return minimize(points, numStates > 0 ? 0 : -1, transitions,
+        tags.toArray(new int[numStates][]));
+  }
+
+  /**
+   * Ordered list of product state components (action, state class) without
+   * duplicates, closed for additions after a component which accepts every
+   * continuation.
+   */
+  private static final class ComponentList {
+    private long[] components;
+    private int size;
+    private boolean closed;
+    /* open-addressing set of the components, for duplicate detection */
+    private long[] set;
+    private int[] setStamps;
+    private int stamp = 1;
+
+    private ComponentList(int capacity) {
+      components = new long[capacity];
+      set = new long[Integer.highestOneBit(Math.max(2, capacity) * 4 - 1)];
+      setStamps = new int[set.length];
+    }
+
+    private void clear() {
+      size = 0;
+      closed = false;
+      stamp++;
+    }
+
+    private void add(int action, int stateClass, boolean closing) {
+      if (closed) {
+        return;
+      }
+      long component = ((long) action << 32) | stateClass;
+      if (2 * (size + 1) > set.length) {
+        long[] old = Arrays.copyOf(components, size);
+        set = new long[4 * set.length];
+        setStamps = new int[set.length];
+        stamp = 1;
+        for (long o : old) {
+          insert(o);
+        }
+      }
+      if (!insert(component)) {
+        return;
+      }
+      if (size == components.length) {
+        components = Arrays.copyOf(components, 2 * size);
+      }
+      components[size++] = component;
+      closed = closing;
+    }
+
+    /* add to the set, false if already contained */
+    private boolean insert(long component) {
+      int mask = set.length - 1;
+      int i = (int) (component ^ (component >>> 29)) * 0x9E3779B9 & mask;
+      while (setStamps[i] == stamp) {
+        if (set[i] == component) {
+          return false;
+        }
+        i = (i + 1) & mask;
+      }
+      setStamps[i] = stamp;
+      set[i] = component;
+      return true;
+    }
+
+    private long[] toArray() {
+      return Arrays.copyOf(components, size);
+    }
+
+    private boolean equals(ComponentList other) {
+      return size == other.size
+          && Arrays.equals(components, 0, size, other.components, 0, size);
+    }
+  }
+
+  /*
+   * Merge the states of all rule automata by Moore's algorithm: states are
+   * equivalent if both are accepting or not and their transitions lead to
+   * equivalent states. Returns the class of every state.
+   */
+  private static int[] mergeEquivalentStates(int[][] transitions,
+      boolean[] accept) {
+    int numStates = accept.length;
+    int[] block = new int[numStates];
+    for (int s = 0; s < numStates; s++) {
+      block[s] = accept[s] ? 1 : 0;
+    }
+    int numBlocks = -1;
+    Map<Key, Integer> blocks = new HashMap<>();
+    while (true) {
+      blocks.clear();
+      int[] refined = new int[numStates];
+      int[] signature = new int[16];
+      for (int s = 0; s < numStates; s++) {
+        int[] intervals = transitions[s];
+        if (signature.length < intervals.length + 1) {
+          signature = new int[intervals.length + 1];
+        }
+        signature[0] = block[s];
+        int n = 1;
+        for (int j = 0; j < intervals.length; j += 3) {
+          int target = block[intervals[j + 2]];
+          if (n > 1 && signature[n - 1] == target
+              && signature[n - 2] + 1 == intervals[j]) {
+            // adjacent interval with the same target block
+            signature[n - 2] = intervals[j + 1];
+          } else {
+            signature[n++] = intervals[j];
+            signature[n++] = intervals[j + 1];
+            signature[n++] = target;
+          }
+        }
+        Key k = new Key(Arrays.copyOf(signature, n));
+        Integer b = blocks.get(k);
+        if (b == null) {
+          b = blocks.size();
+          blocks.put(k, b);
+        }
+        refined[s] = b;
+      }
+      block = refined;
+      if (blocks.size() == numBlocks) {
+        return block;
+      }
+      numBlocks = blocks.size();
+    }
+  }
+
+  /*
+   * Moore's algorithm: start with states partitioned by their tags and refine
+   * the partition by the partitions of the transition targets until it is
+   * stable.
+   */
+  private static CombinedAutomaton minimize(char[] points, int initial,
+      int[] transitions, int[][] tags) {
+    int numStates = tags.length;
+    int numClasses = points.length;
+    int[] block = new int[numStates];
+    Map<Key, Integer> blocks = new HashMap<>();
+    for (int s = 0; s < numStates; s++) {
+      Key k = new Key(tags[s]);
+      Integer b = blocks.get(k);
+      if (b == null) {
+        b = blocks.size();
+        blocks.put(k, b);
+      }
+      block[s] = b;
+    }
+    int numBlocks = blocks.size();
+    while (true) {
+      blocks.clear();
+      int[] refined = new int[numStates];
+      for (int s = 0; s < numStates; s++) {
+        int[] signature = new int[numClasses + 1];
+        signature[0] = block[s];
+        for (int c = 0; c < numClasses; c++) {
+          int t = transitions[s * numClasses + c];
+          signature[c + 1] = t < 0 ? -1 : block[t];
+        }
+        Key k = new Key(signature);
+        Integer b = blocks.get(k);
+        if (b == null) {
+          b = blocks.size();
+          blocks.put(k, b);
+        }
+        refined[s] = b;
+      }
+      block = refined;
+      if (blocks.size() == numBlocks) {
+        break;
+      }
+      numBlocks = blocks.size();
+    }
+
+    int[] minTransitions = new int[numBlocks * numClasses];
+    int[][] minTags = new int[numBlocks][];
+    for (int s = 0; s < numStates; s++) {
+      int b = block[s];
+      if (minTags[b] == null) {
+        minTags[b] = tags[s];
+        for (int c = 0; c < numClasses; c++) {
+          int t = transitions[s * numClasses + c];
+          minTransitions[b * numClasses + c] = t < 0 ? -1 : block[t];
+        }
+      }
+    }
+    return new CombinedAutomaton(points,
+        initial < 0 ? -1 : block[initial], minTransitions, minTags);
+  }
+
+  /**
+   * Write the automaton.
+   * 
+   * @param out
+   *          output to write to
+   * @throws IOException
+   *           if the automaton cannot be written
+   */
+  void write(DataOutput out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(points.length);
+    for (char c : points) {
+      out.writeChar(c);
+    }
+    out.writeInt(initial);
+    out.writeInt(tags.length);
+    for (int t : transitions) {
+      out.writeInt(t);
+    }
+    for (int[] stateTags : tags) {
+      out.writeInt(stateTags.length);
+      for (int r : stateTags) {
+        out.writeInt(r);
+      }
+    }
+  }
+
+  /**
+   * Read an automaton written by {@link #write(DataOutput)}.
+   * 
+   * @param in
+   *          input to read from
+   * @return the automaton
+   * @throws IOException
+   *           if the automaton cannot be read
+   */
+  static CombinedAutomaton read(DataInput in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not a compiled automaton or version mismatch");
+    }
+    char[] points = new char[in.readInt()];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = in.readChar();
+    }
+    int initial = in.readInt();
+    int numStates = in.readInt();
+    int[] transitions = new int[numStates * points.length];
+    for (int i = 0; i < transitions.length; i++) {
+      transitions[i] = in.readInt();
+    }
+    int[][] tags = new int[numStates][];
+    for (int s = 0; s < numStates; s++) {
+      tags[s] = new int[in.readInt()];
+      for (int i = 0; i < tags[s].length; i++) {
+        tags[s][i] = in.readInt();
+      }
+    }
+    return new CombinedAutomaton(points, initial, transitions, tags);
+  }
+}
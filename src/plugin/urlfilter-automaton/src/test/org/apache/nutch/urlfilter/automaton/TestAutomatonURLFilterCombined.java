@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.automaton;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.URLFilter;
+import org.apache.nutch.urlfilter.api.RegexURLFilterBaseTest;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the {@link AutomatonURLFilter} with all rules compiled into a single
+ * {@link CombinedAutomaton}.
+ */
+public class TestAutomatonURLFilterCombined extends RegexURLFilterBaseTest {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final String HOST_RULES = "-.*\\.(gif|jpg)\n"
+      + ">www.example.org\n"
+      + "-https?://www\\.example\\.org/private/.*\n"
+      + "+https?://www\\.example\\.org/.*\n"
+      + "<\n"
+      + ">example.com\n"
+      + "+http://[a-z]+\\.example\\.com/(docs|blog)/.*\n"
+      + "-.*\n"
+      + "<\n"
+      + "-.*[?=&].*\n"
+      + "+https?://([a-z0-9]+\\.)*apache\\.org/.*\n"
+      + "-.*\\.org/.*\n"
+      + "+.*\n";
+
+  private static final String[] HOST_URLS = {
+      "http://www.example.org/index.html", "http://www.example.org/a.gif",
+      "http://www.example.org/private/x.html",
+      "https://www.example.org/?q=1", "http://example.org/index.html",
+      "http://www.example.com/docs/a.html", "http://www.example.com/news/",
+      "http://blog.example.com/blog/2024/", "http://example.com/docs/",
+      "http://nutch.apache.org/", "http://www.wikipedia.org/wiki/Nutch",
+      "http://www.example.net/?id=1", "http://www.example.net/",
+      "file:/tmp/example.org/", "" };
+
+  private AutomatonURLFilter combined(String rules, int maxStates) {
+    Configuration conf = new Configuration();
+    conf.set(AutomatonURLFilter.URLFILTER_AUTOMATON_RULES, rules);
+    conf.setBoolean(AutomatonURLFilter.URLFILTER_AUTOMATON_COMBINED, true);
+    conf.setInt(AutomatonURLFilter.URLFILTER_AUTOMATON_COMBINED_MAX_STATES,
+        maxStates);
+    conf.set(AutomatonURLFilter.URLFILTER_AUTOMATON_COMBINED_CACHE_DIR,
+        tmp.getRoot().getAbsolutePath());
+    AutomatonURLFilter filter = new AutomatonURLFilter();
+    filter.setConf(conf);
+    return filter;
+  }
+
+  @Override
+  protected URLFilter getURLFilter(Reader rules) {
+    try {
+      return combined(IOUtils.toString(rules), 100000);
+    } catch (IOException e) {
+      Assert.fail(e.toString());
+      return null;
+    }
+  }
+
+  @Test
+  public void test() {
+    test("WholeWebCrawling");
+    test("IntranetCrawling");
+    bench(50, "Benchmarks");
+    bench(800, "Benchmarks");
+  }
+
+  private static void assertSameResults(URLFilter expected, URLFilter actual,
+      String[] urls) {
+    for (String url : urls) {
+      Assert.assertEquals(url, expected.filter(url), actual.filter(url));
+    }
+  }
+
+  @Test
+  public void testHostDomainRules() throws IOException {
+    AutomatonURLFilter perRule = new AutomatonURLFilter(
+        new StringReader(HOST_RULES));
+    AutomatonURLFilter combined = combined(HOST_RULES, 100000);
+    assertSameResults(perRule, combined, HOST_URLS);
+    Assert.assertNotNull(combined.filter("http://www.example.org/index.html"));
+    Assert.assertNull(combined.filter("http://www.example.org/private/x"));
+    Assert.assertNull(combined.filter("http://www.example.com/news/"));
+    Assert.assertNull(combined.filter("http://www.wikipedia.org/wiki/Nutch"));
+  }
+
+  @Test
+  public void testCache() throws IOException {
+    combined(HOST_RULES, 100000);
+    File[] files = tmp.getRoot().listFiles();
+    Assert.assertEquals(1, files.length);
+    long modified = files[0].lastModified();
+    // compiled automaton is read from the cache
+    AutomatonURLFilter cached = combined(HOST_RULES, 100000);
+    Assert.assertEquals(modified, files[0].lastModified());
+    assertSameResults(new AutomatonURLFilter(new StringReader(HOST_RULES)),
+        cached, HOST_URLS);
+    // other rules, other automaton
+    combined("+.*\n", 100000);
+    Assert.assertEquals(2, tmp.getRoot().listFiles().length);
+    // invalid cache file is replaced
+    Files.write(files[0].toPath(), new byte[] { 1, 2, 3 });
+    cached = combined(HOST_RULES, 100000);
+    assertSameResults(new AutomatonURLFilter(new StringReader(HOST_RULES)),
+        cached, HOST_URLS);
+    Assert.assertTrue(files[0].length() > 3);
+  }
+
+  @Test
+  public void testStateLimit() throws IOException {
+    // falls back to matching the rules one by one
+    AutomatonURLFilter filter = combined(HOST_RULES, 2);
+    assertSameResults(new AutomatonURLFilter(new StringReader(HOST_RULES)),
+        filter, HOST_URLS);
+  }
+
+  @Test
+  public void testRandomRules() throws IOException {
+    String[] parts = { "a", "b", "ab", "a*", "(a|b)", "[ab]+", ".", ".*",
+        "b?", "/" };
+    String[] inputs = new String[500];
+    Random random = new Random(42);
+    for (int i = 0; i < inputs.length; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int j = random.nextInt(8); j > 0; j--) {
+        sb.append("ab/c".charAt(random.nextInt(4)));
+      }
+      inputs[i] = sb.toString();
+    }
+    for (int round = 0; round < 50; round++) {
+      StringBuilder rules = new StringBuilder();
+      for (int i = random.nextInt(20); i > 0; i--) {
+        rules.append(random.nextBoolean() ? '+' : '-');
+        for (int j = 1 + random.nextInt(4); j > 0; j--) {
+          rules.append(parts[random.nextInt(parts.length)]);
+        }
+        rules.append('\n');
+      }
+      AutomatonURLFilter perRule = new AutomatonURLFilter(
+          new StringReader(rules.toString()));
+      AutomatonURLFilter combined = combined(rules.toString(), 100000);
+      for (String input : inputs) {
+        Assert.assertEquals(rules + " : " + input, perRule.filter(input),
+            combined.filter(input));
+      }
+    }
+  }
+
+  /* rules similar to a deny list: global rules and rules per host */
+  private static String generateRules(int numRules) {
+    StringBuilder rules = new StringBuilder();
+    rules.append("-(file|ftp|mailto):.*\n");
+    rules.append("-.*\\.(gif|GIF|jpg|JPG|ico|ICO|css|zip|gz|exe|png)\n");
+    rules.append("-.*[?*!@=].*\n");
+    for (int i = 4; i < numRules; i++) {
+      if (i % 10 == 0) {
+        rules.append("+https?://(www\\.)?host").append(i)
+            .append("\\.org/(docs|blog)/.*\n");
+      } else {
+        rules.append("-https?://(www\\.)?host").append(i)
+            .append("\\.com/.*\n");
+      }
+    }
+    rules.append("+.*\n");
+    return rules.toString();
+  }
+
+  private static List<String> generateUrls(int numRules, int numUrls) {
+    Random random = new Random(1);
+    List<String> urls = new ArrayList<>();
+    String[] paths = { "/", "/index.html", "/docs/a.html", "/img/logo.png",
+        "/search?q=nutch", "/blog/2024/01/post.html" };
+    for (int i = 0; i < numUrls; i++) {
+      int host = random.nextInt(2 * numRules);
+      urls.add((random.nextBoolean() ? "http://" : "https://www.") + "host"
+          + host + (random.nextBoolean() ? ".com" : ".org")
+          + paths[random.nextInt(paths.length)]);
+    }
+    return urls;
+  }
+
+  private static long[] filterAll(URLFilter filter, List<String> urls,
+      int rounds) {
+    long accepted = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      for (String url : urls) {
+        if (filter.filter(url) != null)
+          accepted++;
+      }
+    }
+    return new long[] { accepted, System.nanoTime() - start };
+  }
+
+  /*
+   * The per-rule filter holds one RunAutomaton per rule, each with a class
+   * map of the full char range, so that it is only compared for rule sets
+   * fitting into the test heap.
+   */
+  private void benchmark(int numRules, int numUrls, boolean comparePerRule)
+      throws IOException {
+    String rules = generateRules(numRules);
+    List<String> urls = generateUrls(numRules, numUrls);
+    int rounds = 5;
+
+    long start = System.nanoTime();
+    combined(rules, 1000000);
+    long combinedCompile = System.nanoTime() - start;
+    start = System.nanoTime();
+    AutomatonURLFilter combined = combined(rules, 1000000);
+    long combinedCached = System.nanoTime() - start;
+    LOG.info("{} rules: compile combined {} ms, from cache {} ms", numRules,
+        combinedCompile / 1000000, combinedCached / 1000000);
+    long[] combinedResult = filterAll(combined, urls, rounds);
+    LOG.info("{} rules: filtered {} URLs, combined {} ms", numRules,
+        rounds * urls.size(), combinedResult[1] / 1000000);
+
+    if (comparePerRule) {
+      start = System.nanoTime();
+      AutomatonURLFilter perRule = new AutomatonURLFilter(
+          new StringReader(rules));
+      long perRuleCompile = System.nanoTime() - start;
+      long[] perRuleResult = filterAll(perRule, urls, rounds);
+      LOG.info("{} rules: compile per rule {} ms, filtered {} URLs in {} ms",
+          numRules, perRuleCompile / 1000000, rounds * urls.size(),
+          perRuleResult[1] / 1000000);
+      Assert.assertEquals(perRuleResult[0], combinedResult[0]);
+    }
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmark100Rules() throws IOException {
+    benchmark(100, 20000, true);
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmark1000Rules() throws IOException {
+    benchmark(1000, 5000, true);
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmark10000Rules() throws IOException {
+    benchmark(10000, 20000, false);
+  }
+}
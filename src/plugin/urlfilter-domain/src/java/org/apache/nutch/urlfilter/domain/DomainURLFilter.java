@@ -29,6 +29,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.HostRuleIndex;
 import org.apache.nutch.net.URLFilter;
 import org.apache.nutch.plugin.Extension;
 import org.apache.nutch.plugin.PluginRepository;
@@ -73,6 +74,12 @@ import org.apache.nutch.util.URLUtil;
  * </li>
  * </ul>
  * 
+ * <p>
+ * Large rule files can be compiled into a {@link HostRuleIndex} (see
+ * {@link HostRuleIndex#main(String[])}) which is memory-mapped instead of
+ * reading the rules if defined by the property
+ * &quot;urlfilter.domain.index&quot;.
+ * </p>
  */
 public class DomainURLFilter implements URLFilter {
 
@@ -83,6 +90,8 @@ public class DomainURLFilter implements URLFilter {
   private static String attributeFile = null;
   private Configuration conf;
   private Set<String> domainSet = new LinkedHashSet<String>();
+  // compiled rules, if defined used instead of domainSet
+  private HostRuleIndex domainIndex;
 
   private void readConfiguration(Reader configReader) throws IOException {
 
@@ -124,6 +133,18 @@ public class DomainURLFilter implements URLFilter {
       LOG.info("Attribute \"file\" is defined for plugin {} as {}", pluginName, attributeFile);
     }
 
+    // a compiled rule index takes precedence over all rule definitions
+    String indexFile = conf.get("urlfilter.domain.index");
+    if (StringUtils.isNotBlank(indexFile)) {
+      try {
+        domainIndex = HostRuleIndex.open(conf, indexFile.trim());
+        return;
+      } catch (IOException e) {
+        LOG.error("Error reading " + pluginName + " rule index " + indexFile,
+            e);
+      }
+    }
+
     // precedence hierarchy for definition of filter rules
     // (first non-empty definition takes precedence):
     // 1. string rules defined by `urlfilter.domain.rules`
@@ -154,10 +175,19 @@ public class DomainURLFilter implements URLFilter {
     return this.conf;
   }
 
+  private boolean contains(String name) {
+    if (name == null) {
+      return false;
+    }
+    return domainIndex != null ? domainIndex.contains(name)
+        : domainSet.contains(name);
+  }
+
   @Override
   public String filter(String url) {
     // https://issues.apache.org/jira/browse/NUTCH-2189
-    if (domainSet.size() == 0) return url;
+    if (domainIndex != null ? domainIndex.size() == 0 : domainSet.size() == 0)
+      return url;
     
     try {
       // match for suffix, domain, and host in that order. more general will
@@ -166,8 +196,7 @@ public class DomainURLFilter implements URLFilter {
       String host = URLUtil.getHost(url);
       String suffix = URLUtil.getDomainSuffix(url);
 
-      if (domainSet.contains(suffix) || domainSet.contains(domain)
-          || domainSet.contains(host)) {
+      if (contains(suffix) || contains(domain) || contains(host)) {
         return url;
       }
 
@@ -16,7 +16,10 @@
  */
 package org.apache.nutch.urlfilter.domain;
 
+import java.io.File;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.HostRuleIndex;
 import org.apache.nutch.util.NutchConfiguration;
 import org.junit.Assert;
 import org.junit.Test;
@@ -34,6 +37,23 @@ public class TestDomainURLFilter {
     conf.set("urlfilter.domain.file", domainFile);
     DomainURLFilter domainFilter = new DomainURLFilter();
     domainFilter.setConf(conf);
+    assertFiltered(domainFilter);
+  }
+
+  @Test
+  public void testFilterIndex() throws Exception {
+    File index = File.createTempFile("hosts", ".idx");
+    index.deleteOnExit();
+    HostRuleIndex.main(new String[] { SAMPLES + SEPARATOR + "hosts.txt",
+        index.getAbsolutePath() });
+    Configuration conf = NutchConfiguration.create();
+    conf.set("urlfilter.domain.index", index.getAbsolutePath());
+    DomainURLFilter domainFilter = new DomainURLFilter();
+    domainFilter.setConf(conf);
+    assertFiltered(domainFilter);
+  }
+
+  private void assertFiltered(DomainURLFilter domainFilter) {
     Assert.assertNotNull(domainFilter.filter("http://lucene.apache.org"));
     Assert.assertNotNull(domainFilter.filter("http://hadoop.apache.org"));
     Assert.assertNotNull(domainFilter.filter("http://www.apache.org"));
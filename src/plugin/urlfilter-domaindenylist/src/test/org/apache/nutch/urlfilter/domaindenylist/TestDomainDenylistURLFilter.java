@@ -16,9 +16,12 @@
  */
 package org.apache.nutch.urlfilter.domaindenylist;
 
+import java.io.File;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.HostRuleIndex;
 import org.apache.nutch.util.NutchConfiguration;
 
 public class TestDomainDenylistURLFilter {
@@ -34,6 +37,23 @@ public class TestDomainDenylistURLFilter {
     conf.set("urlfilter.domaindenylist.file", domainDenylistFile);
     DomainDenylistURLFilter domainDenylistFilter = new DomainDenylistURLFilter();
     domainDenylistFilter.setConf(conf);
+    assertFiltered(domainDenylistFilter);
+  }
+
+  @Test
+  public void testFilterIndex() throws Exception {
+    File index = File.createTempFile("hosts", ".idx");
+    index.deleteOnExit();
+    HostRuleIndex.main(new String[] { SAMPLES + SEPARATOR + "hosts.txt",
+        index.getAbsolutePath() });
+    Configuration conf = NutchConfiguration.create();
+    conf.set("urlfilter.domaindenylist.index", index.getAbsolutePath());
+    DomainDenylistURLFilter domainDenylistFilter = new DomainDenylistURLFilter();
+    domainDenylistFilter.setConf(conf);
+    assertFiltered(domainDenylistFilter);
+  }
+
+  private void assertFiltered(DomainDenylistURLFilter domainDenylistFilter) {
     Assert.assertNull(domainDenylistFilter.filter("http://lucene.apache.org"));
     Assert.assertNull(domainDenylistFilter.filter("http://hadoop.apache.org"));
     Assert.assertNull(domainDenylistFilter.filter("http://www.apache.org"));
@@ -24,17 +24,30 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.nutch.net.HostRuleIndex;
 import org.apache.nutch.net.URLFilter;
+import org.apache.nutch.util.NutchConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.invoke.MethodHandles;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -98,6 +111,12 @@ import java.util.regex.PatternSyntaxException;
  * 
  * In addition, it can filter based on the length of the whole URL, its path element or
  * its query element. See <code>urlfilter.fast.url.*</code> configurations.
+ * 
+ * Large rule files can be compiled into a {@link HostRuleIndex}, see
+ * {@link #main(String[])}. If the index is defined via the property
+ * <code>urlfilter.fast.index</code>, it is memory-mapped instead of reading
+ * the rules file, and the rules of a host or domain are only read from the
+ * index when a URL of the host or domain is checked.
  */
 public class FastURLFilter implements URLFilter {
 
@@ -109,10 +128,26 @@ public class FastURLFilter implements URLFilter {
   public static final String URLFILTER_FAST_MAX_LENGTH = "urlfilter.fast.url.max.length";
   public static final String URLFILTER_FAST_PATH_MAX_LENGTH = "urlfilter.fast.url.path.max.length";
   public static final String URLFILTER_FAST_QUERY_MAX_LENGTH = "urlfilter.fast.url.query.max.length";
+  public static final String URLFILTER_FAST_INDEX = "urlfilter.fast.index";
+  public static final String URLFILTER_FAST_INDEX_CACHE_SIZE = "urlfilter.fast.index.cache.size";
   
   private Multimap<String, Rule> hostRules = LinkedHashMultimap.create();
   private Multimap<String, Rule> domainRules = LinkedHashMultimap.create();
 
+  /** Compiled rules, if defined used instead of the rule maps */
+  private HostRuleIndex index;
+  /** Handle of the global rules in the index */
+  private int globalRules = HostRuleIndex.NOT_FOUND;
+  /** Rules read from the index: handle -> host and domain rules */
+  private Map<Integer, Rule[][]> ruleCache;
+
+  /* types of serialized rules in the index */
+  private static final byte DENY_ALL = 0;
+  private static final byte DENY_PATH = 1;
+  private static final byte DENY_PATH_QUERY = 2;
+  private static final byte DENY_URL = 3;
+  private static final Rule[] NO_RULES = new Rule[0];
+
   /** Max allowed size of the path of a URL **/
   private int maxLengthPath = -1;
   /** Max allowed size of the query of a URL **/
@@ -139,6 +174,14 @@ public class FastURLFilter implements URLFilter {
     reloadRules(rules);
   }
 
+  /** Used by the tests to filter with a compiled rule index **/
+  FastURLFilter(HostRuleIndex index, Configuration conf) {
+    maxLengthPath = conf.getInt(URLFILTER_FAST_PATH_MAX_LENGTH, -1);
+    maxLengthQuery = conf.getInt(URLFILTER_FAST_QUERY_MAX_LENGTH, -1);
+    maxLength = conf.getInt(URLFILTER_FAST_MAX_LENGTH, -1);
+    setIndex(index, conf.getInt(URLFILTER_FAST_INDEX_CACHE_SIZE, 10000));
+  }
+
   @Override
   public void setConf(Configuration conf) {
     this.conf = conf;
@@ -146,6 +189,13 @@ public class FastURLFilter implements URLFilter {
     maxLengthQuery = conf.getInt(URLFILTER_FAST_QUERY_MAX_LENGTH, -1);
     maxLength = conf.getInt(URLFILTER_FAST_MAX_LENGTH, -1);
     try {
+      String indexFile = conf.get(URLFILTER_FAST_INDEX);
+      if (StringUtils.isNotBlank(indexFile)) {
+        LOG.info("Reading urlfilter-fast rule index: {}", indexFile);
+        setIndex(HostRuleIndex.open(conf, indexFile.trim()),
+            conf.getInt(URLFILTER_FAST_INDEX_CACHE_SIZE, 10000));
+        return;
+      }
       reloadRules();
     } catch (Exception e) {
       LOG.error("Failed to load rules: {}", e.getMessage()  );
@@ -195,6 +245,10 @@ public class FastURLFilter implements URLFilter {
 
     String hostname = u.getHost();
 
+    if (index != null) {
+      return filterIndexed(url, u, hostname);
+    }
+
     // first check for host-specific rules
     for (Rule rule : hostRules.get(hostname)) {
       if (rule.match(u)) {
@@ -234,6 +288,147 @@ public class FastURLFilter implements URLFilter {
     return url;
   }
 
+  private void setIndex(HostRuleIndex index, int cacheSize) {
+    this.index = index;
+    globalRules = index.find(".");
+    ruleCache = new LinkedHashMap<Integer, Rule[][]>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Rule[][]> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /** Same as {@link #filter(String)} but looking up the rules in the index */
+  private String filterIndexed(String url, URL u, String hostname) {
+    byte[] host = hostname.getBytes(StandardCharsets.UTF_8);
+
+    // host-specific and domain rules for the host name
+    int handle = index.find(host, 0, host.length);
+    if (handle != HostRuleIndex.NOT_FOUND) {
+      Rule[][] rules = getRules(handle);
+      if (matches(rules[0], u) || matches(rules[1], u)) {
+        return null;
+      }
+    }
+
+    // suffixes of host name from longer to shorter
+    for (int i = 0; i < host.length; i++) {
+      if (host[i] == '.') {
+        handle = index.find(host, i + 1, host.length - i - 1);
+        if (handle != HostRuleIndex.NOT_FOUND
+            && matches(getRules(handle)[1], u)) {
+          return null;
+        }
+      }
+    }
+
+    // global rules
+    if (globalRules != HostRuleIndex.NOT_FOUND
+        && matches(getRules(globalRules)[1], u)) {
+      return null;
+    }
+
+    return url;
+  }
+
+  private static boolean matches(Rule[] rules, URL u) {
+    for (Rule rule : rules) {
+      if (rule.match(u)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Get the host and domain rules of a name in the index */
+  private Rule[][] getRules(int handle) {
+    Rule[][] rules;
+    synchronized (ruleCache) {
+      rules = ruleCache.get(handle);
+    }
+    if (rules == null) {
+      try (DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(index.getPayload(handle)))) {
+        rules = new Rule[][] { readRules(in), readRules(in) };
+      } catch (IOException e) {
+        // not expected for a byte array
+        throw new RuntimeException(e);
+      }
+      synchronized (ruleCache) {
+        ruleCache.put(handle, rules);
+      }
+    }
+    return rules;
+  }
+
+  private static Rule[] readRules(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    if (n == 0) {
+      return NO_RULES;
+    }
+    Rule[] rules = new Rule[n];
+    for (int i = 0; i < n; i++) {
+      byte type = in.readByte();
+      switch (type) {
+      case DENY_ALL:
+        rules[i] = DenyAllRule.getInstance();
+        break;
+      case DENY_PATH:
+        rules[i] = new DenyPathRule(in.readUTF());
+        break;
+      case DENY_PATH_QUERY:
+        rules[i] = new DenyPathQueryRule(in.readUTF());
+        break;
+      default:
+        rules[i] = new Rule(in.readUTF());
+      }
+    }
+    return rules;
+  }
+
+  private static void writeRules(DataOutputStream out, Collection<Rule> rules)
+      throws IOException {
+    out.writeInt(rules.size());
+    for (Rule rule : rules) {
+      if (rule instanceof DenyAllRule) {
+        out.writeByte(DENY_ALL);
+        continue;
+      } else if (rule instanceof DenyPathQueryRule) {
+        out.writeByte(DENY_PATH_QUERY);
+      } else if (rule instanceof DenyPathRule) {
+        out.writeByte(DENY_PATH);
+      } else {
+        out.writeByte(DENY_URL);
+      }
+      out.writeUTF(rule.pattern.pattern());
+    }
+  }
+
+  /**
+   * Add the rules read from the rules file to an index.
+   * 
+   * @param writer
+   *          the index writer
+   * @throws IOException
+   *           if the rules cannot be serialized
+   */
+  void writeIndex(HostRuleIndex.Writer writer) throws IOException {
+    Set<String> names = new LinkedHashSet<>(hostRules.keySet());
+    names.addAll(domainRules.keySet());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (String name : names) {
+      bytes.reset();
+      DataOutputStream out = new DataOutputStream(bytes);
+      writeRules(out, hostRules.get(name));
+      writeRules(out, domainRules.get(name));
+      out.flush();
+      writer.put(name, bytes.toByteArray());
+    }
+  }
+
   public void reloadRules() throws IOException {
     String fileRules = conf.get(URLFILTER_FAST_FILE);
     LOG.info("Reading urlfilter-fast rules file: {}", fileRules);
@@ -400,4 +595,34 @@ public class FastURLFilter implements URLFilter {
       return pattern.matcher(haystack).find();
     }
   }
+
+  /**
+   * Compile a rules file into a {@link HostRuleIndex} to be used via the
+   * property <code>urlfilter.fast.index</code>.
+   * 
+   * @param args
+   *          the rules file and the output index file
+   * @throws IOException
+   *           if the rules cannot be read or the index cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: FastURLFilter <rules_file> <index_file>");
+      System.exit(-1);
+    }
+    Configuration conf = NutchConfiguration.create();
+    String rules = args[0];
+    if (new Path(rules).toUri().getScheme() == null) {
+      rules = new File(rules).getAbsoluteFile().toURI().toString();
+    }
+    conf.set(URLFILTER_FAST_FILE, rules);
+    conf.unset(URLFILTER_FAST_INDEX);
+    FastURLFilter filter = new FastURLFilter();
+    filter.setConf(conf);
+    HostRuleIndex.Writer writer = new HostRuleIndex.Writer();
+    filter.writeIndex(writer);
+    writer.write(new File(args[1]));
+    LOG.info("Wrote index {} with rules of {} hosts and domains", args[1],
+        writer.size());
+  }
 }
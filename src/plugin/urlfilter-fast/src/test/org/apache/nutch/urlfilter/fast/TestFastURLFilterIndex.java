@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.fast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.HostRuleIndex;
+import org.apache.nutch.net.URLFilter;
+import org.apache.nutch.urlfilter.api.RegexURLFilterBaseTest;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Runs the tests of {@link TestFastURLFilter} with rules compiled into a
+ * {@link HostRuleIndex}.
+ */
+public class TestFastURLFilterIndex extends RegexURLFilterBaseTest {
+
+  private int cacheSize = 10000;
+
+  @Override
+  protected URLFilter getURLFilter(Reader rules) {
+    try {
+      HostRuleIndex.Writer writer = new HostRuleIndex.Writer();
+      new FastURLFilter(rules).writeIndex(writer);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      writer.write(out);
+      HostRuleIndex index = new HostRuleIndex(
+          ByteBuffer.wrap(out.toByteArray()));
+      Configuration conf = new Configuration();
+      conf.setInt(FastURLFilter.URLFILTER_FAST_INDEX_CACHE_SIZE, cacheSize);
+      return new FastURLFilter(index, conf);
+    } catch (IOException e) {
+      Assert.fail(e.toString());
+      return null;
+    }
+  }
+
+  @Test
+  public void test() {
+    test("fast-urlfilter-test.txt", "test.urls");
+    test("fast-urlfilter-benchmark.txt", "Benchmarks.urls");
+  }
+
+  @Test
+  public void testCacheEviction() {
+    cacheSize = 1;
+    test("fast-urlfilter-test.txt", "test.urls");
+    test("fast-urlfilter-benchmark.txt", "Benchmarks.urls");
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmark() {
+    bench(50, "fast-urlfilter-benchmark.txt", "Benchmarks.urls");
+    bench(800, "fast-urlfilter-benchmark.txt", "Benchmarks.urls");
+  }
+}
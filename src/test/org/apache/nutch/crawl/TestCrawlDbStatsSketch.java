@@ -0,0 +1,225 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+import org.apache.nutch.util.HyperLogLog;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.SegmentReaderUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the mergeable CrawlDb statistics sketches written by
+ * {@link CrawlDbReader#processSketchStatJob(String, String, Configuration, boolean)}
+ */
+public class TestCrawlDbStatsSketch {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    testDir = new Path("test-crawldb-stats-" + new java.util.Random().nextInt());
+    fs.mkdirs(testDir);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (fs.exists(testDir)) {
+      fs.delete(testDir, true);
+    }
+  }
+
+  private static CrawlDatum datum(int i) {
+    CrawlDatum datum = new CrawlDatum();
+    datum.setStatus(
+        i % 3 == 0 ? CrawlDatum.STATUS_DB_FETCHED : CrawlDatum.STATUS_DB_UNFETCHED);
+    datum.setScore(i / 100.0f);
+    datum.setFetchInterval(3600 * (1 + i % 30));
+    datum.setFetchTime(1000L * 60 * 60 * i);
+    datum.setRetriesSinceFetch(i % 2);
+    return datum;
+  }
+
+  private static CrawlDbStatsSketch copy(CrawlDbStatsSketch sketch)
+      throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    sketch.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    CrawlDbStatsSketch copy = new CrawlDbStatsSketch();
+    copy.readFields(in);
+    return copy;
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    CrawlDbStatsSketch all = new CrawlDbStatsSketch(100.0, 12);
+    CrawlDbStatsSketch part1 = new CrawlDbStatsSketch(100.0, 12);
+    CrawlDbStatsSketch part2 = new CrawlDbStatsSketch(100.0, 12);
+    for (int i = 0; i < 1000; i++) {
+      String host = "host" + (i % 50) + ".example" + (i % 10) + ".com";
+      String domain = "example" + (i % 10) + ".com";
+      all.add(datum(i), host, domain);
+      (i < 300 ? part1 : part2).add(datum(i), host, domain);
+    }
+    CrawlDbStatsSketch merged = new CrawlDbStatsSketch();
+    merged.merge(copy(part1));
+    merged.merge(copy(part2));
+    merged = copy(merged);
+
+    Assert.assertEquals(1000, merged.getCount());
+    Assert.assertEquals(all.getStatusCounts(), merged.getStatusCounts());
+    Assert.assertEquals(334L, (long) merged.getStatusCounts()
+        .get(CrawlDatum.STATUS_DB_FETCHED));
+    Assert.assertEquals(all.getRetryCounts(), merged.getRetryCounts());
+    Assert.assertEquals(0.0f, merged.getScoreMin(), 0.0f);
+    Assert.assertEquals(9.99f, merged.getScoreMax(), 0.0001f);
+    Assert.assertEquals(all.getScoreAvg(), merged.getScoreAvg(), 0.0001);
+    Assert.assertEquals(all.getFetchTimeMin(), merged.getFetchTimeMin());
+    Assert.assertEquals(all.getFetchTimeMax(), merged.getFetchTimeMax());
+    Assert.assertEquals(3600, merged.getFetchIntervalMin());
+    Assert.assertEquals(3600 * 30, merged.getFetchIntervalMax());
+    Assert.assertEquals(5.0, merged.getScoreQuantile(0.5), 0.1);
+    Assert.assertEquals(all.getFetchIntervalQuantile(0.9),
+        merged.getFetchIntervalQuantile(0.9), 3600);
+    Assert.assertEquals(all.getDistinctHosts(), merged.getDistinctHosts());
+    Assert.assertEquals(50, merged.getDistinctHosts(), 1);
+    Assert.assertEquals(10, merged.getDistinctDomains());
+  }
+
+  @Test
+  public void testCountsOnly() throws Exception {
+    CrawlDbStatsSketch full = new CrawlDbStatsSketch(100.0, 0);
+    CrawlDbStatsSketch part1 = CrawlDbStatsSketch.countsOnly();
+    CrawlDbStatsSketch part2 = CrawlDbStatsSketch.countsOnly();
+    for (int i = 0; i < 1000; i++) {
+      full.add(datum(i), null, null);
+      (i < 300 ? part1 : part2).add(datum(i), null, null);
+    }
+    DataOutputBuffer fullOut = new DataOutputBuffer();
+    full.write(fullOut);
+    DataOutputBuffer out = new DataOutputBuffer();
+    part1.write(out);
+    Assert.assertTrue(out.getLength() < 16);
+    Assert.assertTrue(fullOut.getLength() > 100);
+
+    CrawlDbStatsSketch merged = new CrawlDbStatsSketch();
+    merged.merge(copy(part1));
+    merged.merge(copy(part2));
+    merged = copy(merged);
+    Assert.assertTrue(merged.isCountsOnly());
+    Assert.assertEquals(1000, merged.getCount());
+    Assert.assertEquals(full.getStatusCounts(), merged.getStatusCounts());
+    Assert.assertTrue(merged.getRetryCounts().isEmpty());
+    Assert.assertTrue(Double.isNaN(merged.getScoreQuantile(0.5)));
+  }
+
+  @Test
+  public void testHyperLogLog() throws Exception {
+    HyperLogLog hll1 = new HyperLogLog();
+    HyperLogLog hll2 = new HyperLogLog();
+    int n = 200000;
+    for (int i = 0; i < n; i++) {
+      (i % 2 == 0 ? hll1 : hll2).add("host" + i + ".example.org");
+      // duplicates must not be counted
+      hll1.add("host" + (i / 2) + ".example.org");
+    }
+    hll1.merge(hll2);
+    Assert.assertEquals(n, hll1.cardinality(), n * 0.03);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    hll1.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    HyperLogLog copy = new HyperLogLog(4);
+    copy.readFields(in);
+    Assert.assertEquals(hll1.cardinality(), copy.cardinality());
+  }
+
+  @Test
+  public void testSketchStatJob() throws Exception {
+    Path crawlDb = new Path(testDir, "crawldb");
+    Path stats = new Path(testDir, "stats");
+    List<URLCrawlDatum> list = new ArrayList<>();
+    Map<String, Integer> hostCounts = new HashMap<>();
+    for (int i = 0; i < 600; i++) {
+      String host = "www" + (i % 7) + ".example" + (i % 3) + ".org";
+      list.add(new URLCrawlDatum(new Text("http://" + host + "/page" + i),
+          datum(i)));
+      hostCounts.merge(host, 1, Integer::sum);
+    }
+    // CrawlDb must be sorted by URL
+    list.sort((a, b) -> a.url.compareTo(b.url));
+    CrawlDBTestUtil.createCrawlDb(conf, fs, crawlDb, list);
+
+    // force flushing of buffered per-host sketches
+    conf.setInt("db.reader.stats.sketch.max.buffered", 3);
+    try (CrawlDbReader reader = new CrawlDbReader()) {
+      reader.processSketchStatJob(crawlDb.toString(), stats.toString(), conf,
+          true);
+    }
+
+    Text key = new Text();
+    CrawlDbStatsSketch value = new CrawlDbStatsSketch();
+    CrawlDbStatsSketch total = null;
+    long statusTotal = 0;
+    Map<String, Integer> hosts = new HashMap<>();
+    for (SequenceFile.Reader reader : SegmentReaderUtil.getReaders(stats,
+        conf)) {
+      while (reader.next(key, value)) {
+        String k = key.toString();
+        if (k.equals("T")) {
+          total = copy(value);
+        } else if (k.startsWith("status ")) {
+          statusTotal += value.getCount();
+          Assert.assertEquals(1, value.getStatusCounts().size());
+        } else if (k.startsWith("host ")) {
+          Assert.assertNull(hosts.put(k.substring(5), (int) value.getCount()));
+          Assert.assertTrue(value.isCountsOnly());
+          Assert.assertEquals(-1, value.getDistinctHosts());
+        }
+      }
+      reader.close();
+    }
+    Assert.assertNotNull(total);
+    Assert.assertEquals(600, total.getCount());
+    Assert.assertEquals(600, statusTotal);
+    Assert.assertEquals(hostCounts, hosts);
+    Assert.assertEquals(21, total.getDistinctHosts(), 1);
+    Assert.assertEquals(3, total.getDistinctDomains());
+    Assert.assertEquals(5.99f, total.getScoreMax(), 0.0001f);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlDBTestUtil.URLCrawlDatum;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.ParseData;
+import org.apache.nutch.parse.ParseImpl;
+import org.apache.nutch.parse.ParseStatus;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestNearDuplicateDeduplication {
+
+  private static final String TEXT = "Apache Nutch is a highly extensible and"
+      + " scalable open source web crawler software project. Stemming from"
+      + " Apache Lucene, the project has diversified and now comprises two"
+      + " codebases, namely Nutch 1.x, a well matured, production ready crawler"
+      + " which enables fine grained configuration, relying on Apache Hadoop"
+      + " data structures, which are great for batch processing. Nutch"
+      + " provides extensible interfaces such as Parse, Index and ScoringFilter"
+      + " for custom implementations e.g. Apache Tika for parsing. Additionally,"
+      + " pluggable indexing exists for Apache Solr, Elastic Search and others."
+      + " Nutch can run on a single machine, but gains a lot of its strength"
+      + " from running in a Hadoop cluster.";
+
+  private static final String OTHER_TEXT = "The quick brown fox jumps over the"
+      + " lazy dog while the cat watches from the garden wall and the birds"
+      + " sing their morning songs in the old oak tree near the river bank.";
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testCrawlDb;
+  private Signature signature;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    testCrawlDb = new Path("test-crawldb-" + new java.util.Random().nextInt());
+    signature = new SimHashSignature();
+    signature.setConf(conf);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (fs.exists(testCrawlDb)) {
+      fs.delete(testCrawlDb, true);
+    }
+  }
+
+  private byte[] signature(String text) {
+    ParseData pd = new ParseData(ParseStatus.STATUS_SUCCESS, "title",
+        new Outlink[0], new Metadata());
+    return signature.calculate(new Content(), new ParseImpl(text, pd));
+  }
+
+  private static int distance(byte[] sig1, byte[] sig2) {
+    return SimHashSignature.hammingDistance(SimHashSignature.toLong(sig1),
+        SimHashSignature.toLong(sig2));
+  }
+
+  @Test
+  public void testSimHashSignature() {
+    byte[] sig = signature(TEXT + " Last updated 2024-01-17, 1234 visitors");
+    Assert.assertEquals(SimHashSignature.SIGNATURE_LENGTH, sig.length);
+    // digits only tokens are skipped
+    Assert.assertEquals(0,
+        distance(sig, signature(TEXT + " Last updated 2024-02-03, 98 visitors")));
+    // a small change results in a small distance
+    Assert.assertTrue(
+        distance(sig, signature(TEXT + " Last modified 2024-01-17")) <= 3);
+    // different texts result in a large distance
+    Assert.assertTrue(distance(sig, signature(OTHER_TEXT)) > 10);
+  }
+
+  private URLCrawlDatum datum(String url, String text, float score) {
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600,
+        score);
+    datum.setFetchTime(1000000L);
+    datum.setSignature(signature(text));
+    return new URLCrawlDatum(new Text(url), datum);
+  }
+
+  @Test
+  public void testNearDuplicateDeduplication() throws Exception {
+    List<URLCrawlDatum> list = new ArrayList<>();
+    list.add(datum("http://a.example.com/", TEXT + " Visitors: 1", 1.0f));
+    list.add(datum("http://b.example.com/", TEXT + " Visitors: 2", 2.0f));
+    list.add(datum("http://c.example.com/", TEXT + " Last modified", 0.5f));
+    list.add(datum("http://d.example.com/", OTHER_TEXT, 0.1f));
+    URLCrawlDatum unfetched = datum("http://e.example.com/", TEXT, 5.0f);
+    unfetched.datum.setStatus(CrawlDatum.STATUS_DB_UNFETCHED);
+    list.add(unfetched);
+    CrawlDBTestUtil.createCrawlDb(conf, fs, testCrawlDb, list);
+
+    int result = ToolRunner.run(conf, new NearDuplicateDeduplicationJob(),
+        new String[] { testCrawlDb.toString() });
+    Assert.assertEquals("NearDuplicateDeduplicationJob did not succeed", 0,
+        result);
+
+    try (CrawlDbReader reader = new CrawlDbReader()) {
+      checkStatus(reader, "http://a.example.com/",
+          CrawlDatum.STATUS_DB_DUPLICATE);
+      // highest score is kept
+      checkStatus(reader, "http://b.example.com/",
+          CrawlDatum.STATUS_DB_FETCHED);
+      checkStatus(reader, "http://c.example.com/",
+          CrawlDatum.STATUS_DB_DUPLICATE);
+      checkStatus(reader, "http://d.example.com/",
+          CrawlDatum.STATUS_DB_FETCHED);
+      checkStatus(reader, "http://e.example.com/",
+          CrawlDatum.STATUS_DB_UNFETCHED);
+    }
+  }
+
+  @Test
+  public void testGroupByHostOrDomain() throws Exception {
+    List<URLCrawlDatum> list = new ArrayList<>();
+    list.add(datum("http://a.example.com/", TEXT + " Visitors: 1", 1.0f));
+    list.add(datum("http://b.example.com/", TEXT + " Visitors: 2", 2.0f));
+    list.add(datum("http://192.168.0.1/", TEXT + " Visitors: 3", 3.0f));
+    // no valid URL: no host and no domain
+    list.add(datum("nohost:page", TEXT, 4.0f));
+    // CrawlDb must be sorted by URL
+    list.sort((a, b) -> a.url.compareTo(b.url));
+    CrawlDBTestUtil.createCrawlDb(conf, fs, testCrawlDb, list);
+
+    for (String mode : new String[] { "host", "domain" }) {
+      int result = ToolRunner.run(conf, new NearDuplicateDeduplicationJob(),
+          new String[] { testCrawlDb.toString(), "-group", mode });
+      Assert.assertEquals("NearDuplicateDeduplicationJob did not succeed", 0,
+          result);
+    }
+
+    try (CrawlDbReader reader = new CrawlDbReader()) {
+      // near-duplicates within the same domain
+      checkStatus(reader, "http://a.example.com/",
+          CrawlDatum.STATUS_DB_DUPLICATE);
+      checkStatus(reader, "http://b.example.com/",
+          CrawlDatum.STATUS_DB_FETCHED);
+      checkStatus(reader, "http://192.168.0.1/", CrawlDatum.STATUS_DB_FETCHED);
+      checkStatus(reader, "nohost:page", CrawlDatum.STATUS_DB_FETCHED);
+    }
+  }
+
+  private void checkStatus(CrawlDbReader reader, String url, byte status)
+      throws IOException {
+    CrawlDatum datum = reader.get(testCrawlDb.toString(), url, conf);
+    Assert.assertNotNull("No CrawlDatum found in CrawlDb for " + url, datum);
+    Assert.assertEquals(
+        "Expected status for " + url + ": " + CrawlDatum.getStatusName(status),
+        status, datum.getStatus());
+  }
+}
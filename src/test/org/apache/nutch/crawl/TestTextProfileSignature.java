@@ -16,9 +16,14 @@
  */
 package org.apache.nutch.crawl;
 
+import java.lang.invoke.MethodHandles;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.StopWatch;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.metadata.Metadata;
@@ -30,10 +35,21 @@ import org.apache.nutch.protocol.Content;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.StringUtil;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class TestTextProfileSignature {
 
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String[] WORDS = { "nutch", "crawler", "hadoop",
+      "apache", "web", "search", "index", "Fetcher", "PARSER", "segment",
+      "größe", "straße", "über", "日本語", "текст", "ελληνικά", "a", "of", "to",
+      "x1", "2024", "12345", "naïve", "café", "\uD83D\uDE00smile" };
+
   @Test
   public void testGetSignature() {
     Configuration conf = NutchConfiguration.create();
@@ -54,4 +70,70 @@ public class TestTextProfileSignature {
     Assert.assertEquals(StringUtil.toHexString(signature1),
         StringUtil.toHexString(signature2));
   }
+
+  private static String randomText(Random random, int length) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length) {
+      sb.append(WORDS[random.nextInt(WORDS.length)]);
+      if (random.nextInt(10) == 0) {
+        sb.append(random.nextInt(100000));
+      }
+      sb.append(random.nextInt(8) == 0 ? ", " : " ");
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testSignatureEquivalence() {
+    Configuration conf = NutchConfiguration.create();
+    TextProfileSignature textProf = new TextProfileSignature();
+    textProf.setConf(conf);
+    ParseData pd = new ParseData(ParseStatus.STATUS_SUCCESS, "",
+        new Outlink[0], new Metadata());
+    Random random = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      String text = randomText(random, 1 + random.nextInt(i < 100 ? 200 : 50000));
+      Assert.assertArrayEquals(text, textProf.calculateByStrings(text),
+          textProf.calculate(new Content(), new ParseImpl(text, pd)));
+    }
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmarkSignature() {
+    Configuration conf = NutchConfiguration.create();
+    TextProfileSignature textProf = new TextProfileSignature();
+    textProf.setConf(conf);
+    ParseData pd = new ParseData(ParseStatus.STATUS_SUCCESS, "",
+        new Outlink[0], new Metadata());
+    Random random = new Random(42);
+    for (int size : new int[] { 10000, 100000, 1000000 }) {
+      String text = randomText(random, size);
+      ParseImpl parse = new ParseImpl(text, pd);
+      int loops = 20000000 / size;
+      Assert.assertArrayEquals(textProf.calculateByStrings(text),
+          textProf.calculate(new Content(), parse));
+      // warm-up
+      for (int i = 0; i < loops; i++) {
+        textProf.calculateByStrings(text);
+        textProf.calculate(new Content(), parse);
+      }
+      StopWatch stopWatch = new StopWatch();
+      stopWatch.start();
+      for (int i = 0; i < loops; i++) {
+        textProf.calculateByStrings(text);
+      }
+      stopWatch.stop();
+      long stringsTime = stopWatch.getTime(TimeUnit.MILLISECONDS);
+      stopWatch.reset();
+      stopWatch.start();
+      for (int i = 0; i < loops; i++) {
+        textProf.calculate(new Content(), parse);
+      }
+      stopWatch.stop();
+      LOG.info(
+          "TextProfileSignature {} chars, {} loops: {} ms (String tokens), {} ms (token buffer)",
+          size, loops, stringsTime, stopWatch.getTime(TimeUnit.MILLISECONDS));
+    }
+  }
 }
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.fetcher.FetchItem;
+import org.apache.nutch.fetcher.FetchItemQueues;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestDNSCache {
+
+  /**
+   * Resolves host names "host-N.example" to 10.0.0.N without network access,
+   * all other host names are unknown.
+   */
+  public static class StubResolver implements DNSCache.Resolver {
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile CountDownLatch latch = null;
+
+    @Override
+    public InetAddress resolve(String host) throws UnknownHostException {
+      requests.incrementAndGet();
+      if (latch != null) {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          throw new UnknownHostException(host);
+        }
+      }
+      if (host.startsWith("host-") && host.endsWith(".example")) {
+        int n = Integer.parseInt(host.substring(5, host.indexOf('.')));
+        return InetAddress.getByAddress(host, new byte[] { 10, 0, 0, (byte) n });
+      }
+      throw new UnknownHostException(host);
+    }
+  }
+
+  private static Configuration createConf(long positiveTtl, long negativeTtl) {
+    Configuration conf = NutchConfiguration.create();
+    conf.setLong(DNSCache.DNS_CACHE_TTL_POSITIVE, positiveTtl);
+    conf.setLong(DNSCache.DNS_CACHE_TTL_NEGATIVE, negativeTtl);
+    return conf;
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    StubResolver resolver = new StubResolver();
+    DNSCache cache = new DNSCache(createConf(300, 300), resolver);
+
+    Assert.assertEquals("10.0.0.1",
+        cache.resolve("host-1.example").getHostAddress());
+    Assert.assertEquals("10.0.0.1",
+        cache.resolve("HOST-1.example").getHostAddress());
+    Assert.assertEquals(1, resolver.requests.get());
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.resolve("unknown.example");
+        Assert.fail("UnknownHostException expected");
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(2, resolver.requests.get());
+
+    Assert.assertEquals(4L, (long) cache.getCounters().get("lookups"));
+    Assert.assertEquals(1L, (long) cache.getCounters().get("cacheHits"));
+    Assert.assertEquals(1L,
+        (long) cache.getCounters().get("negativeCacheHits"));
+    Assert.assertEquals(2L, (long) cache.getCounters().get("requests"));
+    Assert.assertEquals(1L, (long) cache.getCounters().get("failures"));
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    StubResolver resolver = new StubResolver();
+    // failed lookups are not cached
+    DNSCache cache = new DNSCache(createConf(300, 0), resolver);
+    cache.resolve("host-1.example");
+    cache.resolve("host-1.example");
+    Assert.assertEquals(1, resolver.requests.get());
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.resolve("unknown.example");
+        Assert.fail("UnknownHostException expected");
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(3, resolver.requests.get());
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    StubResolver resolver = new StubResolver();
+    resolver.latch = new CountDownLatch(1);
+    DNSCache cache = new DNSCache(createConf(300, 300), resolver);
+    List<CompletableFuture<InetAddress>> futures = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      futures.add(cache.resolveAsync("host-2.example"));
+    }
+    futures.add(cache.resolveAsync("unknown.example"));
+    resolver.latch.countDown();
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals("10.0.0.2", futures.get(i).get().getHostAddress());
+    }
+    try {
+      futures.get(10).get();
+      Assert.fail("UnknownHostException expected");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof UnknownHostException);
+    }
+    Assert.assertEquals(2, resolver.requests.get());
+    Assert.assertEquals(9L, (long) cache.getCounters().get("coalesced"));
+  }
+
+  @Test
+  public void testFetchItemQueueByIP() throws Exception {
+    Configuration conf = createConf(300, 300);
+    conf.set("fetcher.queue.mode", FetchItemQueues.QUEUE_MODE_IP);
+    conf.setClass(DNSCache.DNS_RESOLVER_CLASS, StubResolver.class,
+        DNSCache.Resolver.class);
+    FetchItemQueues queues = new FetchItemQueues(conf);
+    FetchItem item = queues.createFetchItem(
+        new Text("http://host-3.example/page.html"), new CrawlDatum(), 0);
+    Assert.assertEquals("10.0.0.3", item.getQueueID());
+    Assert.assertNull(queues.createFetchItem(
+        new Text("http://unknown.example/"), new CrawlDatum(), 0));
+    Assert.assertEquals(1L, (long) DNSCache.get(conf).getCounters()
+        .get("failures"));
+  }
+
+  @Test
+  public void testSharedResolverThreads() throws Exception {
+    // many configurations share the pool of resolver threads
+    for (int i = 0; i < 20; i++) {
+      Configuration conf = createConf(300, 300);
+      conf.setClass(DNSCache.DNS_RESOLVER_CLASS, StubResolver.class,
+          DNSCache.Resolver.class);
+      DNSCache.get(conf).resolve("host-" + i + ".example");
+    }
+    long threads = Thread.getAllStackTraces().keySet().stream()
+        .filter(t -> t.getName().startsWith("DNSCache-")).count();
+    Assert.assertTrue("resolver threads: " + threads, threads <= 10);
+
+    // configurations without UUID get the same cache
+    Configuration conf = new Configuration();
+    conf.setClass(DNSCache.DNS_RESOLVER_CLASS, StubResolver.class,
+        DNSCache.Resolver.class);
+    DNSCache cache = DNSCache.get(conf);
+    System.gc();
+    Assert.assertSame(cache, DNSCache.get(conf));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestHostRuleIndex {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static HostRuleIndex build(HostRuleIndex.Writer writer)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out);
+    return new HostRuleIndex(ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  @Test
+  public void testLookup() throws IOException {
+    HostRuleIndex.Writer writer = new HostRuleIndex.Writer();
+    for (int i = 0; i < 1000; i++) {
+      writer.put("host" + i + ".example.com",
+          ("payload" + i).getBytes(StandardCharsets.UTF_8));
+    }
+    writer.put("com", new byte[0]);
+    writer.put("bücher.de", new byte[] { 1, 2, 3 });
+    writer.put("com", new byte[] { 42 });
+    HostRuleIndex index = build(writer);
+    Assert.assertEquals(1002, index.size());
+    for (int i = 0; i < 1000; i++) {
+      int handle = index.find("host" + i + ".example.com");
+      Assert.assertNotEquals(HostRuleIndex.NOT_FOUND, handle);
+      Assert.assertEquals("payload" + i,
+          new String(index.getPayload(handle), StandardCharsets.UTF_8));
+    }
+    Assert.assertArrayEquals(new byte[] { 42 },
+        index.getPayload(index.find("com")));
+    Assert.assertArrayEquals(new byte[] { 1, 2, 3 },
+        index.getPayload(index.find("bücher.de")));
+    Assert.assertFalse(index.contains("example.com"));
+    Assert.assertFalse(index.contains("host1000.example.com"));
+    Assert.assertFalse(index.contains(""));
+
+    // look up all suffixes of a host name
+    byte[] host = "www.host7.example.com".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(HostRuleIndex.NOT_FOUND,
+        index.find(host, 0, host.length));
+    Assert.assertEquals(index.find("host7.example.com"),
+        index.find(host, 4, host.length - 4));
+    Assert.assertEquals(index.find("com"), index.find(host, 18, 3));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    HostRuleIndex index = build(new HostRuleIndex.Writer());
+    Assert.assertEquals(0, index.size());
+    Assert.assertFalse(index.contains("example.com"));
+    Assert.assertFalse(index.contains(""));
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalid() throws IOException {
+    new HostRuleIndex(ByteBuffer.wrap(new byte[64]));
+  }
+
+  @Test
+  public void testOpen() throws IOException {
+    File list = tmp.newFile("hosts.txt");
+    Files.write(list.toPath(), Arrays.asList("# comment", "", "Apache.org ",
+        "www.example.com"), StandardCharsets.UTF_8);
+    File file = new File(tmp.getRoot(), "hosts.idx");
+    HostRuleIndex.main(
+        new String[] { list.getAbsolutePath(), file.getAbsolutePath() });
+    Configuration conf = NutchConfiguration.create();
+    HostRuleIndex index = HostRuleIndex.open(conf, file.getAbsolutePath());
+    Assert.assertEquals(2, index.size());
+    Assert.assertTrue(index.contains("apache.org"));
+    Assert.assertTrue(index.contains("www.example.com"));
+    Assert.assertFalse(index.contains("# comment"));
+    // the mapped index is shared
+    Assert.assertSame(index, HostRuleIndex.open(conf, file.getAbsolutePath()));
+    // via Hadoop file system
+    HostRuleIndex copy = HostRuleIndex.open(conf, file.toURI().toString());
+    Assert.assertTrue(copy.contains("apache.org"));
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unit tests and startup benchmark for the {@link PluginManifestIndex}. The
+ * tests run on a temporary copy of the plugin manifests.
+ */
+public class TestPluginManifestIndex {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String INDEX_NAME = ".test-plugin-manifest-index";
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private File pluginFolder;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    File buildFolder = new PluginManifestParser(conf, null)
+        .getPluginFolder(conf.getStrings("plugin.folders")[0]);
+    pluginFolder = copyManifests(buildFolder, tmp.newFolder("plugins"));
+    conf.set("plugin.folders", pluginFolder.getAbsolutePath());
+    conf.set(PluginManifestIndex.INDEX_FILE, INDEX_NAME);
+  }
+
+  /* copy the plugin manifests, file modification times are not preserved */
+  private static File copyManifests(File from, File to) throws IOException {
+    for (File pluginDir : from.listFiles()) {
+      File manifest = new File(pluginDir, "plugin.xml");
+      if (pluginDir.isDirectory() && manifest.isFile()) {
+        File copy = new File(to, pluginDir.getName());
+        copy.mkdir();
+        Files.copy(manifest.toPath(), new File(copy, "plugin.xml").toPath());
+      }
+    }
+    if (new File(from, INDEX_NAME).isFile()) {
+      Files.copy(new File(from, INDEX_NAME).toPath(),
+          new File(to, INDEX_NAME).toPath());
+    }
+    return to;
+  }
+
+  private static File firstPluginDir(File pluginFolder) {
+    return Arrays.stream(pluginFolder.listFiles()).filter(File::isDirectory)
+        .sorted().findFirst().get();
+  }
+
+  @Test
+  public void testIndexedDescriptors() throws Exception {
+    String[] folders = conf.getStrings("plugin.folders");
+    Map<String, PluginDescriptor> parsed = new PluginManifestParser(conf, null)
+        .parsePluginFolder(folders);
+    File indexFile = new File(pluginFolder, INDEX_NAME);
+    Assert.assertTrue(indexFile.exists());
+
+    Map<String, PluginDescriptor> indexed = new PluginManifestParser(conf,
+        null).parsePluginFolder(folders);
+    Assert.assertEquals(parsed.keySet(), indexed.keySet());
+    for (PluginDescriptor expected : parsed.values()) {
+      PluginDescriptor actual = indexed.get(expected.getPluginId());
+      Assert.assertEquals(expected.getName(), actual.getName());
+      Assert.assertEquals(expected.getVersion(), actual.getVersion());
+      Assert.assertEquals(expected.getProviderName(), actual.getProviderName());
+      Assert.assertEquals(expected.getPluginClass(), actual.getPluginClass());
+      Assert.assertEquals(expected.getPluginPath(), actual.getPluginPath());
+      Assert.assertArrayEquals(expected.getDependencies(),
+          actual.getDependencies());
+      Assert.assertArrayEquals(expected.getExportedLibUrls(),
+          actual.getExportedLibUrls());
+      Assert.assertArrayEquals(expected.getNotExportedLibUrls(),
+          actual.getNotExportedLibUrls());
+      Assert.assertEquals(expected.getExtenstionPoints().length,
+          actual.getExtenstionPoints().length);
+      Extension[] expectedExtensions = expected.getExtensions();
+      Extension[] actualExtensions = actual.getExtensions();
+      Assert.assertEquals(expectedExtensions.length, actualExtensions.length);
+      for (int i = 0; i < expectedExtensions.length; i++) {
+        Assert.assertEquals(expectedExtensions[i].toString(),
+            actualExtensions[i].toString());
+        Assert.assertEquals(expectedExtensions[i].getAttributes(),
+            actualExtensions[i].getAttributes());
+        Assert.assertSame(actual, actualExtensions[i].getDescriptor());
+      }
+    }
+  }
+
+  @Test
+  public void testOutdatedEntry() throws Exception {
+    new PluginManifestParser(conf, null)
+        .parsePluginFolder(conf.getStrings("plugin.folders"));
+    File indexFile = new File(pluginFolder, INDEX_NAME);
+    File pluginDir = firstPluginDir(pluginFolder);
+    PluginManifestIndex index = PluginManifestIndex.read(indexFile, conf, null);
+    Assert.assertNotNull(index.get(pluginDir));
+
+    // modification time only
+    File manifest = new File(pluginDir, "plugin.xml");
+    Assert.assertTrue(manifest.setLastModified(manifest.lastModified() + 2000));
+    Assert.assertNotNull(index.get(pluginDir));
+
+    Files.write(manifest.toPath(), "\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+    Assert.assertNull(index.get(pluginDir));
+  }
+
+  @Test
+  public void testRelocatedIndex() throws Exception {
+    new PluginManifestParser(conf, null)
+        .parsePluginFolder(conf.getStrings("plugin.folders"));
+    // copy with fresh modification times, as when the job file is unpacked
+    File relocated = copyManifests(pluginFolder, tmp.newFolder("unpacked"));
+    File indexFile = new File(relocated, INDEX_NAME);
+    long indexModified = indexFile.lastModified();
+    PluginManifestIndex index = PluginManifestIndex.read(indexFile, conf, null);
+    int numPlugins = 0;
+    for (File pluginDir : relocated.listFiles()) {
+      if (!pluginDir.isDirectory()) {
+        continue;
+      }
+      numPlugins++;
+      PluginDescriptor descriptor = index.get(pluginDir);
+      Assert.assertNotNull(descriptor);
+      Assert.assertEquals(pluginDir.getAbsolutePath(),
+          descriptor.getPluginPath());
+      for (URL lib : descriptor.getExportedLibUrls()) {
+        Assert.assertTrue(lib.getPath(),
+            lib.getPath().startsWith(pluginDir.toURI().getPath()));
+      }
+    }
+    Assert.assertEquals(numPlugins, index.size());
+
+    // not rewritten by a task
+    conf.set("plugin.folders", relocated.getAbsolutePath());
+    conf.set("mapreduce.task.attempt.id",
+        "attempt_1700000000000_0001_m_000000_0");
+    Files.write(new File(firstPluginDir(relocated), "plugin.xml").toPath(),
+        "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Assert.assertTrue(indexFile.setLastModified(indexModified - 2000));
+    new PluginManifestParser(conf, null)
+        .parsePluginFolder(conf.getStrings("plugin.folders"));
+    Assert.assertEquals(indexModified - 2000, indexFile.lastModified());
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmarkStartup() {
+    int loops = 20;
+    Configuration noIndexConf = new Configuration(conf);
+    noIndexConf.unset(PluginManifestIndex.INDEX_FILE);
+    bench(loops, noIndexConf, "without manifest index");
+    // first run writes the index
+    new PluginRepository(conf);
+    bench(loops, conf, "with manifest index");
+  }
+
+  private void bench(int loops, Configuration conf, String label) {
+    StopWatch stopWatch = new StopWatch();
+    stopWatch.start();
+    for (int i = 0; i < loops; i++) {
+      new PluginRepository(conf);
+    }
+    stopWatch.stop();
+    LOG.info("PluginRepository startup {}: {} loops {} ms", label, loops,
+        stopWatch.getTime(TimeUnit.MILLISECONDS));
+  }
+}
@@ -166,6 +166,27 @@ public class TestPluginSystem {
     }
   }
 
+  @Test
+  public void testClassLoaderParallelCapable() throws Exception {
+    PluginDescriptor[] descriptors = repository.getPluginDescriptors();
+    PluginClassLoader loader = descriptors[0].getClassLoader();
+    Assert.assertTrue(loader.isRegisteredAsParallelCapable());
+    // classes not found (and cached as not found) fail repeatedly
+    for (int i = 0; i < 2; i++) {
+      try {
+        loader.loadClass("org.apache.nutch.plugin.DoesNotExist");
+        Assert.fail("class should not be found");
+      } catch (ClassNotFoundException e) {
+        // expected
+      }
+    }
+    // classes of the parent are loaded by the parent
+    Assert.assertSame(PluginRepository.class,
+        loader.loadClass(PluginRepository.class.getName()));
+    Assert.assertSame(loader.getResource("nutch-default.xml"),
+        loader.getResource("nutch-default.xml"));
+  }
+
   /**
    * @throws IOException
    */
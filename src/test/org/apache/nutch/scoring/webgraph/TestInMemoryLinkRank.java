@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the scores calculated by {@link InMemoryLinkRank} with those of
+ * the MapReduce implementation in {@link LinkRank}.
+ */
+public class TestInMemoryLinkRank {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("link.analyze.num.iterations", 3);
+    fs = FileSystem.get(conf);
+    testDir = new Path("test-linkrank-" + new Random().nextInt());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  @Test
+  public void testInMemoryLinkRank() throws Exception {
+    Path mapReduceGraph = new Path(testDir, "mapreduce");
+    Path inMemoryGraph = new Path(testDir, "inmemory");
+    WebGraphTestUtil.createWebGraph(conf, mapReduceGraph);
+    WebGraphTestUtil.createWebGraph(conf, inMemoryGraph);
+
+    new LinkRank(conf).analyze(mapReduceGraph);
+    new InMemoryLinkRank(conf).analyze(inMemoryGraph);
+
+    Map<String, Float> expected = WebGraphTestUtil.readScores(conf, mapReduceGraph);
+    Map<String, Float> scores = WebGraphTestUtil.readScores(conf, inMemoryGraph);
+    Assert.assertEquals(expected.keySet(), scores.keySet());
+    // the parts of the NodeDb are kept
+    Assert.assertEquals(2,
+        fs.listStatus(new Path(inMemoryGraph, WebGraph.NODE_DIR)).length);
+    for (String url : expected.keySet()) {
+      Assert.assertEquals(url, expected.get(url), scores.get(url), 0.0001f);
+    }
+  }
+
+  @Test
+  public void testConvergence() throws Exception {
+    conf.setInt("link.analyze.num.iterations", 100);
+    Path fullGraph = new Path(testDir, "full");
+    Path convergedGraph = new Path(testDir, "converged");
+    WebGraphTestUtil.createWebGraph(conf, fullGraph);
+    WebGraphTestUtil.createWebGraph(conf, convergedGraph);
+
+    new InMemoryLinkRank(conf).analyze(fullGraph);
+    conf.setDouble("link.analyze.convergence.threshold", 0.001);
+    new InMemoryLinkRank(conf).analyze(convergedGraph);
+
+    Map<String, Float> expected = WebGraphTestUtil.readScores(conf, fullGraph);
+    Map<String, Float> scores = WebGraphTestUtil.readScores(conf, convergedGraph);
+    for (String url : expected.keySet()) {
+      Assert.assertEquals(url, expected.get(url), scores.get(url), 0.001f);
+    }
+  }
+}
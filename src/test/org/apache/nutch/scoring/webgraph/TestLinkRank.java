@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the incremental mode of {@link LinkRank}.
+ */
+public class TestLinkRank {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setInt("link.analyze.num.iterations", 3);
+    fs = FileSystem.get(conf);
+    testDir = new Path("test-linkrank-" + new Random().nextInt());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private static void assertScores(Map<String, Float> expected,
+      Map<String, Float> scores, float delta) {
+    Assert.assertEquals(expected.keySet(), scores.keySet());
+    for (String url : expected.keySet()) {
+      Assert.assertEquals(url, expected.get(url), scores.get(url), delta);
+    }
+  }
+
+  @Test
+  public void testIncrementalLinkRank() throws Exception {
+    Path fullGraph = new Path(testDir, "full");
+    Path incrementalGraph = new Path(testDir, "incremental");
+    WebGraphTestUtil.createWebGraph(conf, fullGraph);
+    WebGraphTestUtil.createWebGraph(conf, incrementalGraph);
+
+    new LinkRank(conf).analyze(fullGraph);
+    // without epsilon all score changes are propagated
+    Configuration incrementalConf = new Configuration(conf);
+    incrementalConf.setBoolean("link.analyze.incremental", true);
+    incrementalConf.setFloat("link.analyze.delta.epsilon", 0.0f);
+    new LinkRank(incrementalConf).analyze(incrementalGraph);
+
+    assertScores(WebGraphTestUtil.readScores(conf, fullGraph),
+        WebGraphTestUtil.readScores(conf, incrementalGraph), 0.0001f);
+  }
+
+  @Test
+  public void testIncrementalConvergence() throws Exception {
+    conf.setInt("link.analyze.num.iterations", 50);
+    Path inMemoryGraph = new Path(testDir, "inmemory");
+    Path incrementalGraph = new Path(testDir, "incremental");
+    WebGraphTestUtil.createWebGraph(conf, inMemoryGraph);
+    WebGraphTestUtil.createWebGraph(conf, incrementalGraph);
+
+    new InMemoryLinkRank(conf).analyze(inMemoryGraph);
+    Configuration incrementalConf = new Configuration(conf);
+    incrementalConf.setBoolean("link.analyze.incremental", true);
+    incrementalConf.setFloat("link.analyze.delta.epsilon", 0.001f);
+    incrementalConf.setDouble("link.analyze.convergence.threshold", 0.01);
+    new LinkRank(incrementalConf).analyze(incrementalGraph);
+
+    assertScores(WebGraphTestUtil.readScores(conf, inMemoryGraph),
+        WebGraphTestUtil.readScores(conf, incrementalGraph), 0.01f);
+  }
+}
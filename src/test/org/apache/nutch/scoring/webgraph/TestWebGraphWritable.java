@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.lang.invoke.MethodHandles;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestWebGraphWritable {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static int size(Writable writable) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    writable.write(out);
+    return out.getLength();
+  }
+
+  private static Writable roundTrip(Writable value) throws Exception {
+    DataOutputBuffer out = new DataOutputBuffer();
+    new WebGraphWritable(value).write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    WebGraphWritable writable = new WebGraphWritable();
+    writable.readFields(in);
+    return writable.get();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Node node = new Node();
+    node.setNumInlinks(3);
+    node.setNumOutlinks(7);
+    node.setInlinkScore(0.5f);
+    Node node2 = (Node) roundTrip(node);
+    Assert.assertEquals(node.toString(), node2.toString());
+
+    LinkDatum link = new LinkDatum("http://example.com/", "anchor", 1000L);
+    link.setScore(0.25f);
+    LinkDatum link2 = (LinkDatum) roundTrip(link);
+    Assert.assertEquals(link.toString(), link2.toString());
+
+    CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600,
+        2.0f);
+    Assert.assertEquals(datum, roundTrip(datum));
+  }
+
+  @Test
+  public void testSerializedSize() throws Exception {
+    LinkDatum link = new LinkDatum("http://example.com/", "anchor", 1000L);
+    int generic = size(new WebGraphWritable(link));
+    int object = size(new ObjectWritable(link));
+    LOG.info("Serialized LinkDatum: {} bytes WebGraphWritable, {} bytes"
+        + " ObjectWritable, {} bytes raw", generic, object, size(link));
+    // the type is written as a single byte
+    Assert.assertEquals(size(link) + 1, generic);
+    Assert.assertTrue(generic < object);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.scoring.webgraph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Utilities to create a web graph and read the LinkRank scores in tests.
+ */
+public class WebGraphTestUtil {
+
+  /**
+   * Create a random web graph. Every target page gets at most one link from
+   * a site, except for the links from duplicate pages with equal scores, so
+   * that the scores do not depend on the order of the inlinks.
+   */
+  public static void createWebGraph(Configuration conf, Path webGraphDb)
+      throws Exception {
+    Random random = new Random(42);
+    List<String> pages = new ArrayList<>();
+    for (int site = 0; site < 10; site++) {
+      for (int page = 0; page < 5; page++) {
+        pages.add("http://site" + site + ".com/page" + page);
+      }
+    }
+    TreeMap<String, List<String>> outlinks = new TreeMap<>();
+    Map<String, Set<String>> linkingSites = new TreeMap<>();
+    for (String from : pages) {
+      String site = from.substring(0, from.indexOf(".com"));
+      List<String> targets = new ArrayList<>();
+      for (int i = random.nextInt(6); i > 0; i--) {
+        String to = pages.get(random.nextInt(pages.size()));
+        if (to.startsWith(site) || targets.contains(to)
+            || !linkingSites.computeIfAbsent(to, k -> new HashSet<>())
+                .add(site)) {
+          continue;
+        }
+        targets.add(to);
+      }
+      outlinks.put(from, targets);
+    }
+    // pages without inlinks (same score), ignored as duplicate page/domain
+    for (String dup : new String[] { "http://dup.com/1", "http://dup.com/2",
+        "http://query.org/page?a=1", "http://query.org/page?a=2" }) {
+      List<String> targets = new ArrayList<>();
+      targets.add("http://site0.com/page0");
+      targets.add("http://site1.com/page1");
+      outlinks.put(dup, targets);
+    }
+
+    TreeMap<String, Node> nodes = new TreeMap<>();
+    for (Map.Entry<String, List<String>> e : outlinks.entrySet()) {
+      nodes.computeIfAbsent(e.getKey(), k -> new Node())
+          .setNumOutlinks(e.getValue().size());
+      for (String to : e.getValue()) {
+        Node node = nodes.computeIfAbsent(to, k -> new Node());
+        node.setNumInlinks(node.getNumInlinks() + 1);
+      }
+    }
+
+    try (MapFile.Writer writer = new MapFile.Writer(conf,
+        new Path(webGraphDb, WebGraph.OUTLINK_DIR + "/part-r-00000"),
+        MapFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(LinkDatum.class))) {
+      for (Map.Entry<String, List<String>> e : outlinks.entrySet()) {
+        for (String to : e.getValue()) {
+          LinkDatum datum = new LinkDatum(to, "anchor", 1000L);
+          datum.setLinkType(LinkDatum.OUTLINK);
+          writer.append(new Text(e.getKey()), datum);
+        }
+      }
+    }
+    // two parts to verify that the parts of the NodeDb are kept
+    int i = 0;
+    MapFile.Writer[] writers = new MapFile.Writer[2];
+    for (int p = 0; p < writers.length; p++) {
+      writers[p] = new MapFile.Writer(conf,
+          new Path(webGraphDb, WebGraph.NODE_DIR + "/part-r-0000" + p),
+          MapFile.Writer.keyClass(Text.class),
+          SequenceFile.Writer.valueClass(Node.class));
+    }
+    for (Map.Entry<String, Node> e : nodes.entrySet()) {
+      writers[(i++ < nodes.size() / 2) ? 0 : 1].append(new Text(e.getKey()),
+          e.getValue());
+    }
+    for (MapFile.Writer writer : writers) {
+      writer.close();
+    }
+  }
+
+  public static Map<String, Float> readScores(Configuration conf,
+      Path webGraphDb) throws Exception {
+    Map<String, Float> scores = new TreeMap<>();
+    Text key = new Text();
+    Node node = new Node();
+    FileSystem fs = webGraphDb.getFileSystem(conf);
+    FileStatus[] parts = fs.listStatus(new Path(webGraphDb, WebGraph.NODE_DIR));
+    for (FileStatus part : parts) {
+      try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+          SequenceFile.Reader.file(
+              new Path(part.getPath(), MapFile.DATA_FILE_NAME)))) {
+        while (reader.next(key, node)) {
+          scores.put(key.toString(), node.getInlinkScore());
+        }
+      }
+    }
+    return scores;
+  }
+}
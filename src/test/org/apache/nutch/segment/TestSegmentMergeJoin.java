@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.segment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.parse.ParseText;
+import org.apache.nutch.util.NutchConfiguration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the map-side merge-join of segments produces the same merged
+ * segment as the default merge.
+ */
+public class TestSegmentMergeJoin {
+
+  private static final int NUM_URLS = 200;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private int numMerges = 0;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.getLocal(conf);
+    testDir = new Path(conf.get("hadoop.tmp.dir"),
+        "merge-join-" + System.currentTimeMillis());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private static String url(int i) {
+    return "http://example.com/" + i;
+  }
+
+  /*
+   * Create a segment holding crawl_fetch and parse_text of every step-th URL,
+   * hash-partitioned into numPartitions MapFiles, and crawl_parse holding
+   * the signatures and one outlink per URL.
+   */
+  private void createSegment(Path segment, int numPartitions, int step,
+      byte status) throws Exception {
+    List<TreeMap<Text, CrawlDatum>> fetch = new ArrayList<>();
+    List<TreeMap<Text, ParseText>> text = new ArrayList<>();
+    for (int i = 0; i < numPartitions; i++) {
+      fetch.add(new TreeMap<>());
+      text.add(new TreeMap<>());
+    }
+    HashPartitioner<Text, Writable> partitioner = new HashPartitioner<>();
+    Path parseFile = new Path(new Path(segment, CrawlDatum.PARSE_DIR_NAME),
+        "part-r-00000");
+    try (SequenceFile.Writer parse = SequenceFile.createWriter(conf,
+        SequenceFile.Writer.file(parseFile),
+        SequenceFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(CrawlDatum.class))) {
+      for (int i = 0; i < NUM_URLS; i += step) {
+        Text key = new Text(url(i));
+        int partition = partitioner.getPartition(key, null, numPartitions);
+        fetch.get(partition).put(key, new CrawlDatum(status, 1));
+        text.get(partition).put(key,
+            new ParseText(segment.getName() + " " + i));
+        parse.append(key, new CrawlDatum(CrawlDatum.STATUS_SIGNATURE, 1));
+        parse.append(new Text(url((i + 1) % NUM_URLS)),
+            new CrawlDatum(CrawlDatum.STATUS_LINKED, 1));
+      }
+    }
+    for (int i = 0; i < numPartitions; i++) {
+      String name = String.format("part-r-%05d", i);
+      writeMapFile(new Path(new Path(segment, CrawlDatum.FETCH_DIR_NAME), name),
+          CrawlDatum.class, fetch.get(i));
+      writeMapFile(new Path(new Path(segment, ParseText.DIR_NAME), name),
+          ParseText.class, text.get(i));
+    }
+  }
+
+  private void writeMapFile(Path dir, Class<? extends Writable> valueClass,
+      TreeMap<Text, ? extends Writable> records) throws Exception {
+    try (MapFile.Writer writer = new MapFile.Writer(conf, dir,
+        MapFile.Writer.keyClass(Text.class),
+        SequenceFile.Writer.valueClass(valueClass))) {
+      for (Map.Entry<Text, ? extends Writable> e : records.entrySet()) {
+        writer.append(e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  /*
+   * Read all records of a merged segment part, the values of a URL are
+   * sorted so that the order of outlinks does not matter
+   */
+  private Map<String, List<String>> readPart(Path segment, String partName)
+      throws Exception {
+    Map<String, List<String>> records = new TreeMap<>();
+    for (FileStatus file : fs.listStatus(new Path(segment, partName),
+        p -> p.getName().startsWith("part-"))) {
+      Path data = file.isDirectory()
+          ? new Path(file.getPath(), MapFile.DATA_FILE_NAME)
+          : file.getPath();
+      try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+          SequenceFile.Reader.file(data))) {
+        Text key = new Text();
+        Writable value = (Writable) ReflectionUtils
+            .newInstance(reader.getValueClass(), conf);
+        while (reader.next(key, value)) {
+          records.computeIfAbsent(key.toString(), k -> new ArrayList<>())
+              .add(value.toString());
+        }
+      }
+    }
+    for (List<String> values : records.values()) {
+      values.sort(null);
+    }
+    return records;
+  }
+
+  private Path merge(Path[] segs, boolean mergeJoin) throws Exception {
+    Path out = new Path(testDir,
+        (mergeJoin ? "join-" : "shuffle-") + (numMerges++));
+    SegmentMerger merger = new SegmentMerger(conf);
+    merger.merge(out, segs, false, false, -1, mergeJoin);
+    FileStatus[] stats = fs.listStatus(out,
+        p -> !p.getName().startsWith("_") && !p.getName().startsWith("."));
+    Assert.assertEquals(1, stats.length);
+    return stats[0].getPath();
+  }
+
+  private void checkMerge(Path[] segs) throws Exception {
+    Path shuffle = merge(segs, false);
+    Path join = merge(segs, true);
+    for (String part : new String[] { CrawlDatum.FETCH_DIR_NAME,
+        ParseText.DIR_NAME, CrawlDatum.PARSE_DIR_NAME }) {
+      Map<String, List<String>> expected = readPart(shuffle, part);
+      Assert.assertFalse(expected.isEmpty());
+      Assert.assertEquals("Merged " + part + " differs", expected,
+          readPart(join, part));
+    }
+  }
+
+  @Test
+  public void testMergeJoin() throws Exception {
+    Path seg1 = new Path(testDir, "20240101000000");
+    Path seg2 = new Path(testDir, "20240201000000");
+    createSegment(seg1, 3, 1, CrawlDatum.STATUS_FETCH_GONE);
+    createSegment(seg2, 3, 2, CrawlDatum.STATUS_FETCH_SUCCESS);
+    checkMerge(new Path[] { seg1, seg2 });
+
+    // the merged parts are hash-partitioned and can be looked up
+    Path join = merge(new Path[] { seg1, seg2 }, true);
+    MapFile.Reader[] readers = MapFileOutputFormat.getReaders(
+        new Path(join, CrawlDatum.FETCH_DIR_NAME), conf);
+    Assert.assertEquals(3, readers.length);
+    CrawlDatum datum = (CrawlDatum) MapFileOutputFormat.getEntry(readers,
+        new HashPartitioner<Text, CrawlDatum>(), new Text(url(2)),
+        new CrawlDatum());
+    Assert.assertEquals(CrawlDatum.STATUS_FETCH_SUCCESS, datum.getStatus());
+    datum = (CrawlDatum) MapFileOutputFormat.getEntry(readers,
+        new HashPartitioner<Text, CrawlDatum>(), new Text(url(3)),
+        new CrawlDatum());
+    Assert.assertEquals(CrawlDatum.STATUS_FETCH_GONE, datum.getStatus());
+    for (MapFile.Reader reader : readers) {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    // different number of partitions: segments are merged by the shuffle
+    Path seg1 = new Path(testDir, "20240101000000");
+    Path seg2 = new Path(testDir, "20240201000000");
+    createSegment(seg1, 2, 1, CrawlDatum.STATUS_FETCH_GONE);
+    createSegment(seg2, 3, 3, CrawlDatum.STATUS_FETCH_SUCCESS);
+    checkMerge(new Path[] { seg1, seg2 });
+  }
+}
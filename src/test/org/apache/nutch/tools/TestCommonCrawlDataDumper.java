@@ -16,12 +16,19 @@
  */
 package org.apache.nutch.tools;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.nio.file.Files;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.junit.Test;
@@ -106,6 +113,65 @@ public class TestCommonCrawlDataDumper {
 
   }
 
+  /** Dump the sample segment and return the names of the dumped files */
+  private Set<String> dumpFileNames(CommonCrawlConfig config)
+      throws Exception {
+    File sampleSegmentDir = new File(System.getProperty("test.build.data",
+        "."), "test-segments");
+    File tempDir = Files.createTempDirectory("temp").toFile();
+    try {
+      new CommonCrawlDataDumper(config).dump(tempDir, sampleSegmentDir, null,
+          false, null, false, "", false);
+      Set<String> names = new HashSet<>();
+      for (File f : FileUtils.listFiles(tempDir,
+          FileFilterUtils.fileFileFilter(),
+          FileFilterUtils.directoryFileFilter())) {
+        names.add(f.getName());
+      }
+      return names;
+    } finally {
+      FileUtils.deleteDirectory(tempDir);
+    }
+  }
+
+  @Test
+  public void testParallelDump() throws Exception {
+    CommonCrawlConfig config = new CommonCrawlConfig();
+    config.setThreads(2);
+    assertEquals(dumpFileNames(new CommonCrawlConfig()),
+        dumpFileNames(config));
+  }
+
+  @Test
+  public void testShardedGzipDump() throws Exception {
+    File sampleSegmentDir = new File(System.getProperty("test.build.data",
+        "."), "test-segments");
+    File tempDir = Files.createTempDirectory("temp").toFile();
+    CommonCrawlConfig config = new CommonCrawlConfig();
+    config.setThreads(2);
+    // small shards, every archive holds only a few files
+    config.setShardSize(16 * 1024);
+    new CommonCrawlDataDumper(config).dump(tempDir, sampleSegmentDir, null,
+        true, null, false, "", false);
+
+    File[] archives = tempDir
+        .listFiles((dir, name) -> name.endsWith(".tar.gz"));
+    assertTrue("Expected more than one archive", archives.length > 1);
+    Set<String> entries = new HashSet<>();
+    for (File archive : archives) {
+      try (TarArchiveInputStream in = new TarArchiveInputStream(
+          new GzipCompressorInputStream(new FileInputStream(archive)))) {
+        TarArchiveEntry entry;
+        while ((entry = in.getNextTarEntry()) != null) {
+          assertTrue("Duplicate entry " + entry.getName(),
+              entries.add(new File(entry.getName()).getName()));
+        }
+      }
+    }
+    FileUtils.deleteDirectory(tempDir);
+    assertEquals(dumpFileNames(new CommonCrawlConfig()), entries);
+  }
+
   private boolean hasFile(String fileName, Collection<File> files) {
     for (File f : files) {
       if (f.getName().equals(fileName)) {
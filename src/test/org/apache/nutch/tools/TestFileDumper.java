@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test harness for the {@link FileDumper}, dumping two copies of the sample
+ * segment so that segment parts are processed in parallel.
+ */
+public class TestFileDumper {
+
+  private File testDir;
+  private File segmentRootDir;
+
+  @Before
+  public void setUp() throws Exception {
+    File sampleSegmentDir = new File(System.getProperty("test.build.data",
+        "."), "test-segments");
+    testDir = Files.createTempDirectory("test-filedumper").toFile();
+    segmentRootDir = new File(testDir, "segments");
+    for (File segment : sampleSegmentDir.listFiles(File::isDirectory)) {
+      FileUtils.copyDirectory(segment,
+          new File(segmentRootDir, segment.getName()));
+      FileUtils.copyDirectory(segment,
+          new File(segmentRootDir, segment.getName() + "-copy"));
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(testDir);
+  }
+
+  /** @return paths of the dumped files relative to the output directory */
+  private static Set<String> dumpedFiles(File outputDir) {
+    Set<String> files = new HashSet<>();
+    for (File f : FileUtils.listFiles(outputDir,
+        FileFilterUtils.fileFileFilter(),
+        FileFilterUtils.directoryFileFilter())) {
+      if (!f.getName().endsWith("_filenameToUrl.json")) {
+        files.add(outputDir.toURI().relativize(f.toURI()).getPath());
+      }
+    }
+    return files;
+  }
+
+  private Set<String> dump(String name, int threads) throws Exception {
+    File outputDir = new File(testDir, name);
+    outputDir.mkdirs();
+    new FileDumper().dump(outputDir, segmentRootDir, null, false, false,
+        false, threads, false, 0);
+    return dumpedFiles(outputDir);
+  }
+
+  @Test
+  public void testParallelDump() throws Exception {
+    Set<String> expected = dump("sequential", 1);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, dump("parallel", 3));
+  }
+
+  @Test
+  public void testShardedGzipDump() throws Exception {
+    Set<String> expected = dump("sequential", 1);
+    File outputDir = new File(testDir, "sharded");
+    outputDir.mkdirs();
+    // small shards, every archive holds only a few files
+    new FileDumper().dump(outputDir, segmentRootDir, null, false, false,
+        false, 2, true, 16 * 1024);
+
+    File[] archives = outputDir
+        .listFiles((dir, name) -> name.endsWith(".tar.gz"));
+    assertTrue("Expected more than one archive", archives.length > 1);
+    Set<String> entries = new HashSet<>();
+    for (File archive : archives) {
+      try (TarArchiveInputStream in = new TarArchiveInputStream(
+          new GzipCompressorInputStream(new FileInputStream(archive)))) {
+        TarArchiveEntry entry;
+        while ((entry = in.getNextTarEntry()) != null) {
+          // files of both segment copies are written only once
+          assertTrue("Duplicate entry " + entry.getName(),
+              entries.add(entry.getName()));
+        }
+      }
+    }
+    assertEquals(expected, entries);
+    // no files are written outside of the archives
+    assertTrue(dumpedFiles(outputDir).stream()
+        .allMatch(f -> f.endsWith(".tar.gz")));
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.tools.warc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.nutch.tools.warc.WARCGzipOutputFormat.WARCGzipRecordWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.martinkl.warc.WARCRecord;
+import com.martinkl.warc.WARCWritable;
+
+public class TestWARCGzipOutputFormat {
+
+  private static final String CRLF = "\r\n";
+
+  private static WARCRecord record(String url, String type, String payload)
+      throws IOException {
+    StringBuilder record = new StringBuilder();
+    record.append(WARCRecord.WARC_VERSION).append(CRLF);
+    record.append("WARC-Record-ID: <urn:uuid:").append(url.hashCode())
+        .append(">").append(CRLF);
+    record.append("Content-Length: ")
+        .append(payload.getBytes(StandardCharsets.UTF_8).length).append(CRLF);
+    record.append("WARC-Date: 2024-01-17T10:20:30Z").append(CRLF);
+    record.append("WARC-Type: ").append(type).append(CRLF);
+    record.append("WARC-Payload-Digest: sha1:ABC").append(CRLF);
+    record.append("WARC-Target-URI: ").append(url).append(CRLF);
+    if (type.equals("resource")) {
+      record.append("Content-Type: text/plain").append(CRLF);
+    }
+    record.append(CRLF).append(payload).append(CRLF).append(CRLF);
+    return new WARCRecord(new DataInputStream(new ByteArrayInputStream(
+        record.toString().getBytes(StandardCharsets.UTF_8))));
+  }
+
+  private static WARCRecord readRecord(byte[] data, int offset, int length)
+      throws IOException {
+    return new WARCRecord(new DataInputStream(new GZIPInputStream(
+        new ByteArrayInputStream(data, offset, length))));
+  }
+
+  @Test
+  public void testPerRecordCompression() throws Exception {
+    ByteArrayOutputStream warc = new ByteArrayOutputStream();
+    ByteArrayOutputStream index = new ByteArrayOutputStream();
+    WARCGzipRecordWriter writer = new WARCGzipRecordWriter(warc, index,
+        "test.warc.gz", 3);
+    int numRecords = 50;
+    for (int i = 0; i < numRecords; i++) {
+      String url = "http://www.example.com/page" + i;
+      if (i % 2 == 0) {
+        writer.write(NullWritable.get(), new WARCWritable(record(url,
+            "response", "HTTP/1.1 200 OK" + CRLF
+                + "Content-Type: text/html; charset=utf-8" + CRLF + CRLF
+                + "<html>page " + i + "</html>")));
+      } else {
+        writer.write(NullWritable.get(),
+            new WARCWritable(record(url, "resource", "page " + i)));
+      }
+      // metadata records are not indexed
+      writer.write(NullWritable.get(),
+          new WARCWritable(record(url, "metadata", "{}")));
+    }
+    writer.close(null);
+
+    byte[] data = warc.toByteArray();
+    String[] lines = new String(index.toByteArray(), StandardCharsets.UTF_8)
+        .split("\n");
+    Assert.assertEquals(numRecords, lines.length);
+    for (int i = 0; i < numRecords; i++) {
+      String[] fields = lines[i].split(" ", 3);
+      Assert.assertEquals("com,example)/page" + i, fields[0]);
+      Assert.assertEquals("20240117102030", fields[1]);
+      JsonObject json = JsonParser.parseString(fields[2]).getAsJsonObject();
+      Assert.assertEquals("test.warc.gz", json.get("filename").getAsString());
+      Assert.assertEquals("sha1:ABC", json.get("digest").getAsString());
+      if (i % 2 == 0) {
+        Assert.assertEquals("200", json.get("status").getAsString());
+        Assert.assertEquals("text/html", json.get("mime").getAsString());
+      } else {
+        Assert.assertEquals("text/plain", json.get("mime").getAsString());
+      }
+      // every record can be read from its offset
+      WARCRecord record = readRecord(data, json.get("offset").getAsInt(),
+          json.get("length").getAsInt());
+      Assert.assertEquals("http://www.example.com/page" + i,
+          record.getHeader().getTargetURI());
+    }
+
+    // the concatenated gzip members are a valid WARC file
+    try (DataInputStream in = new DataInputStream(
+        new GZIPInputStream(new ByteArrayInputStream(data)))) {
+      for (int i = 0; i < numRecords; i++) {
+        String url = "http://www.example.com/page" + i;
+        WARCRecord record = new WARCRecord(in);
+        Assert.assertEquals(url, record.getHeader().getTargetURI());
+        Assert.assertNotEquals("metadata", record.getHeader().getRecordType());
+        record = new WARCRecord(in);
+        Assert.assertEquals(url, record.getHeader().getTargetURI());
+        Assert.assertEquals("metadata", record.getHeader().getRecordType());
+      }
+    }
+  }
+
+  /** output stream which fails on write and records whether it is closed */
+  private static class FailingOutputStream extends OutputStream {
+    private boolean closed = false;
+
+    @Override
+    public void write(int b) throws IOException {
+      throw new IOException("write failed");
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void testFailedWrite() throws Exception {
+    FailingOutputStream warc = new FailingOutputStream();
+    FailingOutputStream index = new FailingOutputStream();
+    WARCGzipRecordWriter writer = new WARCGzipRecordWriter(warc, index,
+        "test.warc.gz", 1);
+    try {
+      // more records than are kept pending, forces writing
+      for (int i = 0; i < 10; i++) {
+        writer.write(NullWritable.get(), new WARCWritable(
+            record("http://www.example.com/page" + i, "resource", "page")));
+      }
+      Assert.fail("Write to failing output stream succeeded");
+    } catch (IOException e) {
+      // expected
+    }
+    // streams are closed although close() is not called
+    Assert.assertTrue(warc.closed);
+    Assert.assertTrue(index.closed);
+  }
+
+  @Test
+  public void testSurt() {
+    Assert.assertEquals("com,example)/path?q=a",
+        WARCGzipOutputFormat.toSurt("http://www.Example.com/Path?q=A"));
+    Assert.assertEquals("org,apache,nutch:8080)/",
+        WARCGzipOutputFormat.toSurt("https://nutch.apache.org:8080"));
+  }
+}
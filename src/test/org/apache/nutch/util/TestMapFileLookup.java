@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.apache.nutch.crawl.CrawlDb;
+import org.apache.nutch.crawl.CrawlDbReader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests and latency benchmark for {@link MapFileLookup} on a local CrawlDb
+ */
+public class TestMapFileLookup {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final int NUM_PARTS = 4;
+  private static final int NUM_URLS = 20000;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path testDir;
+  private Path crawlDb;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    fs = FileSystem.get(conf);
+    testDir = new Path("test-mapfile-lookup-" + new Random().nextInt());
+    crawlDb = new Path(testDir, "crawldb");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fs.delete(testDir, true);
+  }
+
+  private static String url(int i) {
+    return "https://www" + (i % 97) + ".example.org/page/" + i;
+  }
+
+  /** Write a CrawlDb with parts partitioned by the HashPartitioner */
+  private void createCrawlDb(boolean bloom) throws Exception {
+    List<TreeMap<Text, CrawlDatum>> parts = new ArrayList<>();
+    for (int p = 0; p < NUM_PARTS; p++) {
+      parts.add(new TreeMap<>());
+    }
+    HashPartitioner<Text, CrawlDatum> partitioner = new HashPartitioner<>();
+    for (int i = 0; i < NUM_URLS; i++) {
+      Text url = new Text(url(i));
+      CrawlDatum datum = new CrawlDatum(CrawlDatum.STATUS_DB_FETCHED, 3600,
+          i / 10.0f);
+      parts.get(partitioner.getPartition(url, datum, NUM_PARTS)).put(url,
+          datum);
+    }
+    for (int p = 0; p < NUM_PARTS; p++) {
+      Path dir = new Path(new Path(crawlDb, CrawlDb.CURRENT_NAME),
+          String.format("part-r-%05d", p));
+      MapFile.Writer writer;
+      if (bloom) {
+        writer = new BloomMapFile.Writer(conf, dir,
+            MapFile.Writer.keyClass(Text.class),
+            SequenceFile.Writer.valueClass(CrawlDatum.class));
+      } else {
+        writer = new MapFile.Writer(conf, dir,
+            MapFile.Writer.keyClass(Text.class),
+            SequenceFile.Writer.valueClass(CrawlDatum.class));
+      }
+      for (Map.Entry<Text, CrawlDatum> e : parts.get(p).entrySet()) {
+        writer.append(e.getKey(), e.getValue());
+      }
+      writer.close();
+    }
+  }
+
+  private void checkLookups(MapFileLookup<CrawlDatum> lookup)
+      throws Exception {
+    for (int i = 0; i < NUM_URLS; i += 101) {
+      CrawlDatum datum = lookup.get(new Text(url(i)));
+      Assert.assertNotNull(url(i), datum);
+      Assert.assertEquals(i / 10.0f, datum.getScore(), 0.0001f);
+    }
+    Assert.assertNull(lookup.get(new Text("https://www.example.com/missing")));
+
+    List<String> keys = Arrays.asList(url(7), "http://missing.example.com/",
+        url(3), url(12345));
+    Map<String, CrawlDatum> result = lookup.getAll(keys);
+    Assert.assertEquals(keys, new ArrayList<>(result.keySet()));
+    Assert.assertEquals(0.7f, result.get(url(7)).getScore(), 0.0001f);
+    Assert.assertNull(result.get("http://missing.example.com/"));
+    Assert.assertEquals(0.3f, result.get(url(3)).getScore(), 0.0001f);
+    Assert.assertEquals(1234.5f, result.get(url(12345)).getScore(), 0.0001f);
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    createCrawlDb(false);
+    try (MapFileLookup<CrawlDatum> lookup = new MapFileLookup<>(conf,
+        new Path(crawlDb, CrawlDb.CURRENT_NAME), CrawlDatum.class)) {
+      checkLookups(lookup);
+      // bloom filters are built in the background
+      waitForBloomFilter(lookup);
+      checkLookups(lookup);
+      for (int i = 0; i < 1000; i++) {
+        Assert.assertNull(lookup.get(new Text("http://missing.example.com/" + i)));
+      }
+      Map<String, Long> counters = lookup.getCounters();
+      // all but a small fraction of misses are answered by the bloom filter
+      Assert.assertTrue(counters.get("bloomFilterMisses") > 990);
+    }
+  }
+
+  private static void waitForBloomFilter(MapFileLookup<?> lookup)
+      throws InterruptedException {
+    for (int i = 0; i < 200 && !lookup.isBloomFilterReady(); i++) {
+      Thread.sleep(50);
+    }
+    Assert.assertTrue(lookup.isBloomFilterReady());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    createCrawlDb(false);
+    MapFileLookup<CrawlDatum> lookup = new MapFileLookup<>(conf,
+        new Path(crawlDb, CrawlDb.CURRENT_NAME), CrawlDatum.class);
+    checkLookups(lookup);
+    lookup.close();
+    try {
+      lookup.get(new Text(url(1)));
+      Assert.fail("lookup after close");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBloomMapFile() throws Exception {
+    createCrawlDb(true);
+    try (MapFileLookup<CrawlDatum> lookup = new MapFileLookup<>(conf,
+        new Path(crawlDb, CrawlDb.CURRENT_NAME), CrawlDatum.class)) {
+      checkLookups(lookup);
+      // read from the parts, available immediately
+      Assert.assertTrue(lookup.isBloomFilterReady());
+      Assert.assertTrue(lookup.getCounters().get("bloomFilterMisses") >= 2);
+    }
+  }
+
+  @Test
+  public void testWithoutBloomFilter() throws Exception {
+    createCrawlDb(false);
+    conf.setBoolean("db.lookup.bloom.filter", false);
+    try (MapFileLookup<CrawlDatum> lookup = new MapFileLookup<>(conf,
+        new Path(crawlDb, CrawlDb.CURRENT_NAME), CrawlDatum.class)) {
+      checkLookups(lookup);
+      Assert.assertEquals(0, (long) lookup.getCounters().get("bloomFilterMisses"));
+    }
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void benchmarkLookupLatency() throws Exception {
+    createCrawlDb(false);
+    int loops = 2000;
+    Random random = new Random(42);
+    String[] keys = new String[loops];
+    for (int i = 0; i < loops; i++) {
+      // every second lookup is a miss
+      keys[i] = (i % 2 == 0) ? url(random.nextInt(NUM_URLS))
+          : "https://www.example.com/missing/" + i;
+    }
+
+    // reader opened per request, as done by the REST service before
+    long[] latencies = new long[loops / 10];
+    for (int i = 0; i < latencies.length; i++) {
+      long start = System.nanoTime();
+      try (CrawlDbReader reader = new CrawlDbReader()) {
+        reader.get(crawlDb.toString(), keys[i], conf);
+      }
+      latencies[i] = System.nanoTime() - start;
+    }
+    logLatencies("CrawlDbReader.get (readers opened per request)", latencies);
+
+    try (MapFileLookup<CrawlDatum> lookup = new MapFileLookup<>(conf,
+        new Path(crawlDb, CrawlDb.CURRENT_NAME), CrawlDatum.class)) {
+      lookup.open();
+      waitForBloomFilter(lookup);
+      latencies = new long[loops];
+      for (int i = 0; i < loops; i++) {
+        long start = System.nanoTime();
+        lookup.get(new Text(keys[i]));
+        latencies[i] = System.nanoTime() - start;
+      }
+      logLatencies("MapFileLookup.get", latencies);
+    }
+  }
+
+  private static void logLatencies(String label, long[] latencies) {
+    Arrays.sort(latencies);
+    LOG.info("{}: {} lookups, p50 = {} us, p99 = {} us", label,
+        latencies.length, latencies[latencies.length / 2] / 1000,
+        latencies[(int) (latencies.length * 0.99)] / 1000);
+  }
+}
@@ -18,9 +18,15 @@ package org.apache.nutch.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.time.StopWatch;
 import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.io.Files;
 
@@ -28,6 +34,9 @@ import junit.framework.TestCase;
 
 public class TestMimeUtil extends TestCase {
 
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
   public static String urlPrefix = "http://localhost/";
 
   private static Charset defaultCharset = Charset.forName("UTF-8");
@@ -135,4 +144,81 @@ public class TestMimeUtil extends TestCase {
     }
   }
 
+  /** test the MIME detection cache, including mispredictions */
+  public void testDetectionCache() {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("mime.type.cache.size", 100);
+    conf.setInt("mime.type.cache.min.agreement", 1);
+    conf.setInt("mime.type.cache.verify.interval", 2);
+    // all documents share the same cache key
+    conf.setInt("mime.type.cache.prefix.length", 0);
+    MimeUtil mimeUtil = new MimeUtil(conf);
+    String url = urlPrefix + "test";
+    byte[] html = textBasedFormats[1][3].getBytes(defaultCharset);
+    byte[] text = "This is a plain text document".getBytes(defaultCharset);
+
+    // full detection
+    assertEquals("text/html", mimeUtil.autoResolveContentType("", url, html));
+    // cache hit
+    assertEquals("text/html", mimeUtil.autoResolveContentType("", url, html));
+    // verified by full detection: misprediction
+    assertEquals("text/plain", mimeUtil.autoResolveContentType("", url, text));
+    // cache hit
+    assertEquals("text/plain", mimeUtil.autoResolveContentType("", url, text));
+
+    Map<String, Long> counters = MimeTypeDetectionCache.get(conf)
+        .getCounters();
+    assertEquals(2, counters.get("cacheHits").longValue());
+    assertEquals(2, counters.get("fullDetections").longValue());
+    assertEquals(1, counters.get("verifications").longValue());
+    assertEquals(1, counters.get("mispredictions").longValue());
+  }
+
+  /** test that configurations without UUID keep their cache */
+  public void testDetectionCacheWithoutUUID() {
+    Configuration conf = new Configuration(false);
+    conf.setInt("mime.type.cache.size", 100);
+    MimeTypeDetectionCache cache = MimeTypeDetectionCache.get(conf);
+    System.gc();
+    assertSame(cache, MimeTypeDetectionCache.get(conf));
+  }
+
+  /** test that the cache key distinguishes content types */
+  public void testDetectionCacheKeys() {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt("mime.type.cache.size", 100);
+    conf.setInt("mime.type.cache.min.agreement", 1);
+    MimeUtil mimeUtil = new MimeUtil(conf);
+    for (int i = 0; i < 3; i++) {
+      for (String[] testPage : textBasedFormats) {
+        String mimeType = mimeUtil.autoResolveContentType(testPage[2],
+            urlPrefix, testPage[3].getBytes(defaultCharset));
+        assertEquals("", testPage[0], mimeType);
+      }
+    }
+  }
+
+  /**
+   * compare MIME detection with and without detection cache, only for
+   * benchmarking: not prefixed by "test" and not run as unit test
+   */
+  public void benchmarkDetectionCache() {
+    int loops = 2000;
+    byte[] html = textBasedFormats[0][3].getBytes(defaultCharset);
+    for (int cacheSize : new int[] { 0, 1000 }) {
+      Configuration conf = NutchConfiguration.create();
+      conf.setInt("mime.type.cache.size", cacheSize);
+      MimeUtil mimeUtil = new MimeUtil(conf);
+      StopWatch stopWatch = new StopWatch();
+      stopWatch.start();
+      for (int i = 0; i < loops; i++) {
+        mimeUtil.autoResolveContentType(textBasedFormats[0][2],
+            urlPrefix + "page" + (i % 100) + ".html", html);
+      }
+      stopWatch.stop();
+      LOG.info("MIME detection (cache size {}): {} loops {} ms", cacheSize,
+          loops, stopWatch.getTime(TimeUnit.MILLISECONDS));
+    }
+  }
+
 }
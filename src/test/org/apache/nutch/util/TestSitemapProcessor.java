@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.nutch.crawl.CrawlDatum;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the incremental sitemap processing using a sitemap state store.
+ */
+public class TestSitemapProcessor {
+
+  private Configuration conf;
+  private FileSystem fs;
+  private File testDir;
+  private File sitemapFile;
+  private Path crawlDb;
+  private Path sitemapDb;
+  private Path sitemapUrls;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.set("plugin.includes", "protocol-file|urlnormalizer-basic");
+    fs = FileSystem.getLocal(conf);
+    testDir = Files.createTempDirectory("test-sitemap").toFile();
+    sitemapFile = new File(testDir, "sitemap.xml");
+    crawlDb = new Path(testDir.getAbsolutePath(), "crawldb");
+    sitemapDb = new Path(testDir.getAbsolutePath(), "sitemapdb");
+    sitemapUrls = new Path(testDir.getAbsolutePath(), "sitemapurls");
+    fs.mkdirs(sitemapUrls);
+    FileUtils.writeStringToFile(new File(sitemapUrls.toString(), "urls.txt"),
+        sitemapFile.toURI().toString() + "\n", StandardCharsets.UTF_8);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    FileUtils.deleteDirectory(testDir);
+  }
+
+  private void writeSitemap(long lastModified, String... entries)
+      throws IOException {
+    writeSitemap(sitemapFile, lastModified, entries);
+  }
+
+  private void writeSitemap(File file, long lastModified, String... entries)
+      throws IOException {
+    StringBuilder sitemap = new StringBuilder();
+    sitemap.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sitemap.append(
+        "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+    for (String entry : entries) {
+      String[] urlLastmod = entry.split(" ");
+      sitemap.append("<url><loc>").append(urlLastmod[0]).append("</loc>");
+      sitemap.append("<lastmod>").append(urlLastmod[1]).append("</lastmod>");
+      sitemap.append("</url>\n");
+    }
+    sitemap.append("</urlset>\n");
+    FileUtils.writeStringToFile(file, sitemap.toString(),
+        StandardCharsets.UTF_8);
+    file.setLastModified(lastModified);
+  }
+
+  private void runSitemapProcessor() throws Exception {
+    SitemapProcessor processor = new SitemapProcessor();
+    processor.setConf(conf);
+    processor.sitemap(crawlDb, null, sitemapUrls, sitemapDb, false, false,
+        true, 1);
+  }
+
+  private Set<String> readCrawlDb() throws IOException {
+    Set<String> urls = new HashSet<>();
+    MapFile.Reader[] readers = MapFileOutputFormat
+        .getReaders(new Path(crawlDb, SitemapProcessor.CURRENT_NAME), conf);
+    for (MapFile.Reader reader : readers) {
+      Text key = new Text();
+      CrawlDatum value = new CrawlDatum();
+      while (reader.next(key, value)) {
+        urls.add(key.toString());
+      }
+      reader.close();
+    }
+    return urls;
+  }
+
+  @Test
+  public void testIncrementalSitemapProcessing() throws Exception {
+    long time = System.currentTimeMillis() - 100000L;
+    writeSitemap(time, "http://example.com/a 2024-01-01",
+        "http://example.com/b 2024-01-01", "http://example.com/c 2024-01-01");
+    runSitemapProcessor();
+    Assert.assertEquals(3, readCrawlDb().size());
+    Assert.assertTrue(fs.exists(new Path(sitemapDb,
+        SitemapProcessor.CURRENT_NAME)));
+    // the sitemap states are not part of the CrawlDb
+    Assert.assertFalse(fs.exists(new Path(new Path(crawlDb,
+        SitemapProcessor.CURRENT_NAME), SitemapProcessor.SITEMAP_DB_OUTPUT)));
+
+    // unchanged sitemap: nothing is emitted, an empty CrawlDb stays empty
+    fs.delete(crawlDb, true);
+    runSitemapProcessor();
+    Assert.assertEquals(0, readCrawlDb().size());
+
+    // same content but modified file: skipped because of the content hash
+    writeSitemap(time + 10000L, "http://example.com/a 2024-01-01",
+        "http://example.com/b 2024-01-01", "http://example.com/c 2024-01-01");
+    runSitemapProcessor();
+    Assert.assertEquals(0, readCrawlDb().size());
+
+    // one entry changed and one added: only those are emitted
+    writeSitemap(time + 20000L, "http://example.com/a 2024-01-01",
+        "http://example.com/b 2024-02-01", "http://example.com/c 2024-01-01",
+        "http://example.com/d 2024-02-01");
+    runSitemapProcessor();
+    Set<String> urls = readCrawlDb();
+    Assert.assertEquals(2, urls.size());
+    Assert.assertTrue(urls.contains("http://example.com/b"));
+    Assert.assertTrue(urls.contains("http://example.com/d"));
+
+    // without state store all entries are emitted
+    fs.delete(crawlDb, true);
+    SitemapProcessor processor = new SitemapProcessor();
+    processor.setConf(conf);
+    processor.sitemap(crawlDb, null, sitemapUrls, false, false, true, 1);
+    Assert.assertEquals(4, readCrawlDb().size());
+  }
+
+  @Test
+  public void testMoreReducersThanSitemaps() throws Exception {
+    int numReducers = 8;
+    conf.setInt("mapreduce.job.reduces", numReducers);
+    long time = System.currentTimeMillis() - 100000L;
+    StringBuilder urls = new StringBuilder();
+    for (int i = 0; i < 3; i++) {
+      File file = new File(testDir, "sitemap" + i + ".xml");
+      writeSitemap(file, time, "http://example" + i + ".com/a 2024-01-01",
+          "http://example" + i + ".com/b 2024-01-01");
+      urls.append(file.toURI().toString()).append('\n');
+    }
+    FileUtils.writeStringToFile(new File(sitemapUrls.toString(), "urls.txt"),
+        urls.toString(), StandardCharsets.UTF_8);
+    runSitemapProcessor();
+    Assert.assertEquals(6, readCrawlDb().size());
+    // parts of the state store are only written by reducers holding states
+    MapFile.Reader[] readers = MapFileOutputFormat.getReaders(
+        new Path(sitemapDb, SitemapProcessor.CURRENT_NAME), conf);
+    for (MapFile.Reader reader : readers) {
+      reader.close();
+    }
+    Assert.assertTrue(readers.length < numReducers);
+
+    // all states are found: unchanged sitemaps emit nothing
+    fs.delete(crawlDb, true);
+    runSitemapProcessor();
+    Assert.assertEquals(0, readCrawlDb().size());
+  }
+
+  @Test
+  public void testStreamingSitemapProcessing() throws Exception {
+    conf.setBoolean(SitemapProcessor.SITEMAP_STREAMING, true);
+    long time = System.currentTimeMillis() - 100000L;
+    writeSitemap(time, "http://example.com/a 2024-01-01",
+        "http://example.com/b 2024-01-01", "http://example.com/c 2024-01-01");
+    runSitemapProcessor();
+    Assert.assertEquals(3, readCrawlDb().size());
+
+    // entries are tracked in the state store as with the default parser
+    writeSitemap(time + 10000L, "http://example.com/a 2024-01-01",
+        "http://example.com/b 2024-02-01", "http://example.com/c 2024-01-01");
+    fs.delete(crawlDb, true);
+    runSitemapProcessor();
+    Set<String> urls = readCrawlDb();
+    Assert.assertEquals(1, urls.size());
+    Assert.assertTrue(urls.contains("http://example.com/b"));
+
+    // only the first URLs of a sitemap are taken
+    conf.setInt(SitemapProcessor.SITEMAP_URLS_MAX, 2);
+    fs.delete(crawlDb, true);
+    SitemapProcessor processor = new SitemapProcessor();
+    processor.setConf(conf);
+    processor.sitemap(crawlDb, null, sitemapUrls, false, false, true, 1);
+    urls = readCrawlDb();
+    Assert.assertEquals(2, urls.size());
+    Assert.assertFalse(urls.contains("http://example.com/c"));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import crawlercommons.sitemaps.AbstractSiteMap;
+import crawlercommons.sitemaps.SiteMap;
+import crawlercommons.sitemaps.SiteMapIndex;
+import crawlercommons.sitemaps.SiteMapParser;
+import crawlercommons.sitemaps.SiteMapURL;
+
+/**
+ * Checks that the streaming sitemap parser returns the same entries as the
+ * crawler-commons sitemap parser.
+ */
+public class TestSitemapStreamParser {
+
+  private static final String SITEMAP = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"\n"
+      + "  xmlns:image=\"http://www.google.com/schemas/sitemap-image/1.1\">\n"
+      + "<url><loc>http://example.com/a</loc>"
+      + "<lastmod>2024-01-01</lastmod><changefreq>daily</changefreq>"
+      + "<priority>0.8</priority></url>\n"
+      + "<url><loc> http://example.com/b?x=1&amp;y=2 </loc></url>\n"
+      + "<url><loc><![CDATA[http://example.com/c]]></loc>"
+      + "<lastmod>2024-02-03T10:20:30+00:00</lastmod></url>\n"
+      + "<url><loc>http://other.example.org/d</loc></url>\n"
+      + "<url><loc>not a url</loc></url>\n"
+      + "</urlset>\n";
+
+  private static final String INDEX = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n"
+      + "<sitemap><loc>http://example.com/sitemap1.xml</loc>"
+      + "<lastmod>2024-01-01</lastmod></sitemap>\n"
+      + "<sitemap><loc>http://example.com/sitemap2.xml</loc></sitemap>\n"
+      + "</sitemapindex>\n";
+
+  private static final String TEXT = "http://example.com/a\n\n"
+      + "  http://example.com/b  \nhttp://other.example.org/c\n";
+
+  private static class CollectingHandler
+      implements SitemapStreamParser.Handler {
+    private List<SiteMapURL> urls = new ArrayList<>();
+    private List<String> sitemaps = new ArrayList<>();
+    private int maxUrls = Integer.MAX_VALUE;
+
+    @Override
+    public boolean url(SiteMapURL url) {
+      urls.add(url);
+      return urls.size() < maxUrls;
+    }
+
+    @Override
+    public void sitemap(String url) {
+      sitemaps.add(url);
+    }
+  }
+
+  private static void assertSameUrls(List<SiteMapURL> expected,
+      List<SiteMapURL> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      SiteMapURL e = expected.get(i);
+      SiteMapURL a = actual.get(i);
+      Assert.assertEquals(e.getUrl(), a.getUrl());
+      Assert.assertEquals(e.getLastModified(), a.getLastModified());
+      Assert.assertEquals(e.getChangeFrequency(), a.getChangeFrequency());
+      Assert.assertEquals(e.getPriority(), a.getPriority(), 0.0001);
+      Assert.assertEquals(e.isValid(), a.isValid());
+    }
+  }
+
+  private static byte[] gzip(byte[] content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(content);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void checkSitemap(String contentType, byte[] content)
+      throws Exception {
+    URL url = new URL("http://example.com/sitemap.xml");
+    SiteMap expected = (SiteMap) new SiteMapParser(false)
+        .parseSiteMap(contentType, content, url);
+    CollectingHandler handler = new CollectingHandler();
+    Assert.assertEquals(SitemapStreamParser.Format.URLSET,
+        new SitemapStreamParser().parse(contentType, content, url, handler));
+    assertSameUrls(new ArrayList<>(expected.getSiteMapUrls()), handler.urls);
+  }
+
+  @Test
+  public void testSitemap() throws Exception {
+    byte[] content = SITEMAP.getBytes(StandardCharsets.UTF_8);
+    checkSitemap("application/xml", content);
+    checkSitemap("application/gzip", gzip(content));
+  }
+
+  @Test
+  public void testExtensionsIgnored() throws Exception {
+    URL url = new URL("http://example.com/sitemap.xml");
+    String sitemap = SITEMAP.replace("</urlset>",
+        "<url><loc>http://example.com/e</loc><image:image>"
+            + "<image:loc>http://example.com/e.png</image:loc>"
+            + "</image:image></url>\n</urlset>");
+    CollectingHandler handler = new CollectingHandler();
+    new SitemapStreamParser().parse("application/xml",
+        sitemap.getBytes(StandardCharsets.UTF_8), url, handler);
+    Assert.assertEquals(5, handler.urls.size());
+    Assert.assertEquals("http://example.com/e",
+        handler.urls.get(4).getUrl().toString());
+  }
+
+  @Test
+  public void testTextSitemap() throws Exception {
+    checkSitemap("text/plain", TEXT.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testSitemapIndex() throws Exception {
+    URL url = new URL("http://example.com/sitemap.xml");
+    byte[] content = INDEX.getBytes(StandardCharsets.UTF_8);
+    SiteMapIndex expected = (SiteMapIndex) new SiteMapParser(false)
+        .parseSiteMap("application/xml", content, url);
+    CollectingHandler handler = new CollectingHandler();
+    Assert.assertEquals(SitemapStreamParser.Format.INDEX,
+        new SitemapStreamParser().parse("application/xml", content, url,
+            handler));
+    List<String> expectedSitemaps = new ArrayList<>();
+    for (AbstractSiteMap sitemap : expected.getSitemaps()) {
+      expectedSitemaps.add(sitemap.getUrl().toString());
+    }
+    Assert.assertEquals(expectedSitemaps, handler.sitemaps);
+    Assert.assertTrue(handler.urls.isEmpty());
+  }
+
+  @Test
+  public void testStopAndTruncated() throws Exception {
+    URL url = new URL("http://example.com/sitemap.xml");
+    CollectingHandler handler = new CollectingHandler();
+    handler.maxUrls = 2;
+    new SitemapStreamParser().parse("application/xml",
+        SITEMAP.getBytes(StandardCharsets.UTF_8), url, handler);
+    Assert.assertEquals(2, handler.urls.size());
+
+    // entries parsed before the end of a truncated sitemap are kept
+    handler = new CollectingHandler();
+    String truncated = SITEMAP.substring(0, SITEMAP.indexOf("<url><loc>http://other"));
+    truncated += "<url><loc>http://exa";
+    Assert.assertEquals(SitemapStreamParser.Format.URLSET,
+        new SitemapStreamParser().parse("application/xml",
+            truncated.getBytes(StandardCharsets.UTF_8), url, handler));
+    Assert.assertEquals(3, handler.urls.size());
+  }
+
+  @Test
+  public void testUnsupported() throws Exception {
+    URL url = new URL("http://example.com/feed.xml");
+    String rss = "<?xml version=\"1.0\"?><rss version=\"2.0\"><channel>"
+        + "<item><link>http://example.com/a</link></item></channel></rss>";
+    CollectingHandler handler = new CollectingHandler();
+    Assert.assertEquals(SitemapStreamParser.Format.UNSUPPORTED,
+        new SitemapStreamParser().parse("application/rss+xml",
+            rss.getBytes(StandardCharsets.UTF_8), url, handler));
+    Assert.assertTrue(handler.urls.isEmpty());
+  }
+}
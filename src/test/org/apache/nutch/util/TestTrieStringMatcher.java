@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tests the double-array trie of {@link TrieStringMatcher} with larger
+ * alphabets and pattern sets, and compares memory and lookup throughput with
+ * the former trie made of one object per character node.
+ */
+public class TestTrieStringMatcher {
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final char[] ALPHABET = { 'a', 'b', 'c', '/', '.', 'z', '0',
+      'ä', 'ß', '中', '\ud83d', '\ude00', '￿' };
+
+  private static String randomString(Random random, int maxLen) {
+    char[] chars = new char[random.nextInt(maxLen + 1)];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+    }
+    return new String(chars);
+  }
+
+  private static void assertMatches(List<String> patterns,
+      TrieStringMatcher prefixMatcher, TrieStringMatcher suffixMatcher,
+      String input) {
+    String shortestPrefix = null, longestPrefix = null;
+    String shortestSuffix = null, longestSuffix = null;
+    for (String p : patterns) {
+      if (p.isEmpty()) {
+        continue;
+      }
+      if (input.startsWith(p)) {
+        if (shortestPrefix == null || p.length() < shortestPrefix.length())
+          shortestPrefix = p;
+        if (longestPrefix == null || p.length() > longestPrefix.length())
+          longestPrefix = p;
+      }
+      if (input.endsWith(p)) {
+        if (shortestSuffix == null || p.length() < shortestSuffix.length())
+          shortestSuffix = p;
+        if (longestSuffix == null || p.length() > longestSuffix.length())
+          longestSuffix = p;
+      }
+    }
+    Assert.assertEquals(input, shortestPrefix != null,
+        prefixMatcher.matches(input));
+    Assert.assertEquals(input, shortestPrefix,
+        prefixMatcher.shortestMatch(input));
+    Assert.assertEquals(input, longestPrefix, prefixMatcher.longestMatch(input));
+    Assert.assertEquals(input, shortestSuffix != null,
+        suffixMatcher.matches(input));
+    Assert.assertEquals(input, shortestSuffix,
+        suffixMatcher.shortestMatch(input));
+    Assert.assertEquals(input, longestSuffix, suffixMatcher.longestMatch(input));
+  }
+
+  @Test
+  public void testLargeAlphabet() {
+    Random random = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      List<String> patterns = new ArrayList<>();
+      int numPatterns = random.nextInt(200);
+      for (int i = 0; i < numPatterns; i++) {
+        patterns.add(randomString(random, 6));
+      }
+      PrefixStringMatcher prefixMatcher = new PrefixStringMatcher(patterns);
+      SuffixStringMatcher suffixMatcher = new SuffixStringMatcher(patterns);
+      for (int i = 0; i < 200; i++) {
+        assertMatches(patterns, prefixMatcher, suffixMatcher,
+            randomString(random, 10));
+      }
+      // characters not contained in any pattern
+      assertMatches(patterns, prefixMatcher, suffixMatcher, "xyzĀ");
+    }
+  }
+
+  @Test
+  public void testAddPatternAfterMatching() {
+    PrefixStringMatcher matcher = new PrefixStringMatcher(
+        new String[] { "http://", "ftp://" });
+    Assert.assertTrue(matcher.matches("http://example.org/"));
+    Assert.assertFalse(matcher.matches("https://example.org/"));
+    matcher.addPatternForward("https://");
+    matcher.addPatternForward("");
+    Assert.assertTrue(matcher.matches("https://example.org/"));
+    Assert.assertTrue(matcher.matches("ftp://example.org/"));
+    Assert.assertEquals("http://", matcher.longestMatch("http://example.org/"));
+    Assert.assertFalse(matcher.matches("file:///tmp/"));
+
+    SuffixStringMatcher suffixMatcher = new SuffixStringMatcher(
+        new String[] { ".gif", ".jpg" });
+    Assert.assertTrue(suffixMatcher.matches("/a.gif"));
+    suffixMatcher.addPatternBackward(".png");
+    Assert.assertTrue(suffixMatcher.matches("/a.png"));
+    Assert.assertTrue(suffixMatcher.matches("/a.jpg"));
+    Assert.assertFalse(suffixMatcher.matches("/a.css"));
+  }
+
+  @Test
+  public void testEmpty() {
+    PrefixStringMatcher matcher = new PrefixStringMatcher(new String[0]);
+    Assert.assertFalse(matcher.matches("http://example.org/"));
+    Assert.assertNull(matcher.shortestMatch(""));
+    matcher = new PrefixStringMatcher(new String[] { "" });
+    Assert.assertFalse(matcher.matches("http://example.org/"));
+  }
+
+  /* the former trie of TrieStringMatcher, one object per node */
+  private static class Node implements Comparable<Node> {
+    private Node[] children;
+    private LinkedList<Node> childrenList = new LinkedList<>();
+    private final char nodeChar;
+    private boolean terminal;
+
+    private Node(char nodeChar, boolean terminal) {
+      this.nodeChar = nodeChar;
+      this.terminal = terminal;
+    }
+
+    private Node getChildAddIfNotPresent(char nextChar, boolean isTerminal) {
+      ListIterator<Node> iter = childrenList.listIterator();
+      while (iter.hasNext()) {
+        Node node = iter.next();
+        if (node.nodeChar == nextChar) {
+          node.terminal |= isTerminal;
+          return node;
+        }
+        if (node.nodeChar > nextChar) {
+          iter.previous();
+          break;
+        }
+      }
+      Node newNode = new Node(nextChar, isTerminal);
+      iter.add(newNode);
+      return newNode;
+    }
+
+    private void compile() {
+      children = childrenList.toArray(new Node[childrenList.size()]);
+      childrenList = null;
+      for (Node child : children) {
+        child.compile();
+      }
+    }
+
+    private Node getChild(char nextChar) {
+      int min = 0;
+      int max = children.length - 1;
+      while (min <= max) {
+        int mid = (min + max) >>> 1;
+        char c = children[mid].nodeChar;
+        if (c == nextChar)
+          return children[mid];
+        if (c < nextChar)
+          min = mid + 1;
+        else
+          max = mid - 1;
+      }
+      return null;
+    }
+
+    @Override
+    public int compareTo(Node other) {
+      return Character.compare(nodeChar, other.nodeChar);
+    }
+  }
+
+  private static Node nodeTrie(List<String> prefixes) {
+    Node root = new Node('\000', false);
+    for (String s : prefixes) {
+      Node node = root;
+      for (int i = 0; i < s.length(); i++) {
+        node = node.getChildAddIfNotPresent(s.charAt(i), i == s.length() - 1);
+      }
+    }
+    root.compile();
+    return root;
+  }
+
+  private static boolean nodeTrieMatches(Node root, String input) {
+    Node node = root;
+    for (int i = 0; i < input.length(); i++) {
+      node = node.getChild(input.charAt(i));
+      if (node == null)
+        return false;
+      if (node.terminal)
+        return true;
+    }
+    return false;
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Ignore("Only for benchmarking")
+  @Test
+  public void testThroughput() {
+    Random random = new Random(1);
+    String[] tlds = { "com", "org", "net", "de", "fr", "co.uk", "info" };
+    String[] paths = { "", "/", "/news/", "/blog/2024/", "/shop/cart?id=",
+        "/wiki/", "/images/" };
+    List<String> prefixes = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      prefixes.add((random.nextInt(4) == 0 ? "https://" : "http://")
+          + (random.nextBoolean() ? "www." : "") + "host"
+          + Integer.toString(random.nextInt(1000000), 36) + "."
+          + tlds[random.nextInt(tlds.length)]
+          + paths[random.nextInt(paths.length)]);
+    }
+    List<String> inputs = new ArrayList<>();
+    for (int i = 0; i < 200000; i++) {
+      String url = (i % 2 == 0) ? prefixes.get(random.nextInt(prefixes.size()))
+          : "http://www.host" + Integer.toString(random.nextInt(1000000), 36)
+              + ".com/";
+      inputs.add(url + "page" + i + ".html");
+    }
+
+    long memory = usedMemory();
+    long start = System.nanoTime();
+    Node nodeTrie = nodeTrie(prefixes);
+    long nodeBuildTime = System.nanoTime() - start;
+    long nodeMemory = usedMemory() - memory;
+
+    memory = usedMemory();
+    start = System.nanoTime();
+    PrefixStringMatcher matcher = new PrefixStringMatcher(prefixes);
+    matcher.getTrie();
+    long buildTime = System.nanoTime() - start;
+    long arrayMemory = usedMemory() - memory;
+
+    // warm up
+    int expected = 0, actual = 0;
+    for (String input : inputs) {
+      if (nodeTrieMatches(nodeTrie, input))
+        expected++;
+      if (matcher.matches(input))
+        actual++;
+    }
+    Assert.assertEquals(expected, actual);
+
+    int rounds = 10;
+    start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      for (String input : inputs) {
+        if (nodeTrieMatches(nodeTrie, input))
+          expected++;
+      }
+    }
+    long nodeTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int r = 0; r < rounds; r++) {
+      for (String input : inputs) {
+        if (matcher.matches(input))
+          actual++;
+      }
+    }
+    long arrayTime = System.nanoTime() - start;
+    Assert.assertEquals(expected, actual);
+
+    LOG.info("{} prefixes: node trie {} kB (built in {} ms),"
+        + " double-array trie {} kB, {} slots, arrays {} kB (built in {} ms)",
+        prefixes.size(), nodeMemory / 1024, nodeBuildTime / 1000000,
+        arrayMemory / 1024, matcher.getTrie().size(),
+        matcher.getTrie().sizeInBytes() / 1024, buildTime / 1000000);
+    LOG.info("Matched {} URLs: node trie {} ms, double-array trie {} ms",
+        rounds * inputs.size(), nodeTime / 1000000, arrayTime / 1000000);
+    // keep the node trie reachable until memory is measured
+    Assert.assertTrue(Arrays.asList(nodeTrie.children).size() > 0);
+  }
+}